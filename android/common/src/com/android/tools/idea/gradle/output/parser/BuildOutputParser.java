@@ -35,6 +35,62 @@ public class BuildOutputParser {
     new JavacOutputParser(), new MergingExceptionParser()
   };
 
+  /**
+   * Cheap conditions a line must meet for the parser at the same index in {@link #PARSERS} to recognize it, such that most lines are
+   * only handed to the few parsers that may recognize them. Keep these in sync with the parsers: a condition may accept lines the parser
+   * does not recognize, but must never reject a line the parser would recognize.
+   */
+  private static final LineFilter[] PARSER_FILTERS = {
+    // type|path|message
+    new LineFilter() {
+      @Override
+      boolean accepts(@NotNull String line) {
+        return line.indexOf('|') >= 0;
+      }
+    },
+    LineFilter.ANY, // Gradle
+    LineFilter.ANY, // aapt
+    new LineFilter() {
+      @Override
+      boolean accepts(@NotNull String line) {
+        return line.startsWith("[Fatal Error] :") || line.startsWith("Failed to parse ");
+      }
+    },
+    new LineFilter() {
+      @Override
+      boolean accepts(@NotNull String line) {
+        return line.startsWith("* Where:") || line.startsWith("FAILURE: Build failed with an exception");
+      }
+    },
+    // [path:line] message, or path:line:column kind:
+    new LineFilter() {
+      @Override
+      boolean accepts(@NotNull String line) {
+        return line.indexOf(':') >= 0;
+      }
+    },
+    new LineFilter() {
+      @Override
+      boolean accepts(@NotNull String line) {
+        return line.equals("UNEXPECTED TOP-LEVEL EXCEPTION:");
+      }
+    },
+    // javac messages all start with a path or a kind, followed by a colon
+    new LineFilter() {
+      @Override
+      boolean accepts(@NotNull String line) {
+        return line.indexOf(':') >= 0 || line.endsWith("java.lang.OutOfMemoryError");
+      }
+    },
+    new LineFilter() {
+      @Override
+      boolean accepts(@NotNull String line) {
+        //noinspection SpellCheckingInspection
+        return line.contains("rror: ") || line.contains("arning: ");
+      }
+    }
+  };
+
   /**
    * Parses the given Gradle output and creates the messages to be displayed in the "Messages" tool window.
    *
@@ -53,29 +109,44 @@ public class BuildOutputParser {
     List<GradleMessage> messages = Lists.newArrayList();
     String line;
     while ((line = outputReader.readLine()) != null) {
-      if (line.isEmpty()) {
-        continue;
+      try {
+        parseLine(line, outputReader, messages);
       }
-      boolean handled = false;
-      for (PatternAwareOutputParser parser : PARSERS) {
-        try {
-          if (parser.parse(line, outputReader, messages)) {
-            handled = true;
-            break;
-          }
-        }
-        catch (ParsingFailedException e) {
-          return Collections.emptyList();
-        }
-      }
-      if (!handled) {
-        // If none of the standard parsers recognize the input, include it as info such
-        // that users don't miss potentially vital output such as gradle plugin exceptions.
-        // If there is predictable useless input we don't want to appear here, add a custom
-        // parser to digest it.
-        messages.add(new GradleMessage(GradleMessage.Kind.SIMPLE, line));
+      catch (ParsingFailedException e) {
+        return Collections.emptyList();
       }
     }
     return messages;
   }
+
+  /**
+   * Parses the given line, which has just been read from the given reader, and any following lines belonging to the same message.
+   */
+  static void parseLine(@NotNull String line, @NotNull OutputLineReader reader, @NotNull List<GradleMessage> messages)
+    throws ParsingFailedException {
+    if (line.isEmpty()) {
+      return;
+    }
+    for (int i = 0; i < PARSERS.length; i++) {
+      if (PARSER_FILTERS[i].accepts(line) && PARSERS[i].parse(line, reader, messages)) {
+        return;
+      }
+    }
+    // If none of the standard parsers recognize the input, include it as info such
+    // that users don't miss potentially vital output such as gradle plugin exceptions.
+    // If there is predictable useless input we don't want to appear here, add a custom
+    // parser to digest it.
+    messages.add(new GradleMessage(GradleMessage.Kind.SIMPLE, line));
+  }
+
+  private abstract static class LineFilter {
+    static final LineFilter ANY = new LineFilter() {
+      @Override
+      boolean accepts(@NotNull String line) {
+        return true;
+      }
+    };
+
+    abstract boolean accepts(@NotNull String line);
+  }
 }
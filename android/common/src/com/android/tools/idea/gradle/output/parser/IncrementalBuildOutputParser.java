@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.gradle.output.parser;
+
+import com.android.tools.idea.gradle.output.GradleMessage;
+import com.google.common.collect.Lists;
+import com.intellij.util.Consumer;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Parses Gradle's build output while the build is running, and hands the messages to be displayed in the "Messages" tool window to a
+ * consumer as soon as they are recognized.
+ * <p>
+ * The output is parsed exactly as {@link BuildOutputParser#parseGradleOutput(String)} parses the complete output: when a parser needs
+ * to look at lines that have not been received yet, its attempt is discarded and repeated once more output is available.
+ * The only difference is in error handling: {@link BuildOutputParser#parseGradleOutput(String)} returns no messages at all if parsing
+ * fails, whereas this parser stops at the point of failure, keeping the messages already reported.
+ * <p>
+ * Output may be added from several threads; messages are reported on the thread adding the output.
+ */
+public class IncrementalBuildOutputParser {
+  @NotNull private final Consumer<GradleMessage> myConsumer;
+  @NotNull private final OutputLineReader myReader = new OutputLineReader();
+  @NotNull private final StringBuilder myPartialLine = new StringBuilder();
+
+  /** All the messages reported so far, followed by the ones created by the current parse attempt; parsers look at earlier messages */
+  @NotNull private final List<GradleMessage> myMessages = Lists.newArrayList();
+
+  private boolean myFailed;
+  private boolean myFinished;
+
+  public IncrementalBuildOutputParser(@NotNull Consumer<GradleMessage> consumer) {
+    myConsumer = consumer;
+  }
+
+  /**
+   * Adds a chunk of output, which does not have to end at a line break, and reports the messages that can be recognized so far.
+   */
+  public synchronized void append(@NotNull CharSequence text) {
+    if (myFinished) {
+      return;
+    }
+    int length = text.length();
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c == '\n') {
+        int end = myPartialLine.length();
+        if (end > 0 && myPartialLine.charAt(end - 1) == '\r') {
+          end--;
+        }
+        myReader.addLine(myPartialLine.substring(0, end));
+        myPartialLine.setLength(0);
+      }
+      else {
+        myPartialLine.append(c);
+      }
+    }
+    parseAvailableLines();
+  }
+
+  /**
+   * Marks the end of the output, and reports the remaining messages.
+   */
+  public synchronized void finish() {
+    if (myFinished) {
+      return;
+    }
+    if (myPartialLine.length() > 0) {
+      myReader.addLine(myPartialLine.toString());
+      myPartialLine.setLength(0);
+    }
+    myReader.setEndOfOutput();
+    parseAvailableLines();
+    myFinished = true;
+  }
+
+  /**
+   * Returns true if parsing stopped because of malformed output.
+   */
+  public synchronized boolean isFailed() {
+    return myFailed;
+  }
+
+  private void parseAvailableLines() {
+    while (!myFailed) {
+      int position = myReader.getPosition();
+      int messageCount = myMessages.size();
+      String line = myReader.readLine();
+      if (line == null) {
+        myReader.setPosition(position);
+        return;
+      }
+      try {
+        BuildOutputParser.parseLine(line, myReader, myMessages);
+      }
+      catch (ParsingFailedException e) {
+        if (!myReader.needsMoreOutput()) {
+          myFailed = true;
+        }
+      }
+      if (myReader.needsMoreOutput()) {
+        // The parser wanted lines that have not been received yet: undo this attempt, and try again when they are available
+        myMessages.subList(messageCount, myMessages.size()).clear();
+        myReader.setPosition(position);
+        return;
+      }
+      if (myFailed) {
+        return;
+      }
+      for (int i = messageCount; i < myMessages.size(); i++) {
+        myConsumer.consume(myMessages.get(i));
+      }
+      myReader.discardReadLines();
+    }
+  }
+}
@@ -15,30 +15,50 @@
  */
 package com.android.tools.idea.gradle.output.parser;
 
+import com.google.common.collect.Lists;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.List;
 import java.util.regex.Pattern;
 
 /**
  * Reads a compiler's output line-by-line.
+ * <p>
+ * The reader may also be filled incrementally, as output becomes available (see {@link IncrementalBuildOutputParser}.) Until
+ * {@link #setEndOfOutput() the end of the output} is known, the reader only exposes lines followed by a non-empty line (as splitting
+ * the complete text drops trailing empty lines) and records whether a parser tried to look beyond them, in which case the parser has
+ * to be run again once more output is available.
  */
 public class OutputLineReader {
   private static final Pattern LINE_BREAK = Pattern.compile("\\r?\\n");
 
-  @NotNull private final String[] myLines;
+  /** The lines not discarded yet; {@code myLines.get(0)} is line number {@code myFirstLine} */
+  @NotNull private final List<String> myLines;
+  private int myFirstLine;
 
-  private final int myLineCount;
+  private int myLineCount;
   private int myPosition;
 
+  private boolean myEndOfOutput;
+  private boolean myEndReached;
+
   /**
    * Creates a new {@link OutputLineReader}.
    *
    * @param text the text to read.
    */
   OutputLineReader(@NotNull String text) {
-    myLines = LINE_BREAK.split(text);
-    myLineCount = myLines.length;
+    myLines = Lists.newArrayList(LINE_BREAK.split(text));
+    myLineCount = myLines.size();
+    myEndOfOutput = true;
+  }
+
+  /**
+   * Creates a new, empty {@link OutputLineReader}, to be filled with {@link #addLine(String)}.
+   */
+  OutputLineReader() {
+    myLines = Lists.newArrayList();
   }
 
   public int getLineCount() {
@@ -53,8 +73,9 @@ public class OutputLineReader {
   @Nullable
   public String readLine() {
     if (myPosition >= 0 && myPosition < myLineCount) {
-      return myLines[myPosition++];
+      return getLine(myPosition++);
     }
+    myEndReached = true;
     return null;
   }
 
@@ -68,13 +89,18 @@ public class OutputLineReader {
   public String peek(int lineToSkipCount) {
     int tempPosition = lineToSkipCount + myPosition;
     if (tempPosition >= 0 && tempPosition < myLineCount) {
-      return myLines[tempPosition];
+      return getLine(tempPosition);
     }
+    myEndReached = true;
     return null;
   }
 
   public boolean hasNextLine() {
-    return myPosition < myLineCount - 1;
+    if (myPosition < myLineCount - 1) {
+      return true;
+    }
+    myEndReached = true;
+    return false;
   }
 
   public void skipNextLine() {
@@ -84,4 +110,50 @@ public class OutputLineReader {
   public void pushBack(@NotNull String text) {
     myPosition--;
   }
+
+  @NotNull
+  private String getLine(int lineNumber) {
+    return myLines.get(lineNumber - myFirstLine);
+  }
+
+  /** Appends a line of output */
+  void addLine(@NotNull String line) {
+    myLines.add(line);
+    if (!line.isEmpty()) {
+      // Trailing empty lines only become visible once they are followed by a non-empty one
+      myLineCount = myFirstLine + myLines.size();
+    }
+  }
+
+  /** Marks that all the output has been added */
+  void setEndOfOutput() {
+    myEndOfOutput = true;
+  }
+
+  /**
+   * Returns true if the line pointer has passed the lines available so far, or a parser tried to look beyond them, before the end of
+   * the output is known; parsing has to be retried from the last committed position once more lines are available.
+   */
+  boolean needsMoreOutput() {
+    return myEndReached && !myEndOfOutput;
+  }
+
+  int getPosition() {
+    return myPosition;
+  }
+
+  /** Moves the line pointer, and clears the flag returned by {@link #needsMoreOutput()} */
+  void setPosition(int position) {
+    myPosition = position;
+    myEndReached = false;
+  }
+
+  /** Drops the lines before the line pointer, which will not be read again */
+  void discardReadLines() {
+    int count = Math.min(myPosition, myFirstLine + myLines.size()) - myFirstLine;
+    if (count > 0) {
+      myLines.subList(0, count).clear();
+      myFirstLine += count;
+    }
+  }
 }
@@ -18,7 +18,6 @@ package org.jetbrains.android.compiler.tools;
 import com.android.SdkConstants;
 import com.android.jarutils.DebugKeyProvider;
 import com.android.jarutils.JavaResourceFilter;
-import com.android.jarutils.SignedJarBuilder;
 import com.android.prefs.AndroidLocation;
 import com.android.sdklib.IAndroidTarget;
 import com.intellij.openapi.diagnostic.Logger;
@@ -37,7 +36,6 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.security.*;
 import java.security.cert.CertificateException;
@@ -226,8 +224,7 @@ public class AndroidApkBuilder {
     result.put(INFORMATION, new ArrayList<String>());
     result.put(WARNING, new ArrayList<String>());
 
-    FileOutputStream fos = null;
-    SignedJarBuilder builder = null;
+    IncrementalSignedJarBuilder builder = null;
     try {
 
       String keyStoreOsPath = customKeystorePath != null && customKeystorePath.length() > 0
@@ -283,17 +280,9 @@ public class AndroidApkBuilder {
         return result;
       }
 
-      fos = new FileOutputStream(outputApk);
-      builder = new SafeSignedJarBuilder(fos, key, certificate, outputApk);
-
-      FileInputStream fis = new FileInputStream(apkPath);
-      try {
-        builder.writeZip(fis, null);
-      }
-      finally {
-        fis.close();
-      }
-
+      // entries whose content has not changed since the previous build are copied from the previous APK
+      builder = new IncrementalSignedJarBuilder(new File(outputApk), key, certificate);
+      builder.writeZip(new File(apkPath), null);
       builder.writeFile(dexEntryFile, AndroidCommonUtils.CLASSES_FILE_NAME);
 
       final HashSet<String> added = new HashSet<String>();
@@ -317,13 +306,7 @@ public class AndroidApkBuilder {
       MyResourceFilter filter = new MyResourceFilter(duplicates);
 
       for (String externalJar : externalJars) {
-        fis = new FileInputStream(externalJar);
-        try {
-          builder.writeZip(fis, filter);
-        }
-        finally {
-          fis.close();
-        }
+        builder.writeZip(new File(externalJar), filter);
       }
 
       final HashSet<String> nativeLibs = new HashSet<String>();
@@ -337,6 +320,11 @@ public class AndroidApkBuilder {
           }
         }
       }
+      builder.close();
+
+      final List<String> rewrittenEntries = builder.getRewrittenEntries();
+      LOG.info(outputApk + ": " + rewrittenEntries.size() + " of " + builder.getEntryCount() + " entries rewritten " + rewrittenEntries);
+      builder = null;
     }
     catch (IOException e) {
       return addExceptionMessage(e, result);
@@ -364,23 +352,7 @@ public class AndroidApkBuilder {
     }
     finally {
       if (builder != null) {
-        try {
-          builder.close();
-        }
-        catch (IOException e) {
-          addExceptionMessage(e, result);
-        }
-        catch (GeneralSecurityException e) {
-          addExceptionMessage(e, result);
-        }
-      }
-
-      if (fos != null) {
-        try {
-          fos.close();
-        }
-        catch (IOException ignored) {
-        }
+        builder.abort();
       }
     }
     return result;
@@ -406,7 +378,7 @@ public class AndroidApkBuilder {
     });
   }
 
-  private static void writeNativeLibraries(SignedJarBuilder builder,
+  private static void writeNativeLibraries(IncrementalSignedJarBuilder builder,
                                            File nativeLibsFolder,
                                            File child,
                                            boolean debugBuild,
@@ -480,7 +452,7 @@ public class AndroidApkBuilder {
 
   private static void writeStandardJavaResources(Collection<File> resources,
                                                  File sourceRoot,
-                                                 SignedJarBuilder jarBuilder,
+                                                 IncrementalSignedJarBuilder jarBuilder,
                                                  Set<String> added) throws IOException {
     for (File child : resources) {
       final String relativePath = FileUtil.getRelativePath(sourceRoot, child);
@@ -0,0 +1,660 @@
+package org.jetbrains.android.util;
+
+import com.android.jarutils.SignedJarBuilder;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.Base64;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import sun.security.pkcs.ContentInfo;
+import sun.security.pkcs.PKCS7;
+import sun.security.pkcs.SignerInfo;
+import sun.security.x509.AlgorithmId;
+import sun.security.x509.X500Name;
+
+import java.io.*;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.zip.*;
+
+/**
+ * Builds a signed jar like {@link SignedJarBuilder}, but reuses the entries of the jar previously built at the same path.
+ * <p>
+ * An entry whose content is the same as in the previous jar (same CRC and size) is copied from it as is, without being
+ * compressed again, and keeps its digest from the previous manifest. Entries of added zip files are copied without being
+ * recompressed either. Only the entries with new content are compressed and digested, and only the signature files
+ * are always written again. The new jar is written to a temporary file, which replaces the previous jar on {@link #close()}.
+ */
+public class IncrementalSignedJarBuilder {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.android.util.IncrementalSignedJarBuilder");
+
+  @NonNls private static final String META_INF_PREFIX = "META-INF/";
+  @NonNls private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+  @NonNls private static final String SIGNATURE_FILE_NAME = "META-INF/CERT.SF";
+  @NonNls private static final String SIGNATURE_BLOCK_PREFIX = "META-INF/CERT.";
+  @NonNls private static final String DIGEST_ALGORITHM = "SHA1";
+  @NonNls private static final String DIGEST_ATTR = "SHA1-Digest";
+  @NonNls private static final String DIGEST_MANIFEST_ATTR = "SHA1-Digest-Manifest";
+  @NonNls private static final String CREATED_BY = "1.0 (Android)";
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xffff;
+  private static final int UTF8_FLAG = 0x800;
+
+  private final File myOutputFile;
+  private final File myTempFile;
+  private final MyCountingOutputStream myOutput;
+  private final PrivateKey myKey;
+  private final X509Certificate myCertificate;
+  private final Manifest myManifest;
+  private final MessageDigest myDigest;
+  private final byte[] myBuffer = new byte[8192];
+
+  /** Entries of the previously built jar, or an empty map if there is none */
+  private final Map<String, MyEntry> myPreviousEntries;
+  private final RandomAccessFile myPreviousFile;
+  private final Manifest myPreviousManifest;
+
+  private final List<MyEntry> myEntries = new ArrayList<MyEntry>();
+  private final Set<String> myEntryNames = new HashSet<String>();
+  private final List<String> myRewrittenEntries = new ArrayList<String>();
+
+  /**
+   * Creates a builder for the jar at the given path. The jar is signed if both the key and the certificate are specified.
+   */
+  public IncrementalSignedJarBuilder(@NotNull File outputFile, @Nullable PrivateKey key, @Nullable X509Certificate certificate)
+    throws IOException, NoSuchAlgorithmException {
+    myOutputFile = outputFile;
+    myKey = key;
+    myCertificate = certificate;
+
+    if (key != null && certificate != null) {
+      myManifest = new Manifest();
+      final Attributes mainAttributes = myManifest.getMainAttributes();
+      mainAttributes.putValue("Manifest-Version", "1.0");
+      mainAttributes.putValue("Created-By", CREATED_BY);
+      myDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+    }
+    else {
+      myManifest = null;
+      myDigest = null;
+    }
+    RandomAccessFile previousFile = null;
+    Map<String, MyEntry> previousEntries = Collections.emptyMap();
+    Manifest previousManifest = null;
+
+    if (outputFile.isFile()) {
+      try {
+        previousFile = new RandomAccessFile(outputFile, "r");
+        previousEntries = readEntries(previousFile);
+        previousManifest = myManifest != null ? readManifest(previousFile, previousEntries.get(MANIFEST_NAME)) : null;
+      }
+      catch (IOException e) {
+        LOG.info("Cannot read previously built jar " + outputFile.getPath() + ", it will be built from scratch", e);
+        if (previousFile != null) {
+          previousFile.close();
+          previousFile = null;
+        }
+        previousEntries = Collections.emptyMap();
+      }
+    }
+    myPreviousFile = previousFile;
+    myPreviousEntries = previousEntries;
+    myPreviousManifest = previousManifest;
+
+    final File dir = outputFile.getAbsoluteFile().getParentFile();
+    myTempFile = FileUtil.createTempFile(dir, outputFile.getName(), ".tmp", true, false);
+    myOutput = new MyCountingOutputStream(new BufferedOutputStream(new FileOutputStream(myTempFile)));
+  }
+
+  /**
+   * Returns the names of the entries which could not be copied from the previously built jar, in the order they were added
+   */
+  @NotNull
+  public List<String> getRewrittenEntries() {
+    return myRewrittenEntries;
+  }
+
+  /**
+   * Returns the number of entries added so far, not counting the signature files
+   */
+  public int getEntryCount() {
+    return myEntries.size();
+  }
+
+  public void writeFile(@NotNull File inputFile, @NotNull String jarPath) throws IOException {
+    if (FileUtil.filesEqual(inputFile, myOutputFile) || FileUtil.filesEqual(inputFile, myTempFile)) {
+      throw new IOException("Cannot pack file " + myOutputFile.getPath() + " into itself");
+    }
+    checkNewEntry(jarPath);
+    final long size = inputFile.length();
+    final CRC32 crc = new CRC32();
+    InputStream stream = new FileInputStream(inputFile);
+    try {
+      int read;
+      while ((read = stream.read(myBuffer)) > 0) {
+        crc.update(myBuffer, 0, read);
+      }
+    }
+    finally {
+      stream.close();
+    }
+
+    if (copyPreviousEntry(jarPath, ZipEntry.DEFLATED, crc.getValue(), size)) {
+      return;
+    }
+    final MyEntry entry = new MyEntry(jarPath, ZipEntry.DEFLATED, toDosTime(inputFile.lastModified()), crc.getValue(), size);
+    stream = new FileInputStream(inputFile);
+    try {
+      writeDeflated(entry, stream);
+    }
+    finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Adds the entries of the given zip file, except directories, the META-INF directory and the entries rejected by the filter
+   */
+  public void writeZip(@NotNull File zipFile, @Nullable SignedJarBuilder.IZipEntryFilter filter) throws IOException {
+    final RandomAccessFile file = new RandomAccessFile(zipFile, "r");
+    try {
+      for (MyEntry source : readEntries(file).values()) {
+        final String name = source.myName;
+
+        if (name.endsWith("/") || name.startsWith(META_INF_PREFIX) || (filter != null && !filter.checkEntry(name))) {
+          continue;
+        }
+        if (source.myMethod != ZipEntry.STORED && source.myMethod != ZipEntry.DEFLATED) {
+          throw new ZipException("Unsupported compression method of entry " + name + " in " + zipFile.getPath());
+        }
+        checkNewEntry(name);
+
+        if (copyPreviousEntry(name, source.myMethod, source.myCrc, source.mySize)) {
+          continue;
+        }
+        // The compressed data is the same whatever zip it is copied from; the digest needs the uncompressed content
+        final String digest = myManifest != null ? computeDigest(file, source) : null;
+        copyEntry(file, source, digest);
+        myRewrittenEntries.add(name);
+      }
+    }
+    finally {
+      file.close();
+    }
+  }
+
+  /**
+   * Writes the signature files and the central directory, and replaces the previously built jar with the new one
+   */
+  public void close() throws IOException, GeneralSecurityException {
+    boolean success = false;
+    try {
+      if (myManifest != null) {
+        writeSignatureFiles();
+      }
+      writeCentralDirectory();
+      myOutput.close();
+      closePreviousFile();
+
+      if (myOutputFile.exists() && !FileUtil.delete(myOutputFile)) {
+        throw new IOException("Cannot delete " + myOutputFile.getPath());
+      }
+      FileUtil.rename(myTempFile, myOutputFile);
+      success = true;
+    }
+    finally {
+      if (!success) {
+        abort();
+      }
+    }
+  }
+
+  /**
+   * Deletes the partially written jar, leaving the previously built one in place
+   */
+  public void abort() {
+    try {
+      myOutput.close();
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+    closePreviousFile();
+    FileUtil.delete(myTempFile);
+  }
+
+  private void closePreviousFile() {
+    if (myPreviousFile != null) {
+      try {
+        myPreviousFile.close();
+      }
+      catch (IOException e) {
+        LOG.info(e);
+      }
+    }
+  }
+
+  private void checkNewEntry(@NotNull String name) throws ZipException {
+    if (!myEntryNames.add(name)) {
+      throw new ZipException("duplicate entry: " + name);
+    }
+  }
+
+  private boolean copyPreviousEntry(@NotNull String name, int method, long crc, long size) throws IOException {
+    final MyEntry previous = myPreviousEntries.get(name);
+
+    if (previous == null || previous.myMethod != method || previous.myCrc != crc || previous.mySize != size) {
+      return false;
+    }
+    String digest = null;
+
+    if (myManifest != null) {
+      final Attributes attributes = myPreviousManifest != null ? myPreviousManifest.getAttributes(name) : null;
+      digest = attributes != null ? attributes.getValue(DIGEST_ATTR) : null;
+
+      if (digest == null) {
+        digest = computeDigest(myPreviousFile, previous);
+      }
+    }
+    copyEntry(myPreviousFile, previous, digest);
+    return true;
+  }
+
+  private void copyEntry(@NotNull RandomAccessFile file, @NotNull MyEntry source, @Nullable String digest) throws IOException {
+    final MyEntry entry = new MyEntry(source.myName, source.myMethod, source.myDosTime, source.myCrc, source.mySize);
+    entry.myCompressedSize = source.myCompressedSize;
+    writeLocalHeader(entry);
+
+    file.seek(getDataOffset(file, source));
+    long remaining = source.myCompressedSize;
+
+    while (remaining > 0) {
+      final int read = file.read(myBuffer, 0, (int)Math.min(myBuffer.length, remaining));
+      if (read < 0) {
+        throw new EOFException("Unexpected end of zip file");
+      }
+      myOutput.write(myBuffer, 0, read);
+      remaining -= read;
+    }
+    addToManifest(entry.myName, digest);
+  }
+
+  private void writeDeflated(@NotNull MyEntry entry, @NotNull InputStream content) throws IOException {
+    final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+    try {
+      final DeflaterOutputStream stream = new DeflaterOutputStream(compressed, deflater, myBuffer.length);
+      if (myDigest != null) {
+        myDigest.reset();
+      }
+      int read;
+      while ((read = content.read(myBuffer)) > 0) {
+        stream.write(myBuffer, 0, read);
+        if (myDigest != null) {
+          myDigest.update(myBuffer, 0, read);
+        }
+      }
+      stream.finish();
+    }
+    finally {
+      deflater.end();
+    }
+    entry.myCompressedSize = compressed.size();
+    writeLocalHeader(entry);
+    compressed.writeTo(myOutput);
+    addToManifest(entry.myName, myDigest != null ? Base64.encode(myDigest.digest()) : null);
+    myRewrittenEntries.add(entry.myName);
+  }
+
+  private void addToManifest(@NotNull String name, @Nullable String digest) {
+    if (myManifest != null && digest != null) {
+      final Attributes attributes = new Attributes();
+      attributes.putValue(DIGEST_ATTR, digest);
+      myManifest.getEntries().put(name, attributes);
+    }
+  }
+
+  @NotNull
+  private String computeDigest(@NotNull RandomAccessFile file, @NotNull MyEntry entry) throws IOException {
+    final InputStream stream = openEntry(file, entry);
+    try {
+      myDigest.reset();
+      int read;
+      while ((read = stream.read(myBuffer)) > 0) {
+        myDigest.update(myBuffer, 0, read);
+      }
+      return Base64.encode(myDigest.digest());
+    }
+    finally {
+      stream.close();
+    }
+  }
+
+  private void writeSignatureFiles() throws IOException, GeneralSecurityException {
+    final ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+    myManifest.write(manifest);
+    writeMetaInfEntry(MANIFEST_NAME, manifest.toByteArray());
+
+    final Signature signature = Signature.getInstance(DIGEST_ALGORITHM + "with" + myKey.getAlgorithm());
+    signature.initSign(myKey);
+    final byte[] signatureFile = createSignatureFile(manifest.toByteArray());
+    signature.update(signatureFile);
+    writeMetaInfEntry(SIGNATURE_FILE_NAME, signatureFile);
+    writeMetaInfEntry(SIGNATURE_BLOCK_PREFIX + myKey.getAlgorithm(), createSignatureBlock(signature.sign()));
+  }
+
+  /**
+   * Creates CERT.SF, digesting the manifest sections the same way {@link SignedJarBuilder} does
+   */
+  @NotNull
+  private byte[] createSignatureFile(@NotNull byte[] manifest) throws IOException, NoSuchAlgorithmException {
+    final Manifest signatureFile = new Manifest();
+    final Attributes mainAttributes = signatureFile.getMainAttributes();
+    mainAttributes.putValue("Signature-Version", "1.0");
+    mainAttributes.putValue("Created-By", CREATED_BY);
+
+    final MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+    mainAttributes.putValue(DIGEST_MANIFEST_ATTR, Base64.encode(digest.digest(manifest)));
+
+    for (Map.Entry<String, Attributes> entry : myManifest.getEntries().entrySet()) {
+      final StringBuilder section = new StringBuilder();
+      section.append("Name: ").append(entry.getKey()).append("\r\n");
+
+      for (Map.Entry<Object, Object> attribute : entry.getValue().entrySet()) {
+        section.append(attribute.getKey()).append(": ").append(attribute.getValue()).append("\r\n");
+      }
+      section.append("\r\n");
+      final Attributes attributes = new Attributes();
+      attributes.putValue(DIGEST_ATTR, Base64.encode(digest.digest(section.toString().getBytes("UTF-8"))));
+      signatureFile.getEntries().put(entry.getKey(), attributes);
+    }
+    final ByteArrayOutputStream result = new ByteArrayOutputStream();
+    signatureFile.write(result);
+    return result.toByteArray();
+  }
+
+  @NotNull
+  private byte[] createSignatureBlock(@NotNull byte[] signature) throws IOException, NoSuchAlgorithmException {
+    final SignerInfo signerInfo = new SignerInfo(new X500Name(myCertificate.getIssuerX500Principal().getName()),
+                                                 myCertificate.getSerialNumber(),
+                                                 AlgorithmId.get(DIGEST_ALGORITHM),
+                                                 AlgorithmId.get(myKey.getAlgorithm()),
+                                                 signature);
+    final PKCS7 pkcs7 = new PKCS7(new AlgorithmId[]{AlgorithmId.get(DIGEST_ALGORITHM)},
+                                  new ContentInfo(ContentInfo.DATA_OID, null),
+                                  new X509Certificate[]{myCertificate},
+                                  new SignerInfo[]{signerInfo});
+    final ByteArrayOutputStream result = new ByteArrayOutputStream();
+    pkcs7.encodeSignedData(result);
+    return result.toByteArray();
+  }
+
+  private void writeMetaInfEntry(@NotNull String name, @NotNull byte[] content) throws IOException {
+    final CRC32 crc = new CRC32();
+    crc.update(content);
+    final MyEntry entry = new MyEntry(name, ZipEntry.DEFLATED, toDosTime(System.currentTimeMillis()), crc.getValue(), content.length);
+    final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+    try {
+      final DeflaterOutputStream stream = new DeflaterOutputStream(compressed, deflater);
+      stream.write(content);
+      stream.finish();
+    }
+    finally {
+      deflater.end();
+    }
+    entry.myCompressedSize = compressed.size();
+    writeLocalHeader(entry);
+    compressed.writeTo(myOutput);
+  }
+
+  private void writeLocalHeader(@NotNull MyEntry entry) throws IOException {
+    if (entry.myCompressedSize > 0xffffffffL || entry.mySize > 0xffffffffL) {
+      throw new ZipException("Entry " + entry.myName + " is too large");
+    }
+    final byte[] name = entry.myName.getBytes("UTF-8");
+    entry.myHeaderOffset = myOutput.getCount();
+    writeInt(LOCAL_HEADER_SIGNATURE);
+    writeShort(getVersionNeeded(entry));
+    writeShort(UTF8_FLAG);
+    writeShort(entry.myMethod);
+    writeInt(entry.myDosTime);
+    writeInt((int)entry.myCrc);
+    writeInt((int)entry.myCompressedSize);
+    writeInt((int)entry.mySize);
+    writeShort(name.length);
+    writeShort(0);
+    myOutput.write(name);
+    myEntries.add(entry);
+  }
+
+  private void writeCentralDirectory() throws IOException {
+    if (myEntries.size() > 0xffff || myOutput.getCount() > 0xffffffffL) {
+      throw new ZipException("Too many entries or too large jar: " + myOutputFile.getPath());
+    }
+    final long start = myOutput.getCount();
+
+    for (MyEntry entry : myEntries) {
+      final byte[] name = entry.myName.getBytes("UTF-8");
+      writeInt(CENTRAL_HEADER_SIGNATURE);
+      writeShort(getVersionNeeded(entry));
+      writeShort(getVersionNeeded(entry));
+      writeShort(UTF8_FLAG);
+      writeShort(entry.myMethod);
+      writeInt(entry.myDosTime);
+      writeInt((int)entry.myCrc);
+      writeInt((int)entry.myCompressedSize);
+      writeInt((int)entry.mySize);
+      writeShort(name.length);
+      writeShort(0);
+      writeShort(0);
+      writeShort(0);
+      writeShort(0);
+      writeInt(0);
+      writeInt((int)entry.myHeaderOffset);
+      myOutput.write(name);
+    }
+    final long size = myOutput.getCount() - start;
+    writeInt(END_SIGNATURE);
+    writeShort(0);
+    writeShort(0);
+    writeShort(myEntries.size());
+    writeShort(myEntries.size());
+    writeInt((int)size);
+    writeInt((int)start);
+    writeShort(0);
+  }
+
+  private static int getVersionNeeded(@NotNull MyEntry entry) {
+    return entry.myMethod == ZipEntry.STORED ? 10 : 20;
+  }
+
+  private void writeShort(int value) throws IOException {
+    myOutput.write(value & 0xff);
+    myOutput.write((value >>> 8) & 0xff);
+  }
+
+  private void writeInt(int value) throws IOException {
+    writeShort(value & 0xffff);
+    writeShort((value >>> 16) & 0xffff);
+  }
+
+  /**
+   * Reads the central directory of the given zip file; the returned map keeps the order of the entries in the file
+   */
+  @NotNull
+  private static Map<String, MyEntry> readEntries(@NotNull RandomAccessFile file) throws IOException {
+    final long length = file.length();
+    final int tailSize = (int)Math.min(length, END_SIZE + MAX_COMMENT_SIZE);
+    final byte[] tail = new byte[tailSize];
+    file.seek(length - tailSize);
+    file.readFully(tail);
+
+    int end = -1;
+    for (int i = tailSize - END_SIZE; i >= 0; i--) {
+      if (getInt(tail, i) == END_SIGNATURE) {
+        end = i;
+        break;
+      }
+    }
+    if (end < 0) {
+      throw new ZipException("Not a zip file");
+    }
+    final int count = getShort(tail, end + 10);
+    final long directorySize = getInt(tail, end + 12) & 0xffffffffL;
+    final long directoryOffset = getInt(tail, end + 16) & 0xffffffffL;
+
+    if (directoryOffset + directorySize > length) {
+      throw new ZipException("Invalid central directory");
+    }
+    final byte[] directory = new byte[(int)directorySize];
+    file.seek(directoryOffset);
+    file.readFully(directory);
+
+    final Map<String, MyEntry> result = new LinkedHashMap<String, MyEntry>();
+    int offset = 0;
+
+    for (int i = 0; i < count; i++) {
+      if (offset + CENTRAL_HEADER_SIZE > directory.length || getInt(directory, offset) != CENTRAL_HEADER_SIGNATURE) {
+        throw new ZipException("Invalid central directory");
+      }
+      final int nameLength = getShort(directory, offset + 28);
+      final int extraLength = getShort(directory, offset + 30);
+      final int commentLength = getShort(directory, offset + 32);
+      final String name = new String(directory, offset + CENTRAL_HEADER_SIZE, nameLength, "UTF-8");
+
+      final MyEntry entry = new MyEntry(name, getShort(directory, offset + 10), getInt(directory, offset + 12),
+                                        getInt(directory, offset + 16) & 0xffffffffL, getInt(directory, offset + 24) & 0xffffffffL);
+      entry.myCompressedSize = getInt(directory, offset + 20) & 0xffffffffL;
+      entry.myHeaderOffset = getInt(directory, offset + 42) & 0xffffffffL;
+
+      if (!result.containsKey(name)) {
+        result.put(name, entry);
+      }
+      offset += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+    }
+    return result;
+  }
+
+  @Nullable
+  private static Manifest readManifest(@NotNull RandomAccessFile file, @Nullable MyEntry entry) throws IOException {
+    if (entry == null) {
+      return null;
+    }
+    final InputStream stream = openEntry(file, entry);
+    try {
+      return new Manifest(stream);
+    }
+    finally {
+      stream.close();
+    }
+  }
+
+  private static long getDataOffset(@NotNull RandomAccessFile file, @NotNull MyEntry entry) throws IOException {
+    final byte[] header = new byte[LOCAL_HEADER_SIZE];
+    file.seek(entry.myHeaderOffset);
+    file.readFully(header);
+
+    if (getInt(header, 0) != LOCAL_HEADER_SIGNATURE) {
+      throw new ZipException("Invalid local header of entry " + entry.myName);
+    }
+    return entry.myHeaderOffset + LOCAL_HEADER_SIZE + getShort(header, 26) + getShort(header, 28);
+  }
+
+  @NotNull
+  private static InputStream openEntry(@NotNull RandomAccessFile file, @NotNull MyEntry entry) throws IOException {
+    file.seek(getDataOffset(file, entry));
+    final byte[] data = new byte[(int)entry.myCompressedSize];
+    file.readFully(data);
+    final InputStream stream = new ByteArrayInputStream(data);
+
+    if (entry.myMethod == ZipEntry.STORED) {
+      return stream;
+    }
+    final Inflater inflater = new Inflater(true);
+    // The extra byte is needed by the inflater when the data was compressed without the zlib wrapper
+    return new InflaterInputStream(new SequenceInputStream(stream, new ByteArrayInputStream(new byte[1])), inflater) {
+      @Override
+      public void close() throws IOException {
+        super.close();
+        inflater.end();
+      }
+    };
+  }
+
+  private static int getShort(@NotNull byte[] bytes, int offset) {
+    return (bytes[offset] & 0xff) | ((bytes[offset + 1] & 0xff) << 8);
+  }
+
+  private static int getInt(@NotNull byte[] bytes, int offset) {
+    return getShort(bytes, offset) | (getShort(bytes, offset + 2) << 16);
+  }
+
+  private static int toDosTime(long time) {
+    final Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(time);
+    final int year = calendar.get(Calendar.YEAR);
+
+    if (year < 1980) {
+      return (1 << 21) | (1 << 16);
+    }
+    return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21 | calendar.get(Calendar.DAY_OF_MONTH) << 16 |
+           calendar.get(Calendar.HOUR_OF_DAY) << 11 | calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+  }
+
+  private static class MyEntry {
+    final String myName;
+    final int myMethod;
+    final int myDosTime;
+    final long myCrc;
+    final long mySize;
+    long myCompressedSize;
+    long myHeaderOffset;
+
+    MyEntry(@NotNull String name, int method, int dosTime, long crc, long size) {
+      myName = name;
+      myMethod = method;
+      myDosTime = dosTime;
+      myCrc = crc;
+      mySize = size;
+    }
+  }
+
+  private static class MyCountingOutputStream extends FilterOutputStream {
+    private long myCount;
+
+    MyCountingOutputStream(@NotNull OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      myCount++;
+    }
+
+    @Override
+    public void write(@NotNull byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      myCount += len;
+    }
+
+    long getCount() {
+      return myCount;
+    }
+  }
+}
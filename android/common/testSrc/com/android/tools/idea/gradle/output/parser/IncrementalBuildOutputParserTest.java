@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.gradle.output.parser;
+
+import com.android.tools.idea.gradle.output.GradleMessage;
+import com.google.common.collect.Lists;
+import com.intellij.util.Consumer;
+import junit.framework.TestCase;
+
+import java.util.List;
+
+/**
+ * Tests for {@link IncrementalBuildOutputParser}.
+ */
+public class IncrementalBuildOutputParserTest extends TestCase {
+  private static final String OUTPUT =
+    ":app:compileDebugJava\n" +
+    "warning: [options] bootstrap class path not set in conjunction with -source 1.6\n" +
+    "\n" +
+    "[Fatal Error] :12:5: The element type \"LinearLayout\" must be terminated\r\n" +
+    "Failed to parse /does/not/exist.xml\n" +
+    "UNEXPECTED TOP-LEVEL EXCEPTION:\n" +
+    "java.lang.IllegalArgumentException: already added: Lcom/example/Foo;\n" +
+    "\tat com.android.dx.dex.file.ClassDefsSection.add(ClassDefsSection.java:123)\n" +
+    "\tat com.android.dx.dex.file.DexFile.add(DexFile.java:163)\n" +
+    "error|/path/to/build.gradle|Something went wrong\n" +
+    "FAILURE: Build failed with an exception.\n" +
+    "\n" +
+    "* What went wrong:\n" +
+    "Execution failed for task ':app:dexDebug'.\n" +
+    "> Could not run dx\n" +
+    "\n" +
+    "* Try:\n" +
+    "Run with --stacktrace option to get the stack trace. Run with --info or --debug option to get more log output.\n" +
+    "\n" +
+    "BUILD FAILED\n" +
+    "\n" +
+    "Total time: 15.612 secs\n" +
+    "\n" +
+    "\n";
+
+  public void testSameAsBatchParsing() {
+    String expected = toString(new BuildOutputParser().parseGradleOutput(OUTPUT));
+    assertFalse(expected.isEmpty());
+
+    // All at once, line by line, and in chunks not aligned with lines (splitting \r\n too)
+    assertEquals(expected, parseInChunks(OUTPUT, OUTPUT.length()));
+    for (int chunkSize = 1; chunkSize < 20; chunkSize++) {
+      assertEquals("chunk size " + chunkSize, expected, parseInChunks(OUTPUT, chunkSize));
+    }
+    StringBuilder lines = new StringBuilder();
+    final List<GradleMessage> messages = Lists.newArrayList();
+    IncrementalBuildOutputParser parser = createParser(messages);
+    for (String line : OUTPUT.split("\n")) {
+      parser.append(line + "\n");
+    }
+    parser.finish();
+    assertEquals(expected, toString(messages));
+  }
+
+  public void testMessagesReportedBeforeEnd() {
+    List<GradleMessage> messages = Lists.newArrayList();
+    IncrementalBuildOutputParser parser = createParser(messages);
+    parser.append("error|/path/to/build.gradle|First\n");
+    parser.append("warning|/path/to/build.gradle|Second\nBUILD ");
+    assertEquals(2, messages.size());
+    assertEquals("First", messages.get(0).getText());
+
+    parser.append("SUCCESSFUL");
+    assertEquals(2, messages.size());
+    parser.finish();
+    assertEquals(3, messages.size());
+    assertEquals("BUILD SUCCESSFUL", messages.get(2).getText());
+    assertFalse(parser.isFailed());
+  }
+
+  private static String parseInChunks(String output, int chunkSize) {
+    List<GradleMessage> messages = Lists.newArrayList();
+    IncrementalBuildOutputParser parser = createParser(messages);
+    for (int i = 0; i < output.length(); i += chunkSize) {
+      parser.append(output.substring(i, Math.min(output.length(), i + chunkSize)));
+    }
+    parser.finish();
+    return toString(messages);
+  }
+
+  private static IncrementalBuildOutputParser createParser(final List<GradleMessage> messages) {
+    return new IncrementalBuildOutputParser(new Consumer<GradleMessage>() {
+      @Override
+      public void consume(GradleMessage message) {
+        messages.add(message);
+      }
+    });
+  }
+
+  private static String toString(List<GradleMessage> messages) {
+    StringBuilder sb = new StringBuilder();
+    for (GradleMessage message : messages) {
+      sb.append(message.getKind()).append(':').append(message.getText()).append(':').append(message.getSourcePath()).append(':')
+        .append(message.getLineNumber()).append(':').append(message.getColumn()).append('\n');
+    }
+    return sb.toString();
+  }
+}
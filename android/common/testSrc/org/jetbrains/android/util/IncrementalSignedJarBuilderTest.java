@@ -0,0 +1,213 @@
+package org.jetbrains.android.util;
+
+import com.android.jarutils.DebugKeyProvider;
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class IncrementalSignedJarBuilderTest extends TestCase {
+  private File myDir;
+  private File myResPackage;
+  private File myDex;
+  private File myResource;
+  private File myApk;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("incremental_apk", "test");
+    myResPackage = new File(myDir, "app.apk.res");
+    myDex = new File(myDir, "classes.dex");
+    myResource = new File(myDir, "resource.txt");
+    myApk = new File(myDir, "app.apk");
+
+    final ZipOutputStream stream = new ZipOutputStream(new FileOutputStream(myResPackage));
+    try {
+      final byte[] arsc = "resource table".getBytes("UTF-8");
+      final ZipEntry stored = new ZipEntry("resources.arsc");
+      stored.setMethod(ZipEntry.STORED);
+      stored.setSize(arsc.length);
+      final CRC32 crc = new CRC32();
+      crc.update(arsc);
+      stored.setCrc(crc.getValue());
+      stream.putNextEntry(stored);
+      stream.write(arsc);
+      stream.putNextEntry(new ZipEntry("res/layout/main.xml"));
+      stream.write("<LinearLayout/>".getBytes("UTF-8"));
+      stream.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+      stream.write("Manifest-Version: 1.0\r\n".getBytes("UTF-8"));
+    }
+    finally {
+      stream.close();
+    }
+    write(myDex, "dex content");
+    write(myResource, "java resource");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testReusesUnchangedEntries() throws Exception {
+    assertEquals(Arrays.asList("resources.arsc", "res/layout/main.xml", "classes.dex", "resource.txt"), build());
+    final byte[] firstApk = FileUtil.loadFileBytes(myApk);
+
+    assertEquals(Collections.<String>emptyList(), build());
+    assertTrue(Arrays.equals(firstApk, FileUtil.loadFileBytes(myApk)));
+
+    write(myResource, "changed java resource");
+    assertEquals(Collections.singletonList("resource.txt"), build());
+
+    final ZipFile apk = new ZipFile(myApk);
+    try {
+      assertEquals(4, apk.size());
+      assertNull(apk.getEntry("META-INF/MANIFEST.MF"));
+      assertEquals(ZipEntry.STORED, apk.getEntry("resources.arsc").getMethod());
+      assertEquals("resource table", read(apk, "resources.arsc"));
+      assertEquals("<LinearLayout/>", read(apk, "res/layout/main.xml"));
+      assertEquals("dex content", read(apk, "classes.dex"));
+      assertEquals("changed java resource", read(apk, "resource.txt"));
+    }
+    finally {
+      apk.close();
+    }
+  }
+
+  public void testDuplicateEntry() throws Exception {
+    final IncrementalSignedJarBuilder builder = new IncrementalSignedJarBuilder(myApk, null, null);
+    try {
+      builder.writeFile(myDex, "classes.dex");
+      builder.writeFile(myDex, "classes.dex");
+      fail();
+    }
+    catch (ZipException expected) {
+    }
+    finally {
+      builder.abort();
+    }
+    assertFalse(myApk.exists());
+    assertEquals(3, myDir.list().length);
+  }
+
+  public void testSignedIncrementalUpdate() throws Exception {
+    final DebugKeyProvider provider =
+      new DebugKeyProvider(new File(myDir, "debug.keystore").getPath(), null, new DebugKeyProvider.IKeyGenOutput() {
+        @Override
+        public void out(String message) {
+        }
+
+        @Override
+        public void err(String message) {
+          fail(message);
+        }
+      });
+    final PrivateKey key = provider.getDebugKey();
+    final X509Certificate certificate = (X509Certificate)provider.getCertificate();
+    assertNotNull(key);
+    assertNotNull(certificate);
+
+    assertEquals(Arrays.asList("resources.arsc", "res/layout/main.xml", "classes.dex", "resource.txt"), build(key, certificate));
+    final Manifest firstManifest = verify(certificate);
+
+    write(myResource, "changed java resource");
+    assertEquals(Collections.singletonList("resource.txt"), build(key, certificate));
+    final Manifest manifest = verify(certificate);
+
+    // Only the digest of the changed entry differs from the previous manifest
+    assertEquals(firstManifest.getEntries().keySet(), manifest.getEntries().keySet());
+    for (String name : manifest.getEntries().keySet()) {
+      final String digest = manifest.getAttributes(name).getValue("SHA1-Digest");
+      final String previousDigest = firstManifest.getAttributes(name).getValue("SHA1-Digest");
+      assertNotNull(digest);
+      assertEquals(name, !"resource.txt".equals(name), digest.equals(previousDigest));
+    }
+  }
+
+  private List<String> build() throws Exception {
+    return build(null, null);
+  }
+
+  private List<String> build(PrivateKey key, X509Certificate certificate) throws Exception {
+    final IncrementalSignedJarBuilder builder = new IncrementalSignedJarBuilder(myApk, key, certificate);
+    builder.writeZip(myResPackage, null);
+    builder.writeFile(myDex, "classes.dex");
+    builder.writeFile(myResource, "resource.txt");
+    builder.close();
+    return builder.getRewrittenEntries();
+  }
+
+  /**
+   * Checks that every entry of the apk verifies and is signed with the given certificate, and returns the manifest
+   */
+  private Manifest verify(X509Certificate certificate) throws IOException {
+    final JarFile apk = new JarFile(myApk, true);
+    try {
+      int signed = 0;
+      for (Enumeration<JarEntry> entries = apk.entries(); entries.hasMoreElements(); ) {
+        final JarEntry entry = entries.nextElement();
+        // Reading the whole entry verifies its digest, and throws a SecurityException if it does not match
+        final InputStream stream = apk.getInputStream(entry);
+        try {
+          FileUtil.loadBytes(stream);
+        }
+        finally {
+          stream.close();
+        }
+        if (entry.getName().startsWith("META-INF/")) {
+          continue;
+        }
+        final Certificate[] certificates = entry.getCertificates();
+        assertNotNull(entry.getName(), certificates);
+        assertTrue(entry.getName(), Arrays.asList(certificates).contains(certificate));
+        signed++;
+      }
+      assertEquals(4, signed);
+      final Manifest manifest = apk.getManifest();
+      assertNotNull(manifest);
+      assertEquals("1.0", manifest.getMainAttributes().getValue(Attributes.Name.MANIFEST_VERSION));
+      return manifest;
+    }
+    finally {
+      apk.close();
+    }
+  }
+
+  private static void write(File file, String text) throws IOException {
+    final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      writer.write(text);
+    }
+    finally {
+      writer.close();
+    }
+  }
+
+  private static String read(ZipFile zip, String name) throws IOException {
+    final InputStream stream = zip.getInputStream(zip.getEntry(name));
+    try {
+      return new String(FileUtil.loadBytes(stream), "UTF-8");
+    }
+    finally {
+      stream.close();
+    }
+  }
+}
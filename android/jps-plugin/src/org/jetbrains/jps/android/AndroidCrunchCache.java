@@ -0,0 +1,46 @@
+package org.jetbrains.jps.android;
+
+import com.android.SdkConstants;
+import com.android.sdklib.BuildToolInfo;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Cache of crunched PNG files, keyed by the content of the image and by the aapt revision it was crunched with.
+ */
+class AndroidCrunchCache extends AndroidOutputCache {
+  @NonNls private static final String CACHE_DIR_NAME = "android-crunch-cache";
+  @NonNls private static final String CACHED_FILE_EXTENSION = ".png";
+  @NonNls private static final String NINE_PATCH_KEY_SUFFIX = ".9";
+  private static final long MAX_SIZE = 256L * 1024 * 1024;
+
+  AndroidCrunchCache(@NotNull File dir, @NotNull String aaptId) {
+    super(dir, aaptId, CACHED_FILE_EXTENSION, MAX_SIZE);
+  }
+
+  /**
+   * Returns the cache for images crunched with the given platform, or null if crunched images should not be cached
+   * (see {@link #getCacheRoot()})
+   */
+  @Nullable
+  static AndroidCrunchCache create(@NotNull AndroidPlatform platform) {
+    final File cacheRoot = getCacheRoot();
+    final BuildToolInfo buildToolInfo = platform.getTarget().getBuildToolInfo();
+    if (cacheRoot == null || buildToolInfo == null) {
+      return null;
+    }
+    return new AndroidCrunchCache(new File(cacheRoot, CACHE_DIR_NAME), buildToolInfo.getRevision().toString());
+  }
+
+  @NotNull
+  @Override
+  String getKey(@NotNull File png) throws IOException {
+    // aapt processes nine-patch images differently, so the same content may be crunched in two ways
+    final String key = super.getKey(png);
+    return png.getName().endsWith(SdkConstants.DOT_9PNG) ? key + NINE_PATCH_KEY_SUFFIX : key;
+  }
+}
@@ -250,6 +250,44 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
                                @NotNull JpsProject project, @NotNull BuildOutputConsumer outputConsumer,
                                @NotNull String builderName,
                                @NotNull String srcTargetName) throws IOException {
+    if (!runDexProcess(platform, outFilePath, compileTargets, context, project, builderName, srcTargetName)) {
+      return false;
+    }
+    final List<String> srcFiles = new ArrayList<String>();
+
+    for (String compileTargetPath : compileTargets) {
+      final File compileTarget = new File(compileTargetPath);
+
+      if (compileTarget.isFile()) {
+        srcFiles.add(compileTargetPath);
+      }
+      else if(compileTarget.isDirectory()) {
+        AndroidJpsUtil.processClassFilesAndJarsRecursively(compileTarget, new Processor<File>() {
+          @Override
+          public boolean process(File file) {
+            if (file.isFile()) {
+              srcFiles.add(file.getPath());
+            }
+            return true;
+          }
+        });
+      }
+    }
+    outputConsumer.registerOutputFile(new File(outFilePath), srcFiles);
+    return true;
+  }
+
+  /**
+   * Runs dx in a separate process, without registering the output file. Reports messages to the context only,
+   * so it may be invoked from several threads at once.
+   */
+  static boolean runDexProcess(@NotNull AndroidPlatform platform,
+                               @NotNull String outFilePath,
+                               @NotNull String[] compileTargets,
+                               @NotNull CompileContext context,
+                               @NotNull JpsProject project,
+                               @NotNull String builderName,
+                               @NotNull String srcTargetName) throws IOException {
     BuildToolInfo buildToolInfo = platform.getTarget().getBuildToolInfo();
     if (buildToolInfo == null) {
       return false;
@@ -334,32 +372,7 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
     AndroidCommonUtils.handleDexCompilationResult(process, outFilePath, messages);
 
     AndroidJpsUtil.addMessages(context, messages, builderName, srcTargetName);
-    final boolean success = messages.get(AndroidCompilerMessageKind.ERROR).size() == 0;
-
-    if (success) {
-      final List<String> srcFiles = new ArrayList<String>();
-
-      for (String compileTargetPath : compileTargets) {
-        final File compileTarget = new File(compileTargetPath);
-
-        if (compileTarget.isFile()) {
-          srcFiles.add(compileTargetPath);
-        }
-        else if(compileTarget.isDirectory()) {
-          AndroidJpsUtil.processClassFilesAndJarsRecursively(compileTarget, new Processor<File>() {
-            @Override
-            public boolean process(File file) {
-              if (file.isFile()) {
-                srcFiles.add(file.getPath());
-              }
-              return true;
-            }
-          });
-        }
-      }
-      outputConsumer.registerOutputFile(outFile, srcFiles);
-    }
-    return success;
+    return messages.get(AndroidCompilerMessageKind.ERROR).size() == 0;
   }
 
   @Nullable
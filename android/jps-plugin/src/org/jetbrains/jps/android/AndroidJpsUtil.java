@@ -13,6 +13,7 @@ import com.intellij.util.Processor;
 import com.intellij.util.containers.HashSet;
 import com.intellij.util.containers.OrderedSet;
 import org.jetbrains.android.compiler.artifact.AndroidArtifactSigningMode;
+import org.jetbrains.android.util.AndroidBuildTestingManager;
 import org.jetbrains.android.util.AndroidCommonUtils;
 import org.jetbrains.android.util.AndroidCompilerMessageKind;
 import org.jetbrains.annotations.NonNls;
@@ -50,6 +51,7 @@ import org.jetbrains.jps.util.JpsPathUtil;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.Matcher;
 
 /**
@@ -65,6 +67,9 @@ public class AndroidJpsUtil {
   @NonNls private static final String RESOURCE_CACHE_STORAGE = "res_cache";
   @NonNls private static final String INTERMEDIATE_ARTIFACTS_STORAGE = "intermediate_artifacts";
 
+  /** How often a builder waiting for its tasks checks whether the build was cancelled */
+  private static final long CANCEL_CHECK_INTERVAL_MS = 100;
+
   @NonNls public static final String GENERATED_RESOURCES_DIR_NAME = "generated_resources";
   @NonNls public static final String AAPT_GENERATED_SOURCE_ROOT_NAME = "aapt";
   @NonNls public static final String AIDL_GENERATED_SOURCE_ROOT_NAME = "aidl";
@@ -192,6 +197,103 @@ public class AndroidJpsUtil {
     return dir;
   }
 
+  /**
+   * Returns the number of threads {@link #invokeAll(CompileContext, List, int)} runs the given number of tasks on, for
+   * builders which split their work in one task per thread
+   *
+   * @param maxThreadCount the maximum number of threads to use, or 0 for one per core
+   */
+  public static int getThreadCount(int maxThreadCount, int taskCount) {
+    if (AndroidBuildTestingManager.getTestingManager() != null) {
+      return 1;
+    }
+    final int processors = Runtime.getRuntime().availableProcessors();
+    return Math.max(1, Math.min(maxThreadCount > 0 ? Math.min(maxThreadCount, processors) : processors, taskCount));
+  }
+
+  /**
+   * Runs tasks of a builder, such as tool invocations, concurrently and waits for all of them. At most one thread per
+   * core is used, and only one thread when the tools are replaced for testing, so that the commands are logged in a stable
+   * order. When the build is cancelled, the tasks not started yet are skipped, the running ones are interrupted, and
+   * the cancellation is rethrown.
+   *
+   * @param maxThreadCount the maximum number of threads to use, or 0 for one per core
+   * @return the futures of the tasks, in the order of the given list, to be passed to {@link #getResult(Future)}
+   */
+  @NotNull
+  public static <T> List<Future<T>> invokeAll(@NotNull final CompileContext context,
+                                              @NotNull List<? extends Callable<T>> tasks,
+                                              int maxThreadCount) throws ProjectBuildException {
+    if (tasks.isEmpty()) {
+      return Collections.emptyList();
+    }
+    final ExecutorService executor = Executors.newFixedThreadPool(getThreadCount(maxThreadCount, tasks.size()));
+    try {
+      final List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+
+      for (final Callable<T> task : tasks) {
+        futures.add(executor.submit(new Callable<T>() {
+          @Override
+          public T call() throws Exception {
+            context.checkCanceled();
+            return task.call();
+          }
+        }));
+      }
+      for (Future<T> future : futures) {
+        waitForTask(context, future);
+      }
+      return futures;
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void waitForTask(@NotNull CompileContext context, @NotNull Future<?> future) throws ProjectBuildException {
+    while (true) {
+      if (context.getCancelStatus().isCanceled()) {
+        throw new StopBuildException();
+      }
+      try {
+        future.get(CANCEL_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        return;
+      }
+      catch (TimeoutException ignored) {
+      }
+      catch (ExecutionException e) {
+        // Rethrown by getResult
+        return;
+      }
+      catch (InterruptedException e) {
+        throw new ProjectBuildException(e);
+      }
+    }
+  }
+
+  /**
+   * Waits for a task submitted by a builder, rethrowing its exception as a build exception
+   */
+  public static <T> T getResult(@NotNull Future<T> future) throws IOException, ProjectBuildException {
+    try {
+      return future.get();
+    }
+    catch (InterruptedException e) {
+      throw new ProjectBuildException(e);
+    }
+    catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+
+      if (cause instanceof IOException) {
+        throw (IOException)cause;
+      }
+      if (cause instanceof ProjectBuildException) {
+        throw (ProjectBuildException)cause;
+      }
+      throw new ProjectBuildException(cause);
+    }
+  }
+
   public static void addSubdirectories(@NotNull File baseDir, @NotNull Collection<String> result) {
     // only include files inside packages
     final File[] children = baseDir.listFiles();
@@ -0,0 +1,231 @@
+package org.jetbrains.jps.android;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.android.util.AndroidBuildTestingManager;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+import org.jetbrains.jps.incremental.Utils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of files produced by an Android build tool, shared by all the projects built on this machine. Entries are keyed
+ * by the content of the input file and by the tool revision and options, so an input is processed once no matter how
+ * many modules or projects contain it.
+ * <p>
+ * Entries are added by copying to a temporary file and renaming it, so concurrent builds may share the cache directory
+ * without locking. Restoring an entry updates its modification time, and {@link #prune()} deletes the entries that
+ * have not been used for a while (such as the outputs of an older tool revision, whose keys are never computed again)
+ * and then the least recently used entries while the cache is larger than its maximum size. A build that loses an entry
+ * that way simply processes the input again.
+ */
+class AndroidOutputCache {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.android.AndroidOutputCache");
+
+  /** Entries not used for this long are deleted regardless of the size of the cache */
+  static final long MAX_UNUSED_AGE_MS = 30L * 24 * 60 * 60 * 1000;
+  /** Temporary files older than this were left behind by a build that was killed while storing an entry */
+  static final long MAX_TEMP_FILE_AGE_MS = 60L * 60 * 1000;
+  @NonNls private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+  private static volatile File ourTestCacheRoot;
+
+  private final File myDir;
+  private final String myToolId;
+  private final String myCachedFileExtension;
+  private final long myMaxSize;
+
+  protected AndroidOutputCache(@NotNull File dir, @NotNull String toolId, @NotNull String cachedFileExtension, long maxSize) {
+    myDir = dir;
+    myToolId = toolId;
+    myCachedFileExtension = cachedFileExtension;
+    myMaxSize = maxSize;
+  }
+
+  /**
+   * Returns the directory containing the caches, or null if outputs should not be cached. Builds run by tests replace
+   * the tools with fake ones, so they only cache outputs under the directory set by the test, if any, and never mix
+   * fake outputs into the caches shared by the real builds on this machine.
+   */
+  @Nullable
+  static File getCacheRoot() {
+    if (AndroidBuildTestingManager.getTestingManager() != null) {
+      return ourTestCacheRoot;
+    }
+    return Utils.getSystemRoot();
+  }
+
+  @TestOnly
+  static void setTestCacheRoot(@Nullable File root) {
+    ourTestCacheRoot = root;
+  }
+
+  /**
+   * Returns the key of the given input file: a digest of its content and of the tool revision and options
+   */
+  @NotNull
+  String getKey(@NotNull File input) throws IOException {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+    digest.update(myToolId.getBytes("UTF-8"));
+
+    final InputStream stream = new BufferedInputStream(new FileInputStream(input));
+    try {
+      final byte[] buffer = new byte[8192];
+      int read;
+      while ((read = stream.read(buffer)) > 0) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    finally {
+      stream.close();
+    }
+    return new BigInteger(1, digest.digest()).toString(16);
+  }
+
+  /**
+   * Copies the cached file for the given key to the output file. Returns false if there is no such entry
+   * or it cannot be copied, in which case the input has to be processed.
+   */
+  boolean restore(@NotNull String key, @NotNull File outputFile) {
+    final File cachedFile = getCachedFile(key);
+    if (!cachedFile.isFile()) {
+      return false;
+    }
+    try {
+      FileUtil.copy(cachedFile, outputFile);
+      // Marks the entry as recently used for prune()
+      if (!cachedFile.setLastModified(System.currentTimeMillis())) {
+        LOG.debug("Cannot update modification time of cached file: " + cachedFile.getPath());
+      }
+      return true;
+    }
+    catch (IOException e) {
+      LOG.info("Cannot copy file from cache: " + cachedFile.getPath(), e);
+      return false;
+    }
+  }
+
+  /**
+   * Adds the output file for the given key to the cache. Failures are only logged, as the build does not depend
+   * on the cache.
+   */
+  void store(@NotNull String key, @NotNull File outputFile) {
+    final File cachedFile = getCachedFile(key);
+    if (cachedFile.isFile()) {
+      return;
+    }
+    File tempFile = null;
+    try {
+      FileUtil.createDirectory(myDir);
+      tempFile = FileUtil.createTempFile(myDir, key, TEMP_FILE_EXTENSION, true, false);
+      FileUtil.copy(outputFile, tempFile);
+
+      // Another build may have stored the same entry in the meantime; either copy will do
+      if (!tempFile.renameTo(cachedFile) && !cachedFile.isFile()) {
+        LOG.info("Cannot store file in cache: " + cachedFile.getPath());
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot store file in cache: " + cachedFile.getPath(), e);
+    }
+    finally {
+      if (tempFile != null && tempFile.exists()) {
+        FileUtil.delete(tempFile);
+      }
+    }
+  }
+
+  /**
+   * Deletes stale entries and temporary files, then the least recently used entries while the total size of the cache
+   * exceeds its maximum size. Meant to be called once per build, after the new entries have been stored.
+   */
+  void prune() {
+    final File[] files = myDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    final List<File> entries = new ArrayList<File>();
+    final Map<File, Long> lastUsed = new HashMap<File, Long>();
+    final long now = System.currentTimeMillis();
+    long size = 0;
+    int stale = 0;
+
+    for (File file : files) {
+      if (!file.isFile()) {
+        continue;
+      }
+      final String name = file.getName();
+      final long lastModified = file.lastModified();
+
+      if (name.endsWith(TEMP_FILE_EXTENSION)) {
+        if (now - lastModified > MAX_TEMP_FILE_AGE_MS) {
+          FileUtil.delete(file);
+        }
+      }
+      else if (name.endsWith(myCachedFileExtension)) {
+        if (now - lastModified > MAX_UNUSED_AGE_MS && FileUtil.delete(file)) {
+          stale++;
+          continue;
+        }
+        entries.add(file);
+        lastUsed.put(file, lastModified);
+        size += file.length();
+      }
+    }
+    if (stale > 0) {
+      LOG.debug("Deleted " + stale + " stale entries from " + myDir.getPath());
+    }
+    if (size <= myMaxSize) {
+      return;
+    }
+    Collections.sort(entries, new Comparator<File>() {
+      @Override
+      public int compare(File f1, File f2) {
+        final long t1 = lastUsed.get(f1);
+        final long t2 = lastUsed.get(f2);
+        return t1 < t2 ? -1 : t1 > t2 ? 1 : 0;
+      }
+    });
+    int deleted = 0;
+
+    for (File file : entries) {
+      if (size <= myMaxSize) {
+        break;
+      }
+      final long length = file.length();
+
+      if (FileUtil.delete(file)) {
+        size -= length;
+        deleted++;
+      }
+    }
+    LOG.debug("Deleted " + deleted + " least recently used entries from " + myDir.getPath());
+  }
+
+  @NotNull
+  private File getCachedFile(@NotNull String key) {
+    return new File(myDir, key + myCachedFileExtension);
+  }
+}
@@ -9,6 +9,8 @@ import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.android.builder.AndroidPreDexBuildTarget;
+import org.jetbrains.jps.android.model.JpsAndroidDexCompilerConfiguration;
+import org.jetbrains.jps.android.model.JpsAndroidExtensionService;
 import org.jetbrains.jps.builders.BuildOutputConsumer;
 import org.jetbrains.jps.builders.DirtyFilesHolder;
 import org.jetbrains.jps.builders.FileProcessor;
@@ -23,9 +25,13 @@ import org.jetbrains.jps.model.module.JpsModule;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Eugene.Kudelevsky
@@ -66,7 +72,7 @@ public class AndroidPreDexBuilder extends AndroidTargetBuilder<AndroidPreDexBuil
   private static boolean doBuild(@NotNull AndroidPreDexBuildTarget target,
                                  @NotNull DirtyFilesHolder<AndroidPreDexBuildTarget.MyRootDescriptor, AndroidPreDexBuildTarget> holder,
                                  @NotNull BuildOutputConsumer outputConsumer,
-                                 @NotNull CompileContext context) throws IOException, ProjectBuildException {
+                                 @NotNull final CompileContext context) throws IOException, ProjectBuildException {
     final List<Pair<File, String>> filesToPreDex = new ArrayList<Pair<File, String>>();
 
     holder.processDirtyFiles(new FileProcessor<AndroidPreDexBuildTarget.MyRootDescriptor, AndroidPreDexBuildTarget>() {
@@ -91,46 +97,117 @@ public class AndroidPreDexBuilder extends AndroidTargetBuilder<AndroidPreDexBuil
     if (platform == null) {
       return false;
     }
-    if (!filesToPreDex.isEmpty()) {
-      final File outputDir = target.getOutputFile(context);
+    if (filesToPreDex.isEmpty()) {
+      return true;
+    }
+    final File outputDir = target.getOutputFile(context);
+    final List<Pair<File, File>> srcAndOutputFiles = new ArrayList<Pair<File, File>>();
 
-      for (Pair<File, String> pair : filesToPreDex) {
-        context.checkCanceled();
+    for (Pair<File, String> pair : filesToPreDex) {
+      final File srcFile = pair.getFirst();
+      final String moduleName = pair.getSecond();
+      final String srcFilePath = srcFile.getAbsolutePath();
+      final File outputFile;
 
-        final File srcFile = pair.getFirst();
-        final String moduleName = pair.getSecond();
-        final String srcFilePath = srcFile.getAbsolutePath();
-        final File outputFile;
+      if (moduleName != null) {
+        outputFile = new File(new File(outputDir, moduleName), srcFile.getName());
+      }
+      else {
+        final String outputFileName = getOutputFileNameForExternalJar(srcFile);
 
-        if (moduleName != null) {
-          context.processMessage(new ProgressMessage("Pre-dex [" + moduleName + "]"));
-          outputFile = new File(new File(outputDir, moduleName), srcFile.getName());
+        if (outputFileName == null) {
+          context.processMessage(new CompilerMessage(BUILDER_NAME, BuildMessage.Kind.ERROR,
+                                                     "Cannot pre-dex file " + srcFilePath + ": incorrect path", srcFilePath));
+          return false;
         }
-        else {
-          context.processMessage(new ProgressMessage("Pre-dex: " + srcFile.getName()));
-          final String outputFileName = getOutputFileNameForExternalJar(srcFile);
+        outputFile = new File(outputDir, outputFileName);
+      }
+
+      if (AndroidJpsUtil.createDirIfNotExist(outputFile.getParentFile(), context, BUILDER_NAME) == null) {
+        return false;
+      }
+      srcAndOutputFiles.add(Pair.create(srcFile, outputFile));
+    }
 
-          if (outputFileName == null) {
-            context.processMessage(new CompilerMessage(BUILDER_NAME, BuildMessage.Kind.ERROR,
-                                                       "Cannot pre-dex file " + srcFilePath + ": incorrect path", srcFilePath));
+    // Every dx invocation is a separate process, so jars are pre-dexed concurrently, on as many threads as
+    // there are cores and memory for the dx heaps
+    final AndroidPreDexCache cache = AndroidPreDexCache.create(platform, project);
+    final AtomicBoolean failed = new AtomicBoolean();
+    final AndroidPlatform finalPlatform = platform;
+    final List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+
+    for (final Pair<File, File> pair : srcAndOutputFiles) {
+      tasks.add(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          if (failed.get()) {
             return false;
           }
-          outputFile = new File(outputDir, outputFileName);
-        }
+          final boolean success = preDex(pair.getFirst(), pair.getSecond(), finalPlatform, cache, context, project);
 
-        if (AndroidJpsUtil.createDirIfNotExist(outputFile.getParentFile(), context, BUILDER_NAME) == null) {
-          return false;
+          if (!success) {
+            failed.set(true);
+          }
+          return success;
         }
+      });
+    }
+    final List<Future<Boolean>> futures = AndroidJpsUtil.invokeAll(context, tasks, getMaxThreadCount(project));
 
-        if (!AndroidDexBuilder.runDex(platform, outputFile.getPath(), new String[]{srcFilePath}, context,
-          project, outputConsumer, BUILDER_NAME, srcFile.getName())) {
-          return false;
-        }
+    for (int i = 0; i < futures.size(); i++) {
+      if (AndroidJpsUtil.getResult(futures.get(i))) {
+        final Pair<File, File> pair = srcAndOutputFiles.get(i);
+        outputConsumer.registerOutputFile(pair.getSecond(), Collections.singletonList(pair.getFirst().getAbsolutePath()));
       }
     }
+    if (cache != null) {
+      cache.prune();
+    }
+    return !failed.get();
+  }
+
+  private static boolean preDex(@NotNull File srcFile,
+                                @NotNull File outputFile,
+                                @NotNull AndroidPlatform platform,
+                                @Nullable AndroidPreDexCache cache,
+                                @NotNull CompileContext context,
+                                @NotNull JpsProject project) throws IOException {
+    final String key = cache != null ? cache.getKey(srcFile) : null;
+
+    if (key != null && cache.restore(key, outputFile)) {
+      context.processMessage(new ProgressMessage("Pre-dex: " + srcFile.getName() + " (cached)"));
+      return true;
+    }
+    context.processMessage(new ProgressMessage("Pre-dex: " + srcFile.getName()));
+
+    if (!AndroidDexBuilder.runDexProcess(platform, outputFile.getPath(), new String[]{srcFile.getAbsolutePath()}, context,
+                                         project, BUILDER_NAME, srcFile.getName())) {
+      return false;
+    }
+    if (key != null) {
+      cache.store(key, outputFile);
+    }
     return true;
   }
 
+  /**
+   * Returns the number of dx processes to run at once: one per core, as long as their heaps fit in half of
+   * the physical memory
+   */
+  private static int getMaxThreadCount(@NotNull JpsProject project) {
+    final int processors = Runtime.getRuntime().availableProcessors();
+    final JpsAndroidDexCompilerConfiguration configuration =
+      JpsAndroidExtensionService.getInstance().getDexCompilerConfiguration(project);
+    final long heapSize = (configuration != null ? configuration.getMaxHeapSize() : 1024) * 1024L * 1024L;
+    final OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+
+    if (heapSize <= 0 || !(osBean instanceof com.sun.management.OperatingSystemMXBean)) {
+      return processors;
+    }
+    final long memory = ((com.sun.management.OperatingSystemMXBean)osBean).getTotalPhysicalMemorySize();
+    return (int)Math.max(1, Math.min(processors, memory / 2 / heapSize));
+  }
+
   public static boolean canBePreDexed(@NotNull File file) {
     return "jar".equals(FileUtilRt.getExtension(file.getName()));
   }
@@ -0,0 +1,49 @@
+package org.jetbrains.jps.android;
+
+import com.android.sdklib.BuildToolInfo;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.android.model.JpsAndroidDexCompilerConfiguration;
+import org.jetbrains.jps.android.model.JpsAndroidExtensionService;
+import org.jetbrains.jps.model.JpsProject;
+
+import java.io.File;
+
+/**
+ * Cache of pre-dexed jars, keyed by the content of the jar and by the dx revision and options it was dexed with.
+ */
+class AndroidPreDexCache extends AndroidOutputCache {
+  @NonNls private static final String CACHE_DIR_NAME = "android-pre-dex-cache";
+  @NonNls private static final String CACHED_FILE_EXTENSION = ".jar";
+  /** Pre-dexed jars of all the dependencies of a couple of projects and build tools revisions */
+  private static final long MAX_SIZE = 512L * 1024 * 1024;
+
+  AndroidPreDexCache(@NotNull File dir, @NotNull String dexerId) {
+    super(dir, dexerId, CACHED_FILE_EXTENSION, MAX_SIZE);
+  }
+
+  /**
+   * Returns the cache for jars dexed for the given project and platform, or null if pre-dexed jars should not be
+   * cached (see {@link #getCacheRoot()})
+   */
+  @Nullable
+  static AndroidPreDexCache create(@NotNull AndroidPlatform platform, @NotNull JpsProject project) {
+    final File cacheRoot = getCacheRoot();
+    final BuildToolInfo buildToolInfo = platform.getTarget().getBuildToolInfo();
+    if (cacheRoot == null || buildToolInfo == null) {
+      return null;
+    }
+    final StringBuilder dexerId = new StringBuilder();
+    dexerId.append(buildToolInfo.getRevision());
+
+    final JpsAndroidDexCompilerConfiguration configuration =
+      JpsAndroidExtensionService.getInstance().getDexCompilerConfiguration(project);
+    if (configuration != null) {
+      dexerId.append(":optimize=").append(configuration.isOptimize());
+      dexerId.append(":forceJumbo=").append(configuration.isForceJumbo());
+      dexerId.append(":coreLibrary=").append(configuration.isCoreLibrary());
+    }
+    return new AndroidPreDexCache(new File(cacheRoot, CACHE_DIR_NAME), dexerId.toString());
+  }
+}
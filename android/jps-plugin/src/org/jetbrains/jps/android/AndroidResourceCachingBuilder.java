@@ -2,18 +2,23 @@ package org.jetbrains.jps.android;
 
 import com.android.sdklib.IAndroidTarget;
 import com.android.tools.idea.jps.AndroidTargetBuilder;
+import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.io.FileUtil;
-import com.intellij.util.Processor;
+import com.intellij.openapi.util.io.FileUtilRt;
 import com.intellij.util.containers.HashMap;
+import com.intellij.util.containers.HashSet;
 import org.jetbrains.android.compiler.tools.AndroidApt;
+import org.jetbrains.android.util.AndroidCommonUtils;
 import org.jetbrains.android.util.AndroidCompilerMessageKind;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.android.builder.AndroidResourceCachingBuildTarget;
 import org.jetbrains.jps.android.model.JpsAndroidModuleExtension;
 import org.jetbrains.jps.builders.BuildOutputConsumer;
 import org.jetbrains.jps.builders.BuildRootDescriptor;
 import org.jetbrains.jps.builders.DirtyFilesHolder;
+import org.jetbrains.jps.builders.FileProcessor;
 import org.jetbrains.jps.incremental.CompileContext;
 import org.jetbrains.jps.incremental.ProjectBuildException;
 import org.jetbrains.jps.incremental.StopBuildException;
@@ -27,6 +32,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Eugene.Kudelevsky
@@ -47,14 +56,15 @@ public class AndroidResourceCachingBuilder extends AndroidTargetBuilder<BuildRoo
       return;
     }
 
-    if (!runPngCaching(target, context, outputConsumer)) {
+    if (!runPngCaching(target, holder, context, outputConsumer)) {
       throw new StopBuildException();
     }
   }
 
   private static boolean runPngCaching(AndroidResourceCachingBuildTarget target,
-                                       CompileContext context,
-                                       BuildOutputConsumer outputConsumer) throws IOException {
+                                       DirtyFilesHolder<BuildRootDescriptor, AndroidResourceCachingBuildTarget> holder,
+                                       final CompileContext context,
+                                       BuildOutputConsumer outputConsumer) throws IOException, ProjectBuildException {
     final JpsModule module = target.getModule();
     final JpsAndroidModuleExtension extension = AndroidJpsUtil.getExtension(module);
     assert extension != null;
@@ -101,39 +111,210 @@ public class AndroidResourceCachingBuilder extends AndroidTargetBuilder<BuildRoo
         inputDirs.add(f.getPath());
       }
     }
-    final Map<AndroidCompilerMessageKind, List<String>> messages =
-      AndroidApt.crunch(androidTarget, inputDirs,resCacheDir.getPath());
-    AndroidJpsUtil.addMessages(context, messages, BUILDER_NAME, module.getName());
-    final boolean success = messages.get(AndroidCompilerMessageKind.ERROR).isEmpty();
+    final Set<String> changedPaths = collectChangedPngs(target, holder, roots);
 
-    if (success) {
-      final Map<String, File> outputFiles = new HashMap<String, File>();
+    if (changedPaths.isEmpty()) {
+      return true;
+    }
+    final List<Pair<File, String>> pngsToCrunch = new ArrayList<Pair<File, String>>();
+
+    for (String relativePath : changedPaths) {
+      // the output of a stale or removed image must not survive a failed crunch
+      final File outputFile = new File(resCacheDir, relativePath);
+
+      if (outputFile.exists() && !FileUtil.delete(outputFile)) {
+        context.processMessage(new CompilerMessage(BUILDER_NAME, BuildMessage.Kind.ERROR, "Cannot delete " + outputFile.getPath()));
+        return false;
+      }
+      final File srcFile = findOverridingFile(inputDirs, relativePath);
+
+      if (srcFile != null) {
+        if (AndroidJpsUtil.createDirIfNotExist(outputFile.getParentFile(), context, BUILDER_NAME) == null) {
+          return false;
+        }
+        pngsToCrunch.add(Pair.create(srcFile, relativePath));
+      }
+    }
+
+    if (pngsToCrunch.isEmpty()) {
+      return true;
+    }
+    final AndroidCrunchCache cache = AndroidCrunchCache.create(platform);
+    final AtomicBoolean failed = new AtomicBoolean();
+    final String moduleName = module.getName();
+    final int threadCount = AndroidJpsUtil.getThreadCount(0, pngsToCrunch.size());
+    final int batchSize = (pngsToCrunch.size() + threadCount - 1) / threadCount;
+    final List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+
+    // aapt crunches every image independently, so the images are split in one batch per thread, each crunched by its own aapt process
+    for (int i = 0; i < pngsToCrunch.size(); i += batchSize) {
+      final List<Pair<File, String>> batch = pngsToCrunch.subList(i, Math.min(i + batchSize, pngsToCrunch.size()));
 
-      FileUtil.processFilesRecursively(resCacheDir, new Processor<File>() {
+      tasks.add(new Callable<Boolean>() {
         @Override
-        public boolean process(File file) {
-          if (file.isFile()) {
-            final String relativePath = FileUtil.getRelativePath(resCacheDir, file);
+        public Boolean call() throws Exception {
+          if (failed.get()) {
+            return false;
+          }
+          final boolean success = crunch(batch, androidTarget, resCacheDir, cache, context, moduleName);
 
-            if (relativePath != null) {
-              outputFiles.put(relativePath, file);
-            }
+          if (!success) {
+            failed.set(true);
           }
-          return true;
+          return success;
         }
       });
+    }
+    for (Future<Boolean> future : AndroidJpsUtil.invokeAll(context, tasks, threadCount)) {
+      AndroidJpsUtil.getResult(future);
+    }
+    if (cache != null) {
+      cache.prune();
+    }
 
-      for (Map.Entry<String, File> entry : outputFiles.entrySet()) {
-        final String relativePath = entry.getKey();
-        final File outputFile = entry.getValue();
+    if (failed.get()) {
+      return false;
+    }
+
+    for (Pair<File, String> pair : pngsToCrunch) {
+      final File outputFile = new File(resCacheDir, pair.getSecond());
+
+      if (outputFile.isFile()) {
+        registerOutputFile(outputConsumer, outputFile, pair.getSecond(), inputDirs);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the paths, relative to their resource directories, of the images added, changed or removed since the last build
+   */
+  @NotNull
+  private static Set<String> collectChangedPngs(@NotNull AndroidResourceCachingBuildTarget target,
+                                                @NotNull DirtyFilesHolder<BuildRootDescriptor, AndroidResourceCachingBuildTarget> holder,
+                                                @NotNull List<BuildRootDescriptor> roots) throws IOException {
+    final Set<String> result = new HashSet<String>();
 
-        for (String inputDir : inputDirs) {
-          final File srcFile = new File(inputDir, relativePath);
-          outputConsumer.registerOutputFile(outputFile, Collections.singletonList(srcFile.getPath()));
+    holder.processDirtyFiles(new FileProcessor<BuildRootDescriptor, AndroidResourceCachingBuildTarget>() {
+      @Override
+      public boolean apply(AndroidResourceCachingBuildTarget target, File file, BuildRootDescriptor root) throws IOException {
+        if (isPng(file)) {
+          final String relativePath = FileUtil.getRelativePath(root.getRootFile(), file);
+
+          if (relativePath != null) {
+            result.add(relativePath);
+          }
         }
+        return true;
+      }
+    });
+
+    for (String path : holder.getRemovedFiles(target)) {
+      final File file = new File(path);
+
+      if (!isPng(file)) {
+        continue;
       }
+      for (BuildRootDescriptor root : roots) {
+        final File rootFile = root.getRootFile();
+
+        if (FileUtil.isAncestor(rootFile, file, true)) {
+          final String relativePath = FileUtil.getRelativePath(rootFile, file);
+
+          if (relativePath != null) {
+            result.add(relativePath);
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  private static boolean isPng(@NotNull File file) {
+    return FileUtilRt.extensionEquals(file.getName(), AndroidCommonUtils.PNG_EXTENSION);
+  }
+
+  /**
+   * Returns the image which ends up in the application for the given path: resource directories override the following ones
+   */
+  @Nullable
+  private static File findOverridingFile(@NotNull List<String> inputDirs, @NotNull String relativePath) {
+    for (String inputDir : inputDirs) {
+      final File file = new File(inputDir, relativePath);
+
+      if (file.isFile()) {
+        return file;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Crunches the given images into the output directory, copying the ones crunched before from the cache
+   */
+  private static boolean crunch(@NotNull List<Pair<File, String>> pngs,
+                                @NotNull IAndroidTarget androidTarget,
+                                @NotNull File resCacheDir,
+                                @Nullable AndroidCrunchCache cache,
+                                @NotNull CompileContext context,
+                                @NotNull String moduleName) throws IOException {
+    final Map<String, String> keys = new HashMap<String, String>();
+    final List<Pair<File, String>> pngsToCrunch = new ArrayList<Pair<File, String>>();
+
+    for (Pair<File, String> pair : pngs) {
+      final String relativePath = pair.getSecond();
+      final String key = cache != null ? cache.getKey(pair.getFirst()) : null;
+
+      if (key != null && cache.restore(key, new File(resCacheDir, relativePath))) {
+        continue;
+      }
+      if (key != null) {
+        keys.put(relativePath, key);
+      }
+      pngsToCrunch.add(pair);
+    }
+
+    if (pngsToCrunch.isEmpty()) {
+      return true;
+    }
+    final File tempDir = FileUtil.createTempDirectory("android_crunch", "tmp");
+
+    try {
+      for (Pair<File, String> pair : pngsToCrunch) {
+        FileUtil.copy(pair.getFirst(), new File(tempDir, pair.getSecond()));
+      }
+      final Map<AndroidCompilerMessageKind, List<String>> messages =
+        AndroidApt.crunch(androidTarget, Collections.singletonList(tempDir.getPath()), resCacheDir.getPath());
+      AndroidJpsUtil.addMessages(context, messages, BUILDER_NAME, moduleName);
+
+      if (!messages.get(AndroidCompilerMessageKind.ERROR).isEmpty()) {
+        return false;
+      }
+    }
+    finally {
+      FileUtil.delete(tempDir);
+    }
+
+    if (cache != null) {
+      for (Map.Entry<String, String> entry : keys.entrySet()) {
+        final File outputFile = new File(resCacheDir, entry.getKey());
+
+        if (outputFile.isFile()) {
+          cache.store(entry.getValue(), outputFile);
+        }
+      }
+    }
+    return true;
+  }
+
+  private static void registerOutputFile(@NotNull BuildOutputConsumer outputConsumer,
+                                         @NotNull File outputFile,
+                                         @NotNull String relativePath,
+                                         @NotNull List<String> inputDirs) throws IOException {
+    for (String inputDir : inputDirs) {
+      final File srcFile = new File(inputDir, relativePath);
+      outputConsumer.registerOutputFile(outputFile, Collections.singletonList(srcFile.getPath()));
     }
-    return success;
   }
 
   @NotNull
@@ -55,6 +55,8 @@ import org.jetbrains.jps.service.JpsServiceManager;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 /**
  * @author Eugene.Kudelevsky
@@ -122,7 +124,7 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
   private static ModuleLevelBuilder.ExitCode doBuild(CompileContext context,
                                                      ModuleChunk chunk,
                                                      DirtyFilesHolder<JavaSourceRootDescriptor, ModuleBuildTarget> dirtyFilesHolder)
-    throws IOException {
+    throws IOException, ProjectBuildException {
     final Map<JpsModule, MyModuleData> moduleDataMap = computeModuleDatas(chunk.getModules(), context);
     if (moduleDataMap == null || moduleDataMap.size() == 0) {
       return ExitCode.ABORT;
@@ -679,16 +681,20 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
 
   private static boolean runAidlCompiler(@NotNull final CompileContext context,
                                          @NotNull Map<File, ModuleBuildTarget> files,
-                                         @NotNull Map<JpsModule, MyModuleData> moduleDataMap) {
+                                         @NotNull Map<JpsModule, MyModuleData> moduleDataMap) throws ProjectBuildException {
     if (files.size() > 0) {
       context.processMessage(new ProgressMessage(AndroidJpsBundle.message("android.jps.progress.aidl")));
     }
 
     boolean success = true;
-
-    for (Map.Entry<File, ModuleBuildTarget> entry : files.entrySet()) {
-      final File file = entry.getKey();
-      final ModuleBuildTarget buildTarget = entry.getValue();
+    final Map<JpsModule, String[]> sourceRootPathsMap = new HashMap<JpsModule, String[]>();
+    final List<File> compiledFiles = new ArrayList<File>();
+    final List<File> outputFiles = new ArrayList<File>();
+    final List<Callable<Map<AndroidCompilerMessageKind, List<String>>>> invocations =
+      new ArrayList<Callable<Map<AndroidCompilerMessageKind, List<String>>>>();
+
+    for (final File file : sortByPath(files.keySet())) {
+      final ModuleBuildTarget buildTarget = files.get(file);
       final String filePath = file.getPath();
 
       final MyModuleData moduleData = moduleDataMap.get(buildTarget.getModule());
@@ -714,8 +720,12 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
       final IAndroidTarget target = moduleData.getPlatform().getTarget();
 
       try {
-        final File[] sourceRoots = AndroidJpsUtil.getSourceRootsForModuleAndDependencies(buildTarget.getModule());
-        final String[] sourceRootPaths = AndroidJpsUtil.toPaths(sourceRoots);
+        String[] sourceRootPaths = sourceRootPathsMap.get(buildTarget.getModule());
+
+        if (sourceRootPaths == null) {
+          sourceRootPaths = AndroidJpsUtil.toPaths(AndroidJpsUtil.getSourceRootsForModuleAndDependencies(buildTarget.getModule()));
+          sourceRootPathsMap.put(buildTarget.getModule(), sourceRootPaths);
+        }
         final String packageName = computePackageForFile(context, file);
 
         if (packageName == null) {
@@ -728,17 +738,42 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
         final File outputFile = new File(aidlOutputDirectory, packageName.replace('.', File.separatorChar) +
                                                               File.separator + FileUtil.getNameWithoutExtension(file) + ".java");
         final String outputFilePath = outputFile.getPath();
-        final Map<AndroidCompilerMessageKind, List<String>> messages =
-          AndroidIdl.execute(target, filePath, outputFilePath, sourceRootPaths);
+        final String[] finalSourceRootPaths = sourceRootPaths;
+
+        // aidl compiles a single interface per invocation
+        invocations.add(new Callable<Map<AndroidCompilerMessageKind, List<String>>>() {
+          @Override
+          public Map<AndroidCompilerMessageKind, List<String>> call() throws Exception {
+            return AndroidIdl.execute(target, filePath, outputFilePath, finalSourceRootPaths);
+          }
+        });
+        compiledFiles.add(file);
+        outputFiles.add(outputFile);
+      }
+      catch (final IOException e) {
+        AndroidJpsUtil.reportExceptionError(context, filePath, e, ANDROID_IDL_COMPILER);
+        success = false;
+      }
+    }
+    final List<Future<Map<AndroidCompilerMessageKind, List<String>>>> results = AndroidJpsUtil.invokeAll(context, invocations, 0);
 
+    // messages and outputs are processed in the order of the files, whatever order the invocations completed in
+    for (int i = 0; i < results.size(); i++) {
+      final File file = compiledFiles.get(i);
+      final String filePath = file.getPath();
+
+      try {
+        final Map<AndroidCompilerMessageKind, List<String>> messages = AndroidJpsUtil.getResult(results.get(i));
         addMessages(context, messages, filePath, ANDROID_IDL_COMPILER);
 
+        final File outputFile = outputFiles.get(i);
+
         if (messages.get(AndroidCompilerMessageKind.ERROR).size() > 0) {
           success = false;
         }
         else if (outputFile.exists()) {
-          final SourceToOutputMapping sourceToOutputMap = context.getProjectDescriptor().dataManager.getSourceToOutputMap(buildTarget);
-          sourceToOutputMap.setOutput(filePath, outputFilePath);
+          final SourceToOutputMapping sourceToOutputMap = context.getProjectDescriptor().dataManager.getSourceToOutputMap(files.get(file));
+          sourceToOutputMap.setOutput(filePath, outputFile.getPath());
           FSOperations.markDirty(context, outputFile);
         }
       }
@@ -752,95 +787,139 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
 
   private static boolean runRenderscriptCompiler(@NotNull final CompileContext context,
                                                  @NotNull Map<File, ModuleBuildTarget> files,
-                                                 @NotNull Map<JpsModule, MyModuleData> moduleDataMap) {
+                                                 @NotNull Map<JpsModule, MyModuleData> moduleDataMap)
+    throws ProjectBuildException {
     if (files.size() > 0) {
       context.processMessage(new ProgressMessage(AndroidJpsBundle.message("android.jps.progress.renderscript")));
     }
 
     boolean success = true;
+    final BuildDataManager dataManager = context.getProjectDescriptor().dataManager;
+    final List<File> compiledFiles = new ArrayList<File>();
+    final List<File> tmpOutputDirectories = new ArrayList<File>();
+    final List<Callable<Map<AndroidCompilerMessageKind, List<String>>>> invocations =
+      new ArrayList<Callable<Map<AndroidCompilerMessageKind, List<String>>>>();
 
-    for (Map.Entry<File, ModuleBuildTarget> entry : files.entrySet()) {
-      final File file = entry.getKey();
-      final ModuleBuildTarget buildTarget = entry.getValue();
-
-      final MyModuleData moduleData = moduleDataMap.get(buildTarget.getModule());
-      if (!LOG.assertTrue(moduleData != null)) {
-        context.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR,
-                                                   AndroidJpsBundle.message("android.jps.internal.error")));
-        success = false;
-        continue;
-      }
-
-      final BuildDataManager dataManager = context.getProjectDescriptor().dataManager;
-      final File generatedSourcesDir = AndroidJpsUtil.getGeneratedSourcesStorage(buildTarget.getModule(), dataManager);
-      final File rsOutputDirectory = new File(generatedSourcesDir, AndroidJpsUtil.RENDERSCRIPT_GENERATED_SOURCE_ROOT_NAME);
-      if (!rsOutputDirectory.exists() && !rsOutputDirectory.mkdirs()) {
-        context.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR, AndroidJpsBundle
-          .message("android.jps.cannot.create.directory", rsOutputDirectory.getPath())));
-        success = false;
-        continue;
-      }
-
-      final File generatedResourcesDir = AndroidJpsUtil.getGeneratedResourcesStorage(buildTarget.getModule(), dataManager);
-      final File rawDir = new File(generatedResourcesDir, "raw");
+    try {
+      for (File file : sortByPath(files.keySet())) {
+        final ModuleBuildTarget buildTarget = files.get(file);
 
-      if (!rawDir.exists() && !rawDir.mkdirs()) {
-        context.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR,
-                                                   AndroidJpsBundle.message("android.jps.cannot.create.directory", rawDir.getPath())));
-        success = false;
-        continue;
-      }
+        final MyModuleData moduleData = moduleDataMap.get(buildTarget.getModule());
+        if (!LOG.assertTrue(moduleData != null)) {
+          context.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR,
+                                                     AndroidJpsBundle.message("android.jps.internal.error")));
+          success = false;
+          continue;
+        }
 
-      final AndroidPlatform platform = moduleData.getPlatform();
-      final IAndroidTarget target = platform.getTarget();
-      final String sdkLocation = platform.getSdk().getHomePath();
-      final String filePath = file.getPath();
+        final File generatedSourcesDir = AndroidJpsUtil.getGeneratedSourcesStorage(buildTarget.getModule(), dataManager);
+        final File rsOutputDirectory = new File(generatedSourcesDir, AndroidJpsUtil.RENDERSCRIPT_GENERATED_SOURCE_ROOT_NAME);
+        if (!rsOutputDirectory.exists() && !rsOutputDirectory.mkdirs()) {
+          context.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR, AndroidJpsBundle
+            .message("android.jps.cannot.create.directory", rsOutputDirectory.getPath())));
+          success = false;
+          continue;
+        }
 
-      File tmpOutputDirectory = null;
+        final File generatedResourcesDir = AndroidJpsUtil.getGeneratedResourcesStorage(buildTarget.getModule(), dataManager);
+        final File rawDir = new File(generatedResourcesDir, "raw");
 
-      try {
-        tmpOutputDirectory = FileUtil.createTempDirectory("generated-rs-temp", null);
-        final String depFolderPath = getDependencyFolder(context, file, tmpOutputDirectory);
+        if (!rawDir.exists() && !rawDir.mkdirs()) {
+          context.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR,
+                                                     AndroidJpsBundle.message("android.jps.cannot.create.directory", rawDir.getPath())));
+          success = false;
+          continue;
+        }
 
-        final Map<AndroidCompilerMessageKind, List<String>> messages =
-          AndroidRenderscript.execute(sdkLocation, target, filePath, tmpOutputDirectory.getPath(), depFolderPath, rawDir.getPath());
+        final AndroidPlatform platform = moduleData.getPlatform();
+        final IAndroidTarget target = platform.getTarget();
+        final String sdkLocation = platform.getSdk().getHomePath();
+        final String filePath = file.getPath();
 
-        addMessages(context, messages, filePath, ANDROID_RENDERSCRIPT_COMPILER);
+        try {
+          final File tmpOutputDirectory = FileUtil.createTempDirectory("generated-rs-temp", null);
+          tmpOutputDirectories.add(tmpOutputDirectory);
+          final String depFolderPath = getDependencyFolder(context, file, tmpOutputDirectory);
 
-        if (messages.get(AndroidCompilerMessageKind.ERROR).size() > 0) {
+          // llvm-rs-cc could compile several scripts at once, but then their outputs could not be told apart
+          invocations.add(new Callable<Map<AndroidCompilerMessageKind, List<String>>>() {
+            @Override
+            public Map<AndroidCompilerMessageKind, List<String>> call() throws Exception {
+              return AndroidRenderscript.execute(sdkLocation, target, filePath, tmpOutputDirectory.getPath(), depFolderPath,
+                                                 rawDir.getPath());
+            }
+          });
+          compiledFiles.add(file);
+        }
+        catch (IOException e) {
+          AndroidJpsUtil.reportExceptionError(context, filePath, e, ANDROID_RENDERSCRIPT_COMPILER);
           success = false;
         }
-        else {
-          final List<File> newFiles = new ArrayList<File>();
-          AndroidCommonUtils.moveAllFiles(tmpOutputDirectory, rsOutputDirectory, newFiles);
+      }
+      final List<Future<Map<AndroidCompilerMessageKind, List<String>>>> results = AndroidJpsUtil.invokeAll(context, invocations, 0);
+
+      // generated files are moved to the output directory in the order of the scripts, so that a file generated by several
+      // scripts is the same in every build
+      for (int i = 0; i < results.size(); i++) {
+        final File file = compiledFiles.get(i);
+        final ModuleBuildTarget buildTarget = files.get(file);
+        final String filePath = file.getPath();
+
+        try {
+          final Map<AndroidCompilerMessageKind, List<String>> messages = AndroidJpsUtil.getResult(results.get(i));
+          addMessages(context, messages, filePath, ANDROID_RENDERSCRIPT_COMPILER);
 
-          final File bcFile = new File(rawDir, FileUtil.getNameWithoutExtension(file) + ".bc");
-          if (bcFile.exists()) {
-            newFiles.add(bcFile);
+          if (messages.get(AndroidCompilerMessageKind.ERROR).size() > 0) {
+            success = false;
           }
-          final List<String> newFilePaths = Arrays.asList(AndroidJpsUtil.toPaths(newFiles.toArray(new File[newFiles.size()])));
+          else {
+            final File generatedSourcesDir = AndroidJpsUtil.getGeneratedSourcesStorage(buildTarget.getModule(), dataManager);
+            final File rsOutputDirectory = new File(generatedSourcesDir, AndroidJpsUtil.RENDERSCRIPT_GENERATED_SOURCE_ROOT_NAME);
+            final File rawDir = new File(AndroidJpsUtil.getGeneratedResourcesStorage(buildTarget.getModule(), dataManager), "raw");
 
-          final SourceToOutputMapping sourceToOutputMap = dataManager.getSourceToOutputMap(buildTarget);
-          sourceToOutputMap.setOutputs(filePath, newFilePaths);
+            final List<File> newFiles = new ArrayList<File>();
+            AndroidCommonUtils.moveAllFiles(tmpOutputDirectories.get(i), rsOutputDirectory, newFiles);
 
-          for (File newFile : newFiles) {
-            FSOperations.markDirty(context, newFile);
+            final File bcFile = new File(rawDir, FileUtil.getNameWithoutExtension(file) + ".bc");
+            if (bcFile.exists()) {
+              newFiles.add(bcFile);
+            }
+            final List<String> newFilePaths = Arrays.asList(AndroidJpsUtil.toPaths(newFiles.toArray(new File[newFiles.size()])));
+
+            final SourceToOutputMapping sourceToOutputMap = dataManager.getSourceToOutputMap(buildTarget);
+            sourceToOutputMap.setOutputs(filePath, newFilePaths);
+
+            for (File newFile : newFiles) {
+              FSOperations.markDirty(context, newFile);
+            }
           }
         }
-      }
-      catch (IOException e) {
-        AndroidJpsUtil.reportExceptionError(context, filePath, e, ANDROID_RENDERSCRIPT_COMPILER);
-        success = false;
-      }
-      finally {
-        if (tmpOutputDirectory != null) {
-          FileUtil.delete(tmpOutputDirectory);
+        catch (IOException e) {
+          AndroidJpsUtil.reportExceptionError(context, filePath, e, ANDROID_RENDERSCRIPT_COMPILER);
+          success = false;
         }
       }
     }
+    finally {
+      for (File tmpOutputDirectory : tmpOutputDirectories) {
+        FileUtil.delete(tmpOutputDirectory);
+      }
+    }
     return success;
   }
 
+  @NotNull
+  private static List<File> sortByPath(@NotNull Collection<File> files) {
+    final List<File> result = new ArrayList<File>(files);
+    Collections.sort(result, new Comparator<File>() {
+      @Override
+      public int compare(File f1, File f2) {
+        return f1.getPath().compareTo(f2.getPath());
+      }
+    });
+    return result;
+  }
+
   private static MyExitStatus runAaptCompiler(@NotNull final CompileContext context,
                                               @NotNull Map<JpsModule, MyModuleData> moduleDataMap)
     throws IOException {
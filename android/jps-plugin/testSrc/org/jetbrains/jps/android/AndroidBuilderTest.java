@@ -44,10 +44,14 @@ import org.jetbrains.jps.util.JpsPathUtil;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -554,6 +558,65 @@ public class AndroidBuilderTest extends JpsBuildTestCase {
     checkMakeUpToDate(executor);
   }
 
+  public void testIncrementalCrunch() throws Exception {
+    final List<Set<String>> crunchedPngs = new ArrayList<Set<String>>();
+
+    final MyExecutor executor = new MyExecutor("com.example.simple") {
+      @NotNull
+      @Override
+      protected Process doCreateProcess(@NotNull String[] args, @NotNull Map<? extends String, ? extends String> environment)
+        throws Exception {
+        if (args[0].endsWith(SdkConstants.FN_AAPT) && "crunch".equals(args[1])) {
+          final File inputDir = new File(args[3]);
+          final File outputDir = new File(args[5]);
+          final Set<String> pngs = new HashSet<String>();
+
+          for (File png : FileUtil.findFilesByMask(Pattern.compile(".*\\.png"), inputDir)) {
+            final String relativePath = FileUtil.getRelativePath(inputDir, png);
+            assert relativePath != null;
+            pngs.add(FileUtil.toSystemIndependentName(relativePath));
+            FileUtil.copy(png, new File(outputDir, relativePath));
+          }
+          crunchedPngs.add(pngs);
+          return new MyProcess(0, "", "");
+        }
+        return super.doCreateProcess(args, environment);
+      }
+    };
+    final File cacheRoot = FileUtil.createTempDirectory("android_output_cache", "tmp");
+    AndroidOutputCache.setTestCacheRoot(cacheRoot);
+    try {
+      setUpSimpleAndroidStructure(new String[]{"src"}, executor, null, "2");
+      rebuildAll();
+      assertEquals(Collections.singletonList(new HashSet<String>(Arrays.asList(
+        "drawable-hdpi/ic_launcher.png", "drawable-ldpi/ic_launcher.png",
+        "drawable-mdpi/ic_launcher.png", "drawable-xhdpi/ic_launcher.png"))), crunchedPngs);
+      checkMakeUpToDate(executor);
+
+      final String changedPng = getProjectPath("res/drawable-mdpi/ic_launcher.png");
+      crunchedPngs.clear();
+      change(changedPng, "changed_png_content");
+      makeAll().assertSuccessful();
+      assertEquals(Collections.singletonList(Collections.singleton("drawable-mdpi/ic_launcher.png")), crunchedPngs);
+      checkMakeUpToDate(executor);
+
+      // An image with the content of one crunched before is copied from the crunch cache
+      final File hdpiPng = new File(getProjectPath("res/drawable-hdpi/ic_launcher.png"));
+      crunchedPngs.clear();
+      FileUtil.copy(hdpiPng, new File(changedPng));
+      change(changedPng);
+      makeAll().assertSuccessful();
+      assertTrue(crunchedPngs.isEmpty());
+      assertTrue(Arrays.equals(FileUtil.loadFileBytes(hdpiPng), FileUtil.loadFileBytes(
+        new File(myDataStorageRoot, "android/res_cache/module/drawable-mdpi/ic_launcher.png"))));
+      checkMakeUpToDate(executor);
+    }
+    finally {
+      AndroidOutputCache.setTestCacheRoot(null);
+      FileUtil.delete(cacheRoot);
+    }
+  }
+
   public void test7() throws Exception {
     final boolean[] class1Deleted = {false};
 
@@ -1213,6 +1276,34 @@ public class AndroidBuilderTest extends JpsBuildTestCase {
     checkBuildLog(executor, "expected_log_4");
   }
 
+  public void testPreDexCache() throws Exception {
+    final File cacheRoot = FileUtil.createTempDirectory("android_output_cache", "tmp");
+    AndroidOutputCache.setTestCacheRoot(cacheRoot);
+    try {
+      final MyExecutor executor = new MyExecutor("com.example.simple");
+      final JpsModule module = setUpSimpleAndroidStructure(new String[]{"src", "resources"}, executor, null, "3").getFirst();
+
+      final JpsLibrary lib = module.addModuleLibrary("lib", JpsJavaLibraryType.INSTANCE);
+      lib.addRoot(getProjectPath("external_jar1.jar"), JpsOrderRootType.COMPILED);
+      module.getDependenciesList().addLibraryDependency(lib);
+
+      rebuildAll();
+      checkBuildLog(executor, "expected_log");
+
+      // The jar is unchanged, so the rebuild restores it from the cache instead of running dx on it again
+      executor.clear();
+      rebuildAll();
+      checkBuildLog(executor, "expected_log_1");
+      assertEquals("classes_dex_content", FileUtil.loadFile(
+        new File(myDataStorageRoot, "android/intermediate_artifacts/pre_dexed_libs/external_jar1.jar")));
+      checkMakeUpToDate(executor);
+    }
+    finally {
+      AndroidOutputCache.setTestCacheRoot(null);
+      FileUtil.delete(cacheRoot);
+    }
+  }
+
   private void checkMakeUpToDate(MyExecutor executor) {
     executor.clear();
     makeAll().assertUpToDate();
@@ -1255,6 +1346,7 @@ public class AndroidBuilderTest extends JpsBuildTestCase {
                                                               "/android_combined_assets\\d*tmp");
     executor.addRegexPathPatternPrefix("COMBINED_RESOURCES_TMP", FileUtil.toSystemIndependentName(tempDirectory) +
                                                               "/android_combined_resources\\d*tmp");
+    executor.addRegexPathPatternPrefix("CRUNCH_TMP", FileUtil.toSystemIndependentName(tempDirectory) + "/android_crunch\\d*tmp");
     executor.addRegexPathPatternPrefix("CLASSPATH_TMP", FileUtil.toSystemIndependentName(tempDirectory) + "/classpath\\d*\\.tmp");
     executor.addRegexPathPattern("JAVA_PATH", ".*/java");
     executor.addRegexPathPattern("IDEA_RT_PATH", ".*/idea_rt.jar");
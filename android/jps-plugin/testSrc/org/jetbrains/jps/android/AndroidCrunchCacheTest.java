@@ -0,0 +1,77 @@
+package org.jetbrains.jps.android;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+public class AndroidCrunchCacheTest extends TestCase {
+  private File myDir;
+  private File myCacheDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("android_crunch_cache", "tmp");
+    myCacheDir = new File(myDir, "cache");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testKey() throws Exception {
+    final AndroidCrunchCache cache = new AndroidCrunchCache(myCacheDir, "19.1.0");
+    final String key = cache.getKey(createFile("res/drawable/icon.png", "image"));
+
+    // Only the content matters, not the name or location
+    assertEquals(key, cache.getKey(createFile("other/drawable-hdpi/logo.png", "image")));
+    assertFalse(key.equals(cache.getKey(createFile("res/drawable/changed.png", "other image"))));
+
+    // Nine-patch images are crunched differently
+    final String ninePatchKey = cache.getKey(createFile("res/drawable/button.9.png", "image"));
+    assertFalse(key.equals(ninePatchKey));
+    assertTrue(ninePatchKey.startsWith(key));
+
+    // As are images crunched by another aapt
+    assertFalse(key.equals(new AndroidCrunchCache(myCacheDir, "20.0.0").getKey(createFile("res/drawable/icon.png", "image"))));
+  }
+
+  public void testStaleEntries() throws Exception {
+    final AndroidCrunchCache cache = new AndroidCrunchCache(myCacheDir, "19.1.0");
+    final String usedKey = cache.getKey(createFile("used.png", "used"));
+    final String staleKey = cache.getKey(createFile("stale.png", "stale"));
+    cache.store(usedKey, createFile("out/used.png", "crunched"));
+    cache.store(staleKey, createFile("out/stale.png", "crunched"));
+
+    final long now = System.currentTimeMillis();
+    assertTrue(new File(myCacheDir, staleKey + ".png").setLastModified(now - AndroidOutputCache.MAX_UNUSED_AGE_MS - 60000));
+    final File oldTempFile = createFile("cache/left-over.tmp", "partial");
+    assertTrue(oldTempFile.setLastModified(now - AndroidOutputCache.MAX_TEMP_FILE_AGE_MS - 60000));
+    final File newTempFile = createFile("cache/being-stored.tmp", "partial");
+
+    cache.prune();
+    assertTrue(cache.restore(usedKey, new File(myDir, "restored/used.png")));
+    assertFalse(cache.restore(staleKey, new File(myDir, "restored/stale.png")));
+    assertFalse(oldTempFile.exists());
+    // Possibly still being written by another build
+    assertTrue(newTempFile.exists());
+
+    // Stale entries are stored again once their input is processed again
+    cache.store(staleKey, createFile("out/stale.png", "crunched"));
+    assertTrue(cache.restore(staleKey, new File(myDir, "restored/stale.png")));
+  }
+
+  private File createFile(String path, String content) throws IOException {
+    final File file = new File(myDir, path);
+    FileUtil.writeToFile(file, content);
+    return file;
+  }
+}
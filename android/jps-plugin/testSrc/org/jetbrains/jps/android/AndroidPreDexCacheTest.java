@@ -0,0 +1,99 @@
+package org.jetbrains.jps.android;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+public class AndroidPreDexCacheTest extends TestCase {
+  private File myDir;
+  private File myCacheDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("android_pre_dex_cache", "tmp");
+    myCacheDir = new File(myDir, "cache");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testHitAndMiss() throws Exception {
+    final AndroidPreDexCache cache = new AndroidPreDexCache(myCacheDir, "19.1.0:optimize=true");
+    final File input = createFile("lib.jar", "classes");
+    final File output = createFile("out/lib.jar", "dexed classes");
+    final String key = cache.getKey(input);
+
+    final File restored = new File(myDir, "restored/lib.jar");
+    assertFalse(cache.restore(key, restored));
+    assertFalse(restored.exists());
+
+    cache.store(key, output);
+    assertTrue(cache.restore(key, restored));
+    assertEquals("dexed classes", FileUtil.loadFile(restored));
+
+    // Same content in another file, e.g. the same library in another project
+    assertEquals(key, cache.getKey(createFile("other/lib.jar", "classes")));
+  }
+
+  public void testInputChanged() throws Exception {
+    final AndroidPreDexCache cache = new AndroidPreDexCache(myCacheDir, "19.1.0:optimize=true");
+    final File input = createFile("lib.jar", "classes");
+    final String key = cache.getKey(input);
+    cache.store(key, createFile("out/lib.jar", "dexed classes"));
+
+    FileUtil.writeToFile(input, "changed classes");
+    final String newKey = cache.getKey(input);
+    assertFalse(key.equals(newKey));
+    assertFalse(cache.restore(newKey, new File(myDir, "restored/lib.jar")));
+  }
+
+  public void testDexerChanged() throws Exception {
+    final File input = createFile("lib.jar", "classes");
+    final String key = new AndroidPreDexCache(myCacheDir, "19.1.0:optimize=true").getKey(input);
+    assertFalse(key.equals(new AndroidPreDexCache(myCacheDir, "20.0.0:optimize=true").getKey(input)));
+    assertFalse(key.equals(new AndroidPreDexCache(myCacheDir, "19.1.0:optimize=false").getKey(input)));
+  }
+
+  public void testPruneLeastRecentlyUsed() throws Exception {
+    final AndroidOutputCache cache = new AndroidOutputCache(myCacheDir, "id", ".jar", 10);
+    final String key1 = cache.getKey(createFile("1.jar", "1"));
+    final String key2 = cache.getKey(createFile("2.jar", "2"));
+    final String key3 = cache.getKey(createFile("3.jar", "3"));
+    cache.store(key1, createFile("out/1.jar", "12345"));
+    cache.store(key2, createFile("out/2.jar", "12345"));
+    cache.store(key3, createFile("out/3.jar", "12345"));
+
+    final long now = System.currentTimeMillis();
+    setLastModified(key1, now - 30000);
+    setLastModified(key2, now - 20000);
+    setLastModified(key3, now - 10000);
+
+    // Using the oldest entry makes the second one the least recently used
+    assertTrue(cache.restore(key1, new File(myDir, "restored/1.jar")));
+    cache.prune();
+
+    assertTrue(cache.restore(key1, new File(myDir, "restored/1.jar")));
+    assertFalse(cache.restore(key2, new File(myDir, "restored/2.jar")));
+    assertTrue(cache.restore(key3, new File(myDir, "restored/3.jar")));
+  }
+
+  private void setLastModified(String key, long time) {
+    assertTrue(new File(myCacheDir, key + ".jar").setLastModified(time));
+  }
+
+  private File createFile(String path, String content) throws IOException {
+    final File file = new File(myDir, path);
+    FileUtil.writeToFile(file, content);
+    return file;
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.configurations;
+
+import com.android.annotations.VisibleForTesting;
+import com.android.ide.common.rendering.api.ResourceValue;
+import com.android.ide.common.resources.ResourceRepository;
+import com.android.resources.ResourceType;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.intellij.openapi.components.ServiceManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Application wide cache of configured framework resources, shared by the {@link ResourceResolverCache} of all modules
+ * since the framework resources for a given API level and configuration do not depend on the module.
+ * <p>
+ * The cache is bounded by an estimate of the heap used by the configured resource maps; the least recently used
+ * configurations are evicted first.
+ */
+public class FrameworkResourceCache {
+  /** Estimated heap used by each configured resource; the resource values themselves belong to the framework resources */
+  private static final int ESTIMATED_ENTRY_SIZE = 64;
+
+  /** Maximum estimated heap used by the cached configured resources, in bytes */
+  private static final int DEFAULT_MEMORY_BUDGET = 32 * 1024 * 1024;
+
+  private final Cache<String, Entry> myCache;
+  private final AtomicInteger myHits = new AtomicInteger();
+  private final AtomicInteger myMisses = new AtomicInteger();
+  private final AtomicInteger myEvictions = new AtomicInteger();
+
+  @NotNull
+  public static FrameworkResourceCache getInstance() {
+    return ServiceManager.getService(FrameworkResourceCache.class);
+  }
+
+  public FrameworkResourceCache() {
+    this(DEFAULT_MEMORY_BUDGET);
+  }
+
+  @VisibleForTesting
+  FrameworkResourceCache(int memoryBudget) {
+    myCache = CacheBuilder.newBuilder()
+      // A single segment, such that the budget applies to the whole cache rather than being split between segments
+      .concurrencyLevel(1)
+      .maximumWeight(memoryBudget)
+      .weigher(new Weigher<String, Entry>() {
+        @Override
+        public int weigh(@NotNull String key, @NotNull Entry entry) {
+          return entry.size * ESTIMATED_ENTRY_SIZE;
+        }
+      })
+      .removalListener(new RemovalListener<String, Entry>() {
+        @Override
+        public void onRemoval(@NotNull RemovalNotification<String, Entry> notification) {
+          if (notification.wasEvicted()) {
+            myEvictions.incrementAndGet();
+          }
+        }
+      })
+      .build();
+  }
+
+  /**
+   * Returns the cached configured resources for the given API level and configuration key, or null if they have not
+   * been cached or were computed from a different framework resource repository (for example after the framework
+   * resources have been reloaded with more locales)
+   *
+   * @param apiLevel           the API level of the framework resources
+   * @param configurationKey   the {@link com.android.ide.common.resources.configuration.FolderConfiguration#getUniqueKey()}
+   *                           of the configuration
+   * @param frameworkResources the framework resources the configured resources must have been computed from
+   * @return the configured resources, or null
+   */
+  @Nullable
+  public Map<ResourceType, Map<String, ResourceValue>> get(int apiLevel,
+                                                           @NotNull String configurationKey,
+                                                           @NotNull ResourceRepository frameworkResources) {
+    Entry entry = myCache.getIfPresent(getKey(apiLevel, configurationKey));
+    if (entry == null || entry.source != frameworkResources) {
+      myMisses.incrementAndGet();
+      return null;
+    }
+    myHits.incrementAndGet();
+    return entry.resources;
+  }
+
+  /**
+   * Caches the configured resources computed from the given framework resources for the given API level and
+   * configuration key
+   */
+  public void put(int apiLevel,
+                  @NotNull String configurationKey,
+                  @NotNull ResourceRepository frameworkResources,
+                  @NotNull Map<ResourceType, Map<String, ResourceValue>> resources) {
+    myCache.put(getKey(apiLevel, configurationKey), new Entry(frameworkResources, resources));
+  }
+
+  /** Returns the number of lookups which found the configured resources */
+  public int getHits() {
+    return myHits.get();
+  }
+
+  /** Returns the number of lookups which did not find the configured resources */
+  public int getMisses() {
+    return myMisses.get();
+  }
+
+  /** Returns the number of configurations evicted to stay within the memory budget */
+  public int getEvictions() {
+    return myEvictions.get();
+  }
+
+  /** Returns a human readable summary of the hit, miss and eviction counts, for diagnostics */
+  @NotNull
+  public String getStatistics() {
+    return String.format("Configured framework resources: hits=%1$d, misses=%2$d, evictions=%3$d",
+                         getHits(), getMisses(), getEvictions());
+  }
+
+  @NotNull
+  private static String getKey(int apiLevel, @NotNull String configurationKey) {
+    return Integer.toString(apiLevel) + ':' + configurationKey;
+  }
+
+  private static class Entry {
+    @NotNull public final ResourceRepository source;
+    @NotNull public final Map<ResourceType, Map<String, ResourceValue>> resources;
+    public final int size;
+
+    private Entry(@NotNull ResourceRepository source, @NotNull Map<ResourceType, Map<String, ResourceValue>> resources) {
+      this.source = source;
+      this.resources = resources;
+      int size = 0;
+      for (Map<String, ResourceValue> values : resources.values()) {
+        size += values.size();
+      }
+      this.size = size;
+    }
+  }
+}
@@ -31,6 +31,7 @@ import com.android.tools.idea.rendering.Locale;
 import com.android.tools.idea.rendering.ResourceHelper;
 import com.android.tools.idea.rendering.multi.CompatibilityRenderTarget;
 import com.android.utils.SparseArray;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Maps;
 import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
@@ -48,17 +49,31 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 
 import static com.android.SdkConstants.*;
 
-/** Cache for resolved resources */
+/**
+ * Cache for resolved resources. The cache is thread safe, since render previews for the
+ * same module may be rendered concurrently; previews sharing a theme and configuration
+ * get the same resolver.
+ */
 public class ResourceResolverCache {
   private static final Logger LOG = Logger.getInstance(ResourceResolverCache.class);
 
+  /** Maximum number of resource resolvers kept; the least recently used resolvers are discarded first */
+  private static final int MAX_RESOLVERS = 50;
+
+  /**
+   * Suffix added to the configuration key of framework resources configured for a {@link CompatibilityRenderTarget},
+   * since their drawables may have been replaced by those of the real target
+   */
+  private static final String COMPATIBILITY_KEY_SUFFIX = "-compat";
+
   /** The configuration manager this cache corresponds to */
   private final ConfigurationManager myManager;
 
-  /** Map from theme and full configuration to the corresponding resource resolver */
+  /** Map from theme and full configuration to the corresponding resource resolver, bounded by {@link #MAX_RESOLVERS} */
   private final Map<String, ResourceResolver> myResolverMap;
 
   /**
@@ -70,22 +85,31 @@ public class ResourceResolverCache {
   private final Map<String, Map<ResourceType, Map<String, ResourceValue>>> myAppResourceMap;
 
   /**
-   * Map of configured framework resources. These are cached separately from the final resource
-   * resolver since they can be shared between different layouts that only vary by theme
+   * Map from configuration key to a copy of the corresponding full configuration, used to update the
+   * configured app resources when only some of the app resources have changed
    */
-  private final Map<String, Map<ResourceType, Map<String, ResourceValue>>> myFrameworkResourceMap;
+  private final Map<String, FolderConfiguration> myAppResourceConfigurations;
 
   /** The generation timestamp of our most recently cached app resources, used to invalidate on edits */
   private long myCachedGeneration;
 
+  /**
+   * The change stamp of the app resources the cached app resources are up to date with, used to find out
+   * which resources to update on edits
+   */
+  private long myCachedChangeStamp;
+
+  /** The app resources the cached app resources were computed from */
+  @Nullable private LocalResourceRepository myCachedResources;
+
   /** Map from API level to framework resources */
   private SparseArray<FrameworkResources> myFrameworkResources = new SparseArray<FrameworkResources>();
 
   public ResourceResolverCache(ConfigurationManager manager) {
     myManager = manager;
-    myResolverMap = Maps.newHashMap();
+    myResolverMap = CacheBuilder.newBuilder().maximumSize(MAX_RESOLVERS).<String, ResourceResolver>build().asMap();
     myAppResourceMap = Maps.newHashMap();
-    myFrameworkResourceMap = Maps.newHashMap();
+    myAppResourceConfigurations = Maps.newHashMap();
   }
 
   public static ResourceResolverCache create(ConfigurationManager manager) {
@@ -93,15 +117,26 @@ public class ResourceResolverCache {
   }
 
   @NotNull
-  public ResourceResolver getResourceResolver(@Nullable IAndroidTarget target,
-                                              @NotNull String themeStyle,
-                                              @NotNull final FolderConfiguration fullConfiguration) {
+  public synchronized ResourceResolver getResourceResolver(@Nullable IAndroidTarget target,
+                                                           @NotNull String themeStyle,
+                                                           @NotNull final FolderConfiguration fullConfiguration) {
     // Are caches up to date?
     final LocalResourceRepository resources = AppResourceRepository.getAppResources(myManager.getModule(), true);
     assert resources != null;
-    if (myCachedGeneration != resources.getModificationCount()) {
-      myResolverMap.clear();
-      myAppResourceMap.clear();
+    // Read the change stamp before the generation: if the resources change in between, the changes will
+    // just be applied again next time
+    long changeStamp = resources.getChangeStamp();
+    long generation = resources.getModificationCount();
+    if (myCachedGeneration != generation || myCachedResources != resources) {
+      if (myCachedResources != resources || changeStamp == myCachedChangeStamp ||
+          !updateAppResources(resources, resources.getChangesSince(myCachedChangeStamp))) {
+        myResolverMap.clear();
+        myAppResourceMap.clear();
+        myAppResourceConfigurations.clear();
+      }
+      myCachedGeneration = generation;
+      myCachedChangeStamp = changeStamp;
+      myCachedResources = resources;
     }
 
     // When looking up the configured project and framework resources, the theme doesn't matter, so we look up only
@@ -131,8 +166,14 @@ public class ResourceResolverCache {
           frameworkResources = Collections.emptyMap();
         }
         else {
-          // get the framework resource values based on the current config
-          frameworkResources = myFrameworkResourceMap.get(configurationKey);
+          // get the framework resource values based on the current config. These are cached separately from the final
+          // resource resolver since they can be shared between different layouts that only vary by theme, and between
+          // modules.
+          FrameworkResourceCache frameworkCache = FrameworkResourceCache.getInstance();
+          int apiLevel = target.getVersion().getFeatureLevel();
+          String frameworkKey = target instanceof CompatibilityRenderTarget
+                                ? configurationKey + COMPATIBILITY_KEY_SUFFIX : configurationKey;
+          frameworkResources = frameworkCache.get(apiLevel, frameworkKey, frameworkRes);
           if (frameworkResources == null) {
             frameworkResources = frameworkRes.getConfiguredResources(fullConfiguration);
 
@@ -145,7 +186,7 @@ public class ResourceResolverCache {
               }
             }
 
-            myFrameworkResourceMap.put(configurationKey, frameworkResources);
+            frameworkCache.put(apiLevel, frameworkKey, frameworkRes, frameworkResources);
           }
         }
       }
@@ -162,6 +203,9 @@ public class ResourceResolverCache {
           }
         });
         myAppResourceMap.put(configurationKey, configuredAppRes);
+        FolderConfiguration configuration = new FolderConfiguration();
+        configuration.set(fullConfiguration);
+        myAppResourceConfigurations.put(configurationKey, configuration);
       }
 
       // Resource Resolver
@@ -182,12 +226,65 @@ public class ResourceResolverCache {
       }
 
       myResolverMap.put(resolverKey, resolver);
-      myCachedGeneration = resources.getModificationCount();
     }
 
     return resolver;
   }
 
+  /**
+   * Updates the cached configured app resources affected by the given changes, rather than discarding all of them.
+   * Resource resolvers refer to the configured app resources, so they only need to be discarded when styles have
+   * changed, since resolvers compute the style inheritance up front.
+   *
+   * @param resources the app resources
+   * @param changes   the changes since the configured app resources were computed, as returned by
+   *                  {@link LocalResourceRepository#getChangesSince(long)}
+   * @return true if the cached resources were updated, or false if the changes are unknown and the caller
+   *         must discard the cached resources instead
+   */
+  private boolean updateAppResources(@NotNull final LocalResourceRepository resources,
+                                     @Nullable final Map<ResourceType, Set<String>> changes) {
+    if (changes == null) {
+      return false;
+    }
+
+    ApplicationManager.getApplication().runReadAction(new Runnable() {
+      @Override
+      public void run() {
+        for (Map.Entry<String, Map<ResourceType, Map<String, ResourceValue>>> entry : myAppResourceMap.entrySet()) {
+          FolderConfiguration configuration = myAppResourceConfigurations.get(entry.getKey());
+          assert configuration != null : entry.getKey();
+          Map<ResourceType, Map<String, ResourceValue>> configuredAppRes = entry.getValue();
+          for (Map.Entry<ResourceType, Set<String>> change : changes.entrySet()) {
+            ResourceType type = change.getKey();
+            Set<String> names = change.getValue();
+            Map<String, ResourceValue> values = configuredAppRes.get(type);
+            if (names == null || values == null) {
+              values = resources.getConfiguredResources(type, configuration);
+            } else {
+              // Copy rather than update the map in place, since it may be in use by a render in progress
+              values = Maps.newHashMap(values);
+              for (String name : names) {
+                ResourceValue value = resources.getConfiguredValue(type, name, configuration);
+                if (value != null) {
+                  values.put(name, value);
+                } else {
+                  values.remove(name);
+                }
+              }
+            }
+            configuredAppRes.put(type, values);
+          }
+        }
+      }
+    });
+
+    if (changes.containsKey(ResourceType.STYLE)) {
+      myResolverMap.clear();
+    }
+    return true;
+  }
+
   /**
    * Returns a {@link com.android.tools.idea.rendering.LocalResourceRepository} for the framework resources based on the current
    * configuration selection.
@@ -195,7 +292,7 @@ public class ResourceResolverCache {
    * @return the framework resources or null if not found.
    */
   @Nullable
-  public ResourceRepository getFrameworkResources(@NotNull FolderConfiguration configuration, @NotNull IAndroidTarget target) {
+  public synchronized ResourceRepository getFrameworkResources(@NotNull FolderConfiguration configuration, @NotNull IAndroidTarget target) {
     int apiLevel = target.getVersion().getFeatureLevel();
     FrameworkResources resources = myFrameworkResources.get(apiLevel);
 
@@ -339,9 +436,12 @@ public class ResourceResolverCache {
     }
   }
 
-  public void reset() {
+  public synchronized void reset() {
     myCachedGeneration = 0;
+    myCachedChangeStamp = 0;
+    myCachedResources = null;
     myAppResourceMap.clear();
+    myAppResourceConfigurations.clear();
     myResolverMap.clear();
   }
 }
@@ -22,23 +22,29 @@ import com.android.sdklib.devices.Device;
 import com.android.sdklib.devices.Screen;
 import com.android.tools.idea.rendering.ImageUtils;
 import com.android.tools.idea.rendering.RenderedImage;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
 import com.google.common.collect.Maps;
 import com.intellij.openapi.application.PathManager;
-import com.intellij.reference.SoftReference;
 import com.intellij.ui.Gray;
 import com.intellij.util.PathUtil;
+import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.IOException;
+import java.awt.image.DataBufferInt;
+import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
-import static com.android.SdkConstants.DOT_PNG;
 import static java.awt.RenderingHints.*;
 
 /**
@@ -53,8 +59,44 @@ import static java.awt.RenderingHints.*;
  * lighting images at multiple resolutions. It also uses cropping data from the device art
  * descriptor to remove extra padding around the images which is contained in the normal
  * device images and used by the screenshot action.
+ * <p>
+ * The images read from the device art, the composite images and the composite images scaled to
+ * the sizes they are painted at are kept in a cache bounded by the size of their pixels, and the
+ * composite images are also cached on disk as raw premultiplied rasters, which are much faster
+ * to load than PNG files.
  */
 public class DeviceArtPainter {
+  /** Maximum number of bytes of pixels held by {@link #ourImageCache} */
+  private static final long IMAGE_CACHE_SIZE = 64 * 1024 * 1024;
+
+  /** Maximum number of nine patches held by {@link #ourNinePatchCache} */
+  private static final int NINE_PATCH_CACHE_SIZE = 16;
+
+  /** Marks the start of the raw raster files of the disk cache */
+  private static final int RASTER_FILE_MAGIC = 0x41524742;
+
+  @NonNls private static final String RASTER_FILE_EXTENSION = ".argb";
+
+  /**
+   * Images read from the device art files, composite frame images and composite images scaled to a particular size,
+   * keyed by {@link #getLayerKey} and {@link FrameData#getKey}. Unlike soft references, the entries aren't all dropped
+   * as soon as memory gets low, which in a large IDE session would mean reading and scaling the images over and over.
+   */
+  private static final Cache<String, BufferedImage> ourImageCache = CacheBuilder.newBuilder()
+    .maximumWeight(IMAGE_CACHE_SIZE)
+    .weigher(new Weigher<String, BufferedImage>() {
+      @Override
+      public int weigh(@NotNull String key, @NotNull BufferedImage image) {
+        return 4 * image.getWidth() * image.getHeight();
+      }
+    })
+    .build();
+
+  /** Nine patches of stretchable device art files, keyed by path */
+  private static final Cache<String, NinePatch> ourNinePatchCache = CacheBuilder.newBuilder()
+    .maximumSize(NINE_PATCH_CACHE_SIZE)
+    .build();
+
   @NotNull private static final DeviceArtPainter ourInstance = new DeviceArtPainter();
   @Nullable private static volatile String ourSystemPath;
   @NotNull private Map<Device,DeviceData> myDeviceData = Maps.newHashMap();
@@ -202,44 +244,46 @@ public class DeviceArtPainter {
 
     Graphics2D g2d = null;
     try {
-      BufferedImage bg = ImageIO.read(background);
       Dimension screen = descriptor.getScreenSize(orientation); // Size of screen in ninepatch; will be stretched
       Dimension frameSize = descriptor.getFrameSize(orientation); // Size of full ninepatch, including stretchable screen area
       Point screenPos = descriptor.getScreenPos(orientation);
       boolean stretchable = descriptor.isStretchable();
+      int width;
+      int height;
       if (stretchable) {
         assert screen != null;
         assert frameSize != null;
-        int newWidth = image.getWidth() + frameSize.width - screen.width;
-        int newHeight = image.getHeight() + frameSize.height - screen.height;
-        bg = stretchImage(bg, newWidth, newHeight);
-      } else if (screen.width < image.getWidth()) {
-        // if the frame isn't stretchable, but is smaller than the image, then scale down the image
-        double scale = (double) screen.width / image.getWidth();
-        if (Math.abs(scale - 1.0) > ImageUtils.EPSILON) {
-          image = ImageUtils.scale(image, scale, scale);
+        width = image.getWidth() + frameSize.width - screen.width;
+        height = image.getHeight() + frameSize.height - screen.height;
+      } else {
+        BufferedImage bg = getLayer(background);
+        width = bg.getWidth();
+        height = bg.getHeight();
+        if (screen.width < image.getWidth()) {
+          // if the frame isn't stretchable, but is smaller than the image, then scale down the image
+          double scale = (double) screen.width / image.getWidth();
+          if (Math.abs(scale - 1.0) > ImageUtils.EPSILON) {
+            image = ImageUtils.scale(image, scale, scale);
+          }
         }
       }
-      g2d = bg.createGraphics();
+
+      // The cached layers are painted directly into the result, nine patches being stretched as they are painted
+      @SuppressWarnings("UndesirableClassUsage") // Don't need Retina image here, and it's more expensive
+      BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+      g2d = result.createGraphics();
+      paintLayer(g2d, background, stretchable, width, height);
 
       if (addShadow && shadow != null) {
-        BufferedImage shadowImage = ImageIO.read(shadow);
-        if (stretchable) {
-          shadowImage = stretchImage(shadowImage, bg.getWidth(), bg.getHeight());
-        }
-        g2d.drawImage(shadowImage, 0, 0, null, null);
+        paintLayer(g2d, shadow, stretchable, width, height);
       }
 
       g2d.drawImage(image, screenPos.x, screenPos.y, null, null);
 
       if (addReflection && reflection != null) { // Nexus One for example does not supply reflection image
-        BufferedImage reflectionImage = ImageIO.read(reflection);
-        if (stretchable) {
-          reflectionImage = stretchImage(reflectionImage, bg.getWidth(), bg.getHeight());
-        }
-        g2d.drawImage(reflectionImage, 0, 0, null, null);
+        paintLayer(g2d, reflection, stretchable, width, height);
       }
-      return bg;
+      return result;
     }
     catch (IOException e) {
       return image;
@@ -251,6 +295,51 @@ public class DeviceArtPainter {
     }
   }
 
+  /** Paints the given device art file at (0,0), stretching it to the given size if it is a nine patch */
+  private static void paintLayer(@NotNull Graphics2D g, @NotNull File file, boolean stretchable, int width, int height)
+    throws IOException {
+    if (stretchable) {
+      NinePatch ninePatch = getNinePatch(file);
+      //noinspection SynchronizationOnLocalVariableOrMethodParameter
+      synchronized (ninePatch) {
+        ninePatch.draw(g, 0, 0, width, height);
+      }
+    } else {
+      g.drawImage(getLayer(file), 0, 0, null, null);
+    }
+  }
+
+  /** Returns the image of the given device art file, reading it if it isn't cached. The returned image must not be modified. */
+  @NotNull
+  private static BufferedImage getLayer(@NotNull File file) throws IOException {
+    String key = getLayerKey(file);
+    BufferedImage image = ourImageCache.getIfPresent(key);
+    if (image == null) {
+      image = ImageIO.read(file);
+      if (image == null) {
+        throw new IOException("Cannot read " + file);
+      }
+      ourImageCache.put(key, image);
+    }
+    return image;
+  }
+
+  @NotNull
+  private static String getLayerKey(@NotNull File file) {
+    return file.getPath();
+  }
+
+  @NotNull
+  private static NinePatch getNinePatch(@NotNull File file) throws IOException {
+    NinePatch ninePatch = ourNinePatchCache.getIfPresent(file.getPath());
+    if (ninePatch == null) {
+      ninePatch = NinePatch.load(getLayer(file), true, false);
+      assert ninePatch != null;
+      ourNinePatchCache.put(file.getPath(), ninePatch);
+    }
+    return ninePatch;
+  }
+
   @NotNull
   public BufferedImage createFrame(@NotNull BufferedImage image,
                                    @NotNull Device device,
@@ -297,7 +386,7 @@ public class DeviceArtPainter {
 
       RenderedImage.paintClipped(g, scaledImage, device, screenX, screenY, false);
 
-      BufferedImage scaledFrameImage = ImageUtils.scale(frameImage, downScale, downScale, 0, 0);
+      BufferedImage scaledFrameImage = frame.getScaledImage(showEffects, frameImage, downScale);
       g.drawImage(scaledFrameImage, 0, 0, null);
       g.dispose();
 
@@ -506,11 +595,6 @@ public class DeviceArtPainter {
     private int myFrameHeight;
     private final FrameData myDouble;
 
-    @SuppressWarnings("ConstantConditions")
-    @NotNull private SoftReference<BufferedImage> myPlainImage = new SoftReference<BufferedImage>(null);
-    @SuppressWarnings("ConstantConditions")
-    @NotNull private SoftReference<BufferedImage> myEffectsImage = new SoftReference<BufferedImage>(null);
-
     private boolean isPortrait() {
       return myOrientation == ScreenOrientation.PORTRAIT;
     }
@@ -634,7 +718,7 @@ public class DeviceArtPainter {
       assert myDouble == null; // Should be using image from parent
       if (file.exists()) {
         try {
-          return ImageIO.read(file);
+          return getLayer(file);
         }
         catch (IOException e) {
           // pass
@@ -647,11 +731,12 @@ public class DeviceArtPainter {
     private static File getThumbnailCacheDir() {
       final String path = ourSystemPath != null ? ourSystemPath : (ourSystemPath = PathUtil.getCanonicalPath(PathManager.getSystemPath()));
       //noinspection HardCodedStringLiteral
-      return new File(path, "android-devices" + File.separator + "v2");
+      return new File(path, "android-devices" + File.separator + "v3");
     }
 
+    /** Returns the key of the composite image in {@link #ourImageCache}, which is also the name of its disk cache file */
     @NotNull
-    private File getCacheFile(boolean showEffects) {
+    private String getKey(boolean showEffects) {
       StringBuilder sb = new StringBuilder(20);
       DeviceArtDescriptor descriptor = myDeviceData.getDescriptor();
       sb.append(descriptor.getId());
@@ -671,8 +756,12 @@ public class DeviceArtPainter {
       if (showEffects) {
         sb.append("-effects");
       }
-      sb.append(DOT_PNG);
-      return new File(getThumbnailCacheDir(), sb.toString());
+      return sb.toString();
+    }
+
+    @NotNull
+    private File getCacheFile(boolean showEffects) {
+      return new File(getThumbnailCacheDir(), getKey(showEffects) + RASTER_FILE_EXTENSION);
     }
 
     private boolean isStretchable() {
@@ -685,18 +774,10 @@ public class DeviceArtPainter {
       File file = getCacheFile(showEffects);
       if (file.exists()) {
         try {
-          return ImageIO.read(file);
+          return readRaster(file);
         }
         catch (IOException e) {
-          // pass
-        }
-        catch (Throwable e) {
-          // pass: corrupt cached image, e.g. I've seen
-          //  java.lang.IndexOutOfBoundsException
-          //  at java.io.RandomAccessFile.readBytes(Native Method)
-          //  at java.io.RandomAccessFile.read(RandomAccessFile.java:338)
-          //  at javax.imageio.stream.FileImageInputStream.read(FileImageInputStream.java:101)
-          //  at com.sun.imageio.plugins.common.SubImageInputStream.read(SubImageInputStream.java:46)
+          // pass: corrupt or truncated cache file
         }
       }
 
@@ -712,27 +793,33 @@ public class DeviceArtPainter {
         }
       }
       File file = getCacheFile(showEffects);
-      if (file.exists()) {
-        boolean deleted = file.delete();
-        if (!deleted) {
+      File tempFile = null;
+      try {
+        // Write to a temporary file first, so other IDE instances never read a partially written file
+        tempFile = File.createTempFile(file.getName(), null, dir);
+        writeRaster(image, tempFile);
+        if (file.exists() && !file.delete()) {
           return;
         }
-      }
-      try {
-        ImageIO.write(image, "PNG", file);
+        if (tempFile.renameTo(file)) {
+          tempFile = null;
+        }
       }
       catch (IOException e) {
         // pass
-        if (file.exists()) {
+      }
+      finally {
+        if (tempFile != null) {
           //noinspection ResultOfMethodCallIgnored
-          file.delete();
+          tempFile.delete();
         }
       }
     }
 
     @Nullable
     public BufferedImage getImage(boolean showEffects) {
-      BufferedImage image = showEffects ? myEffectsImage.get() : myPlainImage.get();
+      String key = getKey(showEffects);
+      BufferedImage image = ourImageCache.getIfPresent(key);
       if (image != null) {
         return image;
       }
@@ -746,16 +833,29 @@ public class DeviceArtPainter {
       }
 
       if (image != null) {
-        if (showEffects) {
-          myEffectsImage = new SoftReference<BufferedImage>(image);
-        } else {
-          myPlainImage = new SoftReference<BufferedImage>(image);
-        }
+        ourImageCache.put(key, image);
       }
 
       return image;
     }
 
+    /**
+     * Returns the given image of this frame scaled by the given factor. Render previews keep painting frames at the same
+     * sizes, so the scaled images are cached.
+     */
+    @NotNull
+    private BufferedImage getScaledImage(boolean showEffects, @NotNull BufferedImage image, double scale) {
+      int width = Math.max(1, (int)(scale * image.getWidth()));
+      int height = Math.max(1, (int)(scale * image.getHeight()));
+      String key = getKey(showEffects) + '@' + width + 'x' + height;
+      BufferedImage scaled = ourImageCache.getIfPresent(key);
+      if (scaled == null) {
+        scaled = ImageUtils.scale(image, scale, scale, 0, 0);
+        ourImageCache.put(key, scaled);
+      }
+      return scaled;
+    }
+
     @SuppressWarnings("UnnecessaryLocalVariable")
     @VisibleForTesting
     @Nullable
@@ -768,7 +868,7 @@ public class DeviceArtPainter {
           int destWidth = sourceWidth / 2;
           int destHeight = sourceHeight / 2;
           @SuppressWarnings("UndesirableClassUsage") // Don't need Retina image here, and it's more expensive
-          BufferedImage dest = new BufferedImage(destWidth, destHeight, BufferedImage.TYPE_INT_ARGB);
+          BufferedImage dest = new BufferedImage(destWidth, destHeight, BufferedImage.TYPE_INT_ARGB_PRE);
           Graphics2D g = dest.createGraphics();
           g.setComposite(AlphaComposite.Src);
           //noinspection UseJBColor
@@ -793,12 +893,13 @@ public class DeviceArtPainter {
       }
 
       boolean stretchable = isStretchable();
-      if (stretchable) {
+      BufferedImage mask = getImage(descriptor.getMask(myOrientation));
+      if (stretchable && mask != null) {
         background = stretchImage(background, myFrameWidth, myFrameHeight);
       }
 
       @SuppressWarnings("UndesirableClassUsage") // Don't need Retina image here, and it's more expensive
-      BufferedImage composite = new BufferedImage(myFrameWidth, myFrameHeight, BufferedImage.TYPE_INT_ARGB);
+      BufferedImage composite = new BufferedImage(myFrameWidth, myFrameHeight, BufferedImage.TYPE_INT_ARGB_PRE);
       Graphics g = composite.createGraphics();
       g.setColor(Gray.TRANSPARENT);
       g.fillRect(0, 0, composite.getWidth(), composite.getHeight());
@@ -806,17 +907,17 @@ public class DeviceArtPainter {
       Graphics2D g2d = (Graphics2D)g;
       g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1.0f));
 
-      BufferedImage mask = getImage(descriptor.getMask(myOrientation));
-
       // Draw background shadow, if effects are enabled
       if (showEffects) {
-        BufferedImage shadow = getImage(descriptor.getDropShadow(myOrientation));
+        File shadowFile = descriptor.getDropShadow(myOrientation);
+        BufferedImage shadow = getImage(shadowFile);
         if (shadow != null) {
           if (stretchable) {
-            shadow = stretchImage(shadow, myFrameWidth, myFrameHeight);
+            // Generic frames are not cropped, so the nine patch can be painted directly at the frame size
+            paintNinePatch(g2d, shadowFile);
+          } else {
+            g.drawImage(shadow, 0, 0, myFrameWidth, myFrameHeight, cropX1, cropY1, cropX2, cropY2, null);
           }
-
-          g.drawImage(shadow, 0, 0, myFrameWidth, myFrameHeight, cropX1, cropY1, cropX2, cropY2, null);
         }
 
         // Ensure that the shadow background doesn't overlap the transparent screen rectangle in the middle
@@ -846,6 +947,13 @@ public class DeviceArtPainter {
         maskGraphics.dispose();
         g2d.setComposite(prevComposite);
         g.drawImage(maskedImage, 0, 0, myFrameWidth, myFrameHeight, cropX1, cropY1, cropX2, cropY2, null);
+      } else if (stretchable) {
+        // Paint the nine patch directly at the frame size, then clear the hole
+        paintNinePatch(g2d, descriptor.getFrame(myOrientation));
+        Composite prevComposite = g2d.getComposite();
+        g2d.setComposite(AlphaComposite.Clear);
+        g2d.fillRect(myX, myY, myWidth, myHeight);
+        g2d.setComposite(prevComposite);
       } else {
         // More efficient painting of the hole
 
@@ -907,12 +1015,14 @@ public class DeviceArtPainter {
 
       // Draw screen glare, if effects are enabled
       if (showEffects) {
-        BufferedImage glare = getImage(descriptor.getReflectionOverlay(myOrientation));
+        File glareFile = descriptor.getReflectionOverlay(myOrientation);
+        BufferedImage glare = getImage(glareFile);
         if (glare != null) {
           if (stretchable) {
-            glare = stretchImage(glare, myFrameWidth, myFrameHeight);
+            paintNinePatch(g2d, glareFile);
+          } else {
+            g.drawImage(glare, 0, 0, myFrameWidth, myFrameHeight, cropX1, cropY1, cropX2, cropY2, null);
           }
-          g.drawImage(glare, 0, 0, myFrameWidth, myFrameHeight, cropX1, cropY1, cropX2, cropY2, null);
         }
       }
 
@@ -920,5 +1030,79 @@ public class DeviceArtPainter {
 
       return composite;
     }
+
+    private void paintNinePatch(@NotNull Graphics2D g, @NotNull File file) {
+      try {
+        paintLayer(g, file, true, myFrameWidth, myFrameHeight);
+      }
+      catch (IOException e) {
+        // pass: the image was read before
+      }
+    }
+  }
+
+  /**
+   * Writes the pixels of the given image to the given file as a raw premultiplied ARGB raster, compressed for speed
+   * rather than for size
+   */
+  @VisibleForTesting
+  static void writeRaster(@NotNull BufferedImage image, @NotNull File file) throws IOException {
+    BufferedImage raster = toPremultiplied(image);
+    int[] pixels = ((DataBufferInt)raster.getRaster().getDataBuffer()).getData();
+    ByteBuffer buffer = ByteBuffer.allocate(4 * pixels.length);
+    buffer.asIntBuffer().put(pixels);
+
+    DataOutputStream stream = new DataOutputStream(
+      new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(file)), new Deflater(Deflater.BEST_SPEED)));
+    try {
+      stream.writeInt(RASTER_FILE_MAGIC);
+      stream.writeInt(raster.getWidth());
+      stream.writeInt(raster.getHeight());
+      stream.write(buffer.array());
+    }
+    finally {
+      stream.close();
+    }
+  }
+
+  /** Reads an image written by {@link #writeRaster} */
+  @VisibleForTesting
+  @NotNull
+  static BufferedImage readRaster(@NotNull File file) throws IOException {
+    DataInputStream stream = new DataInputStream(new InflaterInputStream(new BufferedInputStream(new FileInputStream(file))));
+    try {
+      if (stream.readInt() != RASTER_FILE_MAGIC) {
+        throw new IOException("Not a raster file: " + file);
+      }
+      int width = stream.readInt();
+      int height = stream.readInt();
+      if (width <= 0 || height <= 0 || (long)width * height > Integer.MAX_VALUE / 4) {
+        throw new IOException("Invalid raster size in " + file);
+      }
+      byte[] bytes = new byte[4 * width * height];
+      stream.readFully(bytes);
+
+      @SuppressWarnings("UndesirableClassUsage") // Don't need Retina image here, and it's more expensive
+      BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+      ByteBuffer.wrap(bytes).asIntBuffer().get(((DataBufferInt)image.getRaster().getDataBuffer()).getData());
+      return image;
+    }
+    finally {
+      stream.close();
+    }
+  }
+
+  @NotNull
+  private static BufferedImage toPremultiplied(@NotNull BufferedImage image) {
+    if (image.getType() == BufferedImage.TYPE_INT_ARGB_PRE) {
+      return image;
+    }
+    @SuppressWarnings("UndesirableClassUsage") // Don't need Retina image here, and it's more expensive
+    BufferedImage premultiplied = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB_PRE);
+    Graphics2D g = premultiplied.createGraphics();
+    g.setComposite(AlphaComposite.Src);
+    g.drawImage(image, 0, 0, null);
+    g.dispose();
+    return premultiplied;
   }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.ddms.screenshot;
+
+import com.android.ddmlib.RawImage;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Converts the framebuffer contents obtained from a device into images. Pixels are written in bulk into the data buffer
+ * of the image, which is much faster than setting them one by one through {@link BufferedImage#setRGB}.
+ */
+final class RawImageConverter {
+  /** ARGB values of all the 16 bit pixel values, computed by {@link RawImage#getARGB} so both conversions match. */
+  private static int[] ourRgb565Table;
+
+  private RawImageConverter() {
+  }
+
+  /**
+   * Converts the given raw image, which must have 16 or 32 bits per pixel, into an ARGB image. If {@code reuse} is an
+   * ARGB image of the same size, its pixels are overwritten and it is returned instead of a newly allocated image.
+   */
+  @NotNull
+  static BufferedImage convert(@NotNull RawImage rawImage, @Nullable BufferedImage reuse) {
+    BufferedImage image = reuse;
+    if (image == null ||
+        image.getType() != BufferedImage.TYPE_INT_ARGB ||
+        image.getWidth() != rawImage.width ||
+        image.getHeight() != rawImage.height) {
+      //noinspection UndesirableClassUsage
+      image = new BufferedImage(rawImage.width, rawImage.height, BufferedImage.TYPE_INT_ARGB);
+    }
+    int[] pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+    int count = rawImage.width * rawImage.height;
+    byte[] data = rawImage.data;
+
+    if (rawImage.bpp == 16) {
+      int[] table = getRgb565Table();
+      for (int i = 0, offset = 0; i < count; i++, offset += 2) {
+        pixels[i] = table[(data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8];
+      }
+    }
+    else {
+      assert rawImage.bpp == 32 : rawImage.bpp;
+      int redOffset = rawImage.red_offset;
+      int greenOffset = rawImage.green_offset;
+      int blueOffset = rawImage.blue_offset;
+      int alphaOffset = rawImage.alpha_offset;
+      int redMask = getMask(rawImage.red_length);
+      int greenMask = getMask(rawImage.green_length);
+      int blueMask = getMask(rawImage.blue_length);
+      int alphaMask = getMask(rawImage.alpha_length);
+      int redShift = 8 - rawImage.red_length;
+      int greenShift = 8 - rawImage.green_length;
+      int blueShift = 8 - rawImage.blue_length;
+      int alphaShift = 8 - rawImage.alpha_length;
+      for (int i = 0, offset = 0; i < count; i++, offset += 4) {
+        int value = (data[offset] & 0xFF) |
+                    (data[offset + 1] & 0xFF) << 8 |
+                    (data[offset + 2] & 0xFF) << 16 |
+                    (data[offset + 3] & 0xFF) << 24;
+        int r = ((value >>> redOffset) & redMask) << redShift;
+        int g = ((value >>> greenOffset) & greenMask) << greenShift;
+        int b = ((value >>> blueOffset) & blueMask) << blueShift;
+        // force alpha to opaque if there's no alpha value in the framebuffer
+        int a = alphaMask == 0 ? 0xFF : ((value >>> alphaOffset) & alphaMask) << alphaShift;
+        pixels[i] = a << 24 | r << 16 | g << 8 | b;
+      }
+    }
+    return image;
+  }
+
+  private static int getMask(int length) {
+    return (1 << length) - 1;
+  }
+
+  @NotNull
+  private static synchronized int[] getRgb565Table() {
+    if (ourRgb565Table == null) {
+      RawImage pixel = new RawImage();
+      pixel.bpp = 16;
+      pixel.data = new byte[2];
+
+      int[] table = new int[1 << 16];
+      for (int value = 0; value < table.length; value++) {
+        pixel.data[0] = (byte)value;
+        pixel.data[1] = (byte)(value >>> 8);
+        table[value] = pixel.getARGB(0);
+      }
+      ourRgb565Table = table;
+    }
+    return ourRgb565Table;
+  }
+}
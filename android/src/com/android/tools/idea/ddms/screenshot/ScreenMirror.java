@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.ddms.screenshot;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.RawImage;
+import org.jetbrains.android.util.AndroidBundle;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Mirrors the screen of a device by continuously obtaining screenshots from it and converting them into images on a
+ * background thread. The frames are painted on another thread, which takes the most recent frame with
+ * {@link #takeFrame()}: frames converted while the previous one is still waiting to be painted are dropped. The images of
+ * dropped and painted frames are reused to convert the next frames into.
+ */
+public class ScreenMirror implements Runnable {
+  private static final long FPS_INTERVAL_NS = TimeUnit.SECONDS.toNanos(1);
+
+  public interface Listener {
+    /**
+     * Called on the mirroring thread when a new frame can be taken with {@link ScreenMirror#takeFrame()}. It isn't called
+     * again until that frame is taken, even if newer frames replace it in the meantime.
+     */
+    void frameAvailable();
+
+    /**
+     * Called on the mirroring thread when mirroring stops because a screenshot could not be obtained from the device.
+     */
+    void mirroringFailed(@NotNull String error);
+  }
+
+  private final IDevice myDevice;
+  private final Listener myListener;
+
+  /** The most recent frame that hasn't been taken by the painting thread yet. */
+  private final AtomicReference<BufferedImage> myPendingFrame = new AtomicReference<BufferedImage>();
+
+  /** A frame that was replaced by a newer one on the painting thread, and whose image can be converted into again. */
+  private final AtomicReference<BufferedImage> myFreeFrame = new AtomicReference<BufferedImage>();
+
+  private volatile boolean myRunning;
+
+  // The following fields are only accessed from the painting thread.
+  private BufferedImage myCurrentFrame;
+  private long myFpsIntervalStart;
+  private int myFpsIntervalFrames;
+  private float myFps;
+
+  public ScreenMirror(@NotNull IDevice device, @NotNull Listener listener) {
+    myDevice = device;
+    myListener = listener;
+  }
+
+  public void start() {
+    myRunning = true;
+    myFpsIntervalStart = System.nanoTime();
+    Thread thread = new Thread(this, "Screen Mirroring " + myDevice.getSerialNumber());
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Stops obtaining new frames. The frame last returned by {@link #takeFrame()} is not modified anymore.
+   */
+  public void stop() {
+    myRunning = false;
+  }
+
+  public boolean isRunning() {
+    return myRunning;
+  }
+
+  @Override
+  public void run() {
+    BufferedImage spareFrame = null;
+
+    while (myRunning) {
+      RawImage rawImage;
+      try {
+        rawImage = myDevice.getScreenshot();
+      }
+      catch (Exception e) {
+        fail(AndroidBundle.message("android.ddms.screenshot.task.error1", e.getMessage()));
+        return;
+      }
+
+      if (rawImage.bpp != 16 && rawImage.bpp != 32) {
+        fail(AndroidBundle.message("android.ddms.screenshot.task.error.invalid.bpp", rawImage.bpp));
+        return;
+      }
+
+      if (spareFrame == null) {
+        spareFrame = myFreeFrame.getAndSet(null);
+      }
+      BufferedImage frame = RawImageConverter.convert(rawImage, spareFrame);
+
+      // If the previous frame hasn't been taken yet, it is dropped and its image reused for the next frame. Otherwise the
+      // painting thread needs to be told there is a new frame.
+      spareFrame = myPendingFrame.getAndSet(frame);
+      if (spareFrame == null) {
+        myListener.frameAvailable();
+      }
+    }
+  }
+
+  private void fail(@NotNull String error) {
+    myRunning = false;
+    myListener.mirroringFailed(error);
+  }
+
+  /**
+   * Returns the most recent frame, or null if no new frame was converted since the last call. The returned image is
+   * not modified until a newer frame is taken. This should always be called from the same (painting) thread.
+   */
+  @Nullable
+  public BufferedImage takeFrame() {
+    BufferedImage frame = myPendingFrame.getAndSet(null);
+    if (frame == null) {
+      return null;
+    }
+    // A free frame not reused yet is kept, so that at most one image is dropped to the garbage collector at a time
+    if (myCurrentFrame != null) {
+      myFreeFrame.compareAndSet(null, myCurrentFrame);
+    }
+    myCurrentFrame = frame;
+
+    myFpsIntervalFrames++;
+    long now = System.nanoTime();
+    long elapsed = now - myFpsIntervalStart;
+    if (elapsed >= FPS_INTERVAL_NS) {
+      myFps = myFpsIntervalFrames * (float)FPS_INTERVAL_NS / elapsed;
+      myFpsIntervalFrames = 0;
+      myFpsIntervalStart = now;
+    }
+    return frame;
+  }
+
+  /**
+   * Returns the number of frames taken per second, measured over the last full second of mirroring.
+   */
+  public float getFramesPerSecond() {
+    return myFps;
+  }
+}
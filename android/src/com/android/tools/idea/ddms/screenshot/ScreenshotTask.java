@@ -57,14 +57,7 @@ public class ScreenshotTask extends Task.Modal {
     }
 
     indicator.setText(AndroidBundle.message("android.ddms.screenshot.task.step.load"));
-    //noinspection UndesirableClassUsage
-    myImage = new BufferedImage(rawImage.width, rawImage.height, BufferedImage.TYPE_INT_ARGB);
-    for (int y = 0; y < rawImage.height; y++) {
-      for (int x = 0; x < rawImage.width; x++) {
-        int argb = rawImage.getARGB((x + y * rawImage.width) * (rawImage.bpp / 8));
-        myImage.setRGB(x, y, argb);
-      }
-    }
+    myImage = RawImageConverter.convert(rawImage, null);
   }
 
   public BufferedImage getScreenshot() {
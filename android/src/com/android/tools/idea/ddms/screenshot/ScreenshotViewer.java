@@ -22,6 +22,7 @@ import com.android.tools.idea.rendering.ImageUtils;
 import com.intellij.icons.AllIcons;
 import com.intellij.openapi.actionSystem.DataProvider;
 import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.fileChooser.FileChooserFactory;
 import com.intellij.openapi.fileChooser.FileSaverDescriptor;
@@ -35,6 +36,7 @@ import com.intellij.openapi.ui.DialogWrapper;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.util.Condition;
 import com.intellij.openapi.vfs.*;
+import com.intellij.ui.components.JBLabel;
 import com.intellij.ui.components.JBScrollPane;
 import com.intellij.util.containers.ContainerUtil;
 import org.intellij.images.editor.ImageEditor;
@@ -78,6 +80,8 @@ public class ScreenshotViewer extends DialogWrapper implements DataProvider {
   private JComboBox myDeviceArtCombo;
   private JCheckBox myDropShadowCheckBox;
   private JCheckBox myScreenGlareCheckBox;
+  private JCheckBox myMirrorScreenCheckBox;
+  private JBLabel myFpsLabel;
 
   /** Angle in degrees by which the screenshot from the device has been rotated. One of 0, 90, 180 or 270. */
   private int myRotationAngle = 0;
@@ -91,6 +95,12 @@ public class ScreenshotViewer extends DialogWrapper implements DataProvider {
   /** Reference to the framed screenshot displayed on screen. Accessed from both EDT and background threads. */
   private AtomicReference<BufferedImage> myDisplayedImageRef = new AtomicReference<BufferedImage>();
 
+  /** Mirrors the screen of the device into the displayed image while the mirroring mode is on. Only accessed from EDT. */
+  @Nullable private ScreenMirror myScreenMirror;
+
+  /** The last frame obtained from the device, neither rotated nor framed, while the mirroring mode is on. Only accessed from EDT. */
+  @Nullable private BufferedImage myLastMirroredFrame;
+
   /** User specified destination where the screenshot is saved. */
   private File myScreenshotFile;
 
@@ -111,6 +121,7 @@ public class ScreenshotViewer extends DialogWrapper implements DataProvider {
 
     myRefreshButton.setIcon(AllIcons.Actions.Refresh);
     myRefreshButton.setEnabled(device != null);
+    myMirrorScreenCheckBox.setEnabled(device != null);
     myRotateButton.setIcon(AllIcons.Actions.AllRight);
 
     myProvider = getImageFileEditorProvider();
@@ -124,6 +135,8 @@ public class ScreenshotViewer extends DialogWrapper implements DataProvider {
           doRefreshScreenshot();
         } else if (actionEvent.getSource() == myRotateButton) {
           doRotateScreenshot();
+        } else if (actionEvent.getSource() == myMirrorScreenCheckBox) {
+          doMirrorScreen(myMirrorScreenCheckBox.isSelected());
         } else if (actionEvent.getSource() == myFrameScreenshotCheckBox
                    || actionEvent.getSource() == myDeviceArtCombo
                    || actionEvent.getSource() == myDropShadowCheckBox
@@ -139,6 +152,7 @@ public class ScreenshotViewer extends DialogWrapper implements DataProvider {
     myDeviceArtCombo.addActionListener(l);
     myDropShadowCheckBox.addActionListener(l);
     myScreenGlareCheckBox.addActionListener(l);
+    myMirrorScreenCheckBox.addActionListener(l);
 
     myDeviceArtDescriptors = getDescriptorsToFrame(image);
     String[] titles = new String[myDeviceArtDescriptors.size()];
@@ -205,6 +219,10 @@ public class ScreenshotViewer extends DialogWrapper implements DataProvider {
 
   @Override
   protected void dispose() {
+    if (myScreenMirror != null) {
+      myScreenMirror.stop();
+      myScreenMirror = null;
+    }
     myProvider.disposeEditor(myImageFileEditor);
     super.dispose();
   }
@@ -247,6 +265,82 @@ public class ScreenshotViewer extends DialogWrapper implements DataProvider {
     }
   }
 
+  private void doMirrorScreen(boolean mirror) {
+    // Frames are displayed as they are obtained from the device, so the controls processing them are disabled meanwhile
+    boolean shouldFrame = myFrameScreenshotCheckBox.isSelected();
+    myRefreshButton.setEnabled(!mirror);
+    myRotateButton.setEnabled(!mirror);
+    myFrameScreenshotCheckBox.setEnabled(!mirror);
+    myDeviceArtCombo.setEnabled(!mirror && shouldFrame);
+    myDropShadowCheckBox.setEnabled(!mirror && shouldFrame);
+    myScreenGlareCheckBox.setEnabled(!mirror && shouldFrame);
+
+    if (mirror) {
+      assert myDevice != null;
+      final ScreenMirror screenMirror = new ScreenMirror(myDevice, new ScreenMirror.Listener() {
+        @Override
+        public void frameAvailable() {
+          ApplicationManager.getApplication().invokeLater(new Runnable() {
+            @Override
+            public void run() {
+              displayMirroredFrame();
+            }
+          });
+        }
+
+        @Override
+        public void mirroringFailed(@NotNull final String error) {
+          ApplicationManager.getApplication().invokeLater(new Runnable() {
+            @Override
+            public void run() {
+              if (myScreenMirror != null && !myScreenMirror.isRunning()) {
+                myMirrorScreenCheckBox.setSelected(false);
+                doMirrorScreen(false);
+                Messages.showErrorDialog(myProject, error, AndroidBundle.message("android.ddms.actions.screenshot"));
+              }
+            }
+          });
+        }
+      });
+      myScreenMirror = screenMirror;
+      myLastMirroredFrame = null;
+      screenMirror.start();
+    }
+    else if (myScreenMirror != null) {
+      myScreenMirror.stop();
+      myScreenMirror = null;
+      myFpsLabel.setText("");
+
+      // The last mirrored frame becomes the screenshot, processed as if it was just refreshed. Until a frame arrives,
+      // the processed screenshot is still displayed and is kept as is.
+      BufferedImage frame = myLastMirroredFrame;
+      myLastMirroredFrame = null;
+      if (frame != null) {
+        mySourceImageRef.set(frame);
+        processScreenshot(shouldFrame, myRotationAngle);
+      }
+    }
+  }
+
+  private void displayMirroredFrame() {
+    if (myScreenMirror == null) {
+      return;
+    }
+    BufferedImage frame = myScreenMirror.takeFrame();
+    if (frame == null) {
+      return;
+    }
+    myLastMirroredFrame = frame;
+    BufferedImage previousFrame = myDisplayedImageRef.getAndSet(frame);
+    ImageEditor imageEditor = myImageFileEditor.getImageEditor();
+    imageEditor.getDocument().setValue(frame);
+    if (previousFrame == null || previousFrame.getWidth() != frame.getWidth() || previousFrame.getHeight() != frame.getHeight()) {
+      pack();
+    }
+    myFpsLabel.setText(AndroidBundle.message("android.ddms.screenshot.mirroring.fps",
+                                             String.format("%.1f", myScreenMirror.getFramesPerSecond())));
+  }
+
   private void processScreenshot(boolean addFrame, int rotateByAngle) {
     DeviceArtDescriptor spec = addFrame ? myDeviceArtDescriptors.get(myDeviceArtCombo.getSelectedIndex()) : null;
     boolean shadow = addFrame && myDropShadowCheckBox.isSelected();
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.editors.hprof;
+
+import com.google.common.collect.Lists;
+import com.intellij.openapi.progress.ProgressIndicator;
+import gnu.trove.TLongProcedure;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Computes the dominator tree and retained sizes for an {@link HprofIndex}, using the Lengauer-Tarjan
+ * algorithm (the simple version, with path compression). All the per-node working arrays are stored in
+ * {@link MappedArray}s, and all recursion (the depth first search and the path compression) is done with
+ * explicit stacks, since object graphs are routinely deeper than the thread stack allows.
+ * <p>
+ * The results are stored with an offset of one, such that 0 means "unreachable":
+ * the retained size array holds the retained size plus one, and the dominator array holds the immediate
+ * dominator node plus one.
+ */
+class HprofDominators {
+  private static final int PROGRESS_INTERVAL = 0x10000;
+
+  private final HprofIndex myIndex;
+  private final File myDirectory;
+  private final List<MappedArray> myTemporaryArrays = Lists.newArrayList();
+  private MappedArray myRetainedSizes;
+  private MappedArray myDominators;
+
+  HprofDominators(@NotNull HprofIndex index, @NotNull File directory) {
+    myIndex = index;
+    myDirectory = directory;
+  }
+
+  void compute(@Nullable ProgressIndicator indicator) throws IOException {
+    int n = myIndex.getNodeCount() + 1;
+
+    // Successors of every node, in compressed rows
+    setText(indicator, "Collecting references");
+    final MappedArray successorStart = createTemporaryLongArray("succStart", n + 1);
+    final long[] edgeCount = new long[1];
+    for (int node = 0; node < n; node++) {
+      checkCanceled(indicator, node, 0, n);
+      myIndex.getReferences(node, new TLongProcedure() {
+        @Override
+        public boolean execute(long id) {
+          if (myIndex.getNode(id) > 0) {
+            edgeCount[0]++;
+          }
+          return true;
+        }
+      });
+      successorStart.setLong(node + 1, edgeCount[0]);
+    }
+    final MappedArray successors = createTemporaryIntArray("succ", edgeCount[0]);
+    final long[] edge = new long[1];
+    for (int node = 0; node < n; node++) {
+      checkCanceled(indicator, node, 0.1, n);
+      myIndex.getReferences(node, new TLongProcedure() {
+        @Override
+        public boolean execute(long id) {
+          int target = myIndex.getNode(id);
+          if (target > 0) {
+            successors.setInt(edge[0]++, target);
+          }
+          return true;
+        }
+      });
+    }
+
+    // Depth first search from the root, numbering nodes 1..count in preorder
+    setText(indicator, "Computing dominators");
+    MappedArray dfsNumber = createTemporaryIntArray("dfnum", n);
+    MappedArray vertex = createTemporaryIntArray("vertex", n + 1);
+    MappedArray parent = createTemporaryIntArray("parent", n + 1);
+    MappedArray stackNodes = createTemporaryIntArray("stack", n + 1);
+    MappedArray stackEdges = createTemporaryLongArray("stackEdges", n + 1);
+    int count = 1;
+    dfsNumber.setInt(HprofIndex.ROOT_NODE, 1);
+    vertex.setInt(1, HprofIndex.ROOT_NODE);
+    int stackSize = 1;
+    stackNodes.setInt(0, HprofIndex.ROOT_NODE);
+    stackEdges.setLong(0, successorStart.getLong(HprofIndex.ROOT_NODE));
+    while (stackSize > 0) {
+      int v = stackNodes.getInt(stackSize - 1);
+      long e = stackEdges.getLong(stackSize - 1);
+      if (e < successorStart.getLong(v + 1)) {
+        stackEdges.setLong(stackSize - 1, e + 1);
+        int w = successors.getInt(e);
+        if (dfsNumber.getInt(w) == 0) {
+          count++;
+          checkCanceled(indicator, count, 0.2, n);
+          dfsNumber.setInt(w, count);
+          vertex.setInt(count, w);
+          parent.setInt(count, dfsNumber.getInt(v));
+          stackNodes.setInt(stackSize, w);
+          stackEdges.setLong(stackSize, successorStart.getLong(w));
+          stackSize++;
+        }
+      } else {
+        stackSize--;
+      }
+    }
+
+    // Predecessors of the reachable nodes, in depth first numbering, in compressed rows
+    MappedArray predecessorStart = createTemporaryLongArray("predStart", count + 2);
+    for (int i = 1; i <= count; i++) {
+      int v = vertex.getInt(i);
+      for (long e = successorStart.getLong(v), end = successorStart.getLong(v + 1); e < end; e++) {
+        int w = dfsNumber.getInt(successors.getInt(e));
+        predecessorStart.setLong(w + 1, predecessorStart.getLong(w + 1) + 1);
+      }
+    }
+    for (int i = 1; i <= count + 1; i++) {
+      predecessorStart.setLong(i, predecessorStart.getLong(i) + predecessorStart.getLong(i - 1));
+    }
+    MappedArray predecessors = createTemporaryIntArray("pred", predecessorStart.getLong(count + 1));
+    for (int i = 1; i <= count; i++) {
+      int v = vertex.getInt(i);
+      for (long e = successorStart.getLong(v), end = successorStart.getLong(v + 1); e < end; e++) {
+        int w = dfsNumber.getInt(successors.getInt(e));
+        long slot = predecessorStart.getLong(w);
+        predecessors.setInt(slot, i);
+        predecessorStart.setLong(w, slot + 1);
+      }
+    }
+    // Filling advanced each start to the start of the next row; shift back
+    for (int i = count + 1; i > 0; i--) {
+      predecessorStart.setLong(i, predecessorStart.getLong(i - 1));
+    }
+    predecessorStart.setLong(0, 0);
+
+    // Semidominators and immediate dominators
+    MappedArray semi = createTemporaryIntArray("semi", count + 1);
+    MappedArray label = createTemporaryIntArray("label", count + 1);
+    MappedArray ancestor = createTemporaryIntArray("ancestor", count + 1);
+    MappedArray idom = createTemporaryIntArray("idom", count + 1);
+    MappedArray bucketHead = createTemporaryIntArray("bucketHead", count + 1);
+    MappedArray bucketNext = createTemporaryIntArray("bucketNext", count + 1);
+    for (int i = 1; i <= count; i++) {
+      semi.setInt(i, i);
+      label.setInt(i, i);
+    }
+    for (int w = count; w >= 2; w--) {
+      checkCanceled(indicator, count - w, 0.5, count);
+      for (long e = predecessorStart.getLong(w), end = predecessorStart.getLong(w + 1); e < end; e++) {
+        int u = eval(predecessors.getInt(e), ancestor, label, semi, stackNodes);
+        if (semi.getInt(u) < semi.getInt(w)) {
+          semi.setInt(w, semi.getInt(u));
+        }
+      }
+      int s = semi.getInt(w);
+      bucketNext.setInt(w, bucketHead.getInt(s));
+      bucketHead.setInt(s, w);
+
+      int p = parent.getInt(w);
+      ancestor.setInt(w, p);
+      for (int v = bucketHead.getInt(p); v != 0; v = bucketNext.getInt(v)) {
+        int u = eval(v, ancestor, label, semi, stackNodes);
+        idom.setInt(v, semi.getInt(u) < semi.getInt(v) ? u : p);
+      }
+      bucketHead.setInt(p, 0);
+    }
+    for (int w = 2; w <= count; w++) {
+      if (idom.getInt(w) != semi.getInt(w)) {
+        idom.setInt(w, idom.getInt(idom.getInt(w)));
+      }
+    }
+
+    // Retained sizes: children in the dominator tree always have higher depth first numbers than their dominator
+    setText(indicator, "Computing retained sizes");
+    MappedArray retainedSizes = createTemporaryLongArray("retained", n);
+    MappedArray dominators = createTemporaryIntArray("dominators", n);
+    for (int i = count; i >= 1; i--) {
+      checkCanceled(indicator, count - i, 0.9, count);
+      int v = vertex.getInt(i);
+      long retained = retainedSizes.getLong(v) + myIndex.getShallowSize(v);
+      retainedSizes.setLong(v, retained + 1);
+      if (i > 1) {
+        int dominator = vertex.getInt(idom.getInt(i));
+        retainedSizes.setLong(dominator, retainedSizes.getLong(dominator) + retained);
+        dominators.setInt(v, dominator + 1);
+      }
+    }
+
+    // Completed; the results are no longer temporary
+    myTemporaryArrays.remove(retainedSizes);
+    myTemporaryArrays.remove(dominators);
+    myRetainedSizes = retainedSizes;
+    myDominators = dominators;
+  }
+
+  /** The EVAL operation of Lengauer-Tarjan: returns the vertex with the minimum semidominator on the path to the root of v's tree */
+  private static int eval(int v, MappedArray ancestor, MappedArray label, MappedArray semi, MappedArray stack) {
+    if (ancestor.getInt(v) == 0) {
+      return v;
+    }
+    // Iterative version of COMPRESS: collect the path, then update from the top down
+    int size = 0;
+    int u = v;
+    while (ancestor.getInt(ancestor.getInt(u)) != 0) {
+      stack.setInt(size++, u);
+      u = ancestor.getInt(u);
+    }
+    while (size > 0) {
+      u = stack.getInt(--size);
+      int a = ancestor.getInt(u);
+      if (semi.getInt(label.getInt(a)) < semi.getInt(label.getInt(u))) {
+        label.setInt(u, label.getInt(a));
+      }
+      ancestor.setInt(u, ancestor.getInt(a));
+    }
+    return label.getInt(v);
+  }
+
+  @NotNull
+  private MappedArray createTemporaryIntArray(@NotNull String name, long length) throws IOException {
+    MappedArray array = MappedArray.createIntArray(myDirectory, name, length);
+    myTemporaryArrays.add(array);
+    return array;
+  }
+
+  @NotNull
+  private MappedArray createTemporaryLongArray(@NotNull String name, long length) throws IOException {
+    MappedArray array = MappedArray.createLongArray(myDirectory, name, length);
+    myTemporaryArrays.add(array);
+    return array;
+  }
+
+  private static void setText(@Nullable ProgressIndicator indicator, @NotNull String text) {
+    if (indicator != null) {
+      indicator.setText2(text);
+    }
+  }
+
+  private static void checkCanceled(@Nullable ProgressIndicator indicator, long done, double base, long total) {
+    if (indicator != null && done % PROGRESS_INTERVAL == 0) {
+      indicator.checkCanceled();
+      indicator.setFraction(base + 0.1 * done / Math.max(1, total));
+    }
+  }
+
+  /** The retained size (plus one) of every node; owned by the caller once computed */
+  MappedArray getRetainedSizes() {
+    return myRetainedSizes;
+  }
+
+  /** The immediate dominator (plus one) of every node; owned by the caller once computed */
+  MappedArray getDominators() {
+    return myDominators;
+  }
+
+  /** Releases the working arrays, and the results if the computation did not complete */
+  void dispose() {
+    for (MappedArray array : myTemporaryArrays) {
+      array.dispose();
+    }
+    myTemporaryArrays.clear();
+  }
+}
@@ -15,13 +15,11 @@
  */
 package com.android.tools.idea.editors.hprof;
 
-import com.android.tools.perflib.heap.HprofParser;
-import com.android.tools.perflib.heap.Snapshot;
-import com.android.tools.perflib.heap.io.MemoryMappedFileBuffer;
 import com.google.common.base.Throwables;
 import com.intellij.codeHighlighting.BackgroundEditorHighlighter;
 import com.intellij.ide.structureView.StructureViewBuilder;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.fileEditor.FileEditor;
 import com.intellij.openapi.fileEditor.FileEditorLocation;
 import com.intellij.openapi.fileEditor.FileEditorState;
@@ -31,6 +29,7 @@ import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.util.UserDataHolderBase;
 import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -42,8 +41,20 @@ import java.beans.PropertyChangeListener;
 import java.io.*;
 
 public class HprofEditor extends UserDataHolderBase implements FileEditor {
+  private static final Logger LOG = Logger.getInstance(HprofEditor.class);
 
   private final HprofViewPanel myHprofViewPanel;
+  private volatile boolean myDisposed;
+  private volatile ProgressIndicator myRetainedSizesIndicator;
+
+  private final Object myIndexLock = new Object();
+  /** The parsed heap dump; guarded by {@link #myIndexLock} */
+  private HprofIndex myIndex;
+  /**
+   * Whether a background task is using {@link #myIndex}, in which case the task disposes the index if the editor is
+   * disposed meanwhile; guarded by {@link #myIndexLock}
+   */
+  private boolean myIndexInUse;
 
   public HprofEditor(@NotNull final Project project, @NotNull final VirtualFile file) {
     myHprofViewPanel = new HprofViewPanel(project);
@@ -51,22 +62,23 @@ public class HprofEditor extends UserDataHolderBase implements FileEditor {
   }
 
   private void parseHprofFileInBackground(final Project project, final VirtualFile file) {
-    final Task.Modal parseTask = new Task.Modal(project, "Parsing hprof file", false) {
+    final Task.Modal parseTask = new Task.Modal(project, "Parsing hprof file", true) {
       private String myErrorMessage;
-      private Snapshot mySnapshot;
+      private HprofIndex myParsedIndex;
+      private String mySummary;
 
       @Override
       public void run(@NotNull ProgressIndicator indicator) {
-        indicator.setIndeterminate(true);
-
         final File hprofFile = VfsUtilCore.virtualToIoFile(file);
         try {
-          // Currently HprofParser takes too much memory and cripples the IDE.]
-          // new HprofParser(new MemoryMappedFileBuffer(hprofFile)).parse();
-          // TODO: Use HprofParser
-          mySnapshot = new Snapshot(null);
+          // The index keeps the dump and its tables in memory mapped files, so unlike the perflib HprofParser it
+          // does not need to hold the whole heap on the IDE heap
+          myParsedIndex = HprofIndex.open(hprofFile, indicator);
+          mySummary = HprofViewPanel.getSummary(myParsedIndex, indicator);
+        } catch (ProcessCanceledException e) {
+          throw e;
         } catch(Throwable throwable){
-          throwable.printStackTrace();
+          LOG.warn(throwable);
           //noinspection ThrowableResultOfMethodCallIgnored
           myErrorMessage = "Unexpected error while parsing hprof file: "
                            + Throwables.getRootCause(throwable).getMessage();
@@ -76,12 +88,28 @@ public class HprofEditor extends UserDataHolderBase implements FileEditor {
 
       @Override
       public void onSuccess() {
-        myHprofViewPanel.setSnapshot(mySnapshot);
+        if (myDisposed) {
+          Disposer.dispose(myParsedIndex);
+          return;
+        }
+        synchronized (myIndexLock) {
+          myIndex = myParsedIndex;
+          myIndexInUse = true;
+        }
+        myHprofViewPanel.setSummary(mySummary);
+        computeRetainedSizesInBackground(project, myParsedIndex);
       }
 
       @Override
       public void onCancel() {
-        Messages.showErrorDialog(project, myErrorMessage, getName());
+        // Both cancellation and errors end up here, possibly after the index was opened
+        if (myParsedIndex != null) {
+          Disposer.dispose(myParsedIndex);
+          myParsedIndex = null;
+        }
+        if (myErrorMessage != null) {
+          Messages.showErrorDialog(project, myErrorMessage, getName());
+        }
       }
     };
     ApplicationManager.getApplication().invokeLater(new Runnable() {
@@ -92,6 +120,64 @@ public class HprofEditor extends UserDataHolderBase implements FileEditor {
     });
   }
 
+  /**
+   * Dominators and retained sizes require a walk over the whole heap, so compute them after the dump is shown. The
+   * task owns the index until it finishes; see {@link #releaseIndex()}.
+   */
+  private void computeRetainedSizesInBackground(@NotNull Project project, @NotNull final HprofIndex index) {
+    new Task.Backgroundable(project, "Computing retained sizes", true) {
+      private String mySummary;
+
+      @Override
+      public void run(@NotNull ProgressIndicator indicator) {
+        myRetainedSizesIndicator = indicator;
+        try {
+          if (myDisposed) {
+            return;
+          }
+          index.computeRetainedSizes(indicator);
+          if (index.hasRetainedSizes()) {
+            mySummary = HprofViewPanel.getSummary(index, indicator);
+          }
+        }
+        catch (IOException e) {
+          LOG.warn(e);
+        }
+        finally {
+          releaseIndex();
+        }
+      }
+
+      @Override
+      public void onSuccess() {
+        if (!myDisposed && mySummary != null) {
+          myHprofViewPanel.setSummary(mySummary);
+        }
+      }
+
+      @Override
+      public void onCancel() {
+        releaseIndex();
+      }
+    }.queue();
+  }
+
+  /** Called when a background task is done with the index; disposes it if the editor was disposed meanwhile */
+  private void releaseIndex() {
+    HprofIndex index;
+    synchronized (myIndexLock) {
+      myIndexInUse = false;
+      if (!myDisposed) {
+        return;
+      }
+      index = myIndex;
+      myIndex = null;
+    }
+    if (index != null) {
+      Disposer.dispose(index);
+    }
+  }
+
   @NotNull
   @Override
   public JComponent getComponent() {
@@ -167,5 +253,22 @@ public class HprofEditor extends UserDataHolderBase implements FileEditor {
 
   @Override
   public void dispose() {
+    myDisposed = true;
+    ProgressIndicator indicator = myRetainedSizesIndicator;
+    if (indicator != null) {
+      indicator.cancel();
+    }
+    // If the retained sizes are still being computed, the task disposes the index once it has stopped using it
+    HprofIndex index;
+    synchronized (myIndexLock) {
+      if (myIndexInUse) {
+        return;
+      }
+      index = myIndex;
+      myIndex = null;
+    }
+    if (index != null) {
+      Disposer.dispose(index);
+    }
   }
 }
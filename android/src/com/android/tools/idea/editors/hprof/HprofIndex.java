@@ -0,0 +1,769 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.editors.hprof;
+
+import com.google.common.collect.Lists;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.io.FileUtil;
+import gnu.trove.TLongArrayList;
+import gnu.trove.TLongHashSet;
+import gnu.trove.TLongLongHashMap;
+import gnu.trove.TLongObjectHashMap;
+import gnu.trove.TLongProcedure;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An index over an hprof heap dump which keeps the IDE heap usage bounded regardless of the size of the dump.
+ * <p>
+ * Rather than materializing every object like the perflib {@code HprofParser} does, the dump is memory
+ * mapped and scanned twice. The first pass only reads the class definitions and counts objects and roots;
+ * the second pass assigns every object a dense <b>node</b> number (node {@link #ROOT_NODE} is a virtual root
+ * pointing to all GC roots), and records in memory mapped temporary files:
+ * <ul>
+ *   <li>the file offset of each node's record,</li>
+ *   <li>an open addressing hash table from object id to node,</li>
+ *   <li>the instances of each class, as consecutive runs of nodes.</li>
+ * </ul>
+ * The outgoing references of an object are decoded on demand from its record, and primitive array contents are
+ * never read. The only per-dump data on the Java heap is the class table and the strings it names.
+ * <p>
+ * Dominators and retained sizes are not computed by the index itself since they require a walk over the whole
+ * object graph; call {@link #computeRetainedSizes} from a background task once the index has been opened.
+ */
+public class HprofIndex implements Disposable {
+  /** The virtual root node, which refers to all GC roots */
+  public static final int ROOT_NODE = 0;
+
+  // Top level record tags
+  private static final int TAG_STRING = 0x01;
+  private static final int TAG_LOAD_CLASS = 0x02;
+  private static final int TAG_HEAP_DUMP = 0x0c;
+  private static final int TAG_HEAP_DUMP_SEGMENT = 0x1c;
+
+  // Heap dump sub-record tags
+  private static final int ROOT_JNI_GLOBAL = 0x01;
+  private static final int ROOT_JNI_LOCAL = 0x02;
+  private static final int ROOT_JAVA_FRAME = 0x03;
+  private static final int ROOT_NATIVE_STACK = 0x04;
+  private static final int ROOT_STICKY_CLASS = 0x05;
+  private static final int ROOT_THREAD_BLOCK = 0x06;
+  private static final int ROOT_MONITOR_USED = 0x07;
+  private static final int ROOT_THREAD_OBJECT = 0x08;
+  private static final int CLASS_DUMP = 0x20;
+  private static final int INSTANCE_DUMP = 0x21;
+  private static final int OBJECT_ARRAY_DUMP = 0x22;
+  private static final int PRIMITIVE_ARRAY_DUMP = 0x23;
+
+  // Android specific sub-record tags
+  private static final int ROOT_INTERNED_STRING = 0x89;
+  private static final int ROOT_FINALIZING = 0x8a;
+  private static final int ROOT_DEBUGGER = 0x8b;
+  private static final int ROOT_REFERENCE_CLEANUP = 0x8c;
+  private static final int ROOT_VM_INTERNAL = 0x8d;
+  private static final int ROOT_JNI_MONITOR = 0x8e;
+  private static final int UNREACHABLE = 0x90;
+  private static final int PRIMITIVE_ARRAY_NODATA = 0xc3;
+  private static final int HEAP_DUMP_INFO = 0xfe;
+  private static final int ROOT_UNKNOWN = 0xff;
+
+  // Basic types
+  private static final int TYPE_OBJECT = 2;
+  private static final String[] PRIMITIVE_ARRAY_NAMES =
+    {null, null, null, null, "boolean[]", "char[]", "float[]", "double[]", "byte[]", "short[]", "int[]", "long[]"};
+
+  /** How often (in records) to update the progress indicator */
+  private static final int PROGRESS_INTERVAL = 0x10000;
+
+  /** A class in the dump, along with summary information about its instances */
+  public static class ClassInfo {
+    private final long myId;
+    private String myName;
+    private long myNameId;
+    private long mySuperClassId;
+    private int myIndex = -1;
+    private byte[] myFieldTypes = new byte[0];
+    private long[] myFieldNameIds = new long[0];
+    private String[] myFieldNames;
+    private long[] myStaticReferences = new long[0];
+    private int myInstanceCount;
+    private long myShallowSize;
+    private long myFirstInstance;
+    private int myFilledInstances;
+
+    private ClassInfo(long id, @Nullable String name) {
+      myId = id;
+      myName = name;
+    }
+
+    /** Returns the id of the class object, or 0 for the synthetic classes of primitive arrays */
+    public long getId() {
+      return myId;
+    }
+
+    @NotNull
+    public String getName() {
+      return myName != null ? myName : String.format("0x%1$x", myId);
+    }
+
+    public int getInstanceCount() {
+      return myInstanceCount;
+    }
+
+    /** Returns the sum of the shallow sizes of all the instances of this class */
+    public long getShallowSize() {
+      return myShallowSize;
+    }
+
+    /** Returns the names of the instance fields declared by this class (not its super classes) */
+    @NotNull
+    public String[] getFieldNames() {
+      return myFieldNames != null ? myFieldNames : new String[0];
+    }
+
+    @Override
+    public String toString() {
+      return getName();
+    }
+  }
+
+  private final MappedHprofBuffer myBuffer;
+  private final File myTempDirectory;
+  private final List<MappedArray> myArrays = Lists.newArrayList();
+  private int myIdSize;
+
+  private final TLongObjectHashMap<ClassInfo> myClasses = new TLongObjectHashMap<ClassInfo>();
+  private final ClassInfo[] myPrimitiveArrayClasses = new ClassInfo[PRIMITIVE_ARRAY_NAMES.length];
+  /** Class names from LOAD_CLASS records, by class object id, until the classes are created */
+  private final TLongLongHashMap myClassNameIds = new TLongLongHashMap();
+
+  private int myNodeCount;
+  private long myRootCount;
+
+  /** Node to file offset of the object's record */
+  private MappedArray myOffsets;
+  /** Node to class; stored as the index of the class in {@link #myClassList} */
+  private MappedArray myNodeClasses;
+  private final List<ClassInfo> myClassList = Lists.newArrayList();
+  /** Instances of all classes, grouped by class */
+  private MappedArray myInstances;
+  /** Object ids of the GC roots */
+  private MappedArray myRoots;
+  /** Open addressing hash table from object id to node */
+  private MappedArray myIdTableKeys;
+  private MappedArray myIdTableValues;
+  private long myIdTableMask;
+
+  private volatile MappedArray myRetainedSizes;
+  private volatile MappedArray myDominators;
+
+  private HprofIndex(@NotNull File file) throws IOException {
+    myBuffer = new MappedHprofBuffer(file);
+    myTempDirectory = FileUtil.createTempDirectory("hprof", "index", true);
+  }
+
+  /**
+   * Opens and indexes the given heap dump
+   *
+   * @param file      the hprof file
+   * @param indicator an optional progress indicator, which is updated and checked for cancellation
+   * @return the index, which must be {@link #dispose() disposed} when no longer needed
+   * @throws IOException if the file can not be read or is not a valid heap dump
+   */
+  @NotNull
+  public static HprofIndex open(@NotNull File file, @Nullable ProgressIndicator indicator) throws IOException {
+    HprofIndex index = new HprofIndex(file);
+    boolean success = false;
+    try {
+      index.build(indicator);
+      success = true;
+      return index;
+    }
+    finally {
+      if (!success) {
+        index.dispose();
+      }
+    }
+  }
+
+  private void build(@Nullable ProgressIndicator indicator) throws IOException {
+    long start = readHeader();
+
+    // Pass 1: classes and counts
+    if (indicator != null) {
+      indicator.setText2("Scanning classes");
+    }
+    scanRecords(start, false, indicator);
+    readStrings(start);
+
+    myOffsets = createLongArray("offsets", myNodeCount + 1);
+    myNodeClasses = createIntArray("classes", myNodeCount + 1);
+    myRoots = createLongArray("roots", myRootCount);
+    long capacity = Long.highestOneBit(Math.max(16, (long)myNodeCount * 2)) << 1;
+    myIdTableKeys = createLongArray("ids", capacity);
+    myIdTableValues = createIntArray("nodes", capacity);
+    myIdTableMask = capacity - 1;
+
+    long instanceCount = 0;
+    for (ClassInfo classInfo : getClasses()) {
+      classInfo.myIndex = myClassList.size();
+      myClassList.add(classInfo);
+      classInfo.myFirstInstance = instanceCount;
+      instanceCount += classInfo.myInstanceCount;
+    }
+    myInstances = createIntArray("instances", instanceCount);
+
+    // Pass 2: nodes, id table and instance lists
+    if (indicator != null) {
+      indicator.setText2("Indexing objects");
+    }
+    myNodeCount = 0;
+    myRootCount = 0;
+    scanRecords(start, true, indicator);
+  }
+
+  private long readHeader() throws IOException {
+    // "JAVA PROFILE 1.0.x", 0, u4 id size, u8 timestamp
+    long position = 0;
+    while (position < myBuffer.size() && myBuffer.getByte(position) != 0) {
+      position++;
+    }
+    if (position == 0 || position >= myBuffer.size() - 12 || !myBuffer.getString(0, (int)position).startsWith("JAVA PROFILE")) {
+      throw new IOException("Not an hprof file");
+    }
+    position++;
+    myIdSize = myBuffer.getInt(position);
+    if (myIdSize != 4 && myIdSize != 8) {
+      throw new IOException("Unsupported identifier size " + myIdSize);
+    }
+    myBuffer.setIdSize(myIdSize);
+    return position + 12;
+  }
+
+  private void scanRecords(long position, boolean secondPass, @Nullable ProgressIndicator indicator) throws IOException {
+    long size = myBuffer.size();
+    while (position + 9 <= size) {
+      int tag = myBuffer.getUnsignedByte(position);
+      long length = myBuffer.getUnsignedInt(position + 5);
+      long body = position + 9;
+      if (body + length > size) {
+        throw new IOException("Truncated record at offset " + position);
+      }
+      if (tag == TAG_LOAD_CLASS && !secondPass) {
+        // u4 serial, id class object, u4 stack serial, id name
+        long classId = myBuffer.getId(body + 4);
+        long nameId = myBuffer.getId(body + 8 + myIdSize);
+        myClassNameIds.put(classId, nameId);
+      } else if (tag == TAG_HEAP_DUMP || tag == TAG_HEAP_DUMP_SEGMENT) {
+        scanHeapDump(body, body + length, secondPass, indicator);
+      }
+      position = body + length;
+    }
+  }
+
+  private void scanHeapDump(long position, long end, boolean secondPass, @Nullable ProgressIndicator indicator) throws IOException {
+    int id = myIdSize;
+    int records = 0;
+    while (position < end) {
+      if (indicator != null && ++records % PROGRESS_INTERVAL == 0) {
+        indicator.checkCanceled();
+        indicator.setFraction((secondPass ? 0.5 : 0) + 0.5 * position / myBuffer.size());
+      }
+      long record = position;
+      int tag = myBuffer.getUnsignedByte(position++);
+      switch (tag) {
+        case ROOT_UNKNOWN:
+        case ROOT_STICKY_CLASS:
+        case ROOT_MONITOR_USED:
+        case ROOT_INTERNED_STRING:
+        case ROOT_FINALIZING:
+        case ROOT_DEBUGGER:
+        case ROOT_REFERENCE_CLEANUP:
+        case ROOT_VM_INTERNAL:
+          addRoot(position, secondPass);
+          position += id;
+          break;
+        case ROOT_JNI_GLOBAL:
+          addRoot(position, secondPass);
+          position += 2 * id;
+          break;
+        case ROOT_JNI_LOCAL:
+        case ROOT_JAVA_FRAME:
+        case ROOT_THREAD_OBJECT:
+        case ROOT_JNI_MONITOR:
+          addRoot(position, secondPass);
+          position += id + 8;
+          break;
+        case ROOT_NATIVE_STACK:
+        case ROOT_THREAD_BLOCK:
+          addRoot(position, secondPass);
+          position += id + 4;
+          break;
+        case UNREACHABLE:
+          position += id;
+          break;
+        case HEAP_DUMP_INFO:
+          position += 4 + id;
+          break;
+        case CLASS_DUMP:
+          position = scanClassDump(record, secondPass);
+          break;
+        case INSTANCE_DUMP: {
+          long classId = myBuffer.getId(position + id + 4);
+          long size = myBuffer.getUnsignedInt(position + 2 * id + 4);
+          addObject(record, myBuffer.getId(position), getOrCreateClass(classId), size, secondPass);
+          position += 2 * id + 8 + size;
+          break;
+        }
+        case OBJECT_ARRAY_DUMP: {
+          long length = myBuffer.getUnsignedInt(position + id + 4);
+          long classId = myBuffer.getId(position + id + 8);
+          addObject(record, myBuffer.getId(position), getOrCreateClass(classId), length * id, secondPass);
+          position += 2 * id + 8 + length * id;
+          break;
+        }
+        case PRIMITIVE_ARRAY_DUMP:
+        case PRIMITIVE_ARRAY_NODATA: {
+          long length = myBuffer.getUnsignedInt(position + id + 4);
+          int type = myBuffer.getUnsignedByte(position + id + 8);
+          long size = length * checkTypeSize(type);
+          addObject(record, myBuffer.getId(position), getPrimitiveArrayClass(type), size, secondPass);
+          position += id + 9 + (tag == PRIMITIVE_ARRAY_DUMP ? size : 0);
+          break;
+        }
+        default:
+          throw new IOException(String.format("Unknown heap dump record 0x%1$x at offset %2$d", tag, record));
+      }
+    }
+  }
+
+  private void addRoot(long position, boolean secondPass) {
+    if (secondPass) {
+      myRoots.setLong(myRootCount, myBuffer.getId(position));
+    }
+    myRootCount++;
+  }
+
+  private void addObject(long record, long id, @NotNull ClassInfo classInfo, long size, boolean secondPass) {
+    int node = ++myNodeCount;
+    if (!secondPass) {
+      classInfo.myInstanceCount++;
+      classInfo.myShallowSize += size;
+      return;
+    }
+    myOffsets.setLong(node, record);
+    putNode(id, node);
+    myNodeClasses.setInt(node, classInfo.myIndex);
+    myInstances.setInt(classInfo.myFirstInstance + classInfo.myFilledInstances++, node);
+  }
+
+  /** Reads (on the first pass) or skips (on the second pass) a class dump record, and returns the offset after it */
+  private long scanClassDump(long record, boolean secondPass) throws IOException {
+    int id = myIdSize;
+    long classId = myBuffer.getId(record + 1);
+    ClassInfo classInfo = getOrCreateClass(classId);
+    TLongArrayList staticReferences = secondPass ? null : new TLongArrayList();
+    if (!secondPass) {
+      classInfo.mySuperClassId = myBuffer.getId(record + 1 + id + 4);
+      staticReferences.add(classInfo.mySuperClassId);
+      staticReferences.add(myBuffer.getId(record + 1 + 2 * id + 4)); // class loader
+    }
+
+    // id class, u4 stack, id super, id loader, id signers, id protection domain, 2 reserved ids, u4 instance size
+    long position = record + 1 + 7 * id + 8;
+    int constants = myBuffer.getUnsignedShort(position);
+    position += 2;
+    for (int i = 0; i < constants; i++) {
+      position += 2;
+      position += 1 + checkTypeSize(myBuffer.getUnsignedByte(position));
+    }
+    int statics = myBuffer.getUnsignedShort(position);
+    position += 2;
+    for (int i = 0; i < statics; i++) {
+      int type = myBuffer.getUnsignedByte(position + id);
+      if (type == TYPE_OBJECT && staticReferences != null) {
+        staticReferences.add(myBuffer.getId(position + id + 1));
+      }
+      position += id + 1 + checkTypeSize(type);
+    }
+    int fields = myBuffer.getUnsignedShort(position);
+    position += 2;
+    if (!secondPass) {
+      classInfo.myFieldTypes = new byte[fields];
+      classInfo.myFieldNameIds = new long[fields];
+    }
+    for (int i = 0; i < fields; i++) {
+      if (!secondPass) {
+        classInfo.myFieldNameIds[i] = myBuffer.getId(position);
+        classInfo.myFieldTypes[i] = myBuffer.getByte(position + id);
+        checkTypeSize(classInfo.myFieldTypes[i]);
+      }
+      position += id + 1;
+    }
+
+    int node = ++myNodeCount;
+    if (secondPass) {
+      myOffsets.setLong(node, record);
+      myNodeClasses.setInt(node, -1);
+      putNode(classId, node);
+    } else {
+      classInfo.myStaticReferences = staticReferences.toNativeArray();
+    }
+    return position;
+  }
+
+  @NotNull
+  private ClassInfo getOrCreateClass(long classId) {
+    ClassInfo classInfo = myClasses.get(classId);
+    if (classInfo == null) {
+      classInfo = new ClassInfo(classId, null);
+      myClasses.put(classId, classInfo);
+    }
+    return classInfo;
+  }
+
+  @NotNull
+  private ClassInfo getPrimitiveArrayClass(int type) throws IOException {
+    if (type < 0 || type >= PRIMITIVE_ARRAY_NAMES.length || PRIMITIVE_ARRAY_NAMES[type] == null) {
+      throw new IOException("Invalid primitive array type " + type);
+    }
+    ClassInfo classInfo = myPrimitiveArrayClasses[type];
+    if (classInfo == null) {
+      classInfo = new ClassInfo(0, PRIMITIVE_ARRAY_NAMES[type]);
+      myPrimitiveArrayClasses[type] = classInfo;
+    }
+    return classInfo;
+  }
+
+  private int checkTypeSize(int type) throws IOException {
+    int size = getTypeSize(type);
+    if (size < 0) {
+      throw new IOException("Invalid basic type " + type);
+    }
+    return size;
+  }
+
+  /** Returns the size of values of the given basic type, or -1 if the type is not valid */
+  private int getTypeSize(int type) {
+    switch (type) {
+      case TYPE_OBJECT:
+        return myIdSize;
+      case 4: // boolean
+      case 8: // byte
+        return 1;
+      case 5: // char
+      case 9: // short
+        return 2;
+      case 6: // float
+      case 10: // int
+        return 4;
+      case 7: // double
+      case 11: // long
+        return 8;
+      default:
+        return -1;
+    }
+  }
+
+  /** Reads the strings naming classes and fields; all other strings are left in the file */
+  private void readStrings(long position) {
+    final TLongHashSet needed = new TLongHashSet();
+    for (ClassInfo classInfo : getClasses()) {
+      long nameId = myClassNameIds.get(classInfo.myId);
+      if (nameId != 0) {
+        classInfo.myNameId = nameId;
+        needed.add(nameId);
+      }
+      needed.addAll(classInfo.myFieldNameIds);
+    }
+    myClassNameIds.clear();
+
+    final TLongObjectHashMap<String> strings = new TLongObjectHashMap<String>();
+    long size = myBuffer.size();
+    while (position + 9 <= size) {
+      int tag = myBuffer.getUnsignedByte(position);
+      long length = myBuffer.getUnsignedInt(position + 5);
+      long body = position + 9;
+      if (tag == TAG_STRING) {
+        long id = myBuffer.getId(body);
+        if (needed.contains(id)) {
+          strings.put(id, myBuffer.getString(body + myIdSize, (int)(length - myIdSize)));
+        }
+      }
+      position = body + length;
+    }
+
+    for (ClassInfo classInfo : getClasses()) {
+      if (classInfo.myName == null && classInfo.myNameId != 0) {
+        String name = strings.get(classInfo.myNameId);
+        if (name != null) {
+          classInfo.myName = name.replace('/', '.');
+        }
+      }
+      classInfo.myFieldNames = new String[classInfo.myFieldNameIds.length];
+      for (int i = 0; i < classInfo.myFieldNameIds.length; i++) {
+        classInfo.myFieldNames[i] = strings.get(classInfo.myFieldNameIds[i]);
+      }
+      // Only needed until the names are resolved
+      classInfo.myFieldNameIds = null;
+    }
+  }
+
+  private void putNode(long id, int node) {
+    long slot = hash(id) & myIdTableMask;
+    while (myIdTableKeys.getLong(slot) != 0) {
+      slot = (slot + 1) & myIdTableMask;
+    }
+    myIdTableKeys.setLong(slot, id);
+    myIdTableValues.setInt(slot, node);
+  }
+
+  /** Returns the node of the object with the given id, or -1 if there is no such object in the dump */
+  public int getNode(long id) {
+    if (id == 0) {
+      return -1;
+    }
+    long slot = hash(id) & myIdTableMask;
+    while (true) {
+      long key = myIdTableKeys.getLong(slot);
+      if (key == id) {
+        return myIdTableValues.getInt(slot);
+      } else if (key == 0) {
+        return -1;
+      }
+      slot = (slot + 1) & myIdTableMask;
+    }
+  }
+
+  private static long hash(long id) {
+    long h = id * 0x9E3779B97F4A7C15L;
+    return h ^ (h >>> 32);
+  }
+
+  @NotNull
+  private MappedArray createIntArray(@NotNull String name, long length) throws IOException {
+    MappedArray array = MappedArray.createIntArray(myTempDirectory, name, length);
+    synchronized (myArrays) {
+      myArrays.add(array);
+    }
+    return array;
+  }
+
+  @NotNull
+  private MappedArray createLongArray(@NotNull String name, long length) throws IOException {
+    MappedArray array = MappedArray.createLongArray(myTempDirectory, name, length);
+    synchronized (myArrays) {
+      myArrays.add(array);
+    }
+    return array;
+  }
+
+  /** Returns all the classes in the dump, including synthetic classes for primitive arrays */
+  @NotNull
+  public Collection<ClassInfo> getClasses() {
+    if (!myClassList.isEmpty()) {
+      return myClassList;
+    }
+    final List<ClassInfo> classes = Lists.newArrayList();
+    for (Object value : myClasses.getValues()) {
+      classes.add((ClassInfo)value);
+    }
+    for (ClassInfo classInfo : myPrimitiveArrayClasses) {
+      if (classInfo != null) {
+        classes.add(classInfo);
+      }
+    }
+    return classes;
+  }
+
+  @Nullable
+  public ClassInfo findClass(long classId) {
+    return myClasses.get(classId);
+  }
+
+  /** Returns the number of objects (instances, arrays and classes) in the dump; nodes are numbered 1 to this count */
+  public int getNodeCount() {
+    return myNodeCount;
+  }
+
+  public long getRootCount() {
+    return myRootCount;
+  }
+
+  /** Returns the node of the i'th instance of the given class */
+  public int getInstance(@NotNull ClassInfo classInfo, int i) {
+    assert i >= 0 && i < classInfo.myInstanceCount;
+    return myInstances.getInt(classInfo.myFirstInstance + i);
+  }
+
+  /** Returns the class of the given node, or null if the node is a class object or the virtual root */
+  @Nullable
+  public ClassInfo getClassOf(int node) {
+    if (node == ROOT_NODE) {
+      return null;
+    }
+    int index = myNodeClasses.getInt(node);
+    return index >= 0 ? myClassList.get(index) : null;
+  }
+
+  public long getObjectId(int node) {
+    if (node == ROOT_NODE) {
+      return 0;
+    }
+    return myBuffer.getId(myOffsets.getLong(node) + 1);
+  }
+
+  /** Returns the number of bytes of field, static or array data in the object's record */
+  public long getShallowSize(int node) {
+    if (node == ROOT_NODE) {
+      return 0;
+    }
+    long record = myOffsets.getLong(node);
+    int id = myIdSize;
+    switch (myBuffer.getUnsignedByte(record)) {
+      case INSTANCE_DUMP:
+        return myBuffer.getUnsignedInt(record + 1 + 2 * id + 4);
+      case OBJECT_ARRAY_DUMP:
+        return myBuffer.getUnsignedInt(record + 1 + id + 4) * id;
+      case PRIMITIVE_ARRAY_DUMP:
+      case PRIMITIVE_ARRAY_NODATA:
+        return myBuffer.getUnsignedInt(record + 1 + id + 4) * Math.max(0, getTypeSize(myBuffer.getUnsignedByte(record + 1 + id + 8)));
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Decodes the outgoing references of the given node from the dump, and passes the object ids to the given
+   * procedure. The ids may include objects not in the dump (and 0 for null references of classes).
+   */
+  public void getReferences(int node, @NotNull TLongProcedure procedure) {
+    if (node == ROOT_NODE) {
+      for (long i = 0; i < myRootCount; i++) {
+        if (!procedure.execute(myRoots.getLong(i))) {
+          return;
+        }
+      }
+      return;
+    }
+    int id = myIdSize;
+    long record = myOffsets.getLong(node);
+    switch (myBuffer.getUnsignedByte(record)) {
+      case CLASS_DUMP: {
+        ClassInfo classInfo = myClasses.get(myBuffer.getId(record + 1));
+        if (classInfo != null) {
+          for (long reference : classInfo.myStaticReferences) {
+            if (!procedure.execute(reference)) {
+              return;
+            }
+          }
+        }
+        break;
+      }
+      case INSTANCE_DUMP: {
+        long position = record + 1 + 2 * id + 8;
+        ClassInfo classInfo = myClasses.get(myBuffer.getId(record + 1 + id + 4));
+        // Field values are stored for the class itself first, then its super classes
+        while (classInfo != null) {
+          for (byte type : classInfo.myFieldTypes) {
+            if (type == TYPE_OBJECT) {
+              if (!procedure.execute(myBuffer.getId(position))) {
+                return;
+              }
+              position += id;
+            } else {
+              position += getTypeSize(type);
+            }
+          }
+          classInfo = classInfo.mySuperClassId != 0 ? myClasses.get(classInfo.mySuperClassId) : null;
+        }
+        break;
+      }
+      case OBJECT_ARRAY_DUMP: {
+        long length = myBuffer.getUnsignedInt(record + 1 + id + 4);
+        long position = record + 1 + 2 * id + 8;
+        for (long i = 0; i < length; i++, position += id) {
+          if (!procedure.execute(myBuffer.getId(position))) {
+            return;
+          }
+        }
+        break;
+      }
+      default:
+        // Primitive arrays have no references
+    }
+  }
+
+  /**
+   * Computes the dominator tree and retained sizes of all objects reachable from the GC roots. This walks the
+   * whole object graph and should be run from a background task; until it completes {@link #getRetainedSize}
+   * returns -1.
+   */
+  public void computeRetainedSizes(@Nullable ProgressIndicator indicator) throws IOException {
+    if (myRetainedSizes != null) {
+      return;
+    }
+    HprofDominators dominators = new HprofDominators(this, myTempDirectory);
+    try {
+      dominators.compute(indicator);
+      synchronized (myArrays) {
+        myArrays.add(dominators.getRetainedSizes());
+        myArrays.add(dominators.getDominators());
+      }
+      myDominators = dominators.getDominators();
+      myRetainedSizes = dominators.getRetainedSizes();
+    }
+    finally {
+      dominators.dispose();
+    }
+  }
+
+  public boolean hasRetainedSizes() {
+    return myRetainedSizes != null;
+  }
+
+  /** Returns the retained size of the given node, or -1 if not computed yet or if the node is not reachable */
+  public long getRetainedSize(int node) {
+    MappedArray retainedSizes = myRetainedSizes;
+    if (retainedSizes == null) {
+      return -1;
+    }
+    return retainedSizes.getLong(node) - 1;
+  }
+
+  /** Returns the immediate dominator of the given node, or -1 if not computed yet or if the node is not reachable */
+  public int getImmediateDominator(int node) {
+    MappedArray dominators = myDominators;
+    return dominators != null ? dominators.getInt(node) - 1 : -1;
+  }
+
+  @Override
+  public void dispose() {
+    synchronized (myArrays) {
+      for (MappedArray array : myArrays) {
+        array.dispose();
+      }
+      myArrays.clear();
+    }
+    FileUtil.delete(myTempDirectory);
+  }
+}
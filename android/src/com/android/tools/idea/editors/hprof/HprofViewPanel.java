@@ -15,19 +15,25 @@
  */
 package com.android.tools.idea.editors.hprof;
 
-import com.android.tools.perflib.heap.Snapshot;
+import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.text.StringUtil;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 public class HprofViewPanel {
+  /** Number of classes listed in the summary */
+  private static final int MAX_CLASSES = 200;
 
   private JPanel myContainer;
   private JTextArea myTextArea;
 
-  private Snapshot mySnapshot;
-
   public HprofViewPanel(@NotNull Project project) {
     init(project);
   }
@@ -36,9 +42,56 @@ public class HprofViewPanel {
     // TODO: Implement this.
   }
 
-  public void setSnapshot(Snapshot snapshot) {
-    mySnapshot = snapshot;
-    myTextArea.setText(mySnapshot.toString());
+  /** Shows a summary computed by {@link #getSummary}; call again once the retained sizes have been computed to include them */
+  public void setSummary(@NotNull String summary) {
+    myTextArea.setText(summary);
+    myTextArea.setCaretPosition(0);
+  }
+
+  /**
+   * Returns a summary of the given heap dump. This walks the instances of the largest classes, so call it from a
+   * background thread.
+   *
+   * @param index     the heap dump
+   * @param indicator an optional progress indicator, which is checked for cancellation
+   */
+  @NotNull
+  static String getSummary(@NotNull HprofIndex index, @Nullable ProgressIndicator indicator) {
+    List<HprofIndex.ClassInfo> classes = new ArrayList<HprofIndex.ClassInfo>(index.getClasses());
+    Collections.sort(classes, new Comparator<HprofIndex.ClassInfo>() {
+      @Override
+      public int compare(HprofIndex.ClassInfo c1, HprofIndex.ClassInfo c2) {
+        return c1.getShallowSize() < c2.getShallowSize() ? 1 : c1.getShallowSize() > c2.getShallowSize() ? -1 : 0;
+      }
+    });
+
+    boolean retained = index.hasRetainedSizes();
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%1$d objects, %2$d classes, %3$d roots\n", index.getNodeCount(), classes.size(), index.getRootCount()));
+    if (retained) {
+      sb.append("Reachable heap: ").append(StringUtil.formatFileSize(index.getRetainedSize(HprofIndex.ROOT_NODE))).append('\n');
+    } else {
+      sb.append("Computing retained sizes...\n");
+    }
+    sb.append('\n');
+    sb.append(String.format("%1$12s %2$12s %3$12s  %4$s\n", "Instances", "Shallow", retained ? "Max retained" : "", "Class"));
+    for (int i = 0; i < classes.size() && i < MAX_CLASSES; i++) {
+      if (indicator != null) {
+        indicator.checkCanceled();
+      }
+      HprofIndex.ClassInfo classInfo = classes.get(i);
+      String maxRetained = "";
+      if (retained) {
+        long max = 0;
+        for (int j = 0; j < classInfo.getInstanceCount(); j++) {
+          max = Math.max(max, index.getRetainedSize(index.getInstance(classInfo, j)));
+        }
+        maxRetained = StringUtil.formatFileSize(max);
+      }
+      sb.append(String.format("%1$12d %2$12s %3$12s  %4$s\n", classInfo.getInstanceCount(),
+                              StringUtil.formatFileSize(classInfo.getShallowSize()), maxRetained, classInfo.getName()));
+    }
+    return sb.toString();
   }
 
   @NotNull
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.editors.hprof;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A fixed size array of ints or longs stored in a memory mapped temporary file rather than on the Java heap,
+ * used by {@link HprofIndex} for its per-object tables. The operating system pages the data in and out as
+ * needed, so the tables for large heap dumps do not count against the IDE's heap.
+ * <p>
+ * All elements are initially 0.
+ */
+class MappedArray {
+  /** Size of each mapped chunk; a multiple of every element width, so elements never straddle chunks */
+  private static final int CHUNK_SHIFT = 30;
+  private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+
+  private final File myFile;
+  private final int myWidth;
+  private final long myLength;
+  private final MappedByteBuffer[] myChunks;
+
+  private MappedArray(@NotNull File directory, @NotNull String name, int width, long length) throws IOException {
+    myWidth = width;
+    myLength = length;
+    myFile = FileUtil.createTempFile(directory, name, ".bin", true, true);
+    long size = Math.max(1, length * width);
+    int chunkCount = (int)((size + CHUNK_SIZE - 1) >> CHUNK_SHIFT);
+    myChunks = new MappedByteBuffer[chunkCount];
+    RandomAccessFile file = new RandomAccessFile(myFile, "rw");
+    try {
+      file.setLength(size);
+      FileChannel channel = file.getChannel();
+      for (int i = 0; i < chunkCount; i++) {
+        long start = (long)i << CHUNK_SHIFT;
+        myChunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(CHUNK_SIZE, size - start));
+      }
+    }
+    finally {
+      file.close();
+    }
+  }
+
+  @NotNull
+  static MappedArray createIntArray(@NotNull File directory, @NotNull String name, long length) throws IOException {
+    return new MappedArray(directory, name, 4, length);
+  }
+
+  @NotNull
+  static MappedArray createLongArray(@NotNull File directory, @NotNull String name, long length) throws IOException {
+    return new MappedArray(directory, name, 8, length);
+  }
+
+  long length() {
+    return myLength;
+  }
+
+  int getInt(long index) {
+    assert myWidth == 4;
+    long position = index << 2;
+    return myChunks[(int)(position >> CHUNK_SHIFT)].getInt((int)(position & (CHUNK_SIZE - 1)));
+  }
+
+  void setInt(long index, int value) {
+    assert myWidth == 4;
+    long position = index << 2;
+    myChunks[(int)(position >> CHUNK_SHIFT)].putInt((int)(position & (CHUNK_SIZE - 1)), value);
+  }
+
+  long getLong(long index) {
+    assert myWidth == 8;
+    long position = index << 3;
+    return myChunks[(int)(position >> CHUNK_SHIFT)].getLong((int)(position & (CHUNK_SIZE - 1)));
+  }
+
+  void setLong(long index, long value) {
+    assert myWidth == 8;
+    long position = index << 3;
+    myChunks[(int)(position >> CHUNK_SHIFT)].putLong((int)(position & (CHUNK_SIZE - 1)), value);
+  }
+
+  /** Releases the backing file. The array must not be used afterwards. */
+  void dispose() {
+    // Mapped buffers are only unmapped when collected, and on some platforms the file can't be deleted before;
+    // the file was created with deleteOnExit as a fallback
+    FileUtil.delete(myFile);
+  }
+}
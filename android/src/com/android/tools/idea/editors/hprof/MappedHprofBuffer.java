@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.editors.hprof;
+
+import com.google.common.base.Charsets;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Random access, read-only view of an hprof file through memory mapped chunks, such that files larger
+ * than 2 GB can be read and none of the file contents are copied onto the Java heap.
+ */
+class MappedHprofBuffer {
+  private static final int CHUNK_SHIFT = 30;
+  private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+  /** Chunks overlap by this many bytes, such that any single value read from a chunk fits in it */
+  private static final int CHUNK_OVERLAP = 8;
+
+  private final MappedByteBuffer[] myChunks;
+  private final long mySize;
+  private int myIdSize = 4;
+
+  MappedHprofBuffer(@NotNull File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      mySize = channel.size();
+      int chunkCount = (int)((mySize + CHUNK_SIZE - 1) >> CHUNK_SHIFT);
+      myChunks = new MappedByteBuffer[Math.max(1, chunkCount)];
+      for (int i = 0; i < chunkCount; i++) {
+        long start = (long)i << CHUNK_SHIFT;
+        myChunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE + CHUNK_OVERLAP, mySize - start));
+        myChunks[i].order(ByteOrder.BIG_ENDIAN);
+      }
+    }
+    finally {
+      // The mappings stay valid after the channel is closed
+      randomAccessFile.close();
+    }
+  }
+
+  long size() {
+    return mySize;
+  }
+
+  void setIdSize(int idSize) {
+    myIdSize = idSize;
+  }
+
+  int getIdSize() {
+    return myIdSize;
+  }
+
+  byte getByte(long position) {
+    return myChunks[(int)(position >> CHUNK_SHIFT)].get((int)(position & (CHUNK_SIZE - 1)));
+  }
+
+  int getUnsignedByte(long position) {
+    return getByte(position) & 0xff;
+  }
+
+  int getUnsignedShort(long position) {
+    return myChunks[(int)(position >> CHUNK_SHIFT)].getShort((int)(position & (CHUNK_SIZE - 1))) & 0xffff;
+  }
+
+  int getInt(long position) {
+    return myChunks[(int)(position >> CHUNK_SHIFT)].getInt((int)(position & (CHUNK_SIZE - 1)));
+  }
+
+  long getUnsignedInt(long position) {
+    return getInt(position) & 0xffffffffL;
+  }
+
+  long getLong(long position) {
+    return myChunks[(int)(position >> CHUNK_SHIFT)].getLong((int)(position & (CHUNK_SIZE - 1)));
+  }
+
+  /** Reads an object id, which is either 4 or 8 bytes depending on the header of the file */
+  long getId(long position) {
+    return myIdSize == 4 ? getUnsignedInt(position) : getLong(position);
+  }
+
+  @NotNull
+  String getString(long position, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = getByte(position + i);
+    }
+    return new String(bytes, Charsets.UTF_8);
+  }
+}
@@ -16,6 +16,7 @@
 package com.android.tools.idea.gradle.invoker;
 
 import com.android.tools.idea.gradle.invoker.console.view.GradleConsoleView;
+import com.android.tools.idea.gradle.output.parser.IncrementalBuildOutputParser;
 import com.android.utils.SdkUtils;
 import com.google.common.io.Closeables;
 import com.intellij.execution.ui.ConsoleViewContentType;
@@ -30,21 +31,21 @@ import static com.intellij.execution.ui.ConsoleViewContentType.ERROR_OUTPUT;
 import static com.intellij.execution.ui.ConsoleViewContentType.NORMAL_OUTPUT;
 
 /**
- * Collects and redirects the output to the "Gradle Console" view.
+ * Collects and redirects the output to the "Gradle Console" view, and to a parser creating the messages for the "Messages" view.
  */
 class GradleOutputForwarder {
   private static final int SIZE = 2048;
 
   @NotNull private final ByteArrayOutputStream myStdErr;
-  @NotNull private final ByteArrayOutputStream myOutput;
   @NotNull private final GradleConsoleView myConsoleView;
+  @NotNull private final IncrementalBuildOutputParser myParser;
 
   private ConsoleViewContentType myPreviousContentType;
 
-  GradleOutputForwarder(@NotNull GradleConsoleView consoleView) {
+  GradleOutputForwarder(@NotNull GradleConsoleView consoleView, @NotNull IncrementalBuildOutputParser parser) {
     myConsoleView = consoleView;
+    myParser = parser;
     myStdErr = new ByteArrayOutputStream(SIZE);
-    myOutput = new ByteArrayOutputStream(SIZE * 2);
   }
 
   void attachTo(@NotNull BuildLauncher launcher) {
@@ -57,7 +58,6 @@ class GradleOutputForwarder {
 
   void close() {
     try {
-      Closeables.close(myOutput, true /* swallowIOException */);
       Closeables.close(myStdErr, true /* swallowIOException */);
     } catch (IOException e) {
       // Cannot happen
@@ -80,8 +80,7 @@ class GradleOutputForwarder {
     String lineSeparator = SdkUtils.getLineSeparator();
     boolean newLineAdded = false;
     if (addNewLine) {
-      byte[] bytes = lineSeparator.getBytes();
-      myOutput.write(bytes, 0, bytes.length);
+      myParser.append(lineSeparator);
       myConsoleView.print(lineSeparator, contentType);
       newLineAdded = true;
     }
@@ -89,18 +88,13 @@ class GradleOutputForwarder {
     if (lineSeparator.equals(text) && newLineAdded) {
       return;
     }
-    myOutput.write(b, off, len);
+    myParser.append(text);
     if (contentType == ERROR_OUTPUT) {
       myStdErr.write(b, off, len);
     }
     myConsoleView.print(text, contentType);
   }
 
-  @Override
-  public String toString() {
-    return myOutput.toString();
-  }
-
   private static class ConsoleAwareOutputStream extends OutputStream {
     @NotNull private final GradleOutputForwarder myOutput;
     @NotNull private final ConsoleViewContentType myContentType;
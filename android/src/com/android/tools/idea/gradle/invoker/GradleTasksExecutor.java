@@ -24,7 +24,7 @@ import com.android.tools.idea.gradle.invoker.console.view.GradleConsoleView;
 import com.android.tools.idea.gradle.invoker.messages.GradleBuildTreeViewPanel;
 import com.android.tools.idea.gradle.output.GradleMessage;
 import com.android.tools.idea.gradle.output.GradleProjectAwareMessage;
-import com.android.tools.idea.gradle.output.parser.BuildOutputParser;
+import com.android.tools.idea.gradle.output.parser.IncrementalBuildOutputParser;
 import com.android.tools.idea.gradle.project.BuildSettings;
 import com.android.tools.idea.gradle.util.AndroidGradleSettings;
 import com.android.tools.idea.gradle.util.BuildMode;
@@ -74,6 +74,7 @@ import com.intellij.ui.AppIcon;
 import com.intellij.ui.AppUIUtil;
 import com.intellij.ui.content.*;
 import com.intellij.util.ArrayUtil;
+import com.intellij.util.Consumer;
 import com.intellij.util.Function;
 import com.intellij.util.SystemProperties;
 import com.intellij.util.ui.MessageCategory;
@@ -267,7 +268,16 @@ class GradleTasksExecutor extends Task.Backgroundable {
           "Executing tasks: " + myGradleTasks + SystemProperties.getLineSeparator() + SystemProperties.getLineSeparator();
         consoleView.print(executingTasksText, NORMAL_OUTPUT);
 
-        GradleOutputForwarder output = new GradleOutputForwarder(consoleView);
+        // Messages are shown as soon as they are recognized in the output, while the build is still running
+        final List<GradleMessage> buildMessages = Lists.newArrayList();
+        IncrementalBuildOutputParser parser = new IncrementalBuildOutputParser(new Consumer<GradleMessage>() {
+          @Override
+          public void consume(GradleMessage message) {
+            buildMessages.add(message);
+            addMessage(message, null);
+          }
+        });
+        GradleOutputForwarder output = new GradleOutputForwarder(consoleView, parser);
 
         BuildException buildError = null;
         try {
@@ -303,8 +313,7 @@ class GradleTasksExecutor extends Task.Backgroundable {
           buildError = e;
         }
         finally {
-          String gradleOutput = output.toString();
-          List<GradleMessage> buildMessages = Lists.newArrayList(showMessages(gradleOutput));
+          parser.finish();
           if (myErrorCount == 0 && buildError != null) {
             showBuildException(buildError, output.getStdErr(), buildMessages);
           }
@@ -381,15 +390,6 @@ class GradleTasksExecutor extends Task.Backgroundable {
     }
   }
 
-  @NotNull
-  private List<GradleMessage> showMessages(@NotNull String gradleOutput) {
-    List<GradleMessage> compilerMessages = new BuildOutputParser().parseGradleOutput(gradleOutput);
-    for (GradleMessage msg : compilerMessages) {
-      addMessage(msg, null);
-    }
-    return compilerMessages;
-  }
-
   /**
    * Something went wrong while invoking Gradle but the output parsers did not create any build messages. We show the stack trace in the
    * "Messages" view.
@@ -31,6 +31,8 @@ import com.android.tools.idea.gradle.util.LocalProperties;
 import com.android.tools.idea.gradle.util.Projects;
 import com.android.tools.idea.sdk.DefaultSdks;
 import com.android.tools.idea.startup.AndroidStudioSpecificInitializer;
+import com.android.tools.idea.stats.StatsKeys;
+import com.android.tools.idea.stats.StatsTimeCollector;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -59,6 +61,9 @@ import org.jetbrains.annotations.Nullable;
 import java.io.*;
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import static com.android.SdkConstants.FN_FRAMEWORK_LIBRARY;
 import static com.intellij.openapi.roots.OrderRootType.CLASSES;
@@ -66,9 +71,20 @@ import static com.intellij.openapi.roots.OrderRootType.CLASSES;
 /**
  * The Project data that needs to be persisted for it to be possible to reload the Project without the need of calling Gradle to
  * regenerate this objects.
+ * <p/>
+ * The data is stored in a versioned binary format: a header with the Gradle plugin version, the last sync time and the files the
+ * data depends on, followed by the serialized data of each module. This allows the data to be validated before any of the
+ * modules are deserialized, and each module to be deserialized only when it is applied to the project.
  */
 public class AndroidGradleProjectData implements Serializable {
   @NotNull @NonNls private static final String STATE_FILE_NAME = "model_data.bin";
+  private static final int FORMAT_MAGIC = 0x41475044; // "AGPD"
+  /** The version of the state file format; increment when the layout of the file changes */
+  private static final int FORMAT_VERSION = 1;
+  /** Value written instead of a file size when the file has to be checksummed on validation regardless of its size */
+  private static final long NO_STAMP = -2L;
+  /** Files modified within this time of being checksummed may change again without changing their modification time */
+  private static final long MODIFICATION_TIME_GRANULARITY_MS = 2000L;
   private static final boolean ENABLED = !Boolean.getBoolean("studio.disable.synccache");
 
   @SuppressWarnings("unchecked") private static final Set<Class<?>> SUPPORTED_TYPES =
@@ -86,6 +102,17 @@ public class AndroidGradleProjectData implements Serializable {
    */
   private Map<String, byte[]> myFileChecksums = Maps.newHashMap();
 
+  /**
+   * The size and last modification time of the files this data depends on, used to skip computing the checksum of unchanged files.
+   * Only written to the state file; null if the data was restored with Java serialization.
+   */
+  private transient Map<String, FileStamp> myFileStamps = Maps.newHashMap();
+
+  /**
+   * The serialized data of the modules read from disk which have not been deserialized yet, from module name
+   */
+  private transient Map<String, byte[]> myEncodedData = Maps.newHashMap();
+
   /**
    * The model version
    */
@@ -218,6 +245,16 @@ public class AndroidGradleProjectData implements Serializable {
     return Hashing.md5().hashBytes(data).asBytes();
   }
 
+  /**
+   * Computes the same checksum as {@link #createChecksum(File)} without going through the VFS, such that it can be computed from
+   * any thread.
+   */
+  @NotNull
+  private static byte[] createIoChecksum(@NotNull File file) throws IOException {
+    byte[] data = file.isFile() ? Files.toByteArray(file) : new byte[] {};
+    return Hashing.md5().hashBytes(data).asBytes();
+  }
+
   /**
    * Loads the gradle model persisted on disk for the given project.
    *
@@ -228,15 +265,17 @@ public class AndroidGradleProjectData implements Serializable {
     if (!ENABLED || needsAndroidSdkSync(project)) {
       return false;
     }
+    long start = System.currentTimeMillis();
     try {
-      return doLoadFromDisk(project);
+      if (doLoadFromDisk(project)) {
+        LOG.info(String.format("Restored state of project '%1$s' from disk in %2$d ms", project.getName(),
+                               System.currentTimeMillis() - start));
+        return true;
+      }
     }
     catch (IOException e) {
       LOG.info(String.format("Error accessing state cache for project '%1$s', sync will be needed.", project.getName()));
     }
-    catch (ClassNotFoundException e) {
-      LOG.info(String.format("Cannot recover state cache for project '%1$s', sync will be needed.", project.getName()));
-    }
     return false;
   }
 
@@ -300,35 +339,76 @@ public class AndroidGradleProjectData implements Serializable {
     return false;
   }
 
-  private static boolean doLoadFromDisk(@NotNull Project project) throws IOException, ClassNotFoundException {
-    FileInputStream fin = null;
+  private static boolean doLoadFromDisk(@NotNull Project project) throws IOException {
+    File rootDirPath = new File(FileUtil.toSystemDependentName(project.getBasePath()));
+    File dataFile = getProjectStateFile(project);
+    if (!dataFile.exists()) {
+      return false;
+    }
+    // Covers reading the cache as well as applying it. Only successful restores are recorded: the start of a rejected or
+    // failed restore is replaced by the next one.
+    StatsTimeCollector.start(StatsKeys.GRADLE_SYNC_RESTORE_TIME_MS);
+    InputStream in = new BufferedInputStream(new FileInputStream(dataFile));
     try {
-      File rootDirPath = new File(FileUtil.toSystemDependentName(project.getBasePath()));
-      File dataFile = getProjectStateFile(project);
-      if (!dataFile.exists()) {
-        return false;
-      }
-      fin = new FileInputStream(dataFile);
-      ObjectInputStream ois = new ObjectInputStream(fin);
-      try {
-        AndroidGradleProjectData data = (AndroidGradleProjectData)ois.readObject();
-        if (data.validate(rootDirPath)) {
-          if (data.applyTo(project)) {
-            PostProjectSetupTasksExecutor.getInstance(project).onProjectRestoreFromDisk();
-            return true;
-          }
-        }
-      }
-      finally {
-        Closeables.close(ois, false);
+      AndroidGradleProjectData data = readFrom(in);
+      if (data != null && data.validate(rootDirPath) && data.applyTo(project)) {
+        PostProjectSetupTasksExecutor.getInstance(project).onProjectRestoreFromDisk();
+        StatsTimeCollector.stop(StatsKeys.GRADLE_SYNC_RESTORE_TIME_MS);
+        return true;
       }
     }
     finally {
-      Closeables.close(fin, false);
+      Closeables.close(in, false);
     }
     return false;
   }
 
+  /**
+   * Reads data previously written by {@link #saveTo(OutputStream)}. The data of the modules is only read as bytes; it is deserialized
+   * when the data is applied to the project.
+   *
+   * @param in the stream to read from.
+   * @return the data, or null if it was written with a different format version or Gradle plugin version.
+   * @throws IOException if there is a problem reading from the stream.
+   */
+  @Nullable
+  @VisibleForTesting
+  static AndroidGradleProjectData readFrom(@NotNull InputStream in) throws IOException {
+    DataInputStream dis = new DataInputStream(in);
+    if (dis.readInt() != FORMAT_MAGIC || dis.readInt() != FORMAT_VERSION) {
+      // Written by an older version of the IDE
+      return null;
+    }
+    AndroidGradleProjectData data = new AndroidGradleProjectData();
+    data.myGradlePluginVersion = dis.readUTF();
+    if (!data.myGradlePluginVersion.equals(SdkConstants.GRADLE_PLUGIN_LATEST_VERSION)) {
+      return null;
+    }
+    data.myLastGradleSyncTimestamp = dis.readLong();
+
+    int fileCount = dis.readInt();
+    for (int i = 0; i < fileCount; i++) {
+      String key = dis.readUTF();
+      long length = dis.readLong();
+      long lastModified = dis.readLong();
+      byte[] checksum = new byte[dis.readInt()];
+      dis.readFully(checksum);
+      if (length != NO_STAMP) {
+        data.myFileStamps.put(key, new FileStamp(length, lastModified));
+      }
+      data.myFileChecksums.put(key, checksum);
+    }
+
+    int moduleCount = dis.readInt();
+    for (int i = 0; i < moduleCount; i++) {
+      String name = dis.readUTF();
+      byte[] encoded = new byte[dis.readInt()];
+      dis.readFully(encoded);
+      data.myEncodedData.put(name, encoded);
+    }
+    return data;
+  }
+
   @NotNull
   private static File getProjectStateFile(@NotNull Project project) throws IOException {
     Module projectModule = Projects.findGradleProjectModule(project);
@@ -479,13 +559,17 @@ public class AndroidGradleProjectData implements Serializable {
       key = file.getAbsolutePath();
     }
     myFileChecksums.put(key, createChecksum(file));
+    FileStamp stamp = new FileStamp(file);
+    if (Math.abs(System.currentTimeMillis() - stamp.myLastModified) > MODIFICATION_TIME_GRANULARITY_MS) {
+      myFileStamps.put(key, stamp);
+    }
   }
 
   /**
    * Validates that the received data can be applied to the project at rootDir.
    * <p/>
    * This validates that all the files this model depends on, still have the same content checksum and that the gradle model version
-   * is still the same.
+   * is still the same. The checksum is only computed for the files whose size or modification time changed, in parallel.
    *
    * @param rootDir the root directory where to find the files.
    * @return whether the data is still valid.
@@ -496,16 +580,52 @@ public class AndroidGradleProjectData implements Serializable {
       return false;
     }
 
+    final Map<File, byte[]> changedFiles = Maps.newHashMap();
     for (Map.Entry<String, byte[]> entry : myFileChecksums.entrySet()) {
       File file = new File(entry.getKey());
       if (!file.isAbsolute()) {
         file = new File(rootDir, file.getPath());
       }
-      if (!Arrays.equals(entry.getValue(), createChecksum(file))) {
+      FileStamp stamp = myFileStamps != null ? myFileStamps.get(entry.getKey()) : null;
+      if (stamp == null || !stamp.matches(file)) {
+        changedFiles.put(file, entry.getValue());
+      }
+    }
+    if (changedFiles.isEmpty()) {
+      return true;
+    }
+    if (changedFiles.size() == 1) {
+      Map.Entry<File, byte[]> entry = changedFiles.entrySet().iterator().next();
+      return Arrays.equals(entry.getValue(), createIoChecksum(entry.getKey()));
+    }
+
+    List<Future<Boolean>> futures = Lists.newArrayListWithCapacity(changedFiles.size());
+    for (final Map.Entry<File, byte[]> entry : changedFiles.entrySet()) {
+      futures.add(ApplicationManager.getApplication().executeOnPooledThread(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws IOException {
+          return Arrays.equals(entry.getValue(), createIoChecksum(entry.getKey()));
+        }
+      }));
+    }
+    boolean valid = true;
+    for (Future<Boolean> future : futures) {
+      try {
+        valid &= future.get();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
         return false;
       }
+      catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException)cause;
+        }
+        throw new IOException(cause);
+      }
     }
-    return true;
+    return valid;
   }
 
   /**
@@ -516,12 +636,18 @@ public class AndroidGradleProjectData implements Serializable {
   @VisibleForTesting
   public boolean applyTo(Project project) {
     final Module[] modules = ModuleManager.getInstance(project).getModules();
+    Map<Module, ModuleData> dataByModule = Maps.newHashMap();
     for (Module module : modules) {
-      ModuleData data = myData.get(module.getName());
+      ModuleData data = getModuleData(module.getName());
       // If no data is found, the cache doesn't match the project structure and we should resync.
       if (data == null) {
         return false;
       }
+      dataByModule.put(module, data);
+    }
+
+    for (Module module : modules) {
+      ModuleData data = dataByModule.get(module);
 
       AndroidFacet androidFacet = AndroidFacet.getInstance(module);
       String moduleFilePath = module.getModuleFilePath(); // System dependent absolute path.
@@ -553,26 +679,93 @@ public class AndroidGradleProjectData implements Serializable {
     return true;
   }
 
+  /**
+   * Returns the data of the given module, deserializing it if it was read from disk.
+   *
+   * @param name the name of the module.
+   * @return the data, or null if there is no data for the module or it cannot be deserialized.
+   */
+  @Nullable
+  private ModuleData getModuleData(@NotNull String name) {
+    ModuleData data = myData.get(name);
+    if (data == null && myEncodedData != null) {
+      byte[] encoded = myEncodedData.remove(name);
+      if (encoded != null) {
+        try {
+          ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(encoded));
+          try {
+            data = (ModuleData)ois.readObject();
+          }
+          finally {
+            Closeables.close(ois, false);
+          }
+          myData.put(name, data);
+        }
+        catch (IOException e) {
+          LOG.info(String.format("Error reading state cache of module '%1$s'", name), e);
+        }
+        catch (ClassNotFoundException e) {
+          LOG.info(String.format("Cannot recover state cache of module '%1$s'", name), e);
+        }
+      }
+    }
+    return data;
+  }
+
   /**
    * Saves the data on the given project location.
    *
    * @param file the file where to save this data.
    */
   private void saveTo(File file) throws IOException {
-    FileOutputStream fos = null;
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
     try {
-      fos = new FileOutputStream(file);
-      ObjectOutputStream oos = new ObjectOutputStream(fos);
+      saveTo(out);
+    }
+    finally {
+      Closeables.close(out, false);
+    }
+  }
+
+  /**
+   * Writes the data to the given stream, in the format read by {@link #readFrom(InputStream)}.
+   *
+   * @param out the stream to write to.
+   * @throws IOException if there is a problem writing to the stream.
+   */
+  @VisibleForTesting
+  void saveTo(@NotNull OutputStream out) throws IOException {
+    DataOutputStream dos = new DataOutputStream(out);
+    dos.writeInt(FORMAT_MAGIC);
+    dos.writeInt(FORMAT_VERSION);
+    dos.writeUTF(myGradlePluginVersion);
+    dos.writeLong(myLastGradleSyncTimestamp);
+
+    dos.writeInt(myFileChecksums.size());
+    for (Map.Entry<String, byte[]> entry : myFileChecksums.entrySet()) {
+      FileStamp stamp = myFileStamps != null ? myFileStamps.get(entry.getKey()) : null;
+      dos.writeUTF(entry.getKey());
+      dos.writeLong(stamp != null ? stamp.myLength : NO_STAMP);
+      dos.writeLong(stamp != null ? stamp.myLastModified : NO_STAMP);
+      dos.writeInt(entry.getValue().length);
+      dos.write(entry.getValue());
+    }
+
+    dos.writeInt(myData.size());
+    for (Map.Entry<String, ModuleData> entry : myData.entrySet()) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream oos = new ObjectOutputStream(bytes);
       try {
-        oos.writeObject(this);
+        oos.writeObject(entry.getValue());
       }
       finally {
         Closeables.close(oos, false);
       }
+      dos.writeUTF(entry.getKey());
+      dos.writeInt(bytes.size());
+      bytes.writeTo(dos);
     }
-    finally {
-      Closeables.close(fos, false);
-    }
+    dos.flush();
   }
 
   @VisibleForTesting
@@ -596,6 +789,41 @@ public class AndroidGradleProjectData implements Serializable {
     public JavaModel myJavaModel;
   }
 
+  /**
+   * The size and last modification time of a file this data depends on.
+   */
+  private static class FileStamp {
+    private final long myLength;
+    private final long myLastModified;
+
+    private FileStamp(long length, long lastModified) {
+      myLength = length;
+      myLastModified = lastModified;
+    }
+
+    private FileStamp(@NotNull File file) {
+      this(file.isFile() ? file.length() : -1L, file.isFile() ? file.lastModified() : -1L);
+    }
+
+    private boolean matches(@NotNull File file) {
+      return equals(new FileStamp(file));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof FileStamp)) {
+        return false;
+      }
+      FileStamp other = (FileStamp)o;
+      return myLength == other.myLength && myLastModified == other.myLastModified;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (int)(myLength ^ (myLength >>> 32)) + (int)(myLastModified ^ (myLastModified >>> 32));
+    }
+  }
+
   static class WrapperInvocationHandler implements InvocationHandler, Serializable {
     private static final Method TO_STRING = getObjectMethod("toString");
     private static final Method HASHCODE = getObjectMethod("hashCode");
@@ -31,10 +31,12 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.Path2D;
 
 /**
- * A component to display a TimelineData object. It locks the timeline object to prevent modifications to it while it's begin
- * rendered, but objects of this class should not be accessed from different threads.
+ * A component to display a TimelineData object. It reads the timeline data without locking it, so the sampling is never
+ * blocked by the rendering, but objects of this class should not be accessed from different threads. Samples that fall into
+ * the same pixel column are decimated, so the cost of rendering a frame depends on the width of the component rather than
+ * on the number of samples.
  */
-@SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized", "UseJBColor"})
+@SuppressWarnings("UseJBColor")
 public class TimelineComponent extends JComponent implements ActionListener, HierarchyListener {
 
   private static final Color TEXT_COLOR = Gray._128;
@@ -62,6 +64,7 @@ public class TimelineComponent extends JComponent implements ActionListener, Hie
   private boolean myFirstFrame;
   private long myLastRenderTime;
   private Path2D.Float[] myPaths;
+  private ColumnDecimator[] myDecimators;
   private boolean myDrawDebugInfo;
   /**
    * The current maximum range in y-axis units.
@@ -100,6 +103,15 @@ public class TimelineComponent extends JComponent implements ActionListener, Hie
    * The current time value at the left edge of the timeline in seconds.
    */
   private float myBeginTime;
+  /**
+   * The number of the oldest sample rendered in the current frame.
+   */
+  private int myFirstSample;
+  /**
+   * The number of samples added to the timeline data when the current frame started, which is also the exclusive end
+   * of the samples rendered in it.
+   */
+  private int mySampleCount;
   /**
    * The current state for all in-progress markers.
    */
@@ -131,10 +143,12 @@ public class TimelineComponent extends JComponent implements ActionListener, Hie
     myTimer = new Timer(1000 / FPS, this);
     addHierarchyListener(this);
     myPaths = new Path2D.Float[streams];
+    myDecimators = new ColumnDecimator[streams];
     myStreamNames = new String[streams];
     myStreamColors = new Color[streams];
     for (int i = 0; i < streams; i++) {
       myPaths[i] = new Path2D.Float();
+      myDecimators[i] = new ColumnDecimator(myPaths[i]);
       myStreamNames[i] = "Stream " + i;
       myStreamColors[i] = Color.BLACK;
     }
@@ -151,6 +165,8 @@ public class TimelineComponent extends JComponent implements ActionListener, Hie
 
   public void configureEvent(int typeFrom, int typeTo, int stream, Icon icon, Color color, Color progress) {
     myEvents.put(typeFrom, new Event(typeFrom, typeTo, stream, icon, color, progress));
+    myData.addEventType(typeFrom);
+    myData.addEventType(typeTo);
   }
 
   public void configureUnits(String units) {
@@ -208,57 +224,65 @@ public class TimelineComponent extends JComponent implements ActionListener, Hie
     myFrameLength = (now - myLastRenderTime) / 1000000000.0f;
     myLastRenderTime = now;
 
-    synchronized (myData) {
-      // Calculate begin and end times in seconds.
-      myEndTime = myData.getEndTime() - myBufferTime;
-      myBeginTime = myEndTime - (myRight - LEFT_MARGIN) / X_SCALE;
+    // Only render the samples that were added before the frame started, as the sampling goes on while it's rendered.
+    mySampleCount = myData.getSampleCount();
+    myFirstSample = myData.getFirstSample(mySampleCount);
 
-      // Animate the current maximum towards the real one.
-      if (myData.getMaxTotal() > myCurrentMax) {
-        myCurrentMax = lerp(myCurrentMax, myData.getMaxTotal(), myFirstFrame ? 1.f : .95f);
-      }
-      myYScale = (myBottom - TOP_MARGIN) / myCurrentMax;
+    // Calculate begin and end times in seconds.
+    myEndTime = myData.getEndTime() - myBufferTime;
+    myBeginTime = myEndTime - (myRight - LEFT_MARGIN) / X_SCALE;
 
-      g2d.setClip(LEFT_MARGIN, TOP_MARGIN, myRight - LEFT_MARGIN, myBottom - TOP_MARGIN);
+    // Animate the current maximum towards the real one.
+    float maxTotal = myData.getMaxTotal();
+    if (maxTotal > myCurrentMax) {
+      myCurrentMax = lerp(myCurrentMax, maxTotal, myFirstFrame ? 1.f : .95f);
+    }
+    myYScale = (myBottom - TOP_MARGIN) / myCurrentMax;
 
-      drawTimelineData(g2d);
-      drawEvents(g2d);
+    g2d.setClip(LEFT_MARGIN, TOP_MARGIN, myRight - LEFT_MARGIN, myBottom - TOP_MARGIN);
 
-      g2d.setClip(0, 0, dim.width, dim.height);
+    drawTimelineData(g2d);
+    drawEvents(g2d);
 
-      drawLabels(g2d);
-      drawTimeMarkers(g2d);
-      drawMarkers(g2d);
-      drawGuides(g2d);
-      if (myDrawDebugInfo) {
-        drawDebugInfo(g2d);
-      }
+    g2d.setClip(0, 0, dim.width, dim.height);
 
-      g2d.dispose();
+    drawLabels(g2d);
+    drawTimeMarkers(g2d);
+    drawMarkers(g2d);
+    drawGuides(g2d);
+    if (myDrawDebugInfo) {
+      drawDebugInfo(g2d);
     }
 
+    g2d.dispose();
+
     myFirstFrame = false;
   }
 
   private void drawDebugInfo(Graphics2D g2d) {
-    int size = myData.size();
+    int size = mySampleCount - myFirstSample;
     int drawn = 0;
     g2d.setFont(TIMELINE_FONT.deriveFont(5.0f));
-    for (int i = 0; i < size; ++i) {
-      TimelineData.Sample sample = myData.get(i);
-      if (sample.time > myBeginTime && sample.time < myEndTime) {
+    for (int i = findSample(myBeginTime); i < mySampleCount; ++i) {
+      float time = myData.getTime(i);
+      if (time >= myEndTime) {
+        break;
+      }
+      if (time > myBeginTime) {
+        int type = myData.getType(i);
+        int id = myData.getId(i);
         float v = 0.0f;
-        for (float f : sample.values) {
-          v += f;
-          int x = (int)timeToX(sample.time);
+        for (int j = 0; j < myData.getStreamCount(); j++) {
+          v += myData.getValue(i, j);
+          int x = (int)timeToX(time);
           int y = (int)valueToY(v);
-          Color c = new Color((17 * sample.type) % 255, (121 * sample.type) % 255, (71 * sample.type) % 255);
+          Color c = new Color((17 * type) % 255, (121 * type) % 255, (71 * type) % 255);
           g2d.setColor(c);
           g2d.drawLine(x, y - 2, x, y + 2);
           g2d.drawLine(x - 2, y, x + 2, y);
           g2d.setColor(TEXT_COLOR);
-          if (sample.id > 0) {
-            g2d.drawString(String.format("[%d]", sample.id), x - 3, y - 5);
+          if (id > 0) {
+            g2d.drawString(String.format("[%d]", id), x - 3, y - 5);
           }
         }
         drawn++;
@@ -287,8 +311,8 @@ public class TimelineComponent extends JComponent implements ActionListener, Hie
   }
 
   private void drawTimelineData(Graphics2D g2d) {
-    if (myData.size() > 1) {
-      setPaths(0, myData.size());
+    if (mySampleCount - myFirstSample > 1) {
+      setPaths(myFirstSample, mySampleCount);
       for (int i = myPaths.length - 1; i >= 0; i--) {
         g2d.setColor(myStreamColors[i]);
         g2d.fill(myPaths[i]);
@@ -297,7 +321,10 @@ public class TimelineComponent extends JComponent implements ActionListener, Hie
   }
 
   private void drawEvents(Graphics2D g2d) {
-    int size = myData.size();
+    int size = mySampleCount;
+    if (size == myFirstSample) {
+      return;
+    }
     AffineTransform tx = g2d.getTransform();
     Stroke stroke = g2d.getStroke();
     Event currentEvent = null;
@@ -305,11 +332,25 @@ public class TimelineComponent extends JComponent implements ActionListener, Hie
     float startX = 0;
     float startY = 0;
 
-    for (int i = 0; i < size + 1; ++i) {
-      TimelineData.Sample sample = i < size ? myData.get(i) : null;
-      Event event = sample == null ? null : myEvents.get(sample.type);
+    // Events that ended before the visible range are not rendered. An event that begun before it and is still in
+    // progress is found from the last event boundary, as the samples since then neither start nor end an event.
+    int first = Math.max(myFirstSample, Math.min(findSample(myBeginTime), size - 1));
+    int lastEventSample = myData.getLastEventSample(first);
+    if (lastEventSample >= myFirstSample && lastEventSample < first) {
+      currentEvent = myEvents.get(myData.getType(lastEventSample));
+      if (currentEvent != null) {
+        start = lastEventSample;
+        startX = timeToX(myData.getTime(lastEventSample));
+        startY = valueToY(myData.getValue(lastEventSample, 0));
+      }
+    }
+
+    for (int i = first; i < size + 1; ++i) {
+      boolean end = i == size;
+      int type = end ? 0 : myData.getType(i);
+      Event event = end ? null : myEvents.get(type);
       // A new event or the end of the current one.
-      if (sample == null || event != null || (currentEvent != null && currentEvent.typeTo == sample.type)) {
+      if (end || event != null || (currentEvent != null && currentEvent.typeTo == type)) {
         // If there was an event in progress, end it.
         if (currentEvent != null) {
           setPaths(start, i < size ? i + 1 : size);
@@ -327,15 +368,15 @@ public class TimelineComponent extends JComponent implements ActionListener, Hie
           g2d.setStroke(new BasicStroke(1.5f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
           g2d.drawLine(0, 0, 0, (int)(myBottom - startY));
           g2d.drawLine(0, 0, icon.getIconWidth(), 0);
-          if (sample == null) {
+          if (end) {
             drawInProgressMarker(g2d, icon.getIconWidth() + 6, -icon.getIconHeight(), 6);
           }
           g2d.setTransform(tx);
         }
 
-        if (sample != null) {
-          float x = timeToX(sample.time);
-          float y = valueToY(sample.values[0]);
+        if (!end) {
+          float x = timeToX(myData.getTime(i));
+          float y = valueToY(myData.getValue(i, 0));
 
           currentEvent = event;
           if (currentEvent != null) {
@@ -375,8 +416,8 @@ public class TimelineComponent extends JComponent implements ActionListener, Hie
   }
 
   private void drawLabels(Graphics2D g2d) {
-    if (!myData.isEmpty()) {
-      TimelineData.Sample value = myData.get(myData.size() - 1);
+    if (mySampleCount > myFirstSample) {
+      int last = mySampleCount - 1;
       g2d.setFont(TIMELINE_FONT);
       FontMetrics metrics = g2d.getFontMetrics();
       for (int i = 0; i < myData.getStreamCount(); i++) {
@@ -384,7 +425,7 @@ public class TimelineComponent extends JComponent implements ActionListener, Hie
         int y = TOP_MARGIN + 15 + (myData.getStreamCount() - i - 1) * 20;
         g2d.fillRect(myRight + 20, y, 15, 15);
         g2d.setColor(TEXT_COLOR);
-        g2d.drawString(String.format("%s [%.2f %s]", myStreamNames[i], value.values[i], myUnits), myRight + 40,
+        g2d.drawString(String.format("%s [%.2f %s]", myStreamNames[i], myData.getValue(last, i), myUnits), myRight + 40,
                        y + 7 + metrics.getAscent() * .5f);
       }
     }
@@ -484,33 +525,136 @@ public class TimelineComponent extends JComponent implements ActionListener, Hie
     }
   }
 
+  /**
+   * Returns the number of the first sample of the current frame that is not older than the given time, or the number of
+   * samples in the frame if there is none. This relies on the samples being added in chronological order.
+   */
+  private int findSample(float time) {
+    int low = myFirstSample;
+    int high = mySampleCount;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (myData.getTime(mid) < time) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
   private void setPaths(int from, int to) {
     for (Path2D.Float path : myPaths) {
       path.reset();
     }
+    // Optimize to not render too many samples even though they get clipped, keeping the closest sample outside the
+    // visible range on both sides.
+    from = Math.max(from, findSample(myBeginTime) - 1);
+    to = Math.min(to, findSample(myEndTime) + 1);
     if (to - from > 1) {
-      // Optimize to not render too many samples even though they get clipped.
-      while (from < to - 1 && myData.get(from + 1).time < myBeginTime) {
-        from++;
-      }
-      TimelineData.Sample sample = myData.get(from);
-      for (Path2D.Float path : myPaths) {
-        path.moveTo(timeToX(sample.time), valueToY(0.0f));
+      float bottom = valueToY(0.0f);
+      float startX = timeToX(myData.getTime(from));
+      for (ColumnDecimator decimator : myDecimators) {
+        decimator.start(startX, bottom);
       }
       for (int i = from; i < to; i++) {
-        sample = myData.get(i);
+        float x = timeToX(myData.getTime(i));
         float val = 0.0f;
-        for (int j = 0; j < sample.values.length; j++) {
-          val += sample.values[j];
-          myPaths[j].lineTo(timeToX(sample.time), valueToY(val));
-        }
-        // Stop rendering if we are over the end limit.
-        if (sample.time > myEndTime) {
-          break;
+        for (int j = 0; j < myDecimators.length; j++) {
+          val += myData.getValue(i, j);
+          myDecimators[j].add(i, x, valueToY(val));
         }
       }
-      for (Path2D.Float path : myPaths) {
-        path.lineTo(timeToX(sample.time), valueToY(0.0f));
+      for (ColumnDecimator decimator : myDecimators) {
+        decimator.finish(bottom);
+      }
+    }
+  }
+
+  /**
+   * Builds the path of a stream, reducing the samples that fall into the same pixel column to the first, the highest,
+   * the lowest and the last of them. This draws the same pixels as a path through all the samples would.
+   */
+  private static class ColumnDecimator {
+    private final Path2D.Float myPath;
+    private boolean myEmpty;
+    private int myColumn;
+    private int myFirstSample;
+    private float myFirstX;
+    private float myFirstY;
+    private int myTopSample;
+    private float myTopX;
+    private float myTopY;
+    private int myBottomSample;
+    private float myBottomX;
+    private float myBottomY;
+    private int myLastSample;
+    private float myLastX;
+    private float myLastY;
+    private int myEmittedSample;
+
+    private ColumnDecimator(@NotNull Path2D.Float path) {
+      myPath = path;
+    }
+
+    public void start(float x, float bottom) {
+      myPath.moveTo(x, bottom);
+      myEmpty = true;
+    }
+
+    public void add(int sample, float x, float y) {
+      int column = (int)Math.floor(x);
+      if (myEmpty || column != myColumn) {
+        flush();
+        myEmpty = false;
+        myColumn = column;
+        myFirstSample = myTopSample = myBottomSample = myLastSample = sample;
+        myFirstX = myTopX = myBottomX = myLastX = x;
+        myFirstY = myTopY = myBottomY = myLastY = y;
+        return;
+      }
+      if (y < myTopY) {
+        myTopSample = sample;
+        myTopX = x;
+        myTopY = y;
+      }
+      if (y > myBottomY) {
+        myBottomSample = sample;
+        myBottomX = x;
+        myBottomY = y;
+      }
+      myLastSample = sample;
+      myLastX = x;
+      myLastY = y;
+    }
+
+    public void finish(float bottom) {
+      flush();
+      myPath.lineTo(myLastX, bottom);
+    }
+
+    private void flush() {
+      if (myEmpty) {
+        return;
+      }
+      myPath.lineTo(myFirstX, myFirstY);
+      myEmittedSample = myFirstSample;
+      if (myTopSample < myBottomSample) {
+        emit(myTopSample, myTopX, myTopY);
+        emit(myBottomSample, myBottomX, myBottomY);
+      }
+      else {
+        emit(myBottomSample, myBottomX, myBottomY);
+        emit(myTopSample, myTopX, myTopY);
+      }
+      emit(myLastSample, myLastX, myLastY);
+    }
+
+    private void emit(int sample, float x, float y) {
+      if (sample != myEmittedSample) {
+        myPath.lineTo(x, y);
+        myEmittedSample = sample;
       }
     }
   }
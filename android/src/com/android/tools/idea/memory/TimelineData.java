@@ -16,34 +16,59 @@
 package com.android.tools.idea.memory;
 
 import com.android.annotations.VisibleForTesting;
-import com.android.annotations.concurrency.GuardedBy;
-
-import java.util.List;
 
 /**
- * A group of streams of data sampled over time. This object is thread safe as it can be read/modified from any thread.
- * It uses itself as the mutex object so it is possible to synchronize on it if modifications from other threads want
- * to be prevented.
+ * A group of streams of data sampled over time. The samples are kept in ring buffers of primitive columns, one for the
+ * times, the types and the ids of the samples and one for each stream.
+ * <p/>
+ * Samples must be added (and the data cleared) by a single thread at a time, but the data can be read from any thread
+ * without locking. Every sample is identified by its sample number, which counts the samples added since the data
+ * was last cleared. Readers should call {@link #getSampleCount()} once, then {@link #getFirstSample(int)} with the count,
+ * and read the samples in between, so that the range doesn't move while they read it. The writer moves the first sample
+ * past the slot it is about to overwrite before writing it, so a reader that gets the range before a sample is added
+ * doesn't see that sample half written; a reader that falls further behind may still read samples that were overwritten.
+ * <p/>
+ * The data also tracks the last sample of an event type (see {@link #addEventType(int)}) before every sample, so that
+ * an event in progress can be found without walking back over the samples.
  */
 class TimelineData {
   private final int myStreams;
-  @GuardedBy("this")
-  private final List<Sample> mySamples;
-  @GuardedBy("this")
-  private long myStart;
-  @GuardedBy("this")
-  private float myMaxTotal;
-  @GuardedBy("this")
-  private long myFrozen;
+  private final int myCapacity;
+  private final long[] myTimes;
+  private final int[] myTypes;
+  private final int[] myIds;
+  private final float[][] myValues;
+  /** For each sample, the number of the last sample of an event type up to it, or -1 */
+  private final int[] myLastEventSamples;
+  /** The types added by {@link #addEventType(int)}; replaced rather than modified */
+  private volatile int[] myEventTypes = new int[0];
+  private volatile long myStart;
+  private volatile float myMaxTotal;
+  private volatile long myFrozen;
+  /**
+   * The number of samples added since the data was last cleared. It is only incremented once all the columns of
+   * the new sample are written, which makes the sample visible to the readers.
+   */
+  private volatile int mySampleCount;
+  /**
+   * The number of the oldest sample that is not being overwritten. It is updated before a slot is reused, and may be
+   * ahead of the sample count by one while a sample is being added.
+   */
+  private volatile int myFirstSample;
 
   TimelineData(int streams, int capacity) {
     myStreams = streams;
-    mySamples = new CircularArrayList<Sample>(capacity);
+    myCapacity = capacity;
+    myTimes = new long[capacity];
+    myTypes = new int[capacity];
+    myIds = new int[capacity];
+    myValues = new float[streams][capacity];
+    myLastEventSamples = new int[capacity];
     clear();
   }
 
   @VisibleForTesting
-  synchronized public long getStartTime() {
+  public long getStartTime() {
     return myStart;
   }
 
@@ -51,33 +76,126 @@ class TimelineData {
     return myStreams;
   }
 
-  synchronized public float getMaxTotal() {
+  public int getCapacity() {
+    return myCapacity;
+  }
+
+  public float getMaxTotal() {
     return myMaxTotal;
   }
 
-  synchronized public void add(long time, int type, int id, float... values) {
+  /**
+   * Marks the samples of the given type as event boundaries for {@link #getLastEventSample(int)}. Only the samples added
+   * afterwards are marked, so the event types should be added before the sampling starts.
+   */
+  public void addEventType(int type) {
+    int[] types = myEventTypes;
+    int[] newTypes = new int[types.length + 1];
+    System.arraycopy(types, 0, newTypes, 0, types.length);
+    newTypes[types.length] = type;
+    myEventTypes = newTypes;
+  }
+
+  private boolean isEventType(int type) {
+    for (int eventType : myEventTypes) {
+      if (eventType == type) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public void add(long time, int type, int id, float... values) {
     assert values.length == myStreams;
+    int sample = mySampleCount;
+    int slot = sample % myCapacity;
+    int lastEventSample = isEventType(type) ? sample : sample > 0 ? myLastEventSamples[(sample - 1) % myCapacity] : -1;
+    if (sample >= myCapacity) {
+      // Move the readers off the slot before overwriting it.
+      myFirstSample = sample - myCapacity + 1;
+    }
     float total = 0.0f;
-    for (float value : values) {
-      total += value;
+    for (int i = 0; i < myStreams; i++) {
+      myValues[i][slot] = values[i];
+      total += values[i];
     }
+    myTimes[slot] = time;
+    myTypes[slot] = type;
+    myIds[slot] = id;
+    myLastEventSamples[slot] = lastEventSample;
     myMaxTotal = Math.max(myMaxTotal, total);
-    mySamples.add(new Sample((time - myStart) / 1000.0f, type, id, values));
+    mySampleCount = sample + 1;
   }
 
-  synchronized public void clear() {
-    mySamples.clear();
+  public void clear() {
+    mySampleCount = 0;
+    myFirstSample = 0;
     myMaxTotal = 0.0f;
     myFrozen = -1;
     myStart = System.currentTimeMillis();
   }
 
+  /**
+   * Returns the number of samples added since the data was last cleared, including the ones that no longer fit
+   * in the buffers.
+   */
+  public int getSampleCount() {
+    return mySampleCount;
+  }
+
+  /**
+   * Returns the number of the oldest sample that can be read safely, given a sample count returned by
+   * {@link #getSampleCount()}. The result is never greater than the count.
+   */
+  public int getFirstSample(int sampleCount) {
+    return Math.min(Math.max(myFirstSample, sampleCount - myCapacity), sampleCount);
+  }
+
+  /**
+   * Returns the number of the last sample of an event type added up to the given sample, or -1 if there is none.
+   * The result may be older than the first sample in the buffers, in which case it must not be read.
+   */
+  public int getLastEventSample(int sample) {
+    return myLastEventSamples[sample % myCapacity];
+  }
+
+  /**
+   * Returns the time of the given sample, in seconds since the start of the sampling.
+   */
+  public float getTime(int sample) {
+    return (myTimes[sample % myCapacity] - myStart) / 1000.0f;
+  }
+
+  public float getValue(int sample, int stream) {
+    return myValues[stream][sample % myCapacity];
+  }
+
+  public int getType(int sample) {
+    return myTypes[sample % myCapacity];
+  }
+
+  public int getId(int sample) {
+    return myIds[sample % myCapacity];
+  }
+
   public int size() {
-    return mySamples.size();
+    return Math.min(mySampleCount, myCapacity);
   }
 
+  /**
+   * Returns a copy of the sample at the given index, where 0 is the oldest sample still in the buffers.
+   */
   public Sample get(int index) {
-    return mySamples.get(index);
+    int count = mySampleCount;
+    if (index < 0 || index >= Math.min(count, myCapacity)) {
+      throw new IndexOutOfBoundsException();
+    }
+    int sample = Math.max(0, count - myCapacity) + index;
+    float[] values = new float[myStreams];
+    for (int i = 0; i < myStreams; i++) {
+      values[i] = getValue(sample, i);
+    }
+    return new Sample(getTime(sample), getType(sample), getId(sample), values);
   }
 
   public boolean isEmpty() {
@@ -85,11 +203,12 @@ class TimelineData {
   }
 
   public float getEndTime() {
-    long now = myFrozen == -1 ? System.currentTimeMillis() : myFrozen;
+    long frozen = myFrozen;
+    long now = frozen == -1 ? System.currentTimeMillis() : frozen;
     return (now - myStart) / 1000.f;
   }
 
-  synchronized public void freeze() {
+  public void freeze() {
     myFrozen = System.currentTimeMillis();
   }
 
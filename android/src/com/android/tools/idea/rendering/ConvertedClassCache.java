@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.common.primitives.Longs;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.android.util.AndroidUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.android.SdkConstants.DOT_CLASS;
+
+/**
+ * Per project cache of classes rewritten by {@link ClassConverter#rewriteClass(byte[])}, such that classes compiled for
+ * a newer class file version than the IDE runs on are only converted once rather than by every class loader created
+ * for rendering.
+ * <p>
+ * Entries are keyed by a digest of the original class file contents and the target class file version. They are held
+ * in a bounded in-memory cache and also written to a directory under the Android system directory, from which they
+ * are read back once evicted from memory or after a restart.
+ * <p>
+ * The directory of a project is bounded too: once it grows beyond {@link #DISK_CACHE_SIZE}, the least recently used
+ * classes are deleted. The directories of projects that have not been opened for {@link #MAX_UNUSED_AGE_MS} are deleted
+ * when another project creates its cache.
+ */
+public class ConvertedClassCache {
+  private static final Logger LOG = Logger.getInstance(ConvertedClassCache.class);
+
+  /** Name of the directory, under the Android system directory, holding the converted classes of each project */
+  private static final String CACHE_DIR = "convertedClasses";
+
+  /** Maximum total size of the converted classes held in memory, in bytes */
+  private static final int MEMORY_CACHE_SIZE = 8 * 1024 * 1024;
+
+  /** Maximum total size of the converted classes written to disk for a project, in bytes */
+  private static final long DISK_CACHE_SIZE = 32 * 1024 * 1024;
+
+  /** Age after which the converted classes of a project that is no longer opened are deleted */
+  @VisibleForTesting
+  static final long MAX_UNUSED_AGE_MS = 30L * 24 * 60 * 60 * 1000;
+
+  @Nullable private final File myDir;
+  private final long myMaxDiskSize;
+  /** Total size of the classes in {@link #myDir}, or -1 until it is computed on the first write; guarded by this */
+  private long myDiskSize = -1;
+  private final Cache<String, byte[]> myClasses = CacheBuilder.newBuilder()
+    .maximumWeight(MEMORY_CACHE_SIZE)
+    .weigher(new Weigher<String, byte[]>() {
+      @Override
+      public int weigh(@NotNull String key, @NotNull byte[] data) {
+        return data.length;
+      }
+    })
+    .build();
+
+  private final AtomicInteger myMemoryHits = new AtomicInteger();
+  private final AtomicInteger myDiskHits = new AtomicInteger();
+  private final AtomicInteger myMisses = new AtomicInteger();
+
+  @NotNull
+  public static ConvertedClassCache getInstance(@NotNull Project project) {
+    return ServiceManager.getService(project, ConvertedClassCache.class);
+  }
+
+  @SuppressWarnings("UnusedDeclaration") // Instantiated as a project service
+  public ConvertedClassCache(@NotNull Project project) {
+    this(new File(AndroidUtils.getAndroidSystemDirectoryOsPath(),
+                  CACHE_DIR + File.separator + FileUtil.sanitizeFileName(project.getName()) + '_' + project.getLocationHash()),
+         DISK_CACHE_SIZE);
+
+    final File dir = myDir;
+    assert dir != null;
+    ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+      @Override
+      public void run() {
+        // Marks the directory of this project as used, then deletes the ones of projects not opened for a long time
+        if (dir.isDirectory() && !dir.setLastModified(System.currentTimeMillis())) {
+          LOG.info("Cannot update modification time of " + dir.getPath());
+        }
+        deleteUnusedDirectories(dir.getParentFile(), System.currentTimeMillis() - MAX_UNUSED_AGE_MS);
+      }
+    });
+  }
+
+  /**
+   * Creates a cache which writes converted classes to the given directory, or only keeps them in memory if null
+   */
+  @VisibleForTesting
+  ConvertedClassCache(@Nullable File dir) {
+    this(dir, DISK_CACHE_SIZE);
+  }
+
+  /**
+   * Creates a cache which writes converted classes to the given directory, up to the given total size in bytes, or
+   * only keeps them in memory if the directory is null
+   */
+  @VisibleForTesting
+  ConvertedClassCache(@Nullable File dir, long maxDiskSize) {
+    myDir = dir;
+    myMaxDiskSize = maxDiskSize;
+  }
+
+  /**
+   * Returns the given class rewritten to a version runnable on the current JDK, converting it only if it was not
+   * converted before
+   */
+  @NotNull
+  public byte[] rewriteClass(@NotNull byte[] classData) {
+    int version = ClassConverter.getCurrentClassVersion();
+    String key = getKey(classData, version);
+    if (key == null) {
+      myMisses.incrementAndGet();
+      return ClassConverter.rewriteClass(classData);
+    }
+
+    byte[] rewritten = myClasses.getIfPresent(key);
+    if (rewritten != null) {
+      myMemoryHits.incrementAndGet();
+      return rewritten;
+    }
+
+    rewritten = read(key);
+    if (rewritten != null) {
+      myDiskHits.incrementAndGet();
+    }
+    else {
+      myMisses.incrementAndGet();
+      rewritten = ClassConverter.rewriteClass(classData);
+      write(key, rewritten);
+    }
+    myClasses.put(key, rewritten);
+    return rewritten;
+  }
+
+  /** Returns the number of classes found in memory */
+  public int getMemoryHits() {
+    return myMemoryHits.get();
+  }
+
+  /** Returns the number of classes read back from disk */
+  public int getDiskHits() {
+    return myDiskHits.get();
+  }
+
+  /** Returns the number of classes which had to be converted */
+  public int getMisses() {
+    return myMisses.get();
+  }
+
+  /** Returns a human readable summary of the hit and miss counts, for diagnostics */
+  @NotNull
+  public String getStatistics() {
+    return String.format("Converted classes: memory hits=%1$d, disk hits=%2$d, misses=%3$d",
+                         getMemoryHits(), getDiskHits(), getMisses());
+  }
+
+  @Nullable
+  private static String getKey(@NotNull byte[] classData, int version) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException e) {
+      LOG.warn(e);
+      return null;
+    }
+    digest.update(classData);
+    return new BigInteger(1, digest.digest()).toString(16) + '_' + version;
+  }
+
+  @Nullable
+  private byte[] read(@NotNull String key) {
+    if (myDir == null) {
+      return null;
+    }
+    File file = new File(myDir, key + DOT_CLASS);
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      byte[] data = Files.toByteArray(file);
+      if (!ClassConverter.isValidClassFile(data)) {
+        return null;
+      }
+      // Marks the class as recently used, such that it is kept when the directory is pruned
+      if (!file.setLastModified(System.currentTimeMillis())) {
+        LOG.debug("Cannot update modification time of " + file.getPath());
+      }
+      return data;
+    }
+    catch (IOException e) {
+      LOG.info("Cannot read converted class " + file.getPath(), e);
+      return null;
+    }
+  }
+
+  /**
+   * Writes the converted class for the given key to disk. Entries are written to a temporary file which is then renamed,
+   * such that concurrent renders never see a partially written class. Failures are only logged since the cache is not
+   * needed for rendering.
+   */
+  private void write(@NotNull String key, @NotNull byte[] rewritten) {
+    if (myDir == null) {
+      return;
+    }
+    File file = new File(myDir, key + DOT_CLASS);
+    File tempFile = null;
+    try {
+      FileUtil.createDirectory(myDir);
+      tempFile = FileUtil.createTempFile(myDir, key, ".tmp", true, false);
+      Files.write(rewritten, tempFile);
+      if (tempFile.renameTo(file)) {
+        added(rewritten.length);
+      }
+      else if (!file.isFile()) {
+        LOG.info("Cannot write converted class " + file.getPath());
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot write converted class " + file.getPath(), e);
+    }
+    finally {
+      if (tempFile != null && tempFile.exists()) {
+        FileUtil.delete(tempFile);
+      }
+    }
+  }
+
+  /** Records that a class of the given size was written to disk, and prunes the directory if it grew too large */
+  private synchronized void added(long size) {
+    assert myDir != null;
+    if (myDiskSize < 0) {
+      // Includes the class just written
+      myDiskSize = 0;
+      File[] files = myDir.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          myDiskSize += file.length();
+        }
+      }
+    }
+    else {
+      myDiskSize += size;
+    }
+    if (myDiskSize > myMaxDiskSize) {
+      prune();
+    }
+  }
+
+  /**
+   * Deletes the least recently used classes until the directory is down to three quarters of its maximum size, such
+   * that it is not pruned again on the next write
+   */
+  private synchronized void prune() {
+    assert myDir != null;
+    File[] files = myDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    final Map<File, Long> lastUsed = Maps.newHashMap();
+    long size = 0;
+    for (File file : files) {
+      lastUsed.put(file, file.lastModified());
+      size += file.length();
+    }
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File f1, File f2) {
+        return Longs.compare(lastUsed.get(f1), lastUsed.get(f2));
+      }
+    });
+    long target = myMaxDiskSize * 3 / 4;
+    int deleted = 0;
+    for (File file : files) {
+      if (size <= target) {
+        break;
+      }
+      long length = file.length();
+      if (FileUtil.delete(file)) {
+        size -= length;
+        deleted++;
+      }
+    }
+    myDiskSize = size;
+    LOG.debug(String.format("Deleted %1$d converted classes from %2$s", deleted, myDir.getPath()));
+  }
+
+  /** Deletes the directories under the given one which have not been modified since the given time */
+  @VisibleForTesting
+  static void deleteUnusedDirectories(@NotNull File cacheDir, long minLastModified) {
+    File[] dirs = cacheDir.listFiles();
+    if (dirs == null) {
+      return;
+    }
+    for (File dir : dirs) {
+      if (dir.isDirectory() && dir.lastModified() < minLastModified) {
+        LOG.info("Deleting converted classes of unused project: " + dir.getPath());
+        FileUtil.delete(dir);
+      }
+    }
+  }
+}
@@ -15,10 +15,21 @@
  */
 package com.android.tools.idea.rendering;
 
-import com.google.common.collect.Maps;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Queues;
+import com.google.common.collect.Sets;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.ex.EditorEx;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.Gray;
 import com.intellij.util.RetinaImage;
+import com.intellij.util.ui.EmptyIcon;
 import com.intellij.util.ui.UIUtil;
 import icons.AndroidIcons;
 import org.jetbrains.annotations.NotNull;
@@ -30,19 +41,49 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.Map;
-
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Cache of the thumbnails shown in the editor gutter for drawable references. Thumbnails are decoded on a background
+ * thread; until a thumbnail is ready, {@link #getIcon} returns a placeholder and the editor gutters are repainted once
+ * it is. Thumbnails are keyed by the image path and VFS modification stamp, such that edited images are decoded again
+ * without checking the file on disk on every paint, and the least recently used ones are evicted once their total pixel
+ * size exceeds a bound.
+ */
 public class GutterIconCache {
   private static final Logger LOG = Logger.getInstance(GutterIconCache.class);
   private static final int MAX_WIDTH = 16;
   private static final int MAX_HEIGHT = 16;
-  private static final Icon NONE = AndroidIcons.Android; // placeholder
+  private static final Icon NONE = AndroidIcons.Android; // placeholder for images that could not be read
+  @VisibleForTesting
+  static final Icon LOADING = EmptyIcon.create(MAX_WIDTH, MAX_HEIGHT);
+
+  /** Maximum total size of the pixels of the cached thumbnails, in bytes */
+  private static final int MAX_CACHE_SIZE = 4 * 1024 * 1024;
 
   private static final GutterIconCache ourInstance = new GutterIconCache();
-  // TODO: Timestamps?
-  private Map<String,Icon> myThumbnailCache = Maps.newHashMap();
-  private boolean myRetina;
-  private static boolean ourRetinaEnabled = true;
+  private final Cache<String, Icon> myThumbnailCache = CacheBuilder.newBuilder()
+    .maximumWeight(MAX_CACHE_SIZE)
+    .weigher(new Weigher<String, Icon>() {
+      @Override
+      public int weigh(@NotNull String key, @NotNull Icon icon) {
+        if (icon == NONE) {
+          return 1;
+        }
+        // Retina thumbnails have twice the resolution of their icon size
+        int scale = icon instanceof RetinaImageIcon ? 2 : 1;
+        return 4 * scale * icon.getIconWidth() * scale * icon.getIconHeight();
+      }
+    })
+    .build();
+
+  /** The thumbnails waiting to be decoded, and their keys; guarded by {@link #myPending} */
+  private final Queue<Request> myPending = Queues.newArrayDeque();
+  private final Set<String> myPendingKeys = Sets.newHashSet();
+  private boolean myDecoding;
+
+  private static volatile boolean ourRetinaEnabled = true;
 
   public GutterIconCache() {
   }
@@ -52,35 +93,89 @@ public class GutterIconCache {
     return ourInstance;
   }
 
+  /**
+   * Returns the thumbnail of the given image, a placeholder icon if the thumbnail is still being decoded, or null if
+   * the image cannot be read
+   */
   @Nullable
-  public Icon getIcon(@NotNull String path) {
+  public Icon getIcon(@NotNull VirtualFile file) {
     boolean isRetina = UIUtil.isRetina();
-    if (myRetina != isRetina) {
-      myRetina = isRetina;
-      myThumbnailCache.clear();
+    String path = file.getPath();
+    String key = path + '@' + file.getModificationStamp() + (isRetina ? "@2x" : "");
+    Icon icon = myThumbnailCache.getIfPresent(key);
+    if (icon == null) {
+      scheduleDecoding(new Request(key, path, isRetina));
+      return LOADING;
     }
-    Icon myIcon = myThumbnailCache.get(path);
-    if (myIcon == null) {
-      myIcon = createIcon(path);
 
-      if (myIcon == null) {
-        myIcon = NONE;
+    return icon != NONE ? icon : null;
+  }
+
+  private void scheduleDecoding(@NotNull Request request) {
+    synchronized (myPending) {
+      if (!myPendingKeys.add(request.key)) {
+        return;
       }
+      myPending.add(request);
+      if (myDecoding) {
+        return;
+      }
+      myDecoding = true;
+    }
+
+    ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+      @Override
+      public void run() {
+        decodePending();
+      }
+    });
+  }
 
-      myThumbnailCache.put(path, myIcon);
+  /** Decodes thumbnails until there are no more pending requests, then repaints the gutters to show them */
+  private void decodePending() {
+    while (true) {
+      Request request;
+      synchronized (myPending) {
+        request = myPending.poll();
+        if (request == null) {
+          myDecoding = false;
+          break;
+        }
+      }
+
+      Icon icon = null;
+      try {
+        icon = createIcon(request.path, request.retina);
+      }
+      catch (RuntimeException e) {
+        LOG.warn(String.format("Could not create icon for image %1$s", request.path), e);
+      }
+      myThumbnailCache.put(request.key, icon != null ? icon : NONE);
+      synchronized (myPending) {
+        myPendingKeys.remove(request.key);
+      }
     }
 
-    return myIcon != NONE ? myIcon : null;
+    ApplicationManager.getApplication().invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        for (Editor editor : EditorFactory.getInstance().getAllEditors()) {
+          if (editor instanceof EditorEx) {
+            ((EditorEx)editor).getGutterComponentEx().repaint();
+          }
+        }
+      }
+    });
   }
 
   @Nullable
-  private static Icon createIcon(String path) {
+  private static Icon createIcon(@NotNull String path, boolean isRetina) {
     try {
       BufferedImage image = ImageIO.read(new File(path));
       if (image != null) {
         int imageWidth = image.getWidth();
         int imageHeight = image.getHeight();
-        if (ourRetinaEnabled && UIUtil.isRetina()) {
+        if (ourRetinaEnabled && isRetina) {
           BufferedImage scaled = image;
           if (imageWidth > 2 * MAX_WIDTH || imageHeight > 2 * MAX_HEIGHT) {
             double scale = 2 * Math.min(MAX_WIDTH / (double)imageWidth, MAX_HEIGHT / (double)imageHeight);
@@ -133,6 +228,18 @@ public class GutterIconCache {
     return null;
   }
 
+  private static class Request {
+    @NotNull final String key;
+    @NotNull final String path;
+    final boolean retina;
+
+    Request(@NotNull String key, @NotNull String path, boolean retina) {
+      this.key = key;
+      this.path = path;
+      this.retina = retina;
+    }
+  }
+
   private static class RetinaImageIcon extends ImageIcon {
     private RetinaImageIcon(Image image) {
       super(image, "");
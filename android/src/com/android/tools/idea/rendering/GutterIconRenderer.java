@@ -35,7 +35,7 @@ import java.io.File;
 public class GutterIconRenderer extends com.intellij.openapi.editor.markup.GutterIconRenderer {
   private final PsiElement myElement;
   private final File myFile;
-  private Icon myIcon;
+  private VirtualFile myVirtualFile;
 
   public GutterIconRenderer(@NotNull PsiElement element, @NotNull File file) {
     myElement = element;
@@ -45,14 +45,18 @@ public class GutterIconRenderer extends com.intellij.openapi.editor.markup.Gutte
   @NotNull
   @Override
   public Icon getIcon() {
-    if (myIcon == null) {
-      myIcon = GutterIconCache.getInstance().getIcon(myFile.getPath());
-      if (myIcon == null) {
-        myIcon = AllIcons.General.Error;
-      }
-    }
+    // Not cached here: the icon is a placeholder until the thumbnail has been decoded, and changes with the image
+    VirtualFile file = getVirtualFile();
+    Icon icon = file != null ? GutterIconCache.getInstance().getIcon(file) : null;
+    return icon != null ? icon : AllIcons.General.Error;
+  }
 
-    return myIcon;
+  @Nullable
+  private VirtualFile getVirtualFile() {
+    if (myVirtualFile == null || !myVirtualFile.isValid()) {
+      myVirtualFile = LocalFileSystem.getInstance().findFileByIoFile(myFile);
+    }
+    return myVirtualFile;
   }
 
   @Nullable
@@ -64,7 +68,7 @@ public class GutterIconRenderer extends com.intellij.openapi.editor.markup.Gutte
         final Editor editor = CommonDataKeys.EDITOR.getData(e.getDataContext());
         if (editor != null) {
           Project project = editor.getProject();
-          VirtualFile virtualFile = LocalFileSystem.getInstance().findFileByIoFile(myFile);
+          VirtualFile virtualFile = getVirtualFile();
           if (project != null && virtualFile != null) {
             OpenFileDescriptor descriptor = new OpenFileDescriptor(project, virtualFile, -1);
             FileEditorManager.getInstance(project).openEditor(descriptor, true);
@@ -24,8 +24,12 @@ import com.android.tools.idea.AndroidPsiUtils;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.intellij.lang.ASTNode;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.impl.source.tree.CompositeElement;
 import com.intellij.psi.xml.XmlAttribute;
 import com.intellij.psi.xml.XmlFile;
 import com.intellij.psi.xml.XmlTag;
@@ -49,14 +53,31 @@ import static com.android.tools.idea.rendering.RenderService.AttributeFilter;
  * <p/>
  * This pull parser generates {@link com.android.ide.common.rendering.api.ViewInfo}s whose keys
  * are of type {@link XmlTag}.
+ * <p/>
+ * The parser works on a snapshot of the PSI tree, taken when the parser is created. The snapshot of each
+ * tag is stored on the tag along with the modification count of its AST node, which is incremented
+ * whenever anything in the subtree of the tag changes. Snapshots of unchanged subtrees are therefore
+ * shared between parsers, and after an edit only the tags from the edited tag up to the root need to be
+ * snapshotted again. Shared snapshots must never be modified.
  */
 public class LayoutPsiPullParser extends LayoutPullParser {
+  /** Key under which the most recent snapshot of a tag is stored on the tag */
+  private static final Key<CachedSnapshot> SNAPSHOT_KEY = Key.create("android.layout.snapshot");
+
   @NotNull
   private final RenderLogger myLogger;
 
   @NotNull
   private final List<Element> myNodeStack = new ArrayList<Element>();
 
+  /** For each element in {@link #myNodeStack}, its index among the children of its parent */
+  @NotNull
+  private final List<Integer> myIndexStack = new ArrayList<Integer>();
+
+  /** Number of tag snapshots created and reused respectively when this parser was created */
+  private int myCreatedSnapshots;
+  private int myReusedSnapshots;
+
   @Nullable
   protected final Element myRoot;
 
@@ -128,7 +149,7 @@ public class LayoutPsiPullParser extends LayoutPullParser {
         if (root.isValid()) {
           myAndroidPrefix = root.getPrefixByNamespace(ANDROID_URI);
           myToolsPrefix = root.getPrefixByNamespace(TOOLS_URI);
-          myRoot = createSnapshot(root);
+          myRoot = createSnapshot(root, this);
         } else {
           myRoot = null;
         }
@@ -140,7 +161,7 @@ public class LayoutPsiPullParser extends LayoutPullParser {
             if (root.isValid()) {
               myAndroidPrefix = root.getPrefixByNamespace(ANDROID_URI);
               myToolsPrefix = root.getPrefixByNamespace(TOOLS_URI);
-              return createSnapshot(root);
+              return createSnapshot(root, LayoutPsiPullParser.this);
             } else {
               return null;
             }
@@ -194,6 +215,15 @@ public class LayoutPsiPullParser extends LayoutPullParser {
     return myNodeStack.remove(myNodeStack.size() - 1);
   }
 
+  /**
+   * Returns a human readable summary of the number of tag snapshots created and reused from earlier
+   * parsers when this parser was created, for diagnostics
+   */
+  @NotNull
+  public String getSnapshotStatistics() {
+    return String.format("Layout snapshot: created=%1$d, reused=%2$d", myCreatedSnapshots, myReusedSnapshots);
+  }
+
   // ------------- IXmlPullParser --------
 
   /**
@@ -482,6 +512,7 @@ public class LayoutPsiPullParser extends LayoutPullParser {
   protected void onNextFromStartDocument() {
     if (myRoot != null) {
       push(myRoot);
+      myIndexStack.add(0);
       myParsingState = START_TAG;
     } else {
       myParsingState = END_DOCUMENT;
@@ -497,6 +528,7 @@ public class LayoutPsiPullParser extends LayoutPullParser {
     if (!children.isEmpty()) {
       // move to the new child, and don't change the state.
       push(children.get(0));
+      myIndexStack.add(0);
 
       // in case the current state is CURRENT_DOC, we set the proper state.
       myParsingState = START_TAG;
@@ -518,18 +550,22 @@ public class LayoutPsiPullParser extends LayoutPullParser {
     Element node = getCurrentNode();
     assert node != null;  // Should only be called when END_TAG
 
-    Element sibling = node.next;
-    if (sibling != null) {
-      node = sibling;
+    // Snapshots are shared, so elements can't point to their siblings; look up the next child of the parent instead
+    Element parent = getPreviousNode();
+    int index = myIndexStack.get(myIndexStack.size() - 1) + 1;
+    if (parent != null && index < parent.children.size()) {
+      node = parent.children.get(index);
       // to go to the sibling, we need to remove the current node,
       pop();
       // and add its sibling.
       push(node);
+      myIndexStack.set(myIndexStack.size() - 1, index);
       myParsingState = START_TAG;
     }
     else {
       // move back to the parent
       pop();
+      myIndexStack.remove(myIndexStack.size() - 1);
 
       // we have only one element left (myRoot), then we're done with the document.
       if (myNodeStack.isEmpty()) {
@@ -546,7 +582,9 @@ public class LayoutPsiPullParser extends LayoutPullParser {
     myProvideViewCookies = provideViewCookies;
   }
 
-  private static Element createSnapshot(XmlTag tag) {
+  private static Element createSnapshot(XmlTag tag, LayoutPsiPullParser parser) {
+    String namespaces = getNamespaceKey(tag);
+
     // <include> tags can't be at the root level; handle <fragment> rewriting here such that we don't
     // need to handle it as a tag name rewrite (where it's harder to change the structure)
     // https://code.google.com/p/android/issues/detail?id=67910
@@ -580,7 +618,7 @@ public class LayoutPsiPullParser extends LayoutPullParser {
       }
       return element;
     } else if (rootTag.equals(FRAME_LAYOUT)) {
-      Element root = createTagSnapshot(tag);
+      Element root = createTagSnapshot(tag, parser, namespaces, true);
 
       // tools:layout on a <FrameLayout> acts like an <include> child. This
       // lets you preview runtime additions on FrameLayouts.
@@ -588,9 +626,8 @@ public class LayoutPsiPullParser extends LayoutPullParser {
       if (layout != null && root.children.isEmpty()) {
         String prefix = tag.getPrefixByNamespace(ANDROID_URI);
         if (prefix != null) {
-          List<Element> children = Lists.newArrayList();
-          children.addAll(root.children);
-          root.children = children;
+          root = root.copy();
+          List<Element> children = root.children;
 
           Element element = new Element(null, VIEW_INCLUDE, "", "");
           children.add(element);
@@ -616,8 +653,10 @@ public class LayoutPsiPullParser extends LayoutPullParser {
         }
         String prefix = tag.getPrefixByNamespace(ANDROID_URI);
         if (prefix != null) {
+          root = root.copy();
           for (int i = 0, n = root.children.size(); i < n; i++) {
-            Element child = root.children.get(i);
+            Element child = root.children.get(i).copy();
+            root.children.set(i, child);
             boolean visible = indices.contains(i);
             child.setAttribute(ATTR_VISIBILITY, ANDROID_URI, prefix, visible ? "visible" : "gone");
           }
@@ -626,7 +665,7 @@ public class LayoutPsiPullParser extends LayoutPullParser {
 
       return root;
     } else {
-      Element root = createTagSnapshot(tag);
+      Element root = createTagSnapshot(tag, parser, namespaces, true);
 
       // Ensure that root tags that qualify for adapter binding specify an id attribute, since that is required for
       // attribute binding to work. (Without this, a <ListView> at the root level will not show Item 1, Item 2, etc.
@@ -635,6 +674,7 @@ public class LayoutPsiPullParser extends LayoutPullParser {
         if (id == null) {
           String prefix = tag.getPrefixByNamespace(ANDROID_URI);
           if (prefix != null) {
+            root = root.copy();
             root.attributes.add(new Attribute(ANDROID_URI, prefix, ATTR_ID, "@+id/_dynamic"));
           }
         }
@@ -644,36 +684,79 @@ public class LayoutPsiPullParser extends LayoutPullParser {
     }
   }
 
-  private static Element createTagSnapshot(XmlTag tag) {
+  /**
+   * Returns the namespace declarations of the root tag of the file containing the given tag; the namespaces of
+   * the attributes in a snapshot depend on them
+   */
+  private static String getNamespaceKey(XmlTag tag) {
+    XmlTag root = tag;
+    PsiFile file = tag.getContainingFile();
+    if (file instanceof XmlFile) {
+      XmlTag rootTag = ((XmlFile)file).getRootTag();
+      if (rootTag != null) {
+        root = rootTag;
+      }
+    }
+    StringBuilder sb = new StringBuilder();
+    for (XmlAttribute attribute : root.getAttributes()) {
+      if (attribute.isNamespaceDeclaration()) {
+        sb.append(attribute.getName()).append('=').append(attribute.getValue()).append(';');
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Creates a snapshot of the given tag and its children, or returns the snapshot created by an earlier parser
+   * if the tag has not changed since, and {@code reuse} is true
+   */
+  private static Element createTagSnapshot(XmlTag tag, LayoutPsiPullParser parser, String namespaces, boolean reuse) {
+    ASTNode node = tag.getNode();
+    int modificationCount = node instanceof CompositeElement ? ((CompositeElement)node).getModificationCount() : -1;
+    if (reuse && modificationCount != -1) {
+      CachedSnapshot cached = tag.getUserData(SNAPSHOT_KEY);
+      // Also check the cookie, in case the user data was copied along with the tag
+      if (cached != null && cached.element.cookie == tag && cached.modificationCount == modificationCount &&
+          cached.namespaces.equals(namespaces)) {
+        parser.myReusedSnapshots++;
+        return cached.element;
+      }
+    }
+    parser.myCreatedSnapshots++;
+
     Element element = new Element(tag);
 
     // Attributes
     XmlAttribute[] psiAttributes = tag.getAttributes();
     List<Attribute> attributes = Lists.newArrayListWithExpectedSize(psiAttributes.length);
     element.attributes = attributes;
+    boolean reuseChildren = reuse;
     for (XmlAttribute psiAttribute : psiAttributes) {
       Attribute attribute = createAttributeSnapshot(psiAttribute);
       attributes.add(attribute);
+      if (psiAttribute.isNamespaceDeclaration() && tag.getParentTag() != null) {
+        // Namespace declarations below the root are not part of the namespace key, so snapshots of the
+        // children can't be reused if this tag has changed
+        reuseChildren = false;
+      }
     }
 
     // Children
     XmlTag[] subTags = tag.getSubTags();
     if (subTags.length > 0) {
-      Element last = null;
       ArrayList<Element> children = Lists.newArrayListWithExpectedSize(subTags.length);
       element.children = children;
       for (XmlTag subTag : subTags) {
-        Element child = createTagSnapshot(subTag);
-        children.add(child);
-        if (last != null) {
-          last.next = child;
-        }
-        last = child;
+        children.add(createTagSnapshot(subTag, parser, namespaces, reuseChildren));
       }
     } else {
       element.children = Collections.emptyList();
     }
 
+    if (reuse && modificationCount != -1) {
+      tag.putUserData(SNAPSHOT_KEY, new CachedSnapshot(modificationCount, namespaces, element));
+    }
+
     return element;
   }
 
@@ -690,7 +773,6 @@ public class LayoutPsiPullParser extends LayoutPullParser {
     public final String tag;
     public final XmlTag cookie;
     private final String prefix;
-    public Element next;
     public List<Element> children;
     public List<Attribute> attributes;
 
@@ -705,6 +787,15 @@ public class LayoutPsiPullParser extends LayoutPullParser {
       this(tag, tag.getName(), tag.getNamespacePrefix(), tag.getNamespace());
     }
 
+    /** Returns a copy of this element with its own lists of attributes and children, which can be modified */
+    @NotNull
+    public Element copy() {
+      Element copy = new Element(cookie, tag, prefix, namespace);
+      copy.attributes = Lists.newArrayList(attributes);
+      copy.children = Lists.newArrayList(children);
+      return copy;
+    }
+
     @Nullable
     public String getAttribute(String name) {
       return getAttribute(name, null);
@@ -750,6 +841,19 @@ public class LayoutPsiPullParser extends LayoutPullParser {
     }
   }
 
+  /** A snapshot of a tag, stored on the tag, along with what it depends on */
+  private static class CachedSnapshot {
+    public final int modificationCount;
+    @NotNull public final String namespaces;
+    @NotNull public final Element element;
+
+    private CachedSnapshot(int modificationCount, @NotNull String namespaces, @NotNull Element element) {
+      this.modificationCount = modificationCount;
+      this.namespaces = namespaces;
+      this.element = element;
+    }
+  }
+
   static class AttributeFilteredLayoutParser extends LayoutPsiPullParser {
 
     @Nullable
@@ -127,6 +127,14 @@ public final class LayoutlibCallback extends LegacyCallback {
     myClassLoader.setLogger(logger);
   }
 
+  /**
+   * Clears the render state kept for the current thread by the class loader of the views; called on the thread which
+   * rendered, once the render is done
+   */
+  public void clearRenderContext() {
+    myClassLoader.clearRenderContext();
+  }
+
   /**
    * Returns the {@link com.android.ide.common.rendering.api.LayoutLog} logger used for error messages, or null
    *
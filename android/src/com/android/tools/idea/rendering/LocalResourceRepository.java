@@ -28,6 +28,8 @@ import com.android.resources.ResourceFolderType;
 import com.android.resources.ResourceType;
 import com.android.tools.lint.detector.api.LintUtils;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
@@ -43,7 +45,10 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static com.android.SdkConstants.ANDROID_URI;
 import static com.android.SdkConstants.ATTR_ID;
@@ -138,12 +143,22 @@ import static com.android.SdkConstants.ATTR_ID;
 @SuppressWarnings("deprecation") // Deprecated com.android.util.Pair is required by ProjectCallback interface
 public abstract class LocalResourceRepository extends AbstractResourceRepository implements Disposable, ModificationTracker {
   protected static final Logger LOG = Logger.getInstance(LocalResourceRepository.class);
+
+  /** Maximum number of changes remembered for {@link #getChangesSince(long)} */
+  private static final int MAX_RECORDED_CHANGES = 100;
+
   private final String myDisplayName;
 
   @Nullable private List<MultiResourceRepository> myParents;
 
   protected long myGeneration;
 
+  /** The stamp of the most recently recorded change; see {@link #getChangeStamp()} */
+  private long myChangeStamp;
+
+  /** The most recently recorded changes, oldest first */
+  private final LinkedList<Change> myChanges = new LinkedList<Change>();
+
   protected LocalResourceRepository(@NotNull String displayName) {
     super(false);
     myDisplayName = displayName;
@@ -184,6 +199,90 @@ public abstract class LocalResourceRepository extends AbstractResourceRepository
     }
   }
 
+  /**
+   * Records that the given resource has changed, such that clients holding on to configured resource values can
+   * update just the affected resources; see {@link #getChangesSince(long)}. Changes are also recorded in all
+   * the parent repositories. This should be called whenever the generation is incremented.
+   *
+   * @param type the type of the changed resource, or null if resources of any type may have changed
+   * @param name the name of the changed resource, or null if any resource of the given type may have changed
+   */
+  protected void recordChange(@Nullable ResourceType type, @Nullable String name) {
+    synchronized (myChanges) {
+      myChangeStamp++;
+      myChanges.add(new Change(myChangeStamp, type, name));
+      if (myChanges.size() > MAX_RECORDED_CHANGES) {
+        myChanges.removeFirst();
+      }
+    }
+    if (myParents != null) {
+      for (MultiResourceRepository parent : myParents) {
+        parent.recordChange(type, name);
+      }
+    }
+  }
+
+  /**
+   * Returns the stamp of the most recently recorded change. Unlike the generation, the stamp can be passed
+   * to {@link #getChangesSince(long)} to find out what changed.
+   */
+  public long getChangeStamp() {
+    synchronized (myChanges) {
+      return myChangeStamp;
+    }
+  }
+
+  /**
+   * Returns the resources which have changed after the given change stamp was obtained from {@link #getChangeStamp()}.
+   * The map is keyed by resource type; a null set of names means that any resource of that type may have changed.
+   * Returns null if the changes are not known, either because they are too old to still be recorded or because
+   * resources of any type may have changed.
+   */
+  @Nullable
+  public Map<ResourceType, Set<String>> getChangesSince(long stamp) {
+    synchronized (myChanges) {
+      Map<ResourceType, Set<String>> changes = Maps.newEnumMap(ResourceType.class);
+      if (stamp == myChangeStamp) {
+        return changes;
+      }
+      if (myChanges.isEmpty() || myChanges.getFirst().stamp > stamp + 1) {
+        return null;
+      }
+      for (Change change : myChanges) {
+        if (change.stamp <= stamp) {
+          continue;
+        }
+        if (change.type == null) {
+          return null;
+        }
+        if (change.name == null) {
+          changes.put(change.type, null);
+        } else if (!changes.containsKey(change.type)) {
+          changes.put(change.type, Sets.newHashSet(change.name));
+        } else {
+          Set<String> names = changes.get(change.type);
+          if (names != null) {
+            names.add(change.name);
+          }
+        }
+      }
+      return changes;
+    }
+  }
+
+  /** A change recorded by {@link #recordChange(ResourceType, String)} */
+  private static class Change {
+    public final long stamp;
+    @Nullable public final ResourceType type;
+    @Nullable public final String name;
+
+    private Change(long stamp, @Nullable ResourceType type, @Nullable String name) {
+      this.stamp = stamp;
+      this.type = type;
+      this.name = name;
+    }
+  }
+
   // ---- Implements ModificationCount ----
 
   /**
@@ -58,6 +58,7 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
       myModificationCounts[i] = resources.getModificationCount();
     }
     myGeneration++;
+    recordChange(null, null);
     clearCache();
     invalidateItemCaches();
   }
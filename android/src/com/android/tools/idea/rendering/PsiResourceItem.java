@@ -33,6 +33,7 @@ import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.tree.IElementType;
 import com.intellij.psi.xml.XmlElementType;
+import com.intellij.psi.xml.XmlFile;
 import com.intellij.psi.xml.XmlTag;
 import com.intellij.psi.xml.XmlText;
 import com.intellij.psi.xml.XmlTokenType;
@@ -44,8 +45,18 @@ import static com.android.SdkConstants.*;
 import static com.android.ide.common.resources.ResourceResolver.*;
 
 public class PsiResourceItem extends ResourceItem {
-  private final XmlTag myTag;
+  private volatile XmlTag myTag;
   private PsiFile myFile;
+  /**
+   * For items restored from a {@link ResourceFolderSnapshot}: the child indices leading from the root tag
+   * to the tag defining this item. The tag is looked up (and the file parsed) only when first needed,
+   * possibly from several reader threads at once.
+   */
+  private volatile int[] myTagPath;
+  /** For items restored from a snapshot: the repository to notify if the file no longer matches the snapshot */
+  private ResourceFolderRepository myRepository;
+  /** Set if this item was restored from a snapshot which no longer matches its file */
+  private volatile boolean myStale;
 
   PsiResourceItem(@NonNull String name, @NonNull ResourceType type, @Nullable XmlTag tag, @NonNull PsiFile file) {
     super(name, type, null);
@@ -53,6 +64,15 @@ public class PsiResourceItem extends ResourceItem {
     myFile = file;
   }
 
+  /** Creates an item restored from a snapshot, whose tag (if any) will be looked up lazily from the given path */
+  static PsiResourceItem createFromSnapshot(@NonNull String name, @NonNull ResourceType type, @Nullable int[] tagPath,
+                                            @NonNull PsiFile file, @NonNull ResourceFolderRepository repository) {
+    PsiResourceItem item = new PsiResourceItem(name, type, null, file);
+    item.myTagPath = tagPath;
+    item.myRepository = repository;
+    return item;
+  }
+
   @Override
   public FolderConfiguration getConfiguration() {
     PsiResourceFile source = (PsiResourceFile)super.getSource();
@@ -111,7 +131,11 @@ public class PsiResourceItem extends ResourceItem {
   public ResourceValue getResourceValue(boolean isFrameworks) {
     if (mResourceValue == null) {
       //noinspection VariableNotUsedInsideIf
-      if (myTag == null) {
+      if (getTag() == null) {
+        if (myStale) {
+          // A value whose tag can no longer be found; the file is being rescanned, which replaces this item
+          return null;
+        }
         // Density based resource value?
         ResourceType type = getType();
         Density density = type == ResourceType.DRAWABLE ? getFolderDensity() : null;
@@ -421,9 +445,50 @@ public class PsiResourceItem extends ResourceItem {
 
   @Nullable
   public XmlTag getTag() {
+    int[] tagPath = myTagPath;
+    if (tagPath != null) {
+      if (!ApplicationManager.getApplication().isReadAccessAllowed()) {
+        return ApplicationManager.getApplication().runReadAction(new Computable<XmlTag>() {
+          @Override
+          public XmlTag compute() {
+            return getTag();
+          }
+        });
+      }
+      XmlTag tag = resolveTag(tagPath);
+      if (tag == null) {
+        myStale = true;
+        if (myRepository != null) {
+          myRepository.snapshotItemStale(myFile);
+        }
+      }
+      // Publish the tag before clearing the path, such that threads which no longer see the path see the tag
+      myTag = tag;
+      myTagPath = null;
+    }
     return myTag;
   }
 
+  @Nullable
+  private XmlTag resolveTag(@NonNull int[] tagPath) {
+    if (!(myFile instanceof XmlFile) || !myFile.isValid()) {
+      return null;
+    }
+    XmlTag tag = ((XmlFile)myFile).getRootTag();
+    for (int index : tagPath) {
+      if (tag == null) {
+        return null;
+      }
+      XmlTag[] subTags = tag.getSubTags();
+      tag = index < subTags.length ? subTags[index] : null;
+    }
+    if (tag != null && !getName().equals(tag.getAttributeValue(ATTR_NAME))) {
+      // The file no longer matches the snapshot it was restored from
+      return null;
+    }
+    return tag;
+  }
+
   @Override
   public boolean equals(Object o) {
     // Only reference equality; we need to be able to distinguish duplicate elements which can happen during editing
@@ -438,7 +503,8 @@ public class PsiResourceItem extends ResourceItem {
 
   @Override
   public String toString() {
-    return super.toString() + ": " + (myTag != null ? getTextContent(myTag) : "null");
+    XmlTag tag = getTag();
+    return super.toString() + ": " + (tag != null ? getTextContent(tag) : "null");
   }
 
   private class PsiTextResourceValue extends TextResourceValue {
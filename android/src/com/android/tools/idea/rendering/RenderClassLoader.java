@@ -47,6 +47,14 @@ public abstract class RenderClassLoader extends ClassLoader {
 
   protected abstract URL[] getExternalJars();
 
+  /**
+   * Rewrites the given class, which could not be loaded as is, to a version runnable on the current JDK
+   */
+  @NotNull
+  protected byte[] rewriteClass(@NotNull byte[] data) {
+    return ClassConverter.rewriteClass(data);
+  }
+
   @Override
   protected Class<?> findClass(String name) throws ClassNotFoundException {
     if (myInsideJarClassLoader) {
@@ -88,7 +96,7 @@ public abstract class RenderClassLoader extends ClassLoader {
             throw e;
           }
 
-          byte[] rewritten = ClassConverter.rewriteClass(data);
+          byte[] rewritten = rewriteClass(data);
           try {
             return defineClass(null, rewritten, 0, rewritten.length);
           }
@@ -153,7 +161,7 @@ public abstract class RenderClassLoader extends ClassLoader {
         throw e;
       }
 
-      byte[] rewritten = ClassConverter.rewriteClass(data);
+      byte[] rewritten = rewriteClass(data);
       try {
         return defineClass(null, rewritten, 0, rewritten.length);
       } catch (UnsupportedClassVersionError inner) {
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Schedules access to the layout library for {@link RenderService}.
+ * <p>
+ * Layoutlib keeps global (static) state per loaded {@code LayoutLibrary}, so two sessions can never
+ * be created concurrently against the same instance, regardless of which module they render for.
+ * However, each platform target loads its own layout library, so renders against different
+ * {@code LayoutLibrary} instances are independent; rather than serializing every render in the IDE
+ * through a single lock, this scheduler keeps a separate queue for each layout library.
+ * <p>
+ * The one exception is the creation of render sessions: it runs with a {@code RenderSecurityManager}, which is
+ * installed as the process wide {@link System#getSecurityManager() security manager} and restored afterwards, and which
+ * cannot be nested across threads. {@link RenderService} therefore still serializes that section with a global lock;
+ * only the rest of the render, such as preparing resources and waiting for the library, runs concurrently.
+ * <p>
+ * Within a queue, waiting requests are granted in {@link Priority} order, such that the foreground
+ * editor is never stuck behind a batch of thumbnails. Requests can also pass a <b>supersede key</b>
+ * (typically the object requesting the render); when a newer request is made with the same key, any
+ * older request still waiting with that key is cancelled since its result would be thrown away anyway.
+ */
+public class RenderScheduler {
+  /** Priority lanes, in decreasing priority order */
+  public enum Priority {
+    /** Renders for the layout editor or preview the user is currently looking at */
+    FOREGROUND,
+    /** Renders for thumbnails that are currently visible, such as in the render preview manager */
+    VISIBLE_THUMBNAIL,
+    /** Renders for thumbnails that are currently scrolled off screen */
+    OFFSCREEN_THUMBNAIL
+  }
+
+  private static final RenderScheduler ourInstance = new RenderScheduler();
+
+  /** Queues per layout library. Weak such that unloaded layout libraries can be collected. */
+  private final Map<Object, LibraryQueue> myQueues = new WeakHashMap<Object, LibraryQueue>();
+
+  /** The most recent request ticket per supersede key */
+  private final Map<Object, Long> myLatestRequests = new WeakHashMap<Object, Long>();
+
+  private long myNextTicket;
+
+  private final Object myStatisticsLock = new Object();
+  private final long[] myGranted = new long[Priority.values().length];
+  private final long[] myCancelled = new long[Priority.values().length];
+  private final long[] myTotalWaitNs = new long[Priority.values().length];
+  private final long[] myTotalHoldNs = new long[Priority.values().length];
+
+  @NotNull
+  public static RenderScheduler getInstance() {
+    return ourInstance;
+  }
+
+  @VisibleForTesting
+  RenderScheduler() {
+  }
+
+  /**
+   * Waits until the given layout library is available to the caller, and returns a ticket which must
+   * be {@link Ticket#release() released} once the caller is done with the library (typically in a
+   * {@code finally} block). Requests from the same thread are reentrant.
+   *
+   * @param layoutLibrary the layout library (or other object identifying the isolated resource) to acquire
+   * @param priority      the priority of the request
+   * @param supersedeKey  if not null, a key identifying the requester; a later request with the same key
+   *                      cancels this one if it is still waiting
+   * @return a ticket, or null if the request was superseded or the thread was interrupted while waiting
+   */
+  @Nullable
+  public Ticket acquire(@NotNull Object layoutLibrary, @NotNull Priority priority, @Nullable Object supersedeKey) {
+    LibraryQueue queue;
+    long ticket;
+    synchronized (this) {
+      queue = myQueues.get(layoutLibrary);
+      if (queue == null) {
+        queue = new LibraryQueue();
+        myQueues.put(layoutLibrary, queue);
+      }
+      ticket = ++myNextTicket;
+      if (supersedeKey != null) {
+        myLatestRequests.put(supersedeKey, ticket);
+      }
+    }
+
+    long start = System.nanoTime();
+    boolean granted;
+    try {
+      granted = queue.acquire(priority, supersedeKey, ticket);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      granted = false;
+    }
+    long waited = System.nanoTime() - start;
+
+    synchronized (myStatisticsLock) {
+      if (granted) {
+        myGranted[priority.ordinal()]++;
+        myTotalWaitNs[priority.ordinal()] += waited;
+      } else {
+        myCancelled[priority.ordinal()]++;
+      }
+    }
+
+    return granted ? new Ticket(queue, priority) : null;
+  }
+
+  /** Returns true if a request with the given ticket has been superseded by a newer request with the same key */
+  private boolean isSuperseded(@Nullable Object supersedeKey, long ticket) {
+    if (supersedeKey == null) {
+      return false;
+    }
+    synchronized (this) {
+      Long latest = myLatestRequests.get(supersedeKey);
+      return latest != null && latest != ticket;
+    }
+  }
+
+  /** Returns the number of requests currently waiting in the given lane, across all layout libraries */
+  public int getQueueDepth(@NotNull Priority priority) {
+    List<LibraryQueue> queues;
+    synchronized (this) {
+      // Copy such that we never hold this lock while acquiring a queue lock; the queues call back into
+      // #isSuperseded while holding their own lock
+      queues = Lists.newArrayList(myQueues.values());
+    }
+    int depth = 0;
+    for (LibraryQueue queue : queues) {
+      depth += queue.getWaiting(priority);
+    }
+    return depth;
+  }
+
+  /** Returns a human readable summary of the queue depths and latencies per lane, for diagnostics */
+  @NotNull
+  public String getStatistics() {
+    StringBuilder sb = new StringBuilder();
+    for (Priority priority : Priority.values()) {
+      int index = priority.ordinal();
+      long granted;
+      long cancelled;
+      long waitNs;
+      long holdNs;
+      synchronized (myStatisticsLock) {
+        granted = myGranted[index];
+        cancelled = myCancelled[index];
+        waitNs = myTotalWaitNs[index];
+        holdNs = myTotalHoldNs[index];
+      }
+      sb.append(String.format("%1$s: queued=%2$d, granted=%3$d, cancelled=%4$d, avg wait=%5$dms, avg render=%6$dms\n",
+                              priority, getQueueDepth(priority), granted, cancelled,
+                              granted > 0 ? waitNs / granted / 1000000 : 0,
+                              granted > 0 ? holdNs / granted / 1000000 : 0));
+    }
+    return sb.toString();
+  }
+
+  /** A granted request; must be released exactly once */
+  public class Ticket {
+    private final LibraryQueue myQueue;
+    private final Priority myPriority;
+    private final long myGrantTime = System.nanoTime();
+    private boolean myReleased;
+
+    private Ticket(@NotNull LibraryQueue queue, @NotNull Priority priority) {
+      myQueue = queue;
+      myPriority = priority;
+    }
+
+    public void release() {
+      if (myReleased) {
+        return;
+      }
+      myReleased = true;
+      synchronized (myStatisticsLock) {
+        myTotalHoldNs[myPriority.ordinal()] += System.nanoTime() - myGrantTime;
+      }
+      myQueue.release();
+    }
+  }
+
+  /** The queue of requests for a single layout library */
+  private class LibraryQueue {
+    private final int[] myWaiting = new int[Priority.values().length];
+    private Thread myOwner;
+    private int myHoldCount;
+
+    synchronized boolean acquire(@NotNull Priority priority, @Nullable Object supersedeKey, long ticket) throws InterruptedException {
+      Thread thread = Thread.currentThread();
+      if (myOwner == thread) {
+        myHoldCount++;
+        return true;
+      }
+
+      myWaiting[priority.ordinal()]++;
+      try {
+        while (myOwner != null || hasHigherPriorityWaiting(priority)) {
+          if (isSuperseded(supersedeKey, ticket)) {
+            return false;
+          }
+          wait(100);
+        }
+        if (isSuperseded(supersedeKey, ticket)) {
+          return false;
+        }
+      }
+      finally {
+        myWaiting[priority.ordinal()]--;
+        // Requests in lower lanes may have been waiting on us
+        notifyAll();
+      }
+
+      myOwner = thread;
+      myHoldCount = 1;
+      return true;
+    }
+
+    synchronized void release() {
+      assert myOwner == Thread.currentThread();
+      if (--myHoldCount == 0) {
+        myOwner = null;
+        notifyAll();
+      }
+    }
+
+    synchronized int getWaiting(@NotNull Priority priority) {
+      return myWaiting[priority.ordinal()];
+    }
+
+    private boolean hasHigherPriorityWaiting(@NotNull Priority priority) {
+      for (int i = 0; i < priority.ordinal(); i++) {
+        if (myWaiting[i] > 0) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -33,6 +33,7 @@ import com.android.sdklib.repository.descriptors.IPkgDesc;
 import com.android.sdklib.repository.descriptors.PkgDesc;
 import com.android.tools.idea.AndroidPsiUtils;
 import com.android.tools.idea.configurations.Configuration;
+import com.android.tools.idea.configurations.FrameworkResourceCache;
 import com.android.tools.idea.configurations.RenderContext;
 import com.android.tools.idea.gradle.structure.AndroidProjectSettingsService;
 import com.android.tools.idea.gradle.util.Projects;
@@ -88,6 +89,12 @@ import static com.intellij.lang.annotation.HighlightSeverity.WARNING;
  * Android layouts. This is a wrapper around the layout library.
  */
 public class RenderService implements IImageFactory {
+  /**
+   * Serializes the sections of the renders which run with a {@link RenderSecurityManager}, since it replaces the
+   * process wide security manager, see {@link RenderScheduler}
+   */
+  private static final Object SECURITY_MANAGER_LOCK = new Object();
+
   @NotNull
   private final Module myModule;
 
@@ -139,6 +146,12 @@ public class RenderService implements IImageFactory {
 
   private ResourceFolderType myFolderType;
 
+  @NotNull
+  private RenderScheduler.Priority myPriority = RenderScheduler.Priority.FOREGROUND;
+
+  @Nullable
+  private Object mySupersedeKey;
+
   /**
    * Creates a new {@link RenderService} associated with the given editor.
    *
@@ -551,6 +564,22 @@ public class RenderService implements IImageFactory {
     return this;
   }
 
+  /**
+   * Sets the priority with which this render should be scheduled, relative to other renders
+   * using the same layout library. The default is {@link RenderScheduler.Priority#FOREGROUND}.
+   *
+   * @param priority the priority of the render
+   * @param supersedeKey if not null, an object identifying the requester; a subsequent render
+   *                     with the same key cancels this render if it has not yet started
+   * @return this (such that chains of setters can be stringed together)
+   */
+  @NotNull
+  public RenderService setPriority(@NotNull RenderScheduler.Priority priority, @Nullable Object supersedeKey) {
+    myPriority = priority;
+    mySupersedeKey = supersedeKey;
+    return this;
+  }
+
   /**
    * Returns the layout to be included
    */
@@ -576,6 +605,9 @@ public class RenderService implements IImageFactory {
     if (modelParser == null) {
       return null;
     }
+    if (modelParser instanceof LayoutPsiPullParser && RenderLogger.LOG.isDebugEnabled()) {
+      RenderLogger.LOG.debug(((LayoutPsiPullParser)modelParser).getSnapshotStatistics());
+    }
 
     myLayoutlibCallback.reset();
 
@@ -665,30 +697,34 @@ public class RenderService implements IImageFactory {
         @NotNull
         @Override
         public RenderResult compute() {
-          RenderSecurityManager securityManager = createSecurityManager();
-          securityManager.setActive(true, myCredential);
-
-          try {
-            int retries = 0;
-            RenderSession session = null;
-            while (retries < 10) {
-              session = myLayoutLib.createSession(params);
-              Result result = session.getResult();
-              if (result.getStatus() != Result.Status.ERROR_TIMEOUT) {
-                // Sometimes happens at startup; treat it as a timeout; typically a retry fixes it
-                if (!result.isSuccess() && "The main Looper has already been prepared.".equals(result.getErrorMessage())) {
-                  retries++;
-                  continue;
+          // The security manager is installed process wide, so renders of different layout libraries, which may
+          // otherwise run at the same time, must not install and restore it concurrently
+          synchronized (SECURITY_MANAGER_LOCK) {
+            RenderSecurityManager securityManager = createSecurityManager();
+            securityManager.setActive(true, myCredential);
+
+            try {
+              int retries = 0;
+              RenderSession session = null;
+              while (retries < 10) {
+                session = myLayoutLib.createSession(params);
+                Result result = session.getResult();
+                if (result.getStatus() != Result.Status.ERROR_TIMEOUT) {
+                  // Sometimes happens at startup; treat it as a timeout; typically a retry fixes it
+                  if (!result.isSuccess() && "The main Looper has already been prepared.".equals(result.getErrorMessage())) {
+                    retries++;
+                    continue;
+                  }
+                  break;
                 }
-                break;
+                retries++;
               }
-              retries++;
-            }
 
-            return new RenderResult(RenderService.this, session, myPsiFile, myLogger);
-          }
-          finally {
-            securityManager.dispose(myCredential);
+              return new RenderResult(RenderService.this, session, myPsiFile, myLogger);
+            }
+            finally {
+              securityManager.dispose(myCredential);
+            }
           }
         }
       });
@@ -701,6 +737,9 @@ public class RenderService implements IImageFactory {
       myLogger.error(null, t.getLocalizedMessage(), t, null);
       throw t;
     }
+    finally {
+      myLayoutlibCallback.clearRenderContext();
+    }
   }
 
   @Nullable
@@ -778,14 +817,23 @@ public class RenderService implements IImageFactory {
     return file != null && LayoutPullParserFactory.isSupported(file);
   }
 
-  private static final Object RENDERING_LOCK = new Object();
-
+  /**
+   * Renders the layout. Renders against the same layout library are serialized by the
+   * {@link RenderScheduler}, in the order of their {@link #setPriority priorities}.
+   *
+   * @return the render result, or null if the render was superseded by a newer request
+   *         before it could start
+   */
   @Nullable
   public RenderResult render() {
     // During development only:
     //assert !ApplicationManager.getApplication().isReadAccessAllowed() : "Do not hold read lock during render!";
 
-    synchronized (RENDERING_LOCK) {
+    RenderScheduler.Ticket ticket = RenderScheduler.getInstance().acquire(myLayoutLib, myPriority, mySupersedeKey);
+    if (ticket == null) {
+      return null;
+    }
+    try {
       RenderResult renderResult;
       try {
         renderResult = createRenderSession();
@@ -800,10 +848,17 @@ public class RenderService implements IImageFactory {
 
       return renderResult;
     }
+    finally {
+      ticket.release();
+    }
   }
 
   @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
   private void addDiagnostics(@Nullable RenderSession session) {
+    if (RenderLogger.LOG.isDebugEnabled()) {
+      RenderLogger.LOG.debug(ConvertedClassCache.getInstance(myModule.getProject()).getStatistics());
+      RenderLogger.LOG.debug(FrameworkResourceCache.getInstance().getStatistics());
+    }
     if (session == null) {
       return;
     }
@@ -845,7 +900,17 @@ public class RenderService implements IImageFactory {
       new DrawableParams(drawableResourceValue, myModule, hardwareConfig, getResourceResolver(), myLayoutlibCallback,
                          myMinSdkVersion.getApiLevel(), myTargetSdkVersion.getApiLevel(), myLogger);
     params.setForceNoDecor();
-    Result result = myLayoutLib.renderDrawable(params);
+    RenderScheduler.Ticket ticket = RenderScheduler.getInstance().acquire(myLayoutLib, myPriority, null);
+    if (ticket == null) {
+      return null;
+    }
+    Result result;
+    try {
+      result = myLayoutLib.renderDrawable(params);
+    }
+    finally {
+      ticket.release();
+    }
     if (result != null && result.isSuccess()) {
       Object data = result.getData();
       if (data instanceof BufferedImage) {
@@ -1096,6 +1161,10 @@ public class RenderService implements IImageFactory {
       // ignore.
     }
 
+    RenderScheduler.Ticket ticket = RenderScheduler.getInstance().acquire(myLayoutLib, myPriority, null);
+    if (ticket == null) {
+      return null;
+    }
     try {
       myLayoutlibCallback.setLogger(myLogger);
       myLayoutlibCallback.setResourceResolver(resolver);
@@ -1128,6 +1197,10 @@ public class RenderService implements IImageFactory {
       myLogger.error(null, t.getLocalizedMessage(), t, null);
       throw t;
     }
+    finally {
+      myLayoutlibCallback.clearRenderContext();
+      ticket.release();
+    }
   }
 
   /**
@@ -28,11 +28,13 @@ import com.android.tools.lint.detector.api.LintUtils;
 import com.google.common.collect.*;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.fileTypes.FileType;
 import com.intellij.openapi.fileTypes.FileTypeManager;
 import com.intellij.openapi.fileTypes.StdFileTypes;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.*;
 import com.intellij.psi.util.PsiTreeUtil;
@@ -42,6 +44,7 @@ import org.jetbrains.android.sdk.AndroidTargetData;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
 import java.util.*;
 
 import static com.android.SdkConstants.*;
@@ -56,8 +59,8 @@ import static com.android.tools.lint.detector.api.LintUtils.stripIdPrefix;
  * <ul>
  *   <li>Find some way to have event updates in this resource folder directly update parent repositories
  *   (typically {@link ModuleResourceRepository}</li>
- *   <li>consider *initializing* this repository initially from IO files to not force full modelling of
- *   XML objects for all these tiny files (translations etc) ? Or find some way to persist the data in the index.</li>
+ *   <li>The {@link ResourceFolderSnapshot} is only written after the initial scan; consider also updating it
+ *   when the repository is disposed, such that files edited during the session don't have to be rescanned.</li>
  *   <li>Add defensive checks for non-read permission reads of resource values</li>
  *   <li>Idea: For {@link #rescan}; compare the removed items from the added items, and if they're the same, avoid
  *   creating a new generation.</li>
@@ -78,6 +81,18 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
   @VisibleForTesting
   static int ourFullRescans;
 
+  /** Number of files restored from a {@link ResourceFolderSnapshot} rather than scanned through PSI */
+  @VisibleForTesting
+  static int ourSnapshotHits;
+
+  /** Number of files that had to be scanned through PSI since they were missing or stale in the snapshot */
+  @VisibleForTesting
+  static int ourSnapshotMisses;
+
+  /** Forces use of snapshots even in unit test mode */
+  @VisibleForTesting
+  static boolean ourSnapshotsEnabled;
+
   private ResourceFolderRepository(@NotNull AndroidFacet facet, @NotNull VirtualFile resourceDir) {
     super(resourceDir.getName());
     myFacet = facet;
@@ -103,6 +118,10 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
   }
 
   private void scan() {
+    final File snapshotFile = isSnapshotEnabled() ? ResourceFolderSnapshot.getSnapshotFile(myResourceDir) : null;
+    final Map<String, ResourceFolderSnapshot.FileEntry> snapshot =
+      snapshotFile != null ? ResourceFolderSnapshot.read(snapshotFile, myResourceDir.getPath()) : null;
+    final List<ResourceFolderSnapshot.FileEntry> entries = snapshotFile != null ? Lists.<ResourceFolderSnapshot.FileEntry>newArrayList() : null;
     ApplicationManager.getApplication().runReadAction(new Runnable() {
       @Override
       public void run() {
@@ -110,11 +129,91 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
         if (myResourceDir.isValid()) {
           PsiDirectory directory = manager.findDirectory(myResourceDir);
           if (directory != null) {
-            scanResFolder(directory);
+            scanResFolder(directory, snapshot, entries);
           }
         }
       }
     });
+
+    if (snapshotFile != null && isSnapshotStale(snapshot, entries)) {
+      ResourceFolderSnapshot.write(snapshotFile, myResourceDir.getPath(), entries);
+    }
+  }
+
+  private static boolean isSnapshotStale(@Nullable Map<String, ResourceFolderSnapshot.FileEntry> snapshot,
+                                         @NotNull List<ResourceFolderSnapshot.FileEntry> entries) {
+    if (snapshot == null || snapshot.size() != entries.size()) {
+      return true;
+    }
+    for (ResourceFolderSnapshot.FileEntry entry : entries) {
+      // Entries restored from the snapshot are reused as is
+      if (snapshot.get(entry.getPath()) != entry) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whether {@link #scan} should use a persistent {@link ResourceFolderSnapshot}. Not used in unit tests, since
+   * the test file systems do not provide time stamps reliable enough to tell apart the many fixture files.
+   */
+  private static boolean isSnapshotEnabled() {
+    return ourSnapshotsEnabled || !ApplicationManager.getApplication().isUnitTestMode();
+  }
+
+  /**
+   * Looks up the snapshot entry for the given file, if it is still up to date. Files with unsaved edits
+   * are always scanned through PSI since their document no longer matches the disk stamps.
+   */
+  @Nullable
+  private static ResourceFolderSnapshot.FileEntry findSnapshotEntry(@Nullable Map<String, ResourceFolderSnapshot.FileEntry> snapshot,
+                                                                    @NotNull String folderName, @NotNull PsiFile file) {
+    if (snapshot == null) {
+      return null;
+    }
+    ResourceFolderSnapshot.FileEntry entry = snapshot.get(ResourceFolderSnapshot.getPath(folderName, file.getName()));
+    VirtualFile virtualFile = file.getVirtualFile();
+    if (entry != null && virtualFile != null && entry.isUpToDate(virtualFile) &&
+        !FileDocumentManager.getInstance().isFileModified(virtualFile)) {
+      return entry;
+    }
+    return null;
+  }
+
+  @Nullable
+  private static ResourceFolderSnapshot.FileEntry createSnapshotEntry(@NotNull String folderName, @NotNull PsiFile file,
+                                                                      @NotNull List<ResourceFolderSnapshot.ItemEntry> items) {
+    VirtualFile virtualFile = file.getVirtualFile();
+    if (virtualFile == null || FileDocumentManager.getInstance().isFileModified(virtualFile)) {
+      return null;
+    }
+    return new ResourceFolderSnapshot.FileEntry(folderName, file.getName(), virtualFile.getTimeStamp(), virtualFile.getLength(), items);
+  }
+
+  /** Registers the items recorded in the given snapshot entry without parsing the file */
+  private void loadSnapshotEntry(@NotNull ResourceFolderSnapshot.FileEntry entry, @NotNull PsiFile file, @NotNull String qualifiers,
+                                 @NotNull ResourceFolderType folderType, @NotNull FolderConfiguration folderConfiguration) {
+    List<ResourceItem> items = Lists.newArrayListWithExpectedSize(entry.items.size());
+    for (ResourceFolderSnapshot.ItemEntry itemEntry : entry.items) {
+      ListMultimap<String, ResourceItem> map = getMap(itemEntry.type, true);
+      assert map != null;
+      ResourceItem item = PsiResourceItem.createFromSnapshot(itemEntry.name, itemEntry.type, itemEntry.tagPath, file, this);
+      map.put(itemEntry.name, item);
+      items.add(item);
+    }
+    PsiResourceFile resourceFile = new PsiResourceFile(file, items, qualifiers, folderType, folderConfiguration);
+    myResourceFiles.put(file, resourceFile);
+    ourSnapshotHits++;
+  }
+
+  /**
+   * Called when an item restored from a snapshot can no longer find its tag, which means the file changed
+   * without changing its time stamp or length. Discards the snapshot and rescans the file through PSI.
+   */
+  void snapshotItemStale(@NotNull PsiFile file) {
+    FileUtil.delete(ResourceFolderSnapshot.getSnapshotFile(myResourceDir));
+    rescan(file, VALUES);
   }
 
   @Nullable
@@ -134,7 +233,8 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
     return null;
   }
 
-  private void scanResFolder(@NotNull PsiDirectory res) {
+  private void scanResFolder(@NotNull PsiDirectory res, @Nullable Map<String, ResourceFolderSnapshot.FileEntry> snapshot,
+                             @Nullable List<ResourceFolderSnapshot.FileEntry> entries) {
     for (PsiDirectory dir : res.getSubdirectories()) {
       String name = dir.getName();
       ResourceFolderType folderType = ResourceFolderType.getFolderType(name);
@@ -145,9 +245,9 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
           continue;
         }
         if (folderType == VALUES) {
-          scanValueResFolder(dir, qualifiers, folderConfiguration);
+          scanValueResFolder(dir, qualifiers, folderConfiguration, snapshot, entries);
         } else {
-          scanFileResourceFolder(dir, folderType, qualifiers, folderConfiguration);
+          scanFileResourceFolder(dir, folderType, qualifiers, folderConfiguration, snapshot, entries);
         }
       }
     }
@@ -159,7 +259,9 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
   }
 
   private void scanFileResourceFolder(@NotNull PsiDirectory directory, ResourceFolderType folderType, String qualifiers,
-                                      FolderConfiguration folderConfiguration) {
+                                      FolderConfiguration folderConfiguration,
+                                      @Nullable Map<String, ResourceFolderSnapshot.FileEntry> snapshot,
+                                      @Nullable List<ResourceFolderSnapshot.FileEntry> entries) {
     List<ResourceType> resourceTypes = FolderTypeRelationship.getRelatedResourceTypes(folderType);
     assert resourceTypes.size() >= 1 : folderType;
     ResourceType type = resourceTypes.get(0);
@@ -173,15 +275,40 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
       myItems.put(type, map);
     }
 
+    String folderName = directory.getName();
     for (PsiFile file : directory.getFiles()) {
       FileType fileType = file.getFileType();
       if (isRelevantFileType(fileType) || folderType == ResourceFolderType.RAW) {
-        scanFileResourceFile(qualifiers, folderType, folderConfiguration, type, idGenerating, map, file);
-
+        ResourceFolderSnapshot.FileEntry entry = findSnapshotEntry(snapshot, folderName, file);
+        if (entry != null) {
+          loadSnapshotEntry(entry, file, qualifiers, folderType, folderConfiguration);
+        } else {
+          scanFileResourceFile(qualifiers, folderType, folderConfiguration, type, idGenerating, map, file);
+          if (entries != null) {
+            ourSnapshotMisses++;
+            entry = createSnapshotEntry(folderName, file, getSnapshotItems(file));
+          }
+        }
+        if (entries != null && entry != null) {
+          entries.add(entry);
+        }
       } // TODO: Else warn about files that aren't expected to be found here?
     }
   }
 
+  /** Returns snapshot entries for the (tag-less) items registered for the given file based resource */
+  @NotNull
+  private List<ResourceFolderSnapshot.ItemEntry> getSnapshotItems(@NotNull PsiFile file) {
+    List<ResourceFolderSnapshot.ItemEntry> items = Lists.newArrayList();
+    PsiResourceFile resourceFile = myResourceFiles.get(file);
+    if (resourceFile != null) {
+      for (ResourceItem item : resourceFile) {
+        items.add(new ResourceFolderSnapshot.ItemEntry(item.getType(), item.getName(), null));
+      }
+    }
+    return items;
+  }
+
   private void scanFileResourceFile(String qualifiers,
                                     ResourceFolderType folderType,
                                     FolderConfiguration folderConfiguration,
@@ -264,16 +391,43 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
     }
   }
 
-  private void scanValueResFolder(@NotNull PsiDirectory directory, String qualifiers, FolderConfiguration folderConfiguration) {
+  private void scanValueResFolder(@NotNull PsiDirectory directory, String qualifiers, FolderConfiguration folderConfiguration,
+                                  @Nullable Map<String, ResourceFolderSnapshot.FileEntry> snapshot,
+                                  @Nullable List<ResourceFolderSnapshot.FileEntry> entries) {
     //noinspection ConstantConditions
     assert directory.getName().startsWith(FD_RES_VALUES);
 
+    String folderName = directory.getName();
     for (PsiFile file : directory.getFiles()) {
-      scanValueFile(qualifiers, file, folderConfiguration);
+      ResourceFolderSnapshot.FileEntry entry = findSnapshotEntry(snapshot, folderName, file);
+      if (entry != null) {
+        loadSnapshotEntry(entry, file, qualifiers, VALUES, folderConfiguration);
+      } else if (entries != null) {
+        ourSnapshotMisses++;
+        List<ResourceFolderSnapshot.ItemEntry> items = Lists.newArrayList();
+        scanValueFile(qualifiers, file, folderConfiguration, items);
+        if (myResourceFiles.containsKey(file)) {
+          entry = createSnapshotEntry(folderName, file, items);
+        }
+      } else {
+        scanValueFile(qualifiers, file, folderConfiguration);
+      }
+      if (entries != null && entry != null) {
+        entries.add(entry);
+      }
     }
   }
 
   private boolean scanValueFile(String qualifiers, PsiFile file, FolderConfiguration folderConfiguration) {
+    return scanValueFile(qualifiers, file, folderConfiguration, null);
+  }
+
+  /**
+   * Scans the given value file through PSI. If {@code snapshotItems} is not null, a snapshot entry
+   * for each item found is added to it.
+   */
+  private boolean scanValueFile(String qualifiers, PsiFile file, FolderConfiguration folderConfiguration,
+                                @Nullable List<ResourceFolderSnapshot.ItemEntry> snapshotItems) {
     boolean added = false;
     FileType fileType = file.getFileType();
     if (fileType == StdFileTypes.XML) {
@@ -290,7 +444,8 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
         }
         XmlTag[] subTags = root.getSubTags(); // Not recursive, right?
         List<ResourceItem> items = Lists.newArrayListWithExpectedSize(subTags.length);
-        for (XmlTag tag : subTags) {
+        for (int tagIndex = 0; tagIndex < subTags.length; tagIndex++) {
+          XmlTag tag = subTags[tagIndex];
           String name = tag.getAttributeValue(ATTR_NAME);
           if (name != null) {
             ResourceType type = getType(tag);
@@ -305,6 +460,9 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
               map.put(name, item);
               items.add(item);
               added = true;
+              if (snapshotItems != null) {
+                snapshotItems.add(new ResourceFolderSnapshot.ItemEntry(type, name, new int[]{tagIndex}));
+              }
 
               if (type == ResourceType.DECLARE_STYLEABLE) {
                 // for declare styleables we also need to create attr items for its children
@@ -316,7 +474,8 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                     myItems.put(ResourceType.ATTR, map);
                   }
 
-                  for (XmlTag child : attrs) {
+                  for (int attrIndex = 0; attrIndex < attrs.length; attrIndex++) {
+                    XmlTag child = attrs[attrIndex];
                     String attrName = child.getAttributeValue(ATTR_NAME);
                     if (attrName != null && !attrName.startsWith(ANDROID_NS_NAME_PREFIX)
                         // Only add attr nodes for elements that specify a format or have flag/enum children; otherwise
@@ -325,6 +484,9 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                       ResourceItem attrItem = new PsiResourceItem(attrName, ResourceType.ATTR, child, file);
                       items.add(attrItem);
                       map.put(attrName, attrItem);
+                      if (snapshotItems != null) {
+                        snapshotItems.add(new ResourceFolderSnapshot.ItemEntry(ResourceType.ATTR, attrName, new int[]{tagIndex, attrIndex}));
+                      }
                     }
                   }
                 }
@@ -463,6 +625,13 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
         // TODO: Consider doing a deeper diff of the changes to the resource items
         // to determine if the removed and added items actually differ
         myGeneration++;
+        if (resourceFile != null) {
+          recordChange(resourceFile);
+        }
+        PsiResourceFile newResourceFile = file != null ? myResourceFiles.get(file) : null;
+        if (newResourceFile != null) {
+          recordChange(newResourceFile);
+        }
         invalidateItemCaches();
       }
     } else {
@@ -524,6 +693,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
 
           if (!idsBefore.equals(idsAfter)) {
             myGeneration++;
+            recordChange(ResourceType.ID, null);
           }
           // Identities may have changed even if the ids are the same, so update maps
           invalidateItemCaches(ResourceType.ID);
@@ -560,12 +730,26 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
             }
           }
           myGeneration++;
+          for (ResourceType resourceType : resourceTypes) {
+            recordChange(resourceType, null);
+          }
           invalidateItemCaches();
         }
       }
     }
   }
 
+  /** Records a change of all the resource types defined in the given file */
+  private void recordChange(@NonNull PsiResourceFile resourceFile) {
+    Set<ResourceType> types = EnumSet.noneOf(ResourceType.class);
+    for (ResourceItem item : resourceFile) {
+      types.add(item.getType());
+    }
+    for (ResourceType type : types) {
+      recordChange(type, null);
+    }
+  }
+
   private boolean removeItems(PsiResourceFile resourceFile, ResourceType type, String name, boolean removeFromFile) {
     boolean removed = false;
 
@@ -677,6 +861,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                       map.put(name, item);
                       resourceFile.addItems(Collections.singletonList(item));
                       myGeneration++;
+                      recordChange(type, name);
                       invalidateItemCaches(type);
                     }
                   }
@@ -693,6 +878,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                 if (style instanceof PsiResourceItem) {
                   if (((PsiResourceItem)style).recomputeValue()) {
                     myGeneration++;
+                    recordChange(style.getType(), style.getName());
                   }
                   return;
                 }
@@ -822,6 +1008,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                   if (style instanceof PsiResourceItem) {
                     if (((PsiResourceItem)style).recomputeValue()) {
                       myGeneration++;
+                      recordChange(style.getType(), style.getName());
                     }
 
                     if (style.getType() == ResourceType.ATTR) {
@@ -831,6 +1018,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                         if (declareStyleable instanceof PsiResourceItem) {
                           if (((PsiResourceItem)declareStyleable).recomputeValue()) {
                             myGeneration++;
+                            recordChange(declareStyleable.getType(), declareStyleable.getName());
                           }
                         }
                       }
@@ -865,6 +1053,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                       }
                       if (removeItems(resourceFile, type, name, true)) {
                         myGeneration++;
+                        recordChange(type, name);
                         invalidateItemCaches(type);
                       }
                     }
@@ -913,6 +1102,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
       }
 
       myGeneration++;
+      recordChange(resourceFile);
       invalidateItemCaches();
 
       ResourceFolderType folderType = resourceFile.getFolderType();
@@ -941,6 +1131,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
       }
       myResourceFiles.remove(psiFile);
       myGeneration++;
+      recordChange(resourceFile);
       invalidateItemCaches();
 
       ResourceFolderType folderType = getFolderType(psiFile);
@@ -1039,6 +1230,8 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                           map.put(newName, newItem);
                           resourceFile.replace(item, newItem);
                           myGeneration++;
+                          recordChange(ResourceType.ID, oldName);
+                          recordChange(ResourceType.ID, newName);
                           invalidateItemCaches(ResourceType.ID);
                           return;
                         }
@@ -1075,6 +1268,8 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                         map.put(newName, newItem);
                         resourceFile.replace(item, newItem);
                         myGeneration++;
+                        recordChange(ResourceType.ID, oldName);
+                        recordChange(ResourceType.ID, newName);
                         invalidateItemCaches(ResourceType.ID);
                         return;
                       }
@@ -1114,6 +1309,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                   if (style instanceof PsiResourceItem) {
                     if (((PsiResourceItem)style).recomputeValue()) {
                       myGeneration++;
+                      recordChange(style.getType(), style.getName());
                     }
                     return;
                   }
@@ -1177,6 +1373,8 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                           assert false : item;
                         }
                         myGeneration++;
+                        recordChange(type, oldName);
+                        recordChange(type, newName);
                         invalidateItemCaches(type);
 
                         // Invalidate surrounding declare styleable if any
@@ -1186,6 +1384,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                             ResourceItem style = findValueResourceItem(parentTag, psiFile);
                             if (style instanceof PsiResourceItem) {
                               ((PsiResourceItem)style).recomputeValue();
+                              recordChange(style.getType(), style.getName());
                             }
                           }
                         }
@@ -1202,6 +1401,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                       if (style instanceof PsiResourceItem) {
                         if (((PsiResourceItem)style).recomputeValue()) {
                           myGeneration++;
+                          recordChange(style.getType(), style.getName());
                         }
                         return;
                       }
@@ -1262,6 +1462,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
             boolean cleared = ((PsiResourceItem)item).recomputeValue();
             if (cleared) { // Only bump revision if this is a value which has already been observed!
               myGeneration++;
+              recordChange(item.getType(), item.getName());
             }
           }
           return;
@@ -1277,6 +1478,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
             boolean cleared = ((PsiResourceItem)item).recomputeValue();
             if (cleared) { // Only bump revision if this is a value which has already been observed!
               myGeneration++;
+              recordChange(item.getType(), item.getName());
             }
           }
           break;
@@ -1349,6 +1551,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                 String newDirName = newParent.getName();
                 resourceFile.setPsiFile(psiFile, getQualifiers(newDirName));
                 myGeneration++; // qualifiers may have changed: can affect configuration matching
+                recordChange(resourceFile);
                 // We need to recompute resource values too, since some of these can point to
                 // the old file (e.g. a drawable resource could have a DensityBasedResourceValue
                 // pointing to the old file
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.resources.ResourceType;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.android.util.AndroidUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A persistent, versioned binary snapshot of the items a {@link ResourceFolderRepository} found in its
+ * resource folder. Each file is recorded along with the time stamp and length it had when it was scanned,
+ * such that the next time the repository is created, only the files whose stamps have changed need to be
+ * modelled through PSI; the remaining items are restored from the snapshot and only bound to their
+ * {@link com.intellij.psi.xml.XmlTag} when their values are actually requested.
+ */
+class ResourceFolderSnapshot {
+  private static final Logger LOG = Logger.getInstance(ResourceFolderSnapshot.class);
+
+  /** Magic number written at the beginning of each snapshot file */
+  private static final int MAGIC = 0x52455346; // "RESF"
+
+  /** Bump this whenever the format, or the way items are computed from the XML, changes */
+  static final int VERSION = 1;
+
+  /** Name of the directory, under the Android system directory, holding the snapshots */
+  private static final String SNAPSHOT_DIR = "resourceSnapshots";
+
+  private ResourceFolderSnapshot() {
+  }
+
+  /** The recorded state of a single resource file */
+  static class FileEntry {
+    /** The resource folder name, such as "values-en" */
+    @NotNull final String folderName;
+    /** The file name, such as "strings.xml" */
+    @NotNull final String fileName;
+    final long timeStamp;
+    final long length;
+    @NotNull final List<ItemEntry> items;
+
+    FileEntry(@NotNull String folderName, @NotNull String fileName, long timeStamp, long length, @NotNull List<ItemEntry> items) {
+      this.folderName = folderName;
+      this.fileName = fileName;
+      this.timeStamp = timeStamp;
+      this.length = length;
+      this.items = items;
+    }
+
+    @NotNull
+    String getPath() {
+      return getPath(folderName, fileName);
+    }
+
+    /** Returns true if this entry still describes the given file */
+    boolean isUpToDate(@NotNull VirtualFile file) {
+      return file.getTimeStamp() == timeStamp && file.getLength() == length;
+    }
+  }
+
+  /** The recorded state of a single resource item */
+  static class ItemEntry {
+    @NotNull final ResourceType type;
+    @NotNull final String name;
+    /**
+     * The child indices leading from the root tag of the file to the tag defining this item,
+     * or null if the item is not defined by a tag (file based resources and ids)
+     */
+    @Nullable final int[] tagPath;
+
+    ItemEntry(@NotNull ResourceType type, @NotNull String name, @Nullable int[] tagPath) {
+      this.type = type;
+      this.name = name;
+      this.tagPath = tagPath;
+    }
+  }
+
+  @NotNull
+  static String getPath(@NotNull String folderName, @NotNull String fileName) {
+    return folderName + '/' + fileName;
+  }
+
+  /** Returns the snapshot file to use for the given resource directory */
+  @NotNull
+  static File getSnapshotFile(@NotNull VirtualFile resourceDir) {
+    String path = resourceDir.getPath();
+    String name = resourceDir.getParent() != null ? resourceDir.getParent().getName() + '_' + resourceDir.getName() : resourceDir.getName();
+    String fileName = FileUtil.sanitizeFileName(name) + '_' + Integer.toHexString(path.hashCode()) + ".bin";
+    return new File(AndroidUtils.getAndroidSystemDirectoryOsPath(), SNAPSHOT_DIR + File.separator + fileName);
+  }
+
+  /**
+   * Reads the snapshot stored in the given file.
+   *
+   * @param file the snapshot file
+   * @param resourceDirPath the path of the resource directory the snapshot should describe
+   * @return a map from relative file paths (see {@link FileEntry#getPath()}) to entries, or null if there is
+   *         no usable snapshot (missing, for a different directory, an older version or corrupt)
+   */
+  @Nullable
+  static Map<String, FileEntry> read(@NotNull File file, @NotNull String resourceDirPath) {
+    if (!file.exists()) {
+      return null;
+    }
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION || !resourceDirPath.equals(in.readUTF())) {
+        return null;
+      }
+      ResourceType[] types = ResourceType.values();
+      int fileCount = in.readInt();
+      Map<String, FileEntry> entries = Maps.newHashMapWithExpectedSize(fileCount);
+      for (int i = 0; i < fileCount; i++) {
+        String folderName = in.readUTF();
+        String fileName = in.readUTF();
+        long timeStamp = in.readLong();
+        long length = in.readLong();
+        int itemCount = in.readInt();
+        List<ItemEntry> items = Lists.newArrayListWithExpectedSize(itemCount);
+        for (int j = 0; j < itemCount; j++) {
+          int typeOrdinal = in.readUnsignedByte();
+          if (typeOrdinal >= types.length) {
+            return null;
+          }
+          String name = in.readUTF();
+          int depth = in.readUnsignedByte();
+          int[] tagPath = null;
+          if (depth > 0) {
+            tagPath = new int[depth];
+            for (int k = 0; k < depth; k++) {
+              tagPath[k] = in.readInt();
+            }
+          }
+          items.add(new ItemEntry(types[typeOrdinal], name, tagPath));
+        }
+        FileEntry entry = new FileEntry(folderName, fileName, timeStamp, length, items);
+        entries.put(entry.getPath(), entry);
+      }
+      return entries;
+    }
+    catch (IOException e) {
+      LOG.info("Ignoring unreadable resource snapshot " + file, e);
+      return null;
+    }
+    finally {
+      if (in != null) {
+        try {
+          in.close();
+        }
+        catch (IOException ignore) {
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the given entries as the snapshot for the given resource directory.
+   * Failures are logged but otherwise ignored; the snapshot is only an optimization.
+   */
+  static void write(@NotNull File file, @NotNull String resourceDirPath, @NotNull Collection<FileEntry> entries) {
+    File parent = file.getParentFile();
+    if (parent != null && !parent.exists() && !parent.mkdirs()) {
+      return;
+    }
+    // Write to a temporary file first such that a crash can never leave a truncated snapshot behind
+    File temp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(resourceDirPath);
+      out.writeInt(entries.size());
+      for (FileEntry entry : entries) {
+        out.writeUTF(entry.folderName);
+        out.writeUTF(entry.fileName);
+        out.writeLong(entry.timeStamp);
+        out.writeLong(entry.length);
+        out.writeInt(entry.items.size());
+        for (ItemEntry item : entry.items) {
+          out.writeByte(item.type.ordinal());
+          out.writeUTF(item.name);
+          int[] tagPath = item.tagPath;
+          if (tagPath == null) {
+            out.writeByte(0);
+          } else {
+            out.writeByte(tagPath.length);
+            for (int index : tagPath) {
+              out.writeInt(index);
+            }
+          }
+        }
+      }
+      out.close();
+      out = null;
+      FileUtil.delete(file);
+      if (!temp.renameTo(file)) {
+        FileUtil.delete(temp);
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Could not write resource snapshot " + file, e);
+      FileUtil.delete(temp);
+    }
+    finally {
+      if (out != null) {
+        try {
+          out.close();
+        }
+        catch (IOException ignore) {
+        }
+        FileUtil.delete(temp);
+      }
+    }
+  }
+}
@@ -163,6 +163,9 @@ public class RenderPreview implements Disposable {
   private int myFullWidth;
   private int myFullHeight;
 
+  /** The time in milliseconds the most recent render of this preview took, or -1 if not yet rendered */
+  private long myRenderTime = -1;
+
   /**
    * Creates a new {@linkplain RenderPreview}
    *
@@ -528,9 +531,19 @@ public class RenderPreview implements Disposable {
    * Render immediately (on the current thread)
    */
   void renderSync() {
+    long start = System.currentTimeMillis();
     if (!tryRenderSync()) {
       disposeThumbnail();
     }
+    myRenderTime = System.currentTimeMillis() - start;
+  }
+
+  /**
+   * Returns the time in milliseconds the most recent render of this preview took
+   * (including waiting for the layout library), or -1 if it has not been rendered
+   */
+  public long getRenderTime() {
+    return myRenderTime;
   }
 
   private boolean tryRenderSync() {
@@ -564,9 +577,15 @@ public class RenderPreview implements Disposable {
     if (myIncludedWithin != null) {
       renderService.setIncludedWithin(myIncludedWithin);
     }
+    renderService.setPriority(isVisible() ? RenderScheduler.Priority.VISIBLE_THUMBNAIL : RenderScheduler.Priority.OFFSCREEN_THUMBNAIL,
+                              this);
 
     RenderResult result = renderService.render();
-    RenderSession session = result != null ? result.getSession() : null;
+    if (result == null) {
+      // Superseded by a newer render request for this preview; keep the current thumbnail until that one is done
+      return true;
+    }
+    RenderSession session = result.getSession();
     if (session != null) {
       Result render = session.getResult();
 
@@ -37,8 +37,10 @@ import com.android.tools.idea.rendering.AppResourceRepository;
 import com.android.tools.idea.rendering.Locale;
 import com.android.tools.idea.rendering.ResourceHelper;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.fileEditor.OpenFileDescriptor;
 import com.intellij.openapi.module.Module;
@@ -59,6 +61,8 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.android.tools.idea.configurations.ConfigurationListener.CFG_DEVICE;
 import static com.android.tools.idea.configurations.ConfigurationListener.CFG_DEVICE_STATE;
@@ -79,6 +83,7 @@ import static com.intellij.util.Alarm.ThreadToUse.SWING_THREAD;
  * </ol>
  */
 public class RenderPreviewManager implements Disposable {
+  private static final Logger LOG = Logger.getInstance(RenderPreviewManager.class);
   public static final boolean SUPPORTS_MANUAL_PREVIEWS = false;
   static final int VERTICAL_GAP = 18;
   static final int HORIZONTAL_GAP = 12;
@@ -131,6 +136,22 @@ public class RenderPreviewManager implements Disposable {
   @SuppressWarnings("ConstantConditions")
   private final @NotNull Alarm myAlarm = RENDER_ASYNC ? new Alarm(POOLED_THREAD, this) : new Alarm(SWING_THREAD, this);
 
+  /**
+   * Whether {@link #renderPreviews()} should render all the visible previews as one batch, concurrently
+   * on a bounded worker pool, rather than scheduling them one at a time with staggered delays.
+   * Only applies when rendering asynchronously.
+   */
+  private static final boolean RENDER_BATCH = true;
+
+  /** Maximum number of previews rendered concurrently, shared by all preview managers */
+  private static final int MAX_BATCH_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+  /** Permits for rendering previews on the application pool; shared by all managers to keep the concurrency bounded */
+  private static final Semaphore ourBatchPermits = new Semaphore(MAX_BATCH_THREADS);
+
+  /** Incremented for each batch; used to skip remaining renders of a batch that has been superseded */
+  private final AtomicInteger myBatchRevision = new AtomicInteger();
+
   /**
    * Creates a {@link RenderPreviewManager} associated with the given canvas
    *
@@ -1321,15 +1342,25 @@ public class RenderPreviewManager implements Disposable {
       ArrayList<RenderPreview> visualOrder = new ArrayList<RenderPreview>(myPreviews);
       Collections.sort(visualOrder, RenderPreview.VISUAL_ORDER);
 
+      List<RenderPreview> batch = Lists.newArrayListWithExpectedSize(visualOrder.size());
       // Do zoomed images first
       for (RenderPreview preview : visualOrder) {
         if (preview.getScale() > 1.2 && preview.isVisible()) {
-          scheduleRender(preview);
+          batch.add(preview);
         }
       }
       // Non-zoomed images
       for (RenderPreview preview : visualOrder) {
         if (preview.getScale() <= 1.2 && preview.isVisible()) {
+          batch.add(preview);
+        }
+      }
+
+      //noinspection ConstantConditions
+      if (RENDER_BATCH && RENDER_ASYNC) {
+        scheduleBatchRender(batch);
+      } else {
+        for (RenderPreview preview : batch) {
           scheduleRender(preview);
         }
       }
@@ -1391,6 +1422,116 @@ public class RenderPreviewManager implements Disposable {
     myAlarm.addRequest(request, delay);
   }
 
+  /**
+   * Schedule rendering the given previews as a single batch: after a single delay unit, the previews
+   * are rendered concurrently on a bounded worker pool. Renders against the same layout library are
+   * still serialized by the {@link com.android.tools.idea.rendering.RenderScheduler}, but resource
+   * resolution, parser setup and thumbnail scaling overlap, and previews for different platform
+   * versions render fully in parallel.
+   *
+   * @param previews the previews to render, in the order they should be started
+   */
+  private void scheduleBatchRender(@NotNull final List<RenderPreview> previews) {
+    if (previews.isEmpty()) {
+      return;
+    }
+    final int revision = myBatchRevision.incrementAndGet();
+    myAlarm.addRequest(new Runnable() {
+      @Override
+      public void run() {
+        renderBatch(previews, revision);
+      }
+    }, RENDER_DELAY);
+  }
+
+  private void renderBatch(@NotNull List<RenderPreview> previews, final int revision) {
+    for (RenderPreview preview : previews) {
+      Runnable pending = preview.getPendingRendering();
+      if (pending != null) {
+        myAlarm.cancelRequest(pending);
+        preview.setPendingRendering(null);
+      }
+      preview.updateSize();
+    }
+
+    // Resolve resources once per distinct theme, target and configuration, serially, such that previews
+    // sharing those (for example in the "All Locales" mode, or for same-sized screens) reuse the cached
+    // resolver instead of all computing it concurrently
+    Set<String> resolved = Sets.newHashSet();
+    for (RenderPreview preview : previews) {
+      Configuration configuration = preview.getConfiguration();
+      IAndroidTarget target = configuration.getTarget();
+      String key = configuration.getTheme() + (target != null ? target.hashString() : "") + configuration.getFullConfig().getUniqueKey();
+      if (resolved.add(key)) {
+        configuration.getResourceResolver();
+      }
+    }
+
+    // Render on the application pool, with at most MAX_BATCH_THREADS previews of all the managers at a time: each
+    // worker takes a permit and then renders previews of this batch until there are none left
+    final Queue<RenderPreview> queue = new ConcurrentLinkedQueue<RenderPreview>(previews);
+    int workerCount = Math.min(MAX_BATCH_THREADS, previews.size());
+    List<Future<?>> workers = Lists.newArrayListWithExpectedSize(workerCount);
+    for (int i = 0; i < workerCount; i++) {
+      workers.add(ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+        @Override
+        public void run() {
+          ourBatchPermits.acquireUninterruptibly();
+          try {
+            RenderPreview preview;
+            while ((preview = queue.poll()) != null) {
+              if (revision != myBatchRevision.get() || Disposer.isDisposed(RenderPreviewManager.this)) {
+                // A newer batch has been scheduled; it will render these previews again
+                return;
+              }
+              try {
+                preview.renderSync();
+              }
+              catch (RuntimeException e) {
+                LOG.warn(e);
+                continue;
+              }
+              ApplicationManager.getApplication().invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                  redraw();
+                }
+              });
+            }
+          }
+          finally {
+            ourBatchPermits.release();
+          }
+        }
+      }));
+    }
+
+    long start = System.currentTimeMillis();
+    try {
+      for (Future<?> worker : workers) {
+        try {
+          worker.get();
+        }
+        catch (ExecutionException e) {
+          LOG.warn(e.getCause());
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+
+    if (LOG.isDebugEnabled()) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("Rendered ").append(previews.size()).append(" previews in ").append(System.currentTimeMillis() - start).append("ms:");
+      for (RenderPreview preview : previews) {
+        sb.append("\n  ").append(preview.getDisplayName()).append(": ").append(preview.getRenderTime()).append("ms");
+      }
+      LOG.debug(sb.toString());
+    }
+  }
+
   /**
    * Switch to the given configuration preview
    *
@@ -1779,6 +1920,7 @@ public class RenderPreviewManager implements Disposable {
   @Override
   public void dispose() {
     Disposer.dispose(this);
+    myBatchRevision.incrementAndGet();
     disposePreviews();
     myAlarm.cancelAllRequests();
     myAlarm.dispose();
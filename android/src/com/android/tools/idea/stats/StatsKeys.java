@@ -28,6 +28,11 @@ public class StatsKeys {
 
   public static final String GRADLE_SYNC_PROJECT_TIME_MS = "sync-time";
 
+  /**
+   * Time taken to restore the project from the state cached on disk, instead of syncing with Gradle.
+   */
+  public static final String GRADLE_SYNC_RESTORE_TIME_MS = "sync-restore-time";
+
   public static final String GRADLE_GENERATE_SRC_TIME_MS = "generate-time";
 
   public static final String GRADLE_ASSEMBLE_TIME_MS = "assemble-time";
@@ -1,5 +1,6 @@
 package org.jetbrains.android;
 
+import com.android.annotations.VisibleForTesting;
 import com.android.resources.ResourceType;
 import com.google.common.collect.Sets;
 import com.intellij.openapi.fileTypes.StdFileTypes;
@@ -43,63 +44,94 @@ public class AndroidValueResourcesIndex extends FileBasedIndexExtension<Resource
       @Override
       @NotNull
       public Map<ResourceEntry, Set<MyResourceInfo>> map(@NotNull FileContent inputData) {
-        if (!isSimilarFile(inputData)) {
-          return Collections.emptyMap();
-        }
-        final PsiFile file = inputData.getPsiFile();
-
-        if (!(file instanceof XmlFile)) {
-          return Collections.emptyMap();
-        }
-        final Map<ResourceEntry, Set<MyResourceInfo>> result = new HashMap<ResourceEntry, Set<MyResourceInfo>>();
-
-        file.accept(new XmlRecursiveElementVisitor() {
-          @Override
-          public void visitXmlTag(XmlTag tag) {
-            super.visitXmlTag(tag);
-            final String resName = tag.getAttributeValue(NAME_ATTRIBUTE_VALUE);
-
-            if (resName == null) {
-              return;
-            }
-            final String tagName = tag.getName();
-            final String resTypeStr;
-
-            if ("item".equals(tagName)) {
-              resTypeStr = tag.getAttributeValue(TYPE_ATTRIBUTE_VALUE);
-            }
-            else {
-              resTypeStr = AndroidCommonUtils.getResourceTypeByTagName(tagName);
-            }
-            final ResourceType resType = resTypeStr != null ? ResourceType.getEnum(resTypeStr) : null;
-
-            if (resType == null) {
-              return;
-            }
-            final int offset = tag.getTextRange().getStartOffset();
-
-            if (resType == ResourceType.ATTR) {
-              final XmlTag parentTag = tag.getParentTag();
-              final String contextName = parentTag != null ? parentTag.getAttributeValue(NAME_ATTRIBUTE_VALUE) : null;
-              processResourceEntry(new ResourceEntry(resTypeStr, resName, contextName != null ? contextName : ""), result, offset);
-            }
-            else {
-              processResourceEntry(new ResourceEntry(resTypeStr, resName, ""), result, offset);
-            }
-          }
-        });
-
-        return result;
+        return mapText(inputData.getContentAsText());
       }
     };
 
-  private static boolean isSimilarFile(FileContent inputData) {
-    if (CharArrayUtil.indexOf(inputData.getContentAsText(), "<" + RESOURCES_ROOT_TAG, 0) < 0) {
+  /**
+   * Computes the index entries for the given file text with a streaming scanner, without
+   * building PSI. Produces the same result as {@link #mapPsi(PsiFile)}.
+   */
+  @NotNull
+  static Map<ResourceEntry, Set<MyResourceInfo>> mapText(@NotNull CharSequence text) {
+    if (CharArrayUtil.indexOf(text, "<" + RESOURCES_ROOT_TAG, 0) < 0) {
+      return Collections.emptyMap();
+    }
+    final Map<ResourceEntry, Set<MyResourceInfo>> result = new HashMap<ResourceEntry, Set<MyResourceInfo>>();
+    boolean isResourceFile = ValueResourcesXmlScanner.scan(text, RESOURCES_ROOT_TAG, new ValueResourcesXmlScanner.TagProcessor() {
+      @Override
+      public void process(@NotNull String tagName, @Nullable String name, @Nullable String type, @Nullable String parentName,
+                          int offset) {
+        processTag(tagName, name, type, parentName, offset, result);
+      }
+    });
+    return isResourceFile ? result : Collections.<ResourceEntry, Set<MyResourceInfo>>emptyMap();
+  }
+
+  /**
+   * Computes the index entries for the given file by visiting its PSI. This is how the index used to be
+   * computed; it is kept as the reference implementation for {@link #mapText(CharSequence)}.
+   */
+  @VisibleForTesting
+  @NotNull
+  static Map<ResourceEntry, Set<MyResourceInfo>> mapPsi(@NotNull PsiFile file) {
+    if (!(file instanceof XmlFile) || !isSimilarFile(file.getViewProvider().getContents())) {
+      return Collections.emptyMap();
+    }
+    final Map<ResourceEntry, Set<MyResourceInfo>> result = new HashMap<ResourceEntry, Set<MyResourceInfo>>();
+
+    file.accept(new XmlRecursiveElementVisitor() {
+      @Override
+      public void visitXmlTag(XmlTag tag) {
+        super.visitXmlTag(tag);
+        final XmlTag parentTag = tag.getParentTag();
+        processTag(tag.getName(), tag.getAttributeValue(NAME_ATTRIBUTE_VALUE), tag.getAttributeValue(TYPE_ATTRIBUTE_VALUE),
+                   parentTag != null ? parentTag.getAttributeValue(NAME_ATTRIBUTE_VALUE) : null, tag.getTextRange().getStartOffset(),
+                   result);
+      }
+    });
+
+    return result;
+  }
+
+  private static void processTag(@NotNull String tagName,
+                                 @Nullable String resName,
+                                 @Nullable String typeAttribute,
+                                 @Nullable String parentName,
+                                 int offset,
+                                 @NotNull Map<ResourceEntry, Set<MyResourceInfo>> result) {
+    if (resName == null) {
+      return;
+    }
+    final String resTypeStr;
+
+    if ("item".equals(tagName)) {
+      resTypeStr = typeAttribute;
+    }
+    else {
+      resTypeStr = AndroidCommonUtils.getResourceTypeByTagName(tagName);
+    }
+    final ResourceType resType = resTypeStr != null ? ResourceType.getEnum(resTypeStr) : null;
+
+    if (resType == null) {
+      return;
+    }
+
+    if (resType == ResourceType.ATTR) {
+      processResourceEntry(new ResourceEntry(resTypeStr, resName, parentName != null ? parentName : ""), result, offset);
+    }
+    else {
+      processResourceEntry(new ResourceEntry(resTypeStr, resName, ""), result, offset);
+    }
+  }
+
+  private static boolean isSimilarFile(CharSequence text) {
+    if (CharArrayUtil.indexOf(text, "<" + RESOURCES_ROOT_TAG, 0) < 0) {
       return false;
     }
     final boolean[] ourRootTag = {false};
 
-    NanoXmlUtil.parse(CharArrayUtil.readerFromCharSequence(inputData.getContentAsText()), new NanoXmlUtil.IXMLBuilderAdapter() {
+    NanoXmlUtil.parse(CharArrayUtil.readerFromCharSequence(text), new NanoXmlUtil.IXMLBuilderAdapter() {
       @Override
       public void startElement(String name, String nsPrefix, String nsURI, String systemID, int lineNr)
         throws Exception {
@@ -258,7 +290,7 @@ public class AndroidValueResourcesIndex extends FileBasedIndexExtension<Resource
 
   @Override
   public int getVersion() {
-    return 5;
+    return 6;
   }
 
   public static class MyResourceInfo {
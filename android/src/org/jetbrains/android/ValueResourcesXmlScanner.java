@@ -0,0 +1,296 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single-pass, allocation-light XML scanner over the text of a values file, used by
+ * {@link AndroidValueResourcesIndex} instead of building a PSI tree.
+ * <p>
+ * The scanner only extracts what the index needs: for every element, its qualified tag name,
+ * its {@code name} and {@code type} attributes (raw, as {@link com.intellij.psi.xml.XmlTag#getAttributeValue(String)}
+ * would return them), the {@code name} of its parent element and its start offset. Elements are reported
+ * when they are closed, that is in the same (post-)order as a recursive PSI visitor which processes
+ * children before their parent. Like the PSI parser it is lenient: unclosed elements are closed at
+ * the end of the file, and end tags that don't match any open element are ignored.
+ */
+class ValueResourcesXmlScanner {
+  @NonNls private static final String NAME_ATTRIBUTE = "name";
+  @NonNls private static final String TYPE_ATTRIBUTE = "type";
+
+  interface TagProcessor {
+    /**
+     * Called for every element in the document
+     *
+     * @param tagName    the qualified tag name, such as "string" or "xliff:g"
+     * @param name       the value of the name attribute, if any
+     * @param type       the value of the type attribute, if any
+     * @param parentName the value of the name attribute of the parent element, if any
+     * @param offset     the offset of the element's start tag in the document
+     */
+    void process(@NotNull String tagName, @Nullable String name, @Nullable String type, @Nullable String parentName, int offset);
+  }
+
+  private static class Element {
+    final String tagName;
+    final String name;
+    final String type;
+    final int offset;
+
+    Element(String tagName, String name, String type, int offset) {
+      this.tagName = tagName;
+      this.name = name;
+      this.type = type;
+      this.offset = offset;
+    }
+  }
+
+  private final CharSequence myText;
+  private final int myLength;
+  private final TagProcessor myProcessor;
+  private final List<Element> myStack = new ArrayList<Element>();
+  private int myOffset;
+
+  private ValueResourcesXmlScanner(@NotNull CharSequence text, @NotNull TagProcessor processor) {
+    myText = text;
+    myLength = text.length();
+    myProcessor = processor;
+  }
+
+  /**
+   * Scans the given document, reporting all elements to the given processor, provided the
+   * root element is {@code rootTag}.
+   *
+   * @return false if the document does not have the given root element, in which case
+   *         nothing has been reported
+   */
+  static boolean scan(@NotNull CharSequence text, @NotNull String rootTag, @NotNull TagProcessor processor) {
+    return new ValueResourcesXmlScanner(text, processor).scan(rootTag);
+  }
+
+  private boolean scan(@NotNull String rootTag) {
+    boolean seenRoot = false;
+    while (myOffset < myLength) {
+      int lt = indexOf('<', myOffset);
+      if (lt < 0) {
+        break;
+      }
+      myOffset = lt + 1;
+      if (myOffset >= myLength) {
+        break;
+      }
+      char c = myText.charAt(myOffset);
+      if (c == '!') {
+        if (startsWith("!--", myOffset)) {
+          skipPast("-->", myOffset + 3);
+        } else if (startsWith("![CDATA[", myOffset)) {
+          skipPast("]]>", myOffset + 8);
+        } else {
+          skipDeclaration();
+        }
+      } else if (c == '?') {
+        skipPast("?>", myOffset + 1);
+      } else if (c == '/') {
+        String tagName = readName(myOffset + 1);
+        skipPast(">", myOffset);
+        if (tagName != null) {
+          closeElement(tagName);
+        }
+      } else {
+        String tagName = readName(myOffset);
+        if (tagName == null) {
+          // Not a tag, for example "a < b" in text
+          continue;
+        }
+        if (!seenRoot) {
+          if (!rootTag.equals(tagName)) {
+            return false;
+          }
+          seenRoot = true;
+        }
+        readStartTag(tagName, lt);
+      }
+    }
+
+    while (!myStack.isEmpty()) {
+      pop();
+    }
+    return seenRoot;
+  }
+
+  /** Reads the attributes of a start tag whose name has just been read, and pushes or reports the element */
+  private void readStartTag(@NotNull String tagName, int start) {
+    String name = null;
+    String type = null;
+    while (myOffset < myLength) {
+      char c = myText.charAt(myOffset);
+      if (c == '>') {
+        myOffset++;
+        myStack.add(new Element(tagName, name, type, start));
+        return;
+      } else if (c == '/' && myOffset + 1 < myLength && myText.charAt(myOffset + 1) == '>') {
+        myOffset += 2;
+        myStack.add(new Element(tagName, name, type, start));
+        pop();
+        return;
+      } else if (c == '<') {
+        // Unterminated start tag; treat like an open element and let the main loop handle the new tag
+        myStack.add(new Element(tagName, name, type, start));
+        return;
+      } else if (Character.isWhitespace(c) || c == '/') {
+        myOffset++;
+      } else {
+        String attribute = readName(myOffset);
+        if (attribute == null) {
+          myOffset++;
+          continue;
+        }
+        skipWhitespace();
+        if (myOffset < myLength && myText.charAt(myOffset) == '=') {
+          myOffset++;
+          skipWhitespace();
+          String value = readAttributeValue();
+          if (value != null) {
+            if (name == null && NAME_ATTRIBUTE.equals(attribute)) {
+              name = value;
+            } else if (type == null && TYPE_ATTRIBUTE.equals(attribute)) {
+              type = value;
+            }
+          }
+        }
+      }
+    }
+    // End of file inside a start tag
+    myStack.add(new Element(tagName, name, type, start));
+  }
+
+  @Nullable
+  private String readAttributeValue() {
+    if (myOffset >= myLength) {
+      return null;
+    }
+    char quote = myText.charAt(myOffset);
+    if (quote != '"' && quote != '\'') {
+      return null;
+    }
+    int end = indexOf(quote, myOffset + 1);
+    if (end < 0) {
+      end = myLength;
+    }
+    String value = myText.subSequence(myOffset + 1, end).toString();
+    myOffset = Math.min(end + 1, myLength);
+    return value;
+  }
+
+  private void closeElement(@NotNull String tagName) {
+    for (int i = myStack.size() - 1; i >= 0; i--) {
+      if (myStack.get(i).tagName.equals(tagName)) {
+        while (myStack.size() > i) {
+          pop();
+        }
+        return;
+      }
+    }
+  }
+
+  private void pop() {
+    Element element = myStack.remove(myStack.size() - 1);
+    String parentName = myStack.isEmpty() ? null : myStack.get(myStack.size() - 1).name;
+    myProcessor.process(element.tagName, element.name, element.type, parentName, element.offset);
+  }
+
+  /** Reads an XML name starting at the given offset, and moves past it */
+  @Nullable
+  private String readName(int start) {
+    int end = start;
+    while (end < myLength) {
+      char c = myText.charAt(end);
+      if (Character.isLetterOrDigit(c) || c == '_' || c == ':' || c == '-' || c == '.' || (end > start && c > 127)) {
+        end++;
+      } else {
+        break;
+      }
+    }
+    if (end == start || !(Character.isLetter(myText.charAt(start)) || myText.charAt(start) == '_' || myText.charAt(start) == ':')) {
+      return null;
+    }
+    myOffset = end;
+    return myText.subSequence(start, end).toString();
+  }
+
+  /** Skips a {@code <!DOCTYPE ...>} or similar declaration, including any internal subset */
+  private void skipDeclaration() {
+    int depth = 0;
+    while (myOffset < myLength) {
+      char c = myText.charAt(myOffset++);
+      if (c == '[') {
+        depth++;
+      } else if (c == ']') {
+        depth--;
+      } else if (c == '>' && depth <= 0) {
+        return;
+      }
+    }
+  }
+
+  private void skipWhitespace() {
+    while (myOffset < myLength && Character.isWhitespace(myText.charAt(myOffset))) {
+      myOffset++;
+    }
+  }
+
+  private void skipPast(@NotNull String terminator, int from) {
+    int index = indexOf(terminator, from);
+    myOffset = index < 0 ? myLength : index + terminator.length();
+  }
+
+  private boolean startsWith(@NotNull String prefix, int offset) {
+    if (offset + prefix.length() > myLength) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (myText.charAt(offset + i) != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int indexOf(char c, int from) {
+    for (int i = from; i < myLength; i++) {
+      if (myText.charAt(i) == c) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int indexOf(@NotNull String s, int from) {
+    char first = s.charAt(0);
+    for (int i = from; i < myLength; i++) {
+      if (myText.charAt(i) == first && startsWith(s, i)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
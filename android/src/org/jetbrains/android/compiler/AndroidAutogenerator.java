@@ -278,44 +278,41 @@ public class AndroidAutogenerator {
         return;
       }
     }
-    File tempOutDir = null;
-
     try {
-      // Aapt generation can be very long, so we generate it in temp directory first
-      tempOutDir = FileUtil.createTempDirectory("android_apt_autogeneration", "tmp");
-
-      generateStubClasses(item.myPackage, tempOutDir,
-                          AndroidUtils.R_CLASS_NAME,
-                          AndroidUtils.MANIFEST_CLASS_NAME);
-
-      for (String genFileRelPath : item.myGenFileRelPath2package.keySet()) {
-        final File srcFile = new File(tempOutDir.getPath() + '/' + genFileRelPath);
+      final Set<String> writtenRelPaths = new HashSet<String>();
 
-        if (srcFile.isFile()) {
-          final File dstFile = new File(item.myOutputDirOsPath + '/' + genFileRelPath);
+      for (String className : new String[]{AndroidUtils.R_CLASS_NAME, AndroidUtils.MANIFEST_CLASS_NAME}) {
+        final String genFileRelPath = item.myPackage.replace('.', '/') + '/' + className + ".java";
+        final File dstFile = new File(item.myOutputDirOsPath + '/' + genFileRelPath);
+        final String stubText = getStubClassText(item.myPackage, className, "");
 
-          if (dstFile.exists()) {
-            if (!force) {
-              continue;
-            }
-            if (!FileUtil.delete(dstFile)) {
-              ApplicationManager.getApplication().runReadAction(new Runnable() {
-                @Override
-                public void run() {
-                  if (module.isDisposed() || module.getProject().isDisposed()) {
-                    return;
-                  }
-                  context.addMessage(CompilerMessageCategory.ERROR,
-                                     "Cannot delete " + FileUtil.toSystemDependentName(dstFile.getPath()), null, -1, -1);
+        if (dstFile.exists()) {
+          // the stubs depend only on the package, so there is nothing to rewrite, refresh or clean up when it hasn't changed
+          if (!force || stubText.equals(FileUtil.loadFile(dstFile))) {
+            continue;
+          }
+          if (!FileUtil.delete(dstFile)) {
+            ApplicationManager.getApplication().runReadAction(new Runnable() {
+              @Override
+              public void run() {
+                if (module.isDisposed() || module.getProject().isDisposed()) {
+                  return;
                 }
-              });
-            }
+                context.addMessage(CompilerMessageCategory.ERROR,
+                                   "Cannot delete " + FileUtil.toSystemDependentName(dstFile.getPath()), null, -1, -1);
+              }
+            });
+            continue;
           }
-          FileUtil.rename(srcFile, dstFile);
         }
+        FileUtil.writeToFile(dstFile, stubText);
+        writtenRelPaths.add(genFileRelPath);
       }
 
       for (Map.Entry<String, String> entry : item.myGenFileRelPath2package.entrySet()) {
+        if (!writtenRelPaths.contains(entry.getKey())) {
+          continue;
+        }
         final String path = item.myOutputDirOsPath + '/' + entry.getKey();
         final String aPackage = entry.getValue();
         final File file = new File(path);
@@ -325,9 +322,11 @@ public class AndroidAutogenerator {
         removeDuplicateClasses(module, aPackage, file, item.myOutputDirOsPath);
       }
 
-      final VirtualFile genSourceRoot = LocalFileSystem.getInstance().findFileByPath(item.myOutputDirOsPath);
-      if (genSourceRoot != null) {
-        genSourceRoot.refresh(false, true);
+      if (writtenRelPaths.size() > 0) {
+        final VirtualFile genSourceRoot = LocalFileSystem.getInstance().findFileByPath(item.myOutputDirOsPath);
+        if (genSourceRoot != null) {
+          genSourceRoot.refresh(false, true);
+        }
       }
       facet.clearAutogeneratedFiles(AndroidAutogeneratorMode.AAPT);
 
@@ -349,20 +348,6 @@ public class AndroidAutogenerator {
         }
       });
     }
-    finally {
-      if (tempOutDir != null) {
-        FileUtil.delete(tempOutDir);
-      }
-    }
-  }
-
-  private static void generateStubClasses(@NotNull String aPackage, @NotNull File outputDir, @NotNull String... classNames)
-    throws IOException {
-    assert aPackage.length() > 0;
-
-    for (String className : classNames) {
-      generateStubClass(aPackage, outputDir, className, "");
-    }
   }
 
   private static void generateStubClass(String aPackage, File outputDir, String className, String content) throws IOException {
@@ -372,20 +357,23 @@ public class AndroidAutogenerator {
     }
     final BufferedWriter writer = new BufferedWriter(new FileWriter(new File(packageDir, className + ".java")));
     try {
-      writer.write(
-        AndroidCommonUtils.AUTOGENERATED_JAVA_FILE_HEADER +
-        "\n\npackage " + aPackage + ";\n\n" +
-        "/* This stub is only used by the IDE. It is NOT the " + className + " class actually packed into the APK */\n" +
-        "public final class " + className + " {\n" +
-        content +
-        "}"
-      );
+      writer.write(getStubClassText(aPackage, className, content));
     }
     finally {
       writer.close();
     }
   }
 
+  @NotNull
+  private static String getStubClassText(@NotNull String aPackage, @NotNull String className, @NotNull String content) {
+    return AndroidCommonUtils.AUTOGENERATED_JAVA_FILE_HEADER +
+           "\n\npackage " + aPackage + ";\n\n" +
+           "/* This stub is only used by the IDE. It is NOT the " + className + " class actually packed into the APK */\n" +
+           "public final class " + className + " {\n" +
+           content +
+           "}";
+  }
+
   private static void patchAndMarkGeneratedFile(@NotNull AndroidFacet facet,
                                                 @NotNull AndroidAutogeneratorMode mode,
                                                 @NotNull VirtualFile vFile) throws IOException {
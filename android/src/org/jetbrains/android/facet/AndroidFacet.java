@@ -70,7 +70,6 @@ import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.*;
 import com.intellij.psi.search.GlobalSearchScope;
-import com.intellij.psi.search.ProjectScope;
 import com.intellij.psi.search.searches.ClassInheritorsSearch;
 import com.intellij.psi.util.CachedValue;
 import com.intellij.psi.util.CachedValueProvider;
@@ -128,6 +127,9 @@ public final class AndroidFacet extends Facet<AndroidFacetConfiguration> {
 
   private Map<String, CachedValue<Map<String, PsiClass>>> myClassMaps = new HashMap<String, CachedValue<Map<String, PsiClass>>>();
 
+  /** Incrementally updated project inheritors per base class name; guarded by {@link #myClassMapLock} */
+  private final Map<String, ProjectClassInheritorsCache> myProjectClassInheritors = new HashMap<String, ProjectClassInheritorsCache>();
+
   private final Object myClassMapLock = new Object();
 
   private final Set<AndroidAutogeneratorMode> myDirtyModes = EnumSet.noneOf(AndroidAutogeneratorMode.class);
@@ -501,6 +503,11 @@ public final class AndroidFacet extends Facet<AndroidFacetConfiguration> {
     myLocalResourceManager = null;
     myPublicSystemResourceManager = null;
     myInitialClassMaps.clear();
+    synchronized (myClassMapLock) {
+      for (ProjectClassInheritorsCache cache : myProjectClassInheritors.values()) {
+        cache.invalidate();
+      }
+    }
   }
 
   @NotNull
@@ -958,11 +965,36 @@ public final class AndroidFacet extends Facet<AndroidFacetConfiguration> {
         }
       }
     }
-    final Project project = getModule().getProject();
-    fillMap(className, constructor, ProjectScope.getProjectScope(project), result, false);
+    fillProjectMap(className, constructor, result);
     return result;
   }
 
+  /**
+   * Adds the project classes inheriting from the given class to the map. Rather than searching the whole project
+   * each time the Java structure changes, this only rescans the files changed since the last call, if possible.
+   */
+  private void fillProjectMap(@NotNull final String className,
+                              @NotNull ClassMapConstructor constructor,
+                              @NotNull Map<String, PsiClass> map) {
+    final Module module = getModule();
+    final PsiClass baseClass = ApplicationManager.getApplication().runReadAction(new Computable<PsiClass>() {
+      @Override
+      @Nullable
+      public PsiClass compute() {
+        return JavaPsiFacade.getInstance(module.getProject()).findClass(className, module.getModuleWithDependenciesAndLibrariesScope(true));
+      }
+    });
+    if (baseClass == null) {
+      return;
+    }
+    ProjectClassInheritorsCache cache = myProjectClassInheritors.get(className);
+    if (cache == null) {
+      cache = new ProjectClassInheritorsCache(module.getProject(), constructor, this);
+      myProjectClassInheritors.put(className, cache);
+    }
+    cache.fillMap(baseClass, map);
+  }
+
   private static boolean isUpToDate(SmartPsiElementPointer<PsiClass> pointer, String tagName, ClassMapConstructor constructor) {
     final PsiClass aClass = pointer.getElement();
     if (aClass == null) {
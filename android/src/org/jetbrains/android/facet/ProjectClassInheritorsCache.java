@@ -0,0 +1,204 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.facet;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.IndexNotReadyException;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.*;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.ProjectScope;
+import com.intellij.psi.search.searches.ClassInheritorsSearch;
+import com.intellij.psi.util.InheritanceUtil;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.Processor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Incrementally maintained map from tag names to the project (source) classes inheriting from a given
+ * base class, such as {@code android.view.View}, used by {@link AndroidFacet#getClassMap}.
+ * <p>
+ * The first lookup runs a {@link ClassInheritorsSearch} over the project scope, like before; the results
+ * are recorded per containing file. After that, the {@link ProjectClassInheritorsListener} of the project
+ * collects the Java files that change, and subsequent lookups only rescan the classes in those files. Changes in one file can only affect the
+ * inheritance of classes in <b>other</b> files through the classes it declares, so if the set of inheritors
+ * declared in a changed file is different after the rescan (a class was added, removed, renamed or no
+ * longer extends the base class), the cache falls back to a full search.
+ */
+class ProjectClassInheritorsCache {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.android.facet.ProjectClassInheritorsCache");
+
+  private final Project myProject;
+  private final ClassMapConstructor myConstructor;
+
+  /** Inheritors per containing file: file to (tag name to class) */
+  private final Map<VirtualFile, Map<String, SmartPsiElementPointer<PsiClass>>> myFileEntries =
+    new HashMap<VirtualFile, Map<String, SmartPsiElementPointer<PsiClass>>>();
+
+  private final Object myDirtyLock = new Object();
+  /** Files changed since the last update; guarded by {@link #myDirtyLock} */
+  private Set<VirtualFile> myDirtyFiles = new HashSet<VirtualFile>();
+  /** Whether the next update must run a full search; guarded by {@link #myDirtyLock} */
+  private boolean myNeedsFullScan = true;
+
+  ProjectClassInheritorsCache(@NotNull Project project,
+                              @NotNull ClassMapConstructor constructor,
+                              @NotNull Disposable parentDisposable) {
+    myProject = project;
+    myConstructor = constructor;
+    ProjectClassInheritorsListener.getInstance(project).addCache(this, parentDisposable);
+  }
+
+  /**
+   * Brings the cache up to date and adds all the project inheritors of the base class (including the base class
+   * itself, if it is a project class) to the given map
+   *
+   * @return false if the indices are not ready, in which case nothing was added
+   */
+  boolean fillMap(@NotNull final PsiClass baseClass, @NotNull final Map<String, PsiClass> map) {
+    return ApplicationManager.getApplication().runReadAction(new Computable<Boolean>() {
+      @Override
+      public Boolean compute() {
+        return doFillMap(baseClass, map);
+      }
+    });
+  }
+
+  private boolean doFillMap(@NotNull PsiClass baseClass, @NotNull Map<String, PsiClass> map) {
+    Set<VirtualFile> dirtyFiles;
+    boolean fullScan;
+    synchronized (myDirtyLock) {
+      dirtyFiles = myDirtyFiles;
+      fullScan = myNeedsFullScan;
+      myDirtyFiles = new HashSet<VirtualFile>();
+      myNeedsFullScan = false;
+    }
+
+    try {
+      if (!fullScan) {
+        fullScan = !rescanFiles(baseClass, dirtyFiles);
+      }
+      if (fullScan) {
+        fullScan(baseClass);
+      }
+    }
+    catch (IndexNotReadyException e) {
+      LOG.info(e);
+      synchronized (myDirtyLock) {
+        myNeedsFullScan = true;
+      }
+      return false;
+    }
+
+    for (Map<String, SmartPsiElementPointer<PsiClass>> entries : myFileEntries.values()) {
+      for (Map.Entry<String, SmartPsiElementPointer<PsiClass>> entry : entries.entrySet()) {
+        PsiClass aClass = entry.getValue().getElement();
+        if (aClass != null) {
+          map.put(entry.getKey(), aClass);
+        }
+      }
+    }
+    return true;
+  }
+
+  private void fullScan(@NotNull PsiClass baseClass) {
+    myFileEntries.clear();
+    final SmartPointerManager manager = SmartPointerManager.getInstance(myProject);
+    addClass(baseClass, manager, ProjectScope.getProjectScope(myProject));
+    ClassInheritorsSearch.search(baseClass, ProjectScope.getProjectScope(myProject), true).forEach(new Processor<PsiClass>() {
+      @Override
+      public boolean process(PsiClass c) {
+        addClass(c, manager, null);
+        return true;
+      }
+    });
+  }
+
+  private void addClass(@NotNull PsiClass c, @NotNull SmartPointerManager manager, @Nullable GlobalSearchScope scope) {
+    PsiFile file = c.getContainingFile();
+    VirtualFile virtualFile = file != null ? file.getVirtualFile() : null;
+    if (virtualFile == null || scope != null && !scope.contains(virtualFile)) {
+      return;
+    }
+    String[] tagNames = myConstructor.getTagNamesByClass(c);
+    if (tagNames.length == 0) {
+      return;
+    }
+    Map<String, SmartPsiElementPointer<PsiClass>> entries = myFileEntries.get(virtualFile);
+    if (entries == null) {
+      entries = new HashMap<String, SmartPsiElementPointer<PsiClass>>();
+      myFileEntries.put(virtualFile, entries);
+    }
+    SmartPsiElementPointer<PsiClass> pointer = manager.createSmartPsiElementPointer(c);
+    for (String tagName : tagNames) {
+      entries.put(tagName, pointer);
+    }
+  }
+
+  /**
+   * Rescans the classes in the given changed files
+   *
+   * @return false if the set of inheritors in any of the files changed, meaning that a full search is needed
+   */
+  private boolean rescanFiles(@NotNull PsiClass baseClass, @NotNull Set<VirtualFile> files) {
+    if (files.isEmpty()) {
+      return true;
+    }
+    PsiManager psiManager = PsiManager.getInstance(myProject);
+    SmartPointerManager manager = SmartPointerManager.getInstance(myProject);
+    GlobalSearchScope scope = ProjectScope.getProjectScope(myProject);
+    for (VirtualFile virtualFile : files) {
+      Map<String, SmartPsiElementPointer<PsiClass>> oldEntries = myFileEntries.remove(virtualFile);
+      PsiFile file = virtualFile.isValid() ? psiManager.findFile(virtualFile) : null;
+      if (file instanceof PsiClassOwner && scope.contains(virtualFile)) {
+        for (PsiClass c : PsiTreeUtil.findChildrenOfType(file, PsiClass.class)) {
+          if (c.getManager().areElementsEquivalent(c, baseClass) || InheritanceUtil.isInheritorOrSelf(c, baseClass, true)) {
+            addClass(c, manager, null);
+          }
+        }
+      }
+      Map<String, SmartPsiElementPointer<PsiClass>> newEntries = myFileEntries.get(virtualFile);
+      Set<String> oldNames = oldEntries != null ? oldEntries.keySet() : Collections.<String>emptySet();
+      Set<String> newNames = newEntries != null ? newEntries.keySet() : Collections.<String>emptySet();
+      if (!oldNames.equals(newNames)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Records that the given Java file changed, such that its classes are rescanned on the next lookup */
+  void fileChanged(@NotNull VirtualFile file) {
+    synchronized (myDirtyLock) {
+      myDirtyFiles.add(file);
+    }
+  }
+
+  /** Forces a full search on the next lookup, for example when the platform (and hence the base class) changed */
+  void invalidate() {
+    synchronized (myDirtyLock) {
+      myNeedsFullScan = true;
+      myDirtyFiles.clear();
+    }
+  }
+}
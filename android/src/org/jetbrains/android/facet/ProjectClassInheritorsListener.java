@@ -0,0 +1,130 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.facet;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.*;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Single PSI listener per project which forwards Java changes to all the {@link ProjectClassInheritorsCache}s
+ * of the project, rather than each facet and base class registering a listener of its own.
+ */
+public class ProjectClassInheritorsListener extends PsiTreeChangeAdapter {
+  private final List<ProjectClassInheritorsCache> myCaches = ContainerUtil.createLockFreeCopyOnWriteList();
+
+  @NotNull
+  public static ProjectClassInheritorsListener getInstance(@NotNull Project project) {
+    return ServiceManager.getService(project, ProjectClassInheritorsListener.class);
+  }
+
+  @SuppressWarnings("UnusedDeclaration") // Instantiated as a project service
+  public ProjectClassInheritorsListener(@NotNull Project project) {
+    PsiManager.getInstance(project).addPsiTreeChangeListener(this, project);
+  }
+
+  /** Forwards changes to the given cache until the given disposable is disposed */
+  void addCache(@NotNull final ProjectClassInheritorsCache cache, @NotNull Disposable parentDisposable) {
+    myCaches.add(cache);
+    Disposer.register(parentDisposable, new Disposable() {
+      @Override
+      public void dispose() {
+        myCaches.remove(cache);
+      }
+    });
+  }
+
+  private void fileChanged(@Nullable PsiFile file) {
+    if (!(file instanceof PsiClassOwner)) {
+      return;
+    }
+    VirtualFile virtualFile = file.getVirtualFile();
+    if (virtualFile == null) {
+      return;
+    }
+    for (ProjectClassInheritorsCache cache : myCaches) {
+      cache.fileChanged(virtualFile);
+    }
+  }
+
+  private void invalidate() {
+    for (ProjectClassInheritorsCache cache : myCaches) {
+      cache.invalidate();
+    }
+  }
+
+  @Override
+  public void childAdded(@NotNull PsiTreeChangeEvent event) {
+    PsiElement child = event.getChild();
+    if (child instanceof PsiFile) {
+      fileChanged((PsiFile)child);
+    } else if (child instanceof PsiDirectory) {
+      invalidate();
+    } else {
+      fileChanged(event.getFile());
+    }
+  }
+
+  @Override
+  public void childRemoved(@NotNull PsiTreeChangeEvent event) {
+    PsiElement child = event.getChild();
+    if (child instanceof PsiFile || child instanceof PsiDirectory) {
+      // The file is gone; we can no longer tell which entries it contributed
+      invalidate();
+    } else {
+      fileChanged(event.getFile());
+    }
+  }
+
+  @Override
+  public void childReplaced(@NotNull PsiTreeChangeEvent event) {
+    fileChanged(event.getFile());
+  }
+
+  @Override
+  public void childrenChanged(@NotNull PsiTreeChangeEvent event) {
+    fileChanged(event.getFile());
+  }
+
+  @Override
+  public void childMoved(@NotNull PsiTreeChangeEvent event) {
+    PsiElement child = event.getChild();
+    if (child instanceof PsiFile || child instanceof PsiDirectory) {
+      // Moving files or packages changes qualified names
+      invalidate();
+    } else {
+      fileChanged(event.getFile());
+    }
+  }
+
+  @Override
+  public void propertyChanged(@NotNull PsiTreeChangeEvent event) {
+    PsiElement element = event.getElement();
+    if (element instanceof PsiFile) {
+      fileChanged((PsiFile)element);
+    } else if (element instanceof PsiDirectory || PsiTreeChangeEvent.PROP_ROOTS.equals(event.getPropertyName())) {
+      invalidate();
+    }
+  }
+}
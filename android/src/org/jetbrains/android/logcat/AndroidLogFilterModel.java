@@ -46,7 +46,13 @@ public abstract class AndroidLogFilterModel extends LogFilterModel {
   private boolean myFullMessageApplicable = false;
   private boolean myFullMessageApplicableByCustomFilter = false;
   private StringBuilder myMessageBuilder = new StringBuilder();
-  
+  private final AndroidLogcatRecordBuffer myRecords = new AndroidLogcatRecordBuffer();
+
+  /** The records matching the log level and configured filter below, computed when (re-)processing starts */
+  @Nullable private AndroidLogcatRecordBuffer.Matches myMatches;
+  @Nullable private AndroidLogFilter myMatchesLogLevelFilter;
+  @Nullable private ConfiguredFilter myMatchesConfiguredFilter;
+
   protected List<AndroidLogFilter> myLogFilters = new ArrayList<AndroidLogFilter>();
 
   public AndroidLogFilterModel() {
@@ -59,6 +65,7 @@ public abstract class AndroidLogFilterModel extends LogFilterModel {
   @Override
   public void updateCustomFilter(String filter) {
     super.updateCustomFilter(filter);
+    myRecords.setTextFilter(filter);
     setCustomFilter(filter);
     fireTextFilterChange();
   }
@@ -120,14 +127,61 @@ public abstract class AndroidLogFilterModel extends LogFilterModel {
     return ProcessOutputTypes.STDOUT;
   }
 
+  /**
+   * Returns the buffer of parsed messages that receivers feeding this model's console should record into,
+   * such that lines can be filtered without parsing them back out of the text
+   */
+  @NotNull
+  public AndroidLogcatRecordBuffer getRecordBuffer() {
+    return myRecords;
+  }
+
+  /**
+   * Returns the header and message of the given console line, like {@link AndroidLogcatFormatter#parseMessage(String)},
+   * preferably from the record buffer
+   */
+  @NotNull
+  private Pair<LogMessageHeader, String> parseMessage(@NotNull String line) {
+    AndroidLogcatRecordBuffer.Record record = findRecord(line);
+    return record != null ? Pair.create(record.header, record.message) : parseUnrecordedMessage(line);
+  }
+
+  @Nullable
+  private AndroidLogcatRecordBuffer.Record findRecord(@NotNull String line) {
+    // Message header lines start with the date; continuation lines with whitespace
+    if (line.isEmpty() || !Character.isDigit(line.charAt(0))) {
+      return null;
+    }
+    return myRecords.find(line);
+  }
+
+  @NotNull
+  private static Pair<LogMessageHeader, String> parseUnrecordedMessage(@NotNull String line) {
+    if (line.isEmpty() || !Character.isDigit(line.charAt(0))) {
+      return Pair.create(null, line);
+    }
+    return AndroidLogcatFormatter.parseMessage(line);
+  }
+
   @Override
   public boolean isApplicable(String text) {
-    if (!super.isApplicable(text)) return false;
-    final LogFilter selectedLogLevelFilter = getSelectedLogLevelFilter();
-    return selectedLogLevelFilter == null || selectedLogLevelFilter.isAcceptable(text);
+    return isApplicable(text, parseMessage(text));
+  }
+
+  private boolean isApplicable(@NotNull String text, @NotNull Pair<LogMessageHeader, String> parsed) {
+    return super.isApplicable(text) && isApplicableByLogLevel(parsed);
+  }
+
+  private boolean isApplicableByLogLevel(@NotNull Pair<LogMessageHeader, String> parsed) {
+    final AndroidLogFilter selectedLogLevelFilter = getSelectedLogLevelFilter();
+    return selectedLogLevelFilter == null || selectedLogLevelFilter.isAcceptable(parsed);
   }
 
   public boolean isApplicableByCustomFilter(String text) {
+    return isApplicableByCustomFilter(text, parseMessage(text));
+  }
+
+  private boolean isApplicableByCustomFilter(@NotNull String text, @NotNull Pair<LogMessageHeader, String> result) {
     final ConfiguredFilter configuredFilterName = getConfiguredFilter();
     if (configuredFilterName == null) {
       return true;
@@ -139,7 +193,6 @@ public abstract class AndroidLogFilterModel extends LogFilterModel {
     String pid = null;
     String message = text;
 
-    Pair<LogMessageHeader, String> result = AndroidLogcatFormatter.parseMessage(text);
     if (result.getFirst() != null) {
       LogMessageHeader header = result.getFirst();
       logLevel = header.myLogLevel;
@@ -182,9 +235,12 @@ public abstract class AndroidLogFilterModel extends LogFilterModel {
 
     @Override
     public boolean isAcceptable(String line) {
+      return isAcceptable(parseMessage(line));
+    }
+
+    private boolean isAcceptable(@NotNull Pair<LogMessageHeader, String> result) {
       Log.LogLevel logLevel = null;
 
-      Pair<LogMessageHeader, String> result = AndroidLogcatFormatter.parseMessage(line);
       if (result.getFirst() != null) {
         logLevel = result.getFirst().myLogLevel;
       }
@@ -198,7 +254,7 @@ public abstract class AndroidLogFilterModel extends LogFilterModel {
   public abstract String getSelectedLogLevelName();
 
   @Nullable
-  private LogFilter getSelectedLogLevelFilter() {
+  private AndroidLogFilter getSelectedLogLevelFilter() {
     final String filterName = getSelectedLogLevelName();
     if (filterName != null) {
       for (AndroidLogFilter logFilter : myLogFilters) {
@@ -236,12 +292,44 @@ public abstract class AndroidLogFilterModel extends LogFilterModel {
     myFullMessageApplicable = false;
     myFullMessageApplicableByCustomFilter = false;
     myMessageBuilder = new StringBuilder();
+
+    myMatchesLogLevelFilter = getSelectedLogLevelFilter();
+    myMatchesConfiguredFilter = getConfiguredFilter();
+    myMatches = myRecords.match(myMatchesLogLevelFilter != null ? myMatchesLogLevelFilter.myLogLevel : null, myMatchesConfiguredFilter);
+  }
+
+  /**
+   * Returns the records matching the current log level and configured filter, if these have not changed since
+   * processing started
+   */
+  @Nullable
+  private AndroidLogcatRecordBuffer.Matches getMatches() {
+    if (myMatches != null && myMatchesLogLevelFilter == getSelectedLogLevelFilter() && myMatchesConfiguredFilter == getConfiguredFilter()) {
+      return myMatches;
+    }
+    return null;
+  }
+
+  /** Returns true if the line passes the console's text filter, remembering rejected records for narrower filters */
+  private boolean isApplicableByText(@NotNull String line, @Nullable AndroidLogcatRecordBuffer.Record record) {
+    if (record == null) {
+      return super.isApplicable(line);
+    }
+    if (myRecords.isTextRejected(record)) {
+      return false;
+    }
+    if (!super.isApplicable(line)) {
+      myRecords.setTextRejected(record);
+      return false;
+    }
+    return true;
   }
 
   @Override
   @NotNull
   public MyProcessingResult processLine(String line) {
-    Pair<LogMessageHeader, String> result = AndroidLogcatFormatter.parseMessage(line);
+    AndroidLogcatRecordBuffer.Record record = findRecord(line);
+    Pair<LogMessageHeader, String> result = record != null ? Pair.create(record.header, record.message) : parseUnrecordedMessage(line);
     final boolean messageHeader = result.getFirst() != null;
 
     if (messageHeader) {
@@ -262,8 +350,18 @@ public abstract class AndroidLogFilterModel extends LogFilterModel {
         myPrevPid = Integer.toString(header.myPid);
       }
     }
-    final boolean applicable = isApplicable(line); 
-    final boolean applicableByCustomFilter = isApplicableByCustomFilter(line);
+    final boolean applicable;
+    final boolean applicableByCustomFilter;
+    AndroidLogcatRecordBuffer.Matches matches = getMatches();
+    if (record != null && record.header.myLogLevel != null && matches != null && matches.covers(record)) {
+      // The header and message are known; use the filter results computed over the whole buffer
+      applicable = matches.isLevelMatch(record) && isApplicableByText(line, record);
+      applicableByCustomFilter = matches.isFilterMatch(record);
+    }
+    else {
+      applicable = isApplicableByText(line, record) && isApplicableByLogLevel(result);
+      applicableByCustomFilter = isApplicableByCustomFilter(line, result);
+    }
 
     String messagePrefix;
     
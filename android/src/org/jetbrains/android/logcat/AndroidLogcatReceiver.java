@@ -62,6 +62,7 @@ public class AndroidLogcatReceiver extends AndroidOutputReceiver {
   private Log.LogLevel myPrevLogLevel;
   private final Writer myWriter;
   private final IDevice myDevice;
+  @Nullable private final AndroidLogcatRecordBuffer myRecords;
 
   private final StackTraceExpander myStackTraceExpander = new StackTraceExpander(CONTINUATION_LINE_PREFIX,
                                                                                  STACK_TRACE_LINE_PREFIX,
@@ -69,8 +70,17 @@ public class AndroidLogcatReceiver extends AndroidOutputReceiver {
                                                                                  STACK_TRACE_CAUSE_LINE_PREFIX);
 
   public AndroidLogcatReceiver(IDevice device, Writer writer) {
+    this(device, writer, null);
+  }
+
+  /**
+   * Creates a receiver which also records every parsed message in the given buffer, such that the filter model
+   * does not have to parse the formatted text again
+   */
+  public AndroidLogcatReceiver(IDevice device, Writer writer, @Nullable AndroidLogcatRecordBuffer records) {
     myDevice = device;
     myWriter = new PrintWriter(writer);
+    myRecords = records;
   }
 
   @Override
@@ -104,6 +114,9 @@ public class AndroidLogcatReceiver extends AndroidOutputReceiver {
         text = myStackTraceExpander.expand(line);
       } else {
         text = getFullMessage(line, myLastMessageHeader);
+        if (myRecords != null) {
+          myRecords.add(myLastMessageHeader, line, text);
+        }
       }
       try {
         myWriter.write(text + '\n');
@@ -0,0 +1,435 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.android.logcat;
+
+import com.android.ddmlib.Log;
+import com.google.common.collect.Lists;
+import gnu.trove.TIntIntHashMap;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TObjectIntHashMap;
+import org.jetbrains.android.logcat.AndroidLogcatReceiver.LogMessageHeader;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A bounded ring buffer of the logcat messages parsed by {@link AndroidLogcatReceiver}, kept in parallel arrays.
+ * <p>
+ * The logcat console only deals in lines of text, and hands every line it displays (again, on every filter change)
+ * to {@link AndroidLogFilterModel#processLine}. Rather than parsing the header and message back out of the formatted
+ * text with {@link AndroidLogcatFormatter#parseMessage(String)}, the filter model looks the line up here: lines are
+ * indexed by their hash code, and a match is verified against the stored line length, time and message.
+ * Only when a line is not found (it was evicted, or was not produced by a receiver feeding this buffer) is it
+ * parsed with the regular expression.
+ * <p>
+ * To make re-filtering cheap, the buffer also maintains per log level, pid and package bitsets over its slots, and
+ * dictionaries of the distinct tags and packages, such that a filter on these is evaluated with bitset operations
+ * and one pattern match per distinct tag or package (see {@link #match}), rather than once per line. It also caches
+ * which records were rejected by the console's text filter, such that when the user extends the filter text only
+ * the previously accepted lines have to be searched again.
+ */
+public class AndroidLogcatRecordBuffer {
+  /** Default number of messages kept */
+  public static final int DEFAULT_CAPACITY = 100000;
+
+  /** A message in the buffer */
+  public static class Record {
+    @NotNull public final LogMessageHeader header;
+    @NotNull public final String message;
+    final int slot;
+    /** The number of messages added to the buffer before this one; identifies the record even after its slot is reused */
+    final long sequence;
+
+    private Record(@NotNull LogMessageHeader header, @NotNull String message, int slot, long sequence) {
+      this.header = header;
+      this.message = message;
+      this.slot = slot;
+      this.sequence = sequence;
+    }
+  }
+
+  /** The result of {@link #match}: the records that match a log level and configured filter */
+  public static class Matches {
+    private final BitSet myLevelMatches;
+    private final BitSet myFilterMatches;
+    private final long mySequence;
+
+    private Matches(@NotNull BitSet levelMatches, @NotNull BitSet filterMatches, long sequence) {
+      myLevelMatches = levelMatches;
+      myFilterMatches = filterMatches;
+      mySequence = sequence;
+    }
+
+    /** Returns true if the given record was in the buffer when the matches were computed */
+    public boolean covers(@NotNull Record record) {
+      return record.sequence < mySequence;
+    }
+
+    public boolean isLevelMatch(@NotNull Record record) {
+      return myLevelMatches.get(record.slot);
+    }
+
+    public boolean isFilterMatch(@NotNull Record record) {
+      return myFilterMatches.get(record.slot);
+    }
+  }
+
+  private static final Log.LogLevel[] LOG_LEVELS = Log.LogLevel.values();
+
+  /** Limit on the number of distinct tags and packages kept, in case a log has an unbounded number of distinct tags */
+  static final int MAX_INTERNED = 10000;
+
+  private final int myCapacity;
+  private final LogMessageHeader[] myHeaders;
+  private final String[] myMessages;
+  private final int[] myLineHashes;
+  private final int[] myLineLengths;
+  private final long[] mySequences;
+  private final int[] myPids;
+  private final int[] myTagIds;
+  private final int[] myPackageIds;
+  private final byte[] myLevels;
+
+  /** Index of the next slot to write */
+  private int myNext;
+  /** Number of records currently in the buffer */
+  private int mySize;
+  /** Number of records ever added; not reset by {@link #clear()}, such that sequence numbers are never reused */
+  private long myCount;
+  /** Line hash code to slot index */
+  private final TIntIntHashMap myIndex = new TIntIntHashMap();
+
+  private final List<String> myTags = Lists.newArrayList();
+  private final TObjectIntHashMap<String> myTagIdMap = new TObjectIntHashMap<String>();
+  private final List<String> myPackages = Lists.newArrayList();
+  private final TObjectIntHashMap<String> myPackageIdMap = new TObjectIntHashMap<String>();
+
+  private final BitSet[] myLevelSets = new BitSet[LOG_LEVELS.length];
+  private final TIntObjectHashMap<BitSet> myPidSets = new TIntObjectHashMap<BitSet>();
+  private final List<BitSet> myPackageSets = Lists.newArrayList();
+  /**
+   * Size at which the tag and package dictionaries are compacted; grows beyond {@link #MAX_INTERNED} only while the
+   * records in the buffer use more distinct values than that
+   */
+  private int myInternedLimit = MAX_INTERNED;
+
+  /** The console text filter for which {@link #myTextRejected} was recorded */
+  @Nullable private String myTextFilter;
+  private final BitSet myTextRejected = new BitSet();
+
+  public AndroidLogcatRecordBuffer() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public AndroidLogcatRecordBuffer(int capacity) {
+    myCapacity = capacity;
+    myHeaders = new LogMessageHeader[capacity];
+    myMessages = new String[capacity];
+    myLineHashes = new int[capacity];
+    myLineLengths = new int[capacity];
+    mySequences = new long[capacity];
+    myPids = new int[capacity];
+    myTagIds = new int[capacity];
+    myPackageIds = new int[capacity];
+    myLevels = new byte[capacity];
+    for (int i = 0; i < myLevelSets.length; i++) {
+      myLevelSets[i] = new BitSet();
+    }
+  }
+
+  /**
+   * Records a message
+   *
+   * @param header  the parsed header
+   * @param message the first line of the message
+   * @param line    the line of text written to the console for the header and message, as produced by
+   *                {@link AndroidLogcatFormatter#formatMessage(String, LogMessageHeader)}
+   */
+  public synchronized void add(@NotNull LogMessageHeader header, @NotNull String message, @NotNull String line) {
+    int slot = myNext;
+    if (myHeaders[slot] != null) {
+      evict(slot);
+    }
+    if (myTags.size() >= myInternedLimit || myPackages.size() >= myInternedLimit) {
+      compactDictionaries();
+    }
+
+    // Store the header as parseMessage would return it, such that filters see the same values either way
+    int tagId = getId(header.myTag, myTags, myTagIdMap);
+    int packageId = getId(header.myAppPackage.isEmpty() ? "?" : header.myAppPackage, myPackages, myPackageIdMap);
+    LogMessageHeader stored = new LogMessageHeader();
+    stored.myTime = header.myTime;
+    stored.myLogLevel = header.myLogLevel;
+    stored.myPid = header.myPid;
+    stored.myTid = header.myTid;
+    stored.myAppPackage = myPackages.get(packageId);
+    stored.myTag = myTags.get(tagId);
+
+    int hash = line.hashCode();
+    myHeaders[slot] = stored;
+    myMessages[slot] = message;
+    myLineHashes[slot] = hash;
+    myLineLengths[slot] = line.length();
+    mySequences[slot] = myCount;
+    myPids[slot] = header.myPid;
+    myTagIds[slot] = tagId;
+    myPackageIds[slot] = packageId;
+    myLevels[slot] = (byte)(header.myLogLevel != null ? header.myLogLevel.ordinal() : -1);
+    myIndex.put(hash, slot);
+
+    if (header.myLogLevel != null) {
+      myLevelSets[header.myLogLevel.ordinal()].set(slot);
+    }
+    BitSet pidSet = myPidSets.get(header.myPid);
+    if (pidSet == null) {
+      pidSet = new BitSet();
+      myPidSets.put(header.myPid, pidSet);
+    }
+    pidSet.set(slot);
+    if (packageId == myPackageSets.size()) {
+      myPackageSets.add(new BitSet());
+    }
+    myPackageSets.get(packageId).set(slot);
+
+    myNext = (slot + 1) % myCapacity;
+    mySize = Math.min(mySize + 1, myCapacity);
+    myCount++;
+  }
+
+  private void evict(int slot) {
+    int oldHash = myLineHashes[slot];
+    if (myIndex.get(oldHash) == slot) {
+      myIndex.remove(oldHash);
+    }
+    if (myLevels[slot] >= 0) {
+      myLevelSets[myLevels[slot]].clear(slot);
+    }
+    BitSet pidSet = myPidSets.get(myPids[slot]);
+    pidSet.clear(slot);
+    if (pidSet.isEmpty()) {
+      myPidSets.remove(myPids[slot]);
+    }
+    myPackageSets.get(myPackageIds[slot]).clear(slot);
+    myTextRejected.clear(slot);
+    myHeaders[slot] = null;
+    myMessages[slot] = null;
+  }
+
+  /** Drops the tags and packages no longer used by any record in the buffer, and renumbers the remaining ones */
+  private void compactDictionaries() {
+    int[] tagIds = new int[myTags.size()];
+    int[] packageIds = new int[myPackages.size()];
+    Arrays.fill(tagIds, -1);
+    Arrays.fill(packageIds, -1);
+    List<String> tags = Lists.newArrayList();
+    List<String> packages = Lists.newArrayList();
+    List<BitSet> packageSets = Lists.newArrayList();
+    for (int slot = 0; slot < myCapacity; slot++) {
+      if (myHeaders[slot] == null) {
+        continue;
+      }
+      int tagId = myTagIds[slot];
+      if (tagIds[tagId] < 0) {
+        tagIds[tagId] = tags.size();
+        tags.add(myTags.get(tagId));
+      }
+      myTagIds[slot] = tagIds[tagId];
+
+      int packageId = myPackageIds[slot];
+      if (packageIds[packageId] < 0) {
+        packageIds[packageId] = packages.size();
+        packages.add(myPackages.get(packageId));
+        packageSets.add(myPackageSets.get(packageId));
+      }
+      myPackageIds[slot] = packageIds[packageId];
+    }
+
+    setDictionary(tags, myTags, myTagIdMap);
+    setDictionary(packages, myPackages, myPackageIdMap);
+    myPackageSets.clear();
+    myPackageSets.addAll(packageSets);
+    myInternedLimit = Math.max(MAX_INTERNED, 2 * Math.max(tags.size(), packages.size()));
+  }
+
+  private static void setDictionary(@NotNull List<String> newValues, @NotNull List<String> values,
+                                    @NotNull TObjectIntHashMap<String> ids) {
+    values.clear();
+    ids.clear();
+    for (String value : newValues) {
+      ids.put(value, values.size());
+      values.add(value);
+    }
+  }
+
+  private static int getId(@NotNull String s, @NotNull List<String> values, @NotNull TObjectIntHashMap<String> ids) {
+    if (ids.containsKey(s)) {
+      return ids.get(s);
+    }
+    int id = values.size();
+    values.add(s);
+    ids.put(s, id);
+    return id;
+  }
+
+  /**
+   * Returns the message of the given console line, or null if the line is not in the buffer
+   */
+  @Nullable
+  public synchronized Record find(@NotNull String line) {
+    int hash = line.hashCode();
+    if (!myIndex.containsKey(hash)) {
+      return null;
+    }
+    int slot = myIndex.get(hash);
+    LogMessageHeader header = myHeaders[slot];
+    String message = myMessages[slot];
+    if (header == null || myLineLengths[slot] != line.length() || !line.startsWith(header.myTime) || !line.endsWith(message)) {
+      return null;
+    }
+    return new Record(header, message, slot, mySequences[slot]);
+  }
+
+  /**
+   * Computes which of the records currently in the buffer have at least the given log level, and which are
+   * accepted by the given configured filter
+   */
+  @NotNull
+  public synchronized Matches match(@Nullable Log.LogLevel minLevel, @Nullable ConfiguredFilter filter) {
+    BitSet all = new BitSet();
+    all.set(0, size());
+
+    BitSet levelMatches = minLevel != null ? getLevelsAtLeast(minLevel) : (BitSet)all.clone();
+
+    BitSet filterMatches = (BitSet)all.clone();
+    if (filter != null) {
+      // Header fields first, with bitset operations
+      BitSet levels = new BitSet();
+      for (Log.LogLevel level : LOG_LEVELS) {
+        if (filter.isApplicableLogLevel(level)) {
+          levels.or(myLevelSets[level.ordinal()]);
+        }
+      }
+      filterMatches.and(levels);
+
+      BitSet pids = new BitSet();
+      for (int pid : myPidSets.keys()) {
+        if (filter.isApplicablePid(Integer.toString(pid))) {
+          pids.or(myPidSets.get(pid));
+        }
+      }
+      filterMatches.and(pids);
+
+      BitSet packages = new BitSet();
+      for (int i = 0; i < myPackages.size(); i++) {
+        if (filter.isApplicablePackage(myPackages.get(i))) {
+          packages.or(myPackageSets.get(i));
+        }
+      }
+      filterMatches.and(packages);
+
+      // Then tags, with one pattern match per distinct tag, and finally the message text of the remaining records
+      boolean[] tagMatches = new boolean[myTags.size()];
+      for (int i = 0; i < tagMatches.length; i++) {
+        tagMatches[i] = filter.isApplicableTag(myTags.get(i));
+      }
+      for (int slot = filterMatches.nextSetBit(0); slot >= 0; slot = filterMatches.nextSetBit(slot + 1)) {
+        if (!tagMatches[myTagIds[slot]] || !filter.isApplicableMessage(myMessages[slot])) {
+          filterMatches.clear(slot);
+        }
+      }
+    }
+    return new Matches(levelMatches, filterMatches, myCount);
+  }
+
+  @NotNull
+  private BitSet getLevelsAtLeast(@NotNull Log.LogLevel minLevel) {
+    BitSet result = new BitSet();
+    for (Log.LogLevel level : LOG_LEVELS) {
+      if (level.getPriority() >= minLevel.getPriority()) {
+        result.or(myLevelSets[level.ordinal()]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Sets the text the console filters lines on. If the new text only narrows the previous one (the new text is a literal
+   * containing the previous literal text), the records already rejected stay rejected; otherwise they are forgotten.
+   */
+  public synchronized void setTextFilter(@Nullable String filter) {
+    if (filter == null || filter.isEmpty() || myTextFilter == null || !isLiteral(filter) || !isLiteral(myTextFilter) ||
+        !filter.contains(myTextFilter)) {
+      myTextRejected.clear();
+    }
+    myTextFilter = filter;
+  }
+
+  /** Returns true if the record is known to be rejected by the current text filter */
+  public synchronized boolean isTextRejected(@NotNull Record record) {
+    return mySequences[record.slot] == record.sequence && myTextRejected.get(record.slot);
+  }
+
+  /** Records that the record is rejected by the current text filter */
+  public synchronized void setTextRejected(@NotNull Record record) {
+    if (mySequences[record.slot] == record.sequence && myHeaders[record.slot] != null) {
+      myTextRejected.set(record.slot);
+    }
+  }
+
+  private static boolean isLiteral(@NotNull String filter) {
+    for (int i = 0; i < filter.length(); i++) {
+      if ("\\^$.|?*+()[]{}".indexOf(filter.charAt(i)) >= 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the number of distinct tags currently kept */
+  synchronized int getTagCount() {
+    return myTags.size();
+  }
+
+  /** Returns the number of records currently in the buffer */
+  public synchronized int size() {
+    return mySize;
+  }
+
+  public synchronized void clear() {
+    for (int i = 0; i < myCapacity; i++) {
+      myHeaders[i] = null;
+      myMessages[i] = null;
+    }
+    myIndex.clear();
+    myTags.clear();
+    myTagIdMap.clear();
+    myPackages.clear();
+    myPackageIdMap.clear();
+    for (BitSet set : myLevelSets) {
+      set.clear();
+    }
+    myPidSets.clear();
+    myPackageSets.clear();
+    myInternedLimit = MAX_INTERNED;
+    myTextRejected.clear();
+    myNext = 0;
+    mySize = 0;
+  }
+}
@@ -87,6 +87,19 @@ public class AndroidLogcatUtil {
                                           final IDevice device,
                                           final boolean clearLogcat,
                                           @NotNull final LogConsoleBase console) {
+    return startLoggingThread(project, device, clearLogcat, console, null);
+  }
+
+  /**
+   * Starts logcat on the given device, writing the formatted messages to the returned writer, and if not null,
+   * recording the parsed messages in the given buffer
+   */
+  @Nullable
+  public static Pair<Reader, Writer> startLoggingThread(final Project project,
+                                          final IDevice device,
+                                          final boolean clearLogcat,
+                                          @NotNull final LogConsoleBase console,
+                                          @Nullable AndroidLogcatRecordBuffer records) {
     UIUtil.invokeAndWaitIfNeeded(new Runnable() {
       @Override
       public void run() {
@@ -94,7 +107,7 @@ public class AndroidLogcatUtil {
       }
     });
     PipedWriter logWriter = new PipedWriter();
-    final AndroidLogcatReceiver receiver = new AndroidLogcatReceiver(device, logWriter);
+    final AndroidLogcatReceiver receiver = new AndroidLogcatReceiver(device, logWriter, records);
     final PipedReader logReader;
     try {
       logReader = new PipedReader(logWriter) {
@@ -357,7 +357,9 @@ public abstract class AndroidLogcatView implements Disposable {
           if (console != null) {
             console.clear();
           }
-          final Pair<Reader, Writer> pair = AndroidLogcatUtil.startLoggingThread(myProject, device, false, myLogConsole);
+          myLogFilterModel.getRecordBuffer().clear();
+          final Pair<Reader, Writer> pair = AndroidLogcatUtil.startLoggingThread(myProject, device, false, myLogConsole,
+                                                                                 myLogFilterModel.getRecordBuffer());
           if (pair != null) {
             myCurrentReader = pair.first;
             myCurrentWriter = pair.second;
@@ -38,27 +38,31 @@ class ConfiguredFilter {
   
   public boolean isApplicable(String message, String tag, String pkg,
                               String pid, Log.LogLevel logLevel) {
-    if (myMessagePattern != null && (message == null || !myMessagePattern.matcher(message).find())) {
-      return false;
-    }
+    return isApplicableMessage(message) &&
+           isApplicableTag(tag) &&
+           isApplicablePackage(pkg) &&
+           isApplicablePid(pid) &&
+           isApplicableLogLevel(logLevel);
+  }
 
-    if (myTagPattern != null && (tag == null || !myTagPattern.matcher(tag).find())) {
-      return false;
-    }
+  boolean isApplicableMessage(@Nullable String message) {
+    return myMessagePattern == null || (message != null && myMessagePattern.matcher(message).find());
+  }
 
-    if (myPkgNamePattern != null && (pkg == null || !myPkgNamePattern.matcher(pkg).find())) {
-      return false;
-    }
+  boolean isApplicableTag(@Nullable String tag) {
+    return myTagPattern == null || (tag != null && myTagPattern.matcher(tag).find());
+  }
 
-    if (myPid != null && myPid.length() > 0 && !myPid.equals(pid)) {
-      return false;
-    }
+  boolean isApplicablePackage(@Nullable String pkg) {
+    return myPkgNamePattern == null || (pkg != null && myPkgNamePattern.matcher(pkg).find());
+  }
 
-    if (myLogLevel != null && (logLevel == null || logLevel.getPriority() < myLogLevel.getPriority())) {
-      return false;
-    }
-    
-    return true;
+  boolean isApplicablePid(@Nullable String pid) {
+    return myPid == null || myPid.length() == 0 || myPid.equals(pid);
+  }
+
+  boolean isApplicableLogLevel(@Nullable Log.LogLevel logLevel) {
+    return myLogLevel == null || (logLevel != null && logLevel.getPriority() >= myLogLevel.getPriority());
   }
 
   @NotNull
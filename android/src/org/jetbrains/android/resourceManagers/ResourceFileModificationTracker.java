@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.resourceManagers;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.ModificationTracker;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileCopyEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.psi.*;
+import org.jetbrains.android.util.AndroidCommonUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the changes to the files in resource folders of the project, both on disk and in unsaved documents, such that
+ * the {@link ResourceIndexCache}s are not invalidated by changes to other files.
+ */
+public class ResourceFileModificationTracker extends PsiTreeChangeAdapter implements ModificationTracker {
+  private final AtomicLong myModificationCount = new AtomicLong();
+
+  @NotNull
+  public static ResourceFileModificationTracker getInstance(@NotNull Project project) {
+    return ServiceManager.getService(project, ResourceFileModificationTracker.class);
+  }
+
+  @SuppressWarnings("UnusedDeclaration") // Instantiated as a project service
+  public ResourceFileModificationTracker(@NotNull Project project) {
+    PsiManager.getInstance(project).addPsiTreeChangeListener(this, project);
+    project.getMessageBus().connect(project).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener.Adapter() {
+      @Override
+      public void after(@NotNull List<? extends VFileEvent> events) {
+        for (VFileEvent event : events) {
+          if (isInResourceFolder(event)) {
+            myModificationCount.incrementAndGet();
+            return;
+          }
+        }
+      }
+    });
+  }
+
+  @Override
+  public long getModificationCount() {
+    return myModificationCount.get();
+  }
+
+  private static boolean isInResourceFolder(@NotNull VFileEvent event) {
+    if (event instanceof VFileCreateEvent) {
+      return isResourceFolder(((VFileCreateEvent)event).getParent());
+    }
+    if (event instanceof VFileCopyEvent) {
+      return isResourceFolder(((VFileCopyEvent)event).getNewParent());
+    }
+    if (event instanceof VFileMoveEvent) {
+      VFileMoveEvent moveEvent = (VFileMoveEvent)event;
+      return isResourceFolder(moveEvent.getOldParent()) || isResourceFolder(moveEvent.getNewParent());
+    }
+    VirtualFile file = event.getFile();
+    return file != null && isResourceFolder(file.getParent());
+  }
+
+  /** Returns true if the given folder has the name of a resource type folder, such as "values" or "layout-land" */
+  private static boolean isResourceFolder(@Nullable VirtualFile dir) {
+    return dir != null && AndroidCommonUtils.getResourceTypeByDirName(dir.getName()) != null;
+  }
+
+  private void psiChanged(@NotNull PsiTreeChangeEvent event) {
+    // Changes to whole files and folders are seen as VFS events; only the edits of the documents remain
+    PsiFile file = event.getFile();
+    VirtualFile virtualFile = file != null ? file.getVirtualFile() : null;
+    if (virtualFile != null && isResourceFolder(virtualFile.getParent())) {
+      myModificationCount.incrementAndGet();
+    }
+  }
+
+  @Override
+  public void childAdded(@NotNull PsiTreeChangeEvent event) {
+    psiChanged(event);
+  }
+
+  @Override
+  public void childRemoved(@NotNull PsiTreeChangeEvent event) {
+    psiChanged(event);
+  }
+
+  @Override
+  public void childReplaced(@NotNull PsiTreeChangeEvent event) {
+    psiChanged(event);
+  }
+
+  @Override
+  public void childrenChanged(@NotNull PsiTreeChangeEvent event) {
+    psiChanged(event);
+  }
+
+  @Override
+  public void childMoved(@NotNull PsiTreeChangeEvent event) {
+    psiChanged(event);
+  }
+
+  @Override
+  public void propertyChanged(@NotNull PsiTreeChangeEvent event) {
+    psiChanged(event);
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.resourceManagers;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileTypes.StdFileTypes;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.ID;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of the values stored in a {@link FileBasedIndex} under a single key, for the files in a set of resource
+ * folders. Used by {@link ResourceManager} to avoid querying the index for the whole project, and rebuilding the
+ * per file map, on every completion or resolve of a resource name.
+ * <p>
+ * The cached values are returned as is while no file in a resource folder has changed, as counted by the
+ * {@link ResourceFileModificationTracker}, and the resource folders are the same. Otherwise only the files whose
+ * modification stamp changed since the last call are read from the index again. The cached indexes only index XML
+ * files, so other files in the resource folders are skipped.
+ */
+class ResourceIndexCache<K, V> {
+  private static final Logger LOG = Logger.getInstance(ResourceIndexCache.class);
+
+  @NotNull private final Project myProject;
+  @NotNull private final ID<K, V> myIndexId;
+  @NotNull private final K myKey;
+  @NotNull private final String myName;
+
+  private long myModificationCount = -1;
+  @Nullable private List<VirtualFile> myDirs;
+  @Nullable private Map<VirtualFile, Long> myStamps;
+  @Nullable private Map<VirtualFile, V> myValues;
+  private int myRequestCount;
+  private int myUpdateCount;
+
+  /**
+   * Creates a cache of the values indexed under the given key
+   *
+   * @param project the project whose index is queried
+   * @param indexId the index to query
+   * @param key     the key to query
+   * @param name    a name for the cached values, used in diagnostics
+   */
+  ResourceIndexCache(@NotNull Project project, @NotNull ID<K, V> indexId, @NotNull K key, @NotNull String name) {
+    myProject = project;
+    myIndexId = indexId;
+    myKey = key;
+    myName = name;
+  }
+
+  /**
+   * Returns the values indexed under the key for the files directly contained in the given folders, in folder order.
+   * The returned map must not be modified.
+   */
+  @NotNull
+  public synchronized Map<VirtualFile, V> getValues(@NotNull List<VirtualFile> dirs) {
+    myRequestCount++;
+    long modificationCount = ResourceFileModificationTracker.getInstance(myProject).getModificationCount();
+    if (myValues != null && modificationCount == myModificationCount && dirs.equals(myDirs)) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug(String.format("Cached %1$s up to date: %2$d of %3$d requests served from the cache", myName,
+                                myRequestCount - myUpdateCount, myRequestCount));
+      }
+      return myValues;
+    }
+
+    long start = System.currentTimeMillis();
+    FileBasedIndex index = FileBasedIndex.getInstance();
+    GlobalSearchScope scope = GlobalSearchScope.allScope(myProject);
+    Map<VirtualFile, Long> stamps = Maps.newHashMap();
+    final Map<VirtualFile, V> values = Maps.newLinkedHashMap();
+
+    // The first time around a single query for the whole project is cheaper than one per file
+    final Map<VirtualFile, V> allValues;
+    if (myValues == null) {
+      allValues = Maps.newHashMap();
+      index.processValues(myIndexId, myKey, null, new FileBasedIndex.ValueProcessor<V>() {
+        @Override
+        public boolean process(VirtualFile file, V value) {
+          allValues.put(file, value);
+          return true;
+        }
+      }, scope);
+    }
+    else {
+      allValues = null;
+    }
+
+    int fileCount = 0;
+    int readCount = 0;
+    for (VirtualFile dir : dirs) {
+      for (final VirtualFile file : dir.getChildren()) {
+        if (file.isDirectory() || file.getFileType() != StdFileTypes.XML) {
+          continue;
+        }
+        fileCount++;
+        long stamp = getModificationStamp(file);
+        stamps.put(file, stamp);
+
+        if (allValues != null) {
+          V value = allValues.get(file);
+          if (value != null) {
+            values.put(file, value);
+          }
+          continue;
+        }
+
+        assert myStamps != null;
+        Long previousStamp = myStamps.get(file);
+        if (previousStamp != null && previousStamp == stamp) {
+          V value = myValues.get(file);
+          if (value != null) {
+            values.put(file, value);
+          }
+          continue;
+        }
+
+        readCount++;
+        index.processValues(myIndexId, myKey, file, new FileBasedIndex.ValueProcessor<V>() {
+          @Override
+          public boolean process(VirtualFile valueFile, V value) {
+            if (file.equals(valueFile)) {
+              values.put(file, value);
+            }
+            return true;
+          }
+        }, scope);
+      }
+    }
+
+    // Only update the state once everything was read, such that a failed update is retried on the next call
+    myModificationCount = modificationCount;
+    myDirs = dirs;
+    myStamps = stamps;
+    myValues = Collections.unmodifiableMap(values);
+    myUpdateCount++;
+
+    if (LOG.isDebugEnabled()) {
+      long time = System.currentTimeMillis() - start;
+      LOG.debug(String.format("Updated cached %1$s: %2$d files, %3$d read from index%4$s, %5$d ms; " +
+                              "%6$d of %7$d requests served from the cache", myName, fileCount,
+                              allValues != null ? allValues.size() : readCount, allValues != null ? " (full scan)" : "", time,
+                              myRequestCount - myUpdateCount, myRequestCount));
+    }
+    return myValues;
+  }
+
+  /** Returns the number of times the cached values were requested */
+  @VisibleForTesting
+  synchronized int getRequestCount() {
+    return myRequestCount;
+  }
+
+  /** Returns the number of times the cached values were updated */
+  @VisibleForTesting
+  synchronized int getUpdateCount() {
+    return myUpdateCount;
+  }
+
+  /** Returns the modification stamp of the file, or of its document if it has been loaded, since it may not be saved */
+  private static long getModificationStamp(@NotNull VirtualFile file) {
+    Document document = FileDocumentManager.getInstance().getCachedDocument(file);
+    return document != null ? document.getModificationStamp() : file.getModificationStamp();
+  }
+}
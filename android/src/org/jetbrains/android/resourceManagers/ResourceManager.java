@@ -17,6 +17,7 @@ package org.jetbrains.android.resourceManagers;
 
 import com.android.resources.ResourceType;
 import com.android.tools.idea.AndroidPsiUtils;
+import com.google.common.annotations.VisibleForTesting;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.fileTypes.StdFileTypes;
 import com.intellij.openapi.project.Project;
@@ -55,9 +56,13 @@ import static java.util.Collections.addAll;
  */
 public abstract class ResourceManager {
   protected final Project myProject;
+  private final ResourceIndexCache<String, Set<String>> myIdCache;
+  private final Map<String, ResourceIndexCache<ResourceEntry, Set<AndroidValueResourcesIndex.MyResourceInfo>>> myValueResourceCaches =
+    new HashMap<String, ResourceIndexCache<ResourceEntry, Set<AndroidValueResourcesIndex.MyResourceInfo>>>();
 
   protected ResourceManager(@NotNull Project project) {
     myProject = project;
+    myIdCache = new ResourceIndexCache<String, Set<String>>(project, AndroidIdIndex.INDEX_ID, AndroidIdIndex.MARKER, "ids");
   }
 
   /** Returns all the resource directories for this module <b>and all of its module dependencies</b> */
@@ -289,38 +294,19 @@ public abstract class ResourceManager {
     if (type == null) {
       return Collections.emptyList();
     }
-    final FileBasedIndex index = FileBasedIndex.getInstance();
-    final ResourceEntry typeMarkerEntry = AndroidValueResourcesIndex.createTypeMarkerKey(resourceType);
-    final GlobalSearchScope scope = GlobalSearchScope.allScope(myProject);
-
-    final Map<VirtualFile, Set<ResourceEntry>> file2resourceSet = new HashMap<VirtualFile, Set<ResourceEntry>>();
-
-    index.processValues(AndroidValueResourcesIndex.INDEX_ID, typeMarkerEntry, null, new FileBasedIndex.ValueProcessor<Set<AndroidValueResourcesIndex.MyResourceInfo>>() {
-      @Override
-      public boolean process(VirtualFile file, Set<AndroidValueResourcesIndex.MyResourceInfo> infos) {
-        for (AndroidValueResourcesIndex.MyResourceInfo info : infos) {
-          Set<ResourceEntry> resourcesInFile = file2resourceSet.get(file);
-
-          if (resourcesInFile == null) {
-            resourcesInFile = new HashSet<ResourceEntry>();
-            file2resourceSet.put(file, resourcesInFile);
-          }
-          resourcesInFile.add(info.getResourceEntry());
-        }
-        return true;
-      }
-    }, scope);
-
+    final Map<VirtualFile, Set<AndroidValueResourcesIndex.MyResourceInfo>> file2infos =
+      getValueResourceCache(resourceType).getValues(getResourceSubdirs("values"));
     final List<ResourceEntry> result = new ArrayList<ResourceEntry>();
 
-    for (VirtualFile file : getAllValueResourceFiles()) {
-      final Set<ResourceEntry> entries = file2resourceSet.get(file);
+    for (Set<AndroidValueResourcesIndex.MyResourceInfo> infos : file2infos.values()) {
+      final Set<ResourceEntry> resourcesInFile = new HashSet<ResourceEntry>();
 
-      if (entries != null) {
-        for (ResourceEntry entry : entries) {
-          if (isResourcePublic(entry.getType(), entry.getName())) {
-            result.add(entry);
-          }
+      for (AndroidValueResourcesIndex.MyResourceInfo info : infos) {
+        resourcesInFile.add(info.getResourceEntry());
+      }
+      for (ResourceEntry entry : resourcesInFile) {
+        if (isResourcePublic(entry.getType(), entry.getName())) {
+          result.add(entry);
         }
       }
     }
@@ -385,43 +371,45 @@ public abstract class ResourceManager {
     if (myProject.isDisposed()) {
       return Collections.emptyList();
     }
-    final GlobalSearchScope scope = GlobalSearchScope.allScope(myProject);
-
-    final FileBasedIndex index = FileBasedIndex.getInstance();
-    final Map<VirtualFile, Set<String>> file2idEntries = new HashMap<VirtualFile, Set<String>>();
-
-    index.processValues(AndroidIdIndex.INDEX_ID, AndroidIdIndex.MARKER, null, new FileBasedIndex.ValueProcessor<Set<String>>() {
-      @Override
-      public boolean process(VirtualFile file, Set<String> value) {
-        file2idEntries.put(file, value);
-        return true;
-      }
-    }, scope);
-
+    final Map<VirtualFile, Set<String>> file2idEntries = myIdCache.getValues(getResourceSubdirsToSearchIds());
     final Set<String> result = new HashSet<String>();
 
-    for (VirtualFile resSubdir : getResourceSubdirsToSearchIds()) {
-      for (VirtualFile resFile : resSubdir.getChildren()) {
-        final Set<String> idEntries = file2idEntries.get(resFile);
-
-        if (idEntries != null) {
-          for (String idEntry : idEntries) {
-            if (idEntry.startsWith("+")) {
-              idEntry = idEntry.substring(1);
-            }
-            else if (declarationsOnly) {
-              continue;
-            }
-            if (isResourcePublic(ResourceType.ID.getName(), idEntry)) {
-              result.add(idEntry);
-            }
-          }
+    for (Set<String> idEntries : file2idEntries.values()) {
+      for (String idEntry : idEntries) {
+        if (idEntry.startsWith("+")) {
+          idEntry = idEntry.substring(1);
+        }
+        else if (declarationsOnly) {
+          continue;
+        }
+        if (isResourcePublic(ResourceType.ID.getName(), idEntry)) {
+          result.add(idEntry);
         }
       }
     }
     return result;
   }
 
+  @VisibleForTesting
+  @NotNull
+  ResourceIndexCache<String, Set<String>> getIdCache() {
+    return myIdCache;
+  }
+
+  @VisibleForTesting
+  @NotNull
+  synchronized ResourceIndexCache<ResourceEntry, Set<AndroidValueResourcesIndex.MyResourceInfo>> getValueResourceCache(
+    @NotNull String resourceType) {
+    ResourceIndexCache<ResourceEntry, Set<AndroidValueResourcesIndex.MyResourceInfo>> cache = myValueResourceCaches.get(resourceType);
+    if (cache == null) {
+      cache = new ResourceIndexCache<ResourceEntry, Set<AndroidValueResourcesIndex.MyResourceInfo>>(
+        myProject, AndroidValueResourcesIndex.INDEX_ID, AndroidValueResourcesIndex.createTypeMarkerKey(resourceType),
+        resourceType + " values");
+      myValueResourceCaches.put(resourceType, cache);
+    }
+    return cache;
+  }
+
   @NotNull
   public List<VirtualFile> getResourceSubdirsToSearchIds() {
     final List<VirtualFile> resSubdirs = new ArrayList<VirtualFile>();
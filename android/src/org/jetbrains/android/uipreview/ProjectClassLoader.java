@@ -11,15 +11,20 @@ import com.android.tools.idea.gradle.util.GradleUtil;
 import com.android.tools.idea.rendering.*;
 import com.android.utils.HtmlBuilder;
 import com.android.utils.SdkUtils;
+import com.google.common.collect.Maps;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.CompilerModuleExtension;
 import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -41,6 +46,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static com.android.SdkConstants.DOT_AAR;
@@ -55,16 +61,99 @@ import static org.jetbrains.android.facet.ResourceFolderManager.EXPLODED_AAR;
 public final class ProjectClassLoader extends RenderClassLoader {
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.android.uipreview.ProjectClassLoader");
 
+  /**
+   * The class loader shared by the renders of each module. Only the class loader for the layout library last rendered
+   * with is kept, such that the class loaders of layout libraries no longer used can be collected. Guarded by itself.
+   */
+  private static final Map<Module, ProjectClassLoader> ourLoaders = Maps.newHashMap();
+
   private final Module myModule;
-  private final RenderLogger myLogger;
-  private final Object myCredential;
+  /**
+   * The logger to report out of date classes to and the credential to load classes with, of the render on each thread.
+   * Not kept in fields, since the class loader is shared by renders which may run at the same time.
+   */
+  private final ThreadLocal<Pair<RenderLogger, Object>> myRenderContext = new ThreadLocal<Pair<RenderLogger, Object>>();
+
+  /** The class files and jars classes were loaded from, along with their time stamps at that time */
+  private final Map<File, Long> myLoadedFiles = Maps.newConcurrentMap();
+  /** The project roots modification count when this class loader was created */
+  private final long myRootsModificationCount;
+
+  /** The R class whose resource ids were last passed to the app resources, and those app resources */
+  private Class<?> myParsedResourceClass;
+  private AppResourceRepository myParsedResources;
 
-  public ProjectClassLoader(@Nullable ClassLoader parentClassLoader, @NotNull Module module, @Nullable RenderLogger logger,
-                            @Nullable Object credential) {
+  public ProjectClassLoader(@Nullable ClassLoader parentClassLoader, @NotNull Module module) {
     super(parentClassLoader);
     myModule = module;
-    myLogger = logger;
-    myCredential = credential;
+    myRootsModificationCount = ProjectRootManager.getInstance(module.getProject()).getModificationCount();
+  }
+
+  /**
+   * Returns a class loader for the given module which is shared between renders, such that classes already loaded by
+   * a previous render are not loaded again. A new class loader is created if the parent class loader is not the one
+   * of the shared class loader, if any of the class files or jars the shared class loader has loaded classes from has
+   * changed since, or if the project roots have changed.
+   */
+  @NotNull
+  public static ProjectClassLoader get(@Nullable ClassLoader parentClassLoader, @NotNull final Module module) {
+    synchronized (ourLoaders) {
+      ProjectClassLoader loader = ourLoaders.get(module);
+      if (loader == null) {
+        Disposer.register(module, new Disposable() {
+          @Override
+          public void dispose() {
+            synchronized (ourLoaders) {
+              ourLoaders.remove(module);
+            }
+          }
+        });
+      }
+
+      if (loader == null || loader.getParent() != parentClassLoader || !loader.isUpToDate()) {
+        loader = new ProjectClassLoader(parentClassLoader, module);
+        ourLoaders.put(module, loader);
+      }
+      return loader;
+    }
+  }
+
+  /**
+   * Sets the logger to report out of date classes to, and the credential to load classes with, for the classes loaded
+   * on the current thread from now on. Both are cleared when null.
+   */
+  public void setRenderContext(@Nullable RenderLogger logger, @Nullable Object credential) {
+    if (logger == null && credential == null) {
+      myRenderContext.remove();
+    }
+    else {
+      myRenderContext.set(Pair.create(logger, credential));
+    }
+  }
+
+  /** Returns true if none of the files classes were loaded from, nor the project roots, have changed since */
+  private boolean isUpToDate() {
+    if (myModule.isDisposed() ||
+        ProjectRootManager.getInstance(myModule.getProject()).getModificationCount() != myRootsModificationCount) {
+      return false;
+    }
+    for (Map.Entry<File, Long> entry : myLoadedFiles.entrySet()) {
+      if (entry.getKey().lastModified() != entry.getValue()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns true if the resource ids of the given R class have already been passed to the given app resources */
+  public synchronized boolean isParsedResourceClass(@NotNull Class<?> rClass, @NotNull AppResourceRepository appResources) {
+    return myParsedResourceClass == rClass && myParsedResources == appResources;
+  }
+
+  /** Records that the resource ids of the given R class have been passed to the given app resources */
+  public synchronized void setParsedResourceClass(@NotNull Class<?> rClass, @NotNull AppResourceRepository appResources) {
+    myParsedResourceClass = rClass;
+    myParsedResources = appResources;
   }
 
   @Override
@@ -97,7 +186,7 @@ public final class ProjectClassLoader extends RenderClassLoader {
       return null;
     }
 
-    return new ProjectClassLoader(library.getClassLoader(), module, null, null);
+    return new ProjectClassLoader(library.getClassLoader(), module);
   }
 
   @NotNull
@@ -189,12 +278,15 @@ public final class ProjectClassLoader extends RenderClassLoader {
   @Override
   @Nullable
   protected Class<?> loadClassFile(final String fqcn, File classFile) {
+    long classFileModified = classFile.lastModified();
+
     // Make sure the class file is up to date and if not, log an error
-    if (myLogger != null) {
+    Pair<RenderLogger, Object> context = myRenderContext.get();
+    RenderLogger logger = context != null ? context.getFirst() : null;
+    if (logger != null) {
       // Allow creating class loaders during rendering; may be prevented by the RenderSecurityManager
-      boolean token = RenderSecurityManager.enterSafeRegion(myCredential);
+      boolean token = RenderSecurityManager.enterSafeRegion(context.getSecond());
       try {
-        long classFileModified = classFile.lastModified();
         if (classFileModified > 0L) {
           VirtualFile virtualFile = ApplicationManager.getApplication().runReadAction(new Computable<VirtualFile>() {
             @Nullable
@@ -234,8 +326,8 @@ public final class ProjectClassLoader extends RenderClassLoader {
               String className = fqcn.substring(fqcn.lastIndexOf('.') + 1);
               builder.addLink("The " + className + " custom view has been edited more recently than the last build: ",
                               "Build", " the project.",
-                              myLogger.getLinkManager().createCompileModuleUrl());
-              myLogger.addMessage(problem);
+                              logger.getLinkManager().createCompileModuleUrl());
+              logger.addMessage(problem);
             }
           }
         }
@@ -244,7 +336,24 @@ public final class ProjectClassLoader extends RenderClassLoader {
       }
     }
 
-    return super.loadClassFile(fqcn, classFile);
+    Class<?> aClass = super.loadClassFile(fqcn, classFile);
+    if (aClass != null) {
+      myLoadedFiles.put(classFile, classFileModified);
+    }
+    return aClass;
+  }
+
+  @Override
+  @NotNull
+  protected byte[] rewriteClass(@NotNull byte[] data) {
+    // Allow the cache to read and write its files during rendering; may be prevented by the RenderSecurityManager
+    Pair<RenderLogger, Object> context = myRenderContext.get();
+    boolean token = RenderSecurityManager.enterSafeRegion(context != null ? context.getSecond() : null);
+    try {
+      return ConvertedClassCache.getInstance(myModule.getProject()).rewriteClass(data);
+    } finally {
+      RenderSecurityManager.exitSafeRegion(token);
+    }
   }
 
   @Override
@@ -257,6 +366,7 @@ public final class ProjectClassLoader extends RenderClassLoader {
         if (file.exists()) {
           try {
             result.add(SdkUtils.fileToUrl(file));
+            myLoadedFiles.put(file, file.lastModified());
 
             File parentFile = file.getParentFile();
             if (parentFile != null && (parentFile.getPath().endsWith(DOT_AAR) ||
@@ -82,6 +82,16 @@ public class ViewLoader {
     myLogger = logger;
   }
 
+  /**
+   * Clears the logger and credential the shared class loader was given for the classes loaded on the current thread,
+   * such that they aren't kept alive by the thread after the render
+   */
+  public void clearRenderContext() {
+    if (myProjectClassLoader != null) {
+      myProjectClassLoader.setRenderContext(null, null);
+    }
+  }
+
   @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
   @Nullable
   public Object loadView(String className, Class[] constructorSignature, Object[] constructorArgs)
@@ -177,11 +187,13 @@ public class ViewLoader {
       // Allow creating class loaders during rendering; may be prevented by the RenderSecurityManager
       boolean token = RenderSecurityManager.enterSafeRegion(myCredential);
       try {
-        myProjectClassLoader = new ProjectClassLoader(myParentClassLoader, myModule, myLogger, myCredential);
+        myProjectClassLoader = ProjectClassLoader.get(myParentClassLoader, myModule);
       } finally {
         RenderSecurityManager.exitSafeRegion(token);
       }
     }
+    // The class loader is shared with other renders, so point it at this render's logger for the classes it loads next
+    myProjectClassLoader.setRenderContext(myLogger, myCredential);
 
     return myProjectClassLoader;
   }
@@ -436,16 +448,22 @@ public class ViewLoader {
     }
 
     if (aClass != null) {
+      // The class loader is shared with previous renders, and only replaced when the R class changes: the ids
+      // don't have to be parsed again if they have already been passed to the app resources
+      AppResourceRepository appResources = AppResourceRepository.getAppResources(myModule, true);
+      ProjectClassLoader classLoader = getProjectClassLoader();
+      if (appResources != null && classLoader.isParsedResourceClass(aClass, appResources)) {
+        return;
+      }
+
       final Map<ResourceType, TObjectIntHashMap<String>> res2id =
         new EnumMap<ResourceType, TObjectIntHashMap<String>>(ResourceType.class);
       final TIntObjectHashMap<Pair<ResourceType, String>> id2res = new TIntObjectHashMap<Pair<ResourceType, String>>();
       final Map<IntArrayWrapper, String> styleableId2res = new HashMap<IntArrayWrapper, String>();
 
-      if (parseClass(aClass, id2res, styleableId2res, res2id)) {
-        AppResourceRepository appResources = AppResourceRepository.getAppResources(myModule, true);
-        if (appResources != null) {
-          appResources.setCompiledResources(id2res, styleableId2res, res2id);
-        }
+      if (parseClass(aClass, id2res, styleableId2res, res2id) && appResources != null) {
+        appResources.setCompiledResources(id2res, styleableId2res, res2id);
+        classLoader.setParsedResourceClass(aClass, appResources);
       }
     }
   }
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.configurations;
+
+import com.android.ide.common.rendering.api.ResourceValue;
+import com.android.ide.common.resources.ResourceRepository;
+import com.android.resources.ResourceType;
+import com.google.common.collect.Maps;
+import junit.framework.TestCase;
+import org.easymock.EasyMock;
+
+import java.util.Map;
+
+public class FrameworkResourceCacheTest extends TestCase {
+  private static Map<ResourceType, Map<String, ResourceValue>> createResources(int count) {
+    Map<String, ResourceValue> strings = Maps.newHashMap();
+    for (int i = 0; i < count; i++) {
+      String name = "string" + i;
+      strings.put(name, new ResourceValue(ResourceType.STRING, name, "value" + i, true));
+    }
+    Map<ResourceType, Map<String, ResourceValue>> resources = Maps.newEnumMap(ResourceType.class);
+    resources.put(ResourceType.STRING, strings);
+    return resources;
+  }
+
+  public void testCache() throws Exception {
+    ResourceRepository frameworkResources = EasyMock.createMock(ResourceRepository.class);
+    ResourceRepository reloadedResources = EasyMock.createMock(ResourceRepository.class);
+    // Room for 100 configured resources
+    FrameworkResourceCache cache = new FrameworkResourceCache(100 * 64);
+
+    Map<ResourceType, Map<String, ResourceValue>> resources1 = createResources(60);
+    assertNull(cache.get(21, "-v21", frameworkResources));
+    cache.put(21, "-v21", frameworkResources, resources1);
+    assertSame(resources1, cache.get(21, "-v21", frameworkResources));
+    assertNull(cache.get(19, "-v21", frameworkResources));
+    assertNull(cache.get(21, "-v21", reloadedResources));
+    assertEquals(1, cache.getHits());
+    assertEquals(3, cache.getMisses());
+    assertEquals(0, cache.getEvictions());
+
+    // Exceeds the budget: evicts the least recently used configuration
+    Map<ResourceType, Map<String, ResourceValue>> resources2 = createResources(60);
+    cache.put(21, "-port-v21", frameworkResources, resources2);
+    assertNull(cache.get(21, "-v21", frameworkResources));
+    assertSame(resources2, cache.get(21, "-port-v21", frameworkResources));
+    assertEquals(1, cache.getEvictions());
+  }
+}
@@ -93,7 +93,8 @@ public class ResourceResolverCacheTest extends AndroidTestCase {
       @Override
       public void run() {
         assertTrue(generation < resources.getModificationCount());
-        assertNotSame(resolver1b, configuration1.getResourceResolver());
+        // Only strings changed, so the resolver is kept and its configured strings are updated
+        assertSame(resolver1b, configuration1.getResourceResolver());
         assertEquals("FooBar", configuration1.getResourceResolver().findResValue("@string/cancel", false).getValue());
       }
     });
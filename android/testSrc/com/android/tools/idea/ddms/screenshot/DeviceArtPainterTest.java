@@ -64,6 +64,31 @@ public class DeviceArtPainterTest extends TestCase {
     }
   }
 
+  public void testRasterRoundTrip() throws Exception {
+    @SuppressWarnings("UndesirableClassUsage")
+    BufferedImage image = new BufferedImage(7, 5, BufferedImage.TYPE_INT_ARGB_PRE);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        image.setRGB(x, y, x * 40 << 24 | y * 50 << 16 | 0x8000 | x + y);
+      }
+    }
+    File file = File.createTempFile("raster", ".argb");
+    try {
+      DeviceArtPainter.writeRaster(image, file);
+      BufferedImage read = DeviceArtPainter.readRaster(file);
+      assertEquals(image.getWidth(), read.getWidth());
+      assertEquals(image.getHeight(), read.getHeight());
+      for (int y = 0; y < image.getHeight(); y++) {
+        for (int x = 0; x < image.getWidth(); x++) {
+          assertEquals(image.getRGB(x, y), read.getRGB(x, y));
+        }
+      }
+    }
+    finally {
+      assertTrue(file.delete());
+    }
+  }
+
   public void generateCropData() throws Exception {
     DeviceArtPainter framePainter = DeviceArtPainter.getInstance();
     Device device = newDevice();
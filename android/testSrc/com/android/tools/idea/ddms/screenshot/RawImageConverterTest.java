@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.ddms.screenshot;
+
+import com.android.ddmlib.RawImage;
+import junit.framework.TestCase;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+public class RawImageConverterTest extends TestCase {
+  public void testConvert16() throws Exception {
+    RawImage rawImage = createRawImage(16);
+    checkConversion(rawImage, RawImageConverter.convert(rawImage, null));
+  }
+
+  public void testConvert32() throws Exception {
+    RawImage rawImage = createRawImage(32);
+    rawImage.red_offset = 0;
+    rawImage.green_offset = 8;
+    rawImage.blue_offset = 16;
+    rawImage.alpha_offset = 24;
+    rawImage.red_length = rawImage.green_length = rawImage.blue_length = rawImage.alpha_length = 8;
+    checkConversion(rawImage, RawImageConverter.convert(rawImage, null));
+
+    // No alpha channel, with the red and blue channels swapped
+    rawImage.red_offset = 16;
+    rawImage.blue_offset = 0;
+    rawImage.alpha_length = 0;
+    checkConversion(rawImage, RawImageConverter.convert(rawImage, null));
+  }
+
+  public void testReuse() throws Exception {
+    RawImage rawImage = createRawImage(16);
+    BufferedImage image = RawImageConverter.convert(rawImage, null);
+
+    rawImage = createRawImage(16);
+    assertSame(image, RawImageConverter.convert(rawImage, image));
+    checkConversion(rawImage, image);
+
+    rawImage.width = 3;
+    rawImage.height = 4;
+    BufferedImage resized = RawImageConverter.convert(rawImage, image);
+    assertNotSame(image, resized);
+    checkConversion(rawImage, resized);
+  }
+
+  private static RawImage createRawImage(int bpp) {
+    RawImage rawImage = new RawImage();
+    rawImage.bpp = bpp;
+    rawImage.width = 4;
+    rawImage.height = 3;
+    rawImage.data = new byte[rawImage.width * rawImage.height * bpp / 8];
+    new Random().nextBytes(rawImage.data);
+    return rawImage;
+  }
+
+  private static void checkConversion(RawImage rawImage, BufferedImage image) {
+    assertEquals(rawImage.width, image.getWidth());
+    assertEquals(rawImage.height, image.getHeight());
+    for (int y = 0; y < rawImage.height; y++) {
+      for (int x = 0; x < rawImage.width; x++) {
+        assertEquals(rawImage.getARGB((x + y * rawImage.width) * (rawImage.bpp / 8)), image.getRGB(x, y));
+      }
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.ddms.screenshot;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.RawImage;
+import junit.framework.TestCase;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ScreenMirrorTest extends TestCase {
+  private static final int WIDTH = 48;
+  private static final int HEIGHT = 32;
+
+  private final Semaphore myFrameAvailable = new Semaphore(0);
+  private final AtomicReference<String> myError = new AtomicReference<String>();
+  private final Semaphore myFailed = new Semaphore(0);
+
+  private final ScreenMirror.Listener myListener = new ScreenMirror.Listener() {
+    @Override
+    public void frameAvailable() {
+      myFrameAvailable.release();
+    }
+
+    @Override
+    public void mirroringFailed(@NotNull String error) {
+      myError.set(error);
+      myFailed.release();
+    }
+  };
+
+  /**
+   * Creates a device that serves 32 bpp frames, each of them filled with the number of screenshots taken before it.
+   * If permits are given, every screenshot waits for one of them.
+   */
+  private static IDevice createDevice(@Nullable final Semaphore screenshotPermits) throws Exception {
+    final AtomicInteger frames = new AtomicInteger();
+    IDevice device = EasyMock.createMock(IDevice.class);
+    EasyMock.expect(device.getSerialNumber()).andStubReturn("fake");
+    EasyMock.expect(device.getScreenshot()).andStubAnswer(new IAnswer<RawImage>() {
+      @Override
+      public RawImage answer() throws Throwable {
+        if (screenshotPermits != null) {
+          screenshotPermits.acquire();
+        }
+        RawImage rawImage = new RawImage();
+        rawImage.bpp = 32;
+        rawImage.width = WIDTH;
+        rawImage.height = HEIGHT;
+        rawImage.red_offset = 16;
+        rawImage.green_offset = 8;
+        rawImage.blue_offset = 0;
+        rawImage.red_length = rawImage.green_length = rawImage.blue_length = 8;
+        rawImage.data = new byte[WIDTH * HEIGHT * 4];
+        int frame = frames.getAndIncrement();
+        for (int i = 0; i < rawImage.data.length; i += 4) {
+          rawImage.data[i] = (byte)frame;
+          rawImage.data[i + 1] = (byte)(frame >>> 8);
+          rawImage.data[i + 2] = (byte)(frame >>> 16);
+        }
+        return rawImage;
+      }
+    });
+    EasyMock.replay(device);
+    return device;
+  }
+
+  public void testMirroring() throws Exception {
+    ScreenMirror mirror = new ScreenMirror(createDevice(null), myListener);
+    mirror.start();
+    try {
+      int lastFrame = -1;
+      for (int i = 0; i < 20; i++) {
+        assertTrue(myFrameAvailable.tryAcquire(10, TimeUnit.SECONDS));
+        BufferedImage image = mirror.takeFrame();
+        assertNotNull(image);
+
+        // Frames may be dropped, but the ones taken are complete and always newer than the previous one
+        int frame = image.getRGB(0, 0) & 0xFFFFFF;
+        assertTrue(frame > lastFrame);
+        assertEquals(image.getRGB(0, 0), image.getRGB(WIDTH - 1, HEIGHT - 1));
+        lastFrame = frame;
+      }
+      assertNull(myError.get());
+    }
+    finally {
+      mirror.stop();
+    }
+  }
+
+  public void testImagesReused() throws Exception {
+    Semaphore screenshotPermits = new Semaphore(0);
+    ScreenMirror mirror = new ScreenMirror(createDevice(screenshotPermits), myListener);
+    mirror.start();
+    try {
+      // Every frame is taken before the next screenshot, so none is dropped and the frames alternate between two images
+      Map<BufferedImage, Boolean> images = new IdentityHashMap<BufferedImage, Boolean>();
+      for (int i = 0; i < 20; i++) {
+        screenshotPermits.release();
+        assertTrue(myFrameAvailable.tryAcquire(10, TimeUnit.SECONDS));
+        BufferedImage image = mirror.takeFrame();
+        assertNotNull(image);
+        assertEquals(i, image.getRGB(0, 0) & 0xFFFFFF);
+        images.put(image, Boolean.TRUE);
+      }
+      assertEquals(2, images.size());
+      assertNull(myError.get());
+    }
+    finally {
+      mirror.stop();
+      screenshotPermits.release();
+    }
+  }
+
+  public void testFailure() throws Exception {
+    IDevice device = EasyMock.createMock(IDevice.class);
+    EasyMock.expect(device.getSerialNumber()).andStubReturn("fake");
+    EasyMock.expect(device.getScreenshot()).andStubThrow(new IOException("device offline"));
+    EasyMock.replay(device);
+
+    ScreenMirror mirror = new ScreenMirror(device, myListener);
+    mirror.start();
+    assertTrue(myFailed.tryAcquire(10, TimeUnit.SECONDS));
+    assertFalse(mirror.isRunning());
+    assertTrue(myError.get().contains("device offline"));
+    assertNull(mirror.takeFrame());
+  }
+}
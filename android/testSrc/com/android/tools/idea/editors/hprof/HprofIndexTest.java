@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.editors.hprof;
+
+import gnu.trove.TLongArrayList;
+import gnu.trove.TLongProcedure;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class HprofIndexTest extends TestCase {
+  private static final int OBJECT_CLASS = 1;
+  private static final int NODE_CLASS = 2;
+  private static final int OBJECT_ARRAY_CLASS = 3;
+
+  private File myFile;
+  private HprofIndex myIndex;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myFile = File.createTempFile("test", ".hprof");
+    writeDump(myFile);
+    myIndex = HprofIndex.open(myFile, null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myIndex.dispose();
+      //noinspection ResultOfMethodCallIgnored
+      myFile.delete();
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testClasses() {
+    // 3 classes, 5 nodes, 1 object array and 1 primitive array
+    assertEquals(10, myIndex.getNodeCount());
+    assertEquals(3, myIndex.getRootCount());
+
+    HprofIndex.ClassInfo node = myIndex.findClass(NODE_CLASS);
+    assertNotNull(node);
+    assertEquals("com.example.Node", node.getName());
+    assertEquals(5, node.getInstanceCount());
+    assertEquals(40, node.getShallowSize());
+    assertEquals("next", node.getFieldNames()[0]);
+    assertEquals("value", node.getFieldNames()[1]);
+    for (int i = 0; i < node.getInstanceCount(); i++) {
+      assertSame(node, myIndex.getClassOf(myIndex.getInstance(node, i)));
+    }
+
+    HprofIndex.ClassInfo array = myIndex.findClass(OBJECT_ARRAY_CLASS);
+    assertNotNull(array);
+    assertEquals("java.lang.Object[]", array.getName());
+    assertEquals(1, array.getInstanceCount());
+
+    boolean foundIntArray = false;
+    for (HprofIndex.ClassInfo classInfo : myIndex.getClasses()) {
+      if (classInfo.getName().equals("int[]")) {
+        assertEquals(1, classInfo.getInstanceCount());
+        assertEquals(16, classInfo.getShallowSize());
+        foundIntArray = true;
+      }
+    }
+    assertTrue(foundIntArray);
+  }
+
+  public void testReferences() {
+    assertEquals(-1, myIndex.getNode(999));
+    assertReferences(myIndex.getNode(10), 11);
+    assertReferences(myIndex.getNode(12), 0);
+    assertReferences(myIndex.getNode(14), 30);
+    assertReferences(myIndex.getNode(40), 10, 13);
+    assertReferences(myIndex.getNode(30));
+    assertReferences(HprofIndex.ROOT_NODE, 10, 13, 14);
+    assertEquals(14, myIndex.getObjectId(myIndex.getNode(14)));
+  }
+
+  public void testRetainedSizes() throws IOException {
+    assertFalse(myIndex.hasRetainedSizes());
+    assertEquals(-1, myIndex.getRetainedSize(myIndex.getNode(10)));
+
+    myIndex.computeRetainedSizes(null);
+    assertTrue(myIndex.hasRetainedSizes());
+    assertEquals(16, myIndex.getRetainedSize(myIndex.getNode(10)));
+    assertEquals(8, myIndex.getRetainedSize(myIndex.getNode(11)));
+    assertEquals(8, myIndex.getRetainedSize(myIndex.getNode(12)));
+    assertEquals(8, myIndex.getRetainedSize(myIndex.getNode(13)));
+    assertEquals(24, myIndex.getRetainedSize(myIndex.getNode(14)));
+    assertEquals(16, myIndex.getRetainedSize(myIndex.getNode(30)));
+    assertEquals(56, myIndex.getRetainedSize(HprofIndex.ROOT_NODE));
+    // Unreachable
+    assertEquals(-1, myIndex.getRetainedSize(myIndex.getNode(40)));
+    assertEquals(-1, myIndex.getRetainedSize(myIndex.getNode(NODE_CLASS)));
+
+    assertEquals(myIndex.getNode(10), myIndex.getImmediateDominator(myIndex.getNode(11)));
+    // Reachable both from 11 and 13
+    assertEquals(HprofIndex.ROOT_NODE, myIndex.getImmediateDominator(myIndex.getNode(12)));
+    assertEquals(myIndex.getNode(14), myIndex.getImmediateDominator(myIndex.getNode(30)));
+    assertEquals(-1, myIndex.getImmediateDominator(HprofIndex.ROOT_NODE));
+  }
+
+  public void testInvalidFile() throws IOException {
+    File file = File.createTempFile("invalid", ".hprof");
+    try {
+      FileOutputStream stream = new FileOutputStream(file);
+      stream.write("Not a heap dump at all".getBytes());
+      stream.close();
+      HprofIndex.open(file, null);
+      fail("Expected IOException");
+    }
+    catch (IOException expected) {
+      // Expected
+    }
+    finally {
+      //noinspection ResultOfMethodCallIgnored
+      file.delete();
+    }
+  }
+
+  private void assertReferences(int node, long... expected) {
+    final TLongArrayList references = new TLongArrayList();
+    myIndex.getReferences(node, new TLongProcedure() {
+      @Override
+      public boolean execute(long id) {
+        references.add(id);
+        return true;
+      }
+    });
+    assertEquals(expected.length, references.size());
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], references.get(i));
+    }
+  }
+
+  /**
+   * Writes a dump with 4 byte ids containing:
+   * <pre>
+   *   roots: 10, 13, 14
+   *   10.next = 11, 11.next = 12, 13.next = 12, 14.next = 30 (int[4])
+   *   40 = Object[] { 10, 13 } (unreachable)
+   * </pre>
+   */
+  private static void writeDump(File file) throws IOException {
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+    try {
+      out.writeBytes("JAVA PROFILE 1.0.3");
+      out.writeByte(0);
+      out.writeInt(4);
+      out.writeLong(0);
+
+      writeString(out, 100, "java/lang/Object");
+      writeString(out, 101, "com/example/Node");
+      writeString(out, 102, "java.lang.Object[]");
+      writeString(out, 103, "next");
+      writeString(out, 104, "value");
+      writeLoadClass(out, OBJECT_CLASS, 100);
+      writeLoadClass(out, NODE_CLASS, 101);
+      writeLoadClass(out, OBJECT_ARRAY_CLASS, 102);
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream heap = new DataOutputStream(bytes);
+      heap.writeByte(0xfe); // HEAP_DUMP_INFO
+      heap.writeInt('A');
+      heap.writeInt(0);
+      writeClassDump(heap, OBJECT_CLASS, 0, new int[0]);
+      writeClassDump(heap, NODE_CLASS, OBJECT_CLASS, new int[]{103, 2, 104, 10});
+      writeClassDump(heap, OBJECT_ARRAY_CLASS, OBJECT_CLASS, new int[0]);
+      writeInstance(heap, 10, 11);
+      writeInstance(heap, 11, 12);
+      writeInstance(heap, 12, 0);
+      writeInstance(heap, 13, 12);
+      writeInstance(heap, 14, 30);
+      heap.writeByte(0x23); // PRIMITIVE_ARRAY_DUMP
+      heap.writeInt(30);
+      heap.writeInt(0);
+      heap.writeInt(4);
+      heap.writeByte(10); // int
+      for (int i = 0; i < 4; i++) {
+        heap.writeInt(i);
+      }
+      heap.writeByte(0x22); // OBJECT_ARRAY_DUMP
+      heap.writeInt(40);
+      heap.writeInt(0);
+      heap.writeInt(2);
+      heap.writeInt(OBJECT_ARRAY_CLASS);
+      heap.writeInt(10);
+      heap.writeInt(13);
+      heap.writeByte(0x01); // ROOT_JNI_GLOBAL
+      heap.writeInt(10);
+      heap.writeInt(0);
+      heap.writeByte(0x03); // ROOT_JAVA_FRAME
+      heap.writeInt(13);
+      heap.writeInt(0);
+      heap.writeInt(0);
+      heap.writeByte(0xff); // ROOT_UNKNOWN
+      heap.writeInt(14);
+      heap.close();
+
+      writeRecord(out, 0x1c, bytes.toByteArray());
+      writeRecord(out, 0x2c, new byte[0]); // HEAP_DUMP_END
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private static void writeRecord(DataOutputStream out, int tag, byte[] body) throws IOException {
+    out.writeByte(tag);
+    out.writeInt(0);
+    out.writeInt(body.length);
+    out.write(body);
+  }
+
+  private static void writeString(DataOutputStream out, int id, String value) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream body = new DataOutputStream(bytes);
+    body.writeInt(id);
+    body.write(value.getBytes("UTF-8"));
+    body.close();
+    writeRecord(out, 0x01, bytes.toByteArray());
+  }
+
+  private static void writeLoadClass(DataOutputStream out, int classId, int nameId) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream body = new DataOutputStream(bytes);
+    body.writeInt(classId);
+    body.writeInt(classId);
+    body.writeInt(0);
+    body.writeInt(nameId);
+    body.close();
+    writeRecord(out, 0x02, bytes.toByteArray());
+  }
+
+  /** Writes a class dump; fields are given as pairs of name id and type */
+  private static void writeClassDump(DataOutputStream heap, int classId, int superClassId, int[] fields) throws IOException {
+    heap.writeByte(0x20);
+    heap.writeInt(classId);
+    heap.writeInt(0);
+    heap.writeInt(superClassId);
+    for (int i = 0; i < 5; i++) {
+      heap.writeInt(0); // loader, signers, protection domain, reserved
+    }
+    heap.writeInt(8);
+    heap.writeShort(0); // constant pool
+    heap.writeShort(0); // statics
+    heap.writeShort(fields.length / 2);
+    for (int i = 0; i < fields.length; i += 2) {
+      heap.writeInt(fields[i]);
+      heap.writeByte(fields[i + 1]);
+    }
+  }
+
+  private static void writeInstance(DataOutputStream heap, int id, int next) throws IOException {
+    heap.writeByte(0x21);
+    heap.writeInt(id);
+    heap.writeInt(0);
+    heap.writeInt(NODE_CLASS);
+    heap.writeInt(8);
+    heap.writeInt(next);
+    heap.writeInt(id * 100);
+  }
+}
@@ -215,6 +215,34 @@ public class AndroidGradleProjectDataTest extends AndroidGradleTestCase {
     assertFalse(newData.applyTo(project));
   }
 
+  public void testStateFileRoundTrip() throws Exception {
+    if (!CAN_SYNC_PROJECTS) {
+      System.err.println("AndroidGradleProjectDataTest.testStateFileRoundTrip temporarily disabled");
+      return;
+    }
+    loadProject("projects/projectWithAppandLib");
+
+    Project project = myAndroidFacet.getModule().getProject();
+    GradleSyncState syncState = GradleSyncState.getInstance(project);
+    long previousSyncTime = syncState.getLastGradleSyncTimestamp();
+
+    AndroidGradleProjectData data = AndroidGradleProjectData.createFrom(project);
+    assertNotNull(data);
+
+    // Modules are only deserialized when the data read from the state file is applied
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    data.saveTo(outputStream);
+    AndroidGradleProjectData restoredData = AndroidGradleProjectData.readFrom(new ByteArrayInputStream(outputStream.toByteArray()));
+    assertNotNull(restoredData);
+    assertEquals(data.getFileChecksums().keySet(), restoredData.getFileChecksums().keySet());
+    assertTrue(restoredData.getModuleData().isEmpty());
+
+    syncState.resetTimestamp();
+    assertTrue(restoredData.applyTo(project));
+    assertEquals(previousSyncTime, syncState.getLastGradleSyncTimestamp());
+    assertEquals(3, restoredData.getModuleData().size());
+  }
+
   interface MyInterface {
     String getString();
 
@@ -15,8 +15,13 @@
  */
 package com.android.tools.idea.memory;
 
+import com.intellij.ui.JBColor;
+import com.intellij.util.ui.EmptyIcon;
 import junit.framework.TestCase;
 
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
 import static com.android.tools.idea.memory.TimelineComponent.formatTime;
 
 public class TimelineComponentTest extends TestCase {
@@ -31,4 +36,53 @@ public class TimelineComponentTest extends TestCase {
     assertEquals("24h 0m 0s", formatTime(86400));
     assertEquals("277h 46m 40s", formatTime(1000000));
   }
+
+  public void testPaintEmpty() {
+    TimelineData data = new TimelineData(2, 10);
+    paint(createComponent(data));
+    data.freeze();
+    paint(createComponent(data));
+  }
+
+  public void testPaintWrapped() {
+    TimelineData data = new TimelineData(2, 10);
+    TimelineComponent component = createComponent(data);
+    long start = data.getStartTime();
+    // An event that starts before the samples still in the buffer and ends in them, then one in progress
+    for (int i = 0; i < 25; i++) {
+      int type = i == 5 || i == 20 ? 3 : i == 17 ? 4 : 1;
+      data.add(start + i * 100, type, 0, 1.0f, 2.0f);
+    }
+    data.freeze();
+    paint(component);
+    component.setDrawDebugInfo(true);
+    paint(component);
+
+    // Only samples of event types that are no longer in the buffer before the visible range
+    data.clear();
+    for (int i = 0; i < 25; i++) {
+      data.add(data.getStartTime() + i * 100, i == 2 ? 3 : 1, 0, 1.0f, 2.0f);
+    }
+    paint(component);
+  }
+
+  private static TimelineComponent createComponent(TimelineData data) {
+    TimelineComponent component = new TimelineComponent(data, 0.0f, 5.0f, 1.0f);
+    component.configureStream(0, "First", new JBColor(Color.BLUE, Color.BLUE));
+    component.configureStream(1, "Second", new JBColor(Color.RED, Color.RED));
+    component.configureEvent(3, 4, 0, EmptyIcon.create(10), Color.GRAY, Color.BLACK);
+    component.setSize(500, 200);
+    return component;
+  }
+
+  private static void paint(TimelineComponent component) {
+    BufferedImage image = new BufferedImage(component.getWidth(), component.getHeight(), BufferedImage.TYPE_INT_ARGB);
+    Graphics graphics = image.getGraphics();
+    try {
+      component.paintComponent(graphics);
+    }
+    finally {
+      graphics.dispose();
+    }
+  }
 }
@@ -79,4 +79,65 @@ public class TimelineDataTest extends TestCase {
     myData.clear();
     assertEquals(0, myData.size());
   }
-}
\ No newline at end of file
+
+  public void testSampleNumbers() throws Exception {
+    long start = myData.getStartTime();
+    assertEquals(2, myData.getCapacity());
+
+    myData.add(start, 1, 10, 1.0f, 2.0f);
+    myData.add(start + 1000, 2, 20, 3.0f, 4.0f);
+    myData.add(start + 2000, 3, 30, 5.0f, 6.0f);
+    assertEquals(3, myData.getSampleCount());
+
+    assertEquals(1.0f, myData.getTime(1), 0.0001f);
+    assertEquals(2, myData.getType(1));
+    assertEquals(20, myData.getId(1));
+    assertEquals(3.0f, myData.getValue(1, 0));
+    assertEquals(4.0f, myData.getValue(1, 1));
+
+    assertEquals(2.0f, myData.getTime(2), 0.0001f);
+    assertEquals(3, myData.getType(2));
+    assertEquals(30, myData.getId(2));
+    assertEquals(5.0f, myData.getValue(2, 0));
+    assertEquals(6.0f, myData.getValue(2, 1));
+
+    myData.clear();
+    assertEquals(0, myData.getSampleCount());
+  }
+
+  public void testFirstSample() throws Exception {
+    long start = myData.getStartTime();
+    assertEquals(0, myData.getFirstSample(myData.getSampleCount()));
+
+    myData.add(start, 0, 0, 1.0f, 2.0f);
+    myData.add(start + 1000, 0, 0, 1.0f, 2.0f);
+    assertEquals(0, myData.getFirstSample(myData.getSampleCount()));
+
+    myData.add(start + 2000, 0, 0, 1.0f, 2.0f);
+    assertEquals(1, myData.getFirstSample(myData.getSampleCount()));
+    // A reader that got its count before the last sample was added doesn't read the slot it was written to
+    assertEquals(1, myData.getFirstSample(2));
+
+    myData.clear();
+    assertEquals(0, myData.getFirstSample(myData.getSampleCount()));
+  }
+
+  public void testLastEventSample() throws Exception {
+    TimelineData data = new TimelineData(1, 4);
+    data.addEventType(3);
+    data.addEventType(4);
+    long start = data.getStartTime();
+    int[] types = {1, 1, 3, 1, 1, 4, 1};
+    for (int i = 0; i < types.length; i++) {
+      data.add(start + i, types[i], 0, 1.0f);
+    }
+    assertEquals(2, data.getLastEventSample(3));
+    assertEquals(2, data.getLastEventSample(4));
+    assertEquals(5, data.getLastEventSample(5));
+    assertEquals(5, data.getLastEventSample(6));
+
+    data.clear();
+    data.add(start, 1, 0, 1.0f);
+    assertEquals(-1, data.getLastEventSample(0));
+  }
+}
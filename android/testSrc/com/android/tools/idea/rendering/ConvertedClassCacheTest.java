@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+
+public class ConvertedClassCacheTest extends TestCase {
+  private static byte[] getClassData() throws Exception {
+    return getClassData(ConvertedClassCacheTest.class);
+  }
+
+  private static byte[] getClassData(Class<?> c) throws Exception {
+    InputStream stream = c.getResourceAsStream(c.getSimpleName() + ".class");
+    assertNotNull(stream);
+    try {
+      return ByteStreams.toByteArray(stream);
+    }
+    finally {
+      stream.close();
+    }
+  }
+
+  public void testMemoryCache() throws Exception {
+    byte[] data = getClassData();
+    byte[] expected = ClassConverter.rewriteClass(data);
+
+    ConvertedClassCache cache = new ConvertedClassCache((File)null);
+    assertTrue(Arrays.equals(expected, cache.rewriteClass(data)));
+    assertTrue(Arrays.equals(expected, cache.rewriteClass(data.clone())));
+    assertEquals(1, cache.getMisses());
+    assertEquals(1, cache.getMemoryHits());
+    assertEquals(0, cache.getDiskHits());
+  }
+
+  public void testDiskCache() throws Exception {
+    byte[] data = getClassData();
+    byte[] expected = ClassConverter.rewriteClass(data);
+
+    File dir = Files.createTempDir();
+    try {
+      ConvertedClassCache cache = new ConvertedClassCache(dir);
+      assertTrue(Arrays.equals(expected, cache.rewriteClass(data)));
+      assertEquals(1, cache.getMisses());
+
+      // A new cache, for example after a restart, reads the converted class back
+      cache = new ConvertedClassCache(dir);
+      assertTrue(Arrays.equals(expected, cache.rewriteClass(data)));
+      assertEquals(0, cache.getMisses());
+      assertEquals(1, cache.getDiskHits());
+      assertTrue(Arrays.equals(expected, cache.rewriteClass(data)));
+      assertEquals(1, cache.getMemoryHits());
+    }
+    finally {
+      FileUtil.delete(dir);
+    }
+  }
+
+  public void testPruneDiskCache() throws Exception {
+    byte[] first = getClassData();
+    byte[] second = getClassData(ClassConverter.class);
+    byte[] third = getClassData(ConvertedClassCache.class);
+
+    File dir = Files.createTempDir();
+    try {
+      // Room for two of the classes, but not for all three
+      long maxSize = ClassConverter.rewriteClass(first).length + ClassConverter.rewriteClass(second).length +
+                     ClassConverter.rewriteClass(third).length - 1;
+      ConvertedClassCache cache = new ConvertedClassCache(dir, maxSize);
+      cache.rewriteClass(first);
+      cache.rewriteClass(second);
+      assertEquals(2, dir.listFiles().length);
+
+      // Using the second class makes the first one the least recently used, so it is deleted when the third one is written
+      long now = System.currentTimeMillis();
+      for (File file : dir.listFiles()) {
+        assertTrue(file.setLastModified(now - 60000));
+      }
+      cache = new ConvertedClassCache(dir, maxSize);
+      cache.rewriteClass(second);
+      assertEquals(1, cache.getDiskHits());
+      cache.rewriteClass(third);
+
+      long size = 0;
+      for (File file : dir.listFiles()) {
+        size += file.length();
+      }
+      assertTrue(size <= maxSize * 3 / 4);
+
+      cache = new ConvertedClassCache(dir, maxSize);
+      cache.rewriteClass(first);
+      assertEquals(1, cache.getMisses());
+      assertEquals(0, cache.getDiskHits());
+    }
+    finally {
+      FileUtil.delete(dir);
+    }
+  }
+
+  public void testDeleteUnusedDirectories() throws Exception {
+    File dir = Files.createTempDir();
+    try {
+      File unused = new File(dir, "unused_1234");
+      File used = new File(dir, "used_5678");
+      assertTrue(unused.mkdir());
+      assertTrue(used.mkdir());
+      long now = System.currentTimeMillis();
+      assertTrue(unused.setLastModified(now - ConvertedClassCache.MAX_UNUSED_AGE_MS - 60000));
+
+      ConvertedClassCache.deleteUnusedDirectories(dir, now - ConvertedClassCache.MAX_UNUSED_AGE_MS);
+      assertFalse(unused.exists());
+      assertTrue(used.exists());
+    }
+    finally {
+      FileUtil.delete(dir);
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.android.AndroidTestCase;
+
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+public class GutterIconCacheTest extends AndroidTestCase {
+  public void testModifiedImage() throws Exception {
+    File image = FileUtil.createTempFile("icon", ".png");
+    try {
+      writeImage(image, 8);
+      VirtualFile file = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(image);
+      assertNotNull(file);
+
+      GutterIconCache cache = new GutterIconCache();
+      Icon icon = waitForIcon(cache, file);
+      assertEquals(8, icon.getIconHeight());
+      assertSame(icon, cache.getIcon(file));
+
+      writeImage(image, 12);
+      file.refresh(false, false);
+      assertNotSame(icon, cache.getIcon(file));
+      assertEquals(12, waitForIcon(cache, file).getIconHeight());
+    }
+    finally {
+      FileUtil.delete(image);
+    }
+  }
+
+  private static void writeImage(File file, int size) throws Exception {
+    assertTrue(ImageIO.write(new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB), "PNG", file));
+    // Make sure the refresh sees the change even if the time stamp resolution is coarse
+    assertTrue(file.setLastModified(file.lastModified() + 2000));
+  }
+
+  private static Icon waitForIcon(GutterIconCache cache, VirtualFile file) throws Exception {
+    for (int i = 0; i < 100; i++) {
+      Icon icon = cache.getIcon(file);
+      assertNotNull(icon);
+      if (icon != GutterIconCache.LOADING) {
+        return icon;
+      }
+      Thread.sleep(50);
+    }
+    fail("Icon was not decoded");
+    return null;
+  }
+}
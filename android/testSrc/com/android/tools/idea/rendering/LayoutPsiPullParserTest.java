@@ -16,6 +16,7 @@
 package com.android.tools.idea.rendering;
 
 import com.android.resources.ResourceFolderType;
+import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
@@ -77,6 +78,50 @@ public class LayoutPsiPullParserTest extends AndroidTestCase {
     assertNull(parser.getAttributeValue(ANDROID_URI, "fastScrollAlwaysVisible")); // Cleared by overriding defined framework attribute
   }
 
+  public void testSharedSnapshots() throws Exception {
+    @SuppressWarnings("SpellCheckingInspection")
+    VirtualFile virtualFile = myFixture.copyFileToProject("xmlpull/designtime.xml", "res/layout/designtime.xml");
+    assertNotNull(virtualFile);
+    PsiFile psiFile = PsiManager.getInstance(getProject()).findFile(virtualFile);
+    assertTrue(psiFile instanceof XmlFile);
+    XmlFile xmlFile = (XmlFile)psiFile;
+    LayoutPsiPullParser parser = LayoutPsiPullParser.create(xmlFile, new RenderLogger("test", myModule));
+    assertEquals("Layout snapshot: created=5, reused=0", parser.getSnapshotStatistics());
+
+    // Nothing changed: the whole snapshot is reused
+    parser = LayoutPsiPullParser.create(xmlFile, new RenderLogger("test", myModule));
+    assertEquals("Layout snapshot: created=0, reused=1", parser.getSnapshotStatistics());
+
+    // Edit the second text view: only it and the root are snapshotted again
+    XmlTag root = xmlFile.getRootTag();
+    assertNotNull(root);
+    final XmlTag second = root.getSubTags()[1];
+    WriteCommandAction.runWriteCommandAction(getProject(), new Runnable() {
+      @Override
+      public void run() {
+        second.setAttribute(ATTR_LAYOUT_GRAVITY, ANDROID_URI, "right");
+      }
+    });
+    parser = LayoutPsiPullParser.create(xmlFile, new RenderLogger("test", myModule));
+    assertEquals("Layout snapshot: created=2, reused=3", parser.getSnapshotStatistics());
+    assertEquals(START_TAG, parser.nextTag());
+    assertEquals("LinearLayout", parser.getName());
+    assertEquals(START_TAG, parser.nextTag());
+    assertEquals("@+id/first", parser.getAttributeValue(ANDROID_URI, ATTR_ID));
+    assertEquals(END_TAG, parser.nextTag());
+    assertEquals(START_TAG, parser.nextTag());
+    assertEquals("@+id/second", parser.getAttributeValue(ANDROID_URI, ATTR_ID));
+    assertEquals("right", parser.getAttributeValue(ANDROID_URI, ATTR_LAYOUT_GRAVITY));
+    assertEquals(END_TAG, parser.nextTag());
+    assertEquals(START_TAG, parser.nextTag());
+    assertEquals("@+id/blank", parser.getAttributeValue(ANDROID_URI, ATTR_ID));
+    assertEquals(END_TAG, parser.nextTag());
+    assertEquals(START_TAG, parser.nextTag());
+    assertEquals("@+id/listView", parser.getAttributeValue(ANDROID_URI, ATTR_ID));
+    assertEquals(END_TAG, parser.nextTag());
+    assertEquals(END_TAG, parser.nextTag());
+  }
+
   public void testRootFragment() throws Exception {
     @SuppressWarnings("SpellCheckingInspection")
     VirtualFile virtualFile = myFixture.copyFileToProject("xmlpull/root_fragment.xml", "res/layout/root_fragment.xml");
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.tools.idea.rendering.RenderScheduler.Priority;
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class RenderSchedulerTest extends TestCase {
+  public void testSeparateLibrariesDoNotBlock() {
+    RenderScheduler scheduler = new RenderScheduler();
+    Object library1 = new Object();
+    Object library2 = new Object();
+    RenderScheduler.Ticket ticket1 = scheduler.acquire(library1, Priority.FOREGROUND, null);
+    assertNotNull(ticket1);
+    // Reentrant
+    RenderScheduler.Ticket nested = scheduler.acquire(library1, Priority.FOREGROUND, null);
+    assertNotNull(nested);
+    nested.release();
+
+    final AtomicReference<RenderScheduler.Ticket> other = new AtomicReference<RenderScheduler.Ticket>();
+    Thread thread = startAcquire(scheduler, library2, Priority.OFFSCREEN_THUMBNAIL, null, other, null);
+    join(thread);
+    assertNotNull(other.get());
+    ticket1.release();
+  }
+
+  public void testPriorityOrder() throws Exception {
+    final RenderScheduler scheduler = new RenderScheduler();
+    final Object library = new Object();
+    RenderScheduler.Ticket ticket = scheduler.acquire(library, Priority.FOREGROUND, null);
+    assertNotNull(ticket);
+
+    List<Priority> order = new CopyOnWriteArrayList<Priority>();
+    Thread offscreen = startAcquire(scheduler, library, Priority.OFFSCREEN_THUMBNAIL, null, null, order);
+    waitForQueue(scheduler, Priority.OFFSCREEN_THUMBNAIL, 1);
+    Thread visible = startAcquire(scheduler, library, Priority.VISIBLE_THUMBNAIL, null, null, order);
+    waitForQueue(scheduler, Priority.VISIBLE_THUMBNAIL, 1);
+
+    ticket.release();
+    join(offscreen);
+    join(visible);
+    assertEquals(2, order.size());
+    assertEquals(Priority.VISIBLE_THUMBNAIL, order.get(0));
+    assertEquals(Priority.OFFSCREEN_THUMBNAIL, order.get(1));
+  }
+
+  public void testSupersede() throws Exception {
+    RenderScheduler scheduler = new RenderScheduler();
+    Object library = new Object();
+    Object key = new Object();
+    RenderScheduler.Ticket ticket = scheduler.acquire(library, Priority.FOREGROUND, null);
+    assertNotNull(ticket);
+
+    List<Priority> order = new CopyOnWriteArrayList<Priority>();
+    AtomicReference<RenderScheduler.Ticket> first = new AtomicReference<RenderScheduler.Ticket>();
+    Thread older = startAcquire(scheduler, library, Priority.VISIBLE_THUMBNAIL, key, first, order);
+    waitForQueue(scheduler, Priority.VISIBLE_THUMBNAIL, 1);
+    AtomicReference<RenderScheduler.Ticket> second = new AtomicReference<RenderScheduler.Ticket>();
+    Thread newer = startAcquire(scheduler, library, Priority.VISIBLE_THUMBNAIL, key, second, order);
+    join(older);
+    assertNull(first.get());
+
+    ticket.release();
+    join(newer);
+    assertEquals(Collections.singletonList(Priority.VISIBLE_THUMBNAIL), order);
+    assertTrue(scheduler.getStatistics().contains("cancelled=1"));
+  }
+
+  private static Thread startAcquire(final RenderScheduler scheduler, final Object library, final Priority priority, final Object key,
+                                     final AtomicReference<RenderScheduler.Ticket> result, final List<Priority> order) {
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        RenderScheduler.Ticket ticket = scheduler.acquire(library, priority, key);
+        if (result != null) {
+          result.set(ticket);
+        }
+        if (ticket != null) {
+          if (order != null) {
+            order.add(priority);
+          }
+          if (result == null) {
+            ticket.release();
+          }
+        }
+      }
+    };
+    thread.start();
+    return thread;
+  }
+
+  private static void waitForQueue(RenderScheduler scheduler, Priority priority, int depth) throws InterruptedException {
+    for (int i = 0; i < 500 && scheduler.getQueueDepth(priority) < depth; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(depth, scheduler.getQueueDepth(priority));
+  }
+
+  private static void join(Thread thread) {
+    try {
+      thread.join(5000);
+    }
+    catch (InterruptedException e) {
+      fail(e.toString());
+    }
+    assertFalse(thread.isAlive());
+  }
+}
@@ -21,9 +21,11 @@ import com.android.ide.common.res2.ResourceItem;
 import com.android.resources.Density;
 import com.android.resources.ResourceFolderType;
 import com.android.resources.ResourceType;
+import com.google.common.collect.Lists;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiDirectory;
 import com.intellij.psi.PsiDocumentManager;
@@ -40,10 +42,16 @@ import org.jetbrains.annotations.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static com.android.SdkConstants.*;
 import static com.android.tools.idea.rendering.ResourceFolderRepository.ourFullRescans;
+import static com.android.tools.idea.rendering.ResourceFolderRepository.ourSnapshotHits;
+import static com.android.tools.idea.rendering.ResourceFolderRepository.ourSnapshotMisses;
+import static com.android.tools.idea.rendering.ResourceFolderRepository.ourSnapshotsEnabled;
 
 /**
  * TODO: Add XmlTags with Psi events to check childAdded etc working correctly! Currently they mostly seem to generate big rescans.
@@ -1025,6 +1033,46 @@ public class ResourceFolderRepositoryTest extends AndroidTestCase {
     ensureIncremental();
   }
 
+  public void testChangesSinceEditValueText() throws Exception {
+    VirtualFile file1 = myFixture.copyFileToProject(VALUES1, "res/values/myvalues.xml");
+    PsiFile psiFile1 = PsiManager.getInstance(getProject()).findFile(file1);
+    assertNotNull(psiFile1);
+
+    ResourceFolderRepository resources = createRepository();
+    assertNotNull(resources);
+    long stamp = resources.getChangeStamp();
+    Map<ResourceType, Set<String>> changes = resources.getChangesSince(stamp);
+    assertNotNull(changes);
+    assertTrue(changes.isEmpty());
+
+    // Observe the value such that edits to it are reported
+    List<ResourceItem> labelList = resources.getResourceItem(ResourceType.STRING, "title_screen_slide");
+    assertNotNull(labelList);
+    assertNotNull(labelList.get(0).getResourceValue(false));
+
+    final PsiDocumentManager documentManager = PsiDocumentManager.getInstance(getProject());
+    final Document document = documentManager.getDocument(psiFile1);
+    assertNotNull(document);
+    final int screenSlideOffset = document.getText().indexOf("Screen Slide");
+    WriteCommandAction.runWriteCommandAction(null, new Runnable() {
+      @Override
+      public void run() {
+        document.replaceString(screenSlideOffset + 3, screenSlideOffset + 3, "e");
+        documentManager.commitDocument(document);
+      }
+    });
+
+    changes = resources.getChangesSince(stamp);
+    assertNotNull(changes);
+    assertEquals(Collections.singleton(ResourceType.STRING), changes.keySet());
+    assertEquals(Collections.singleton("title_screen_slide"), changes.get(ResourceType.STRING));
+
+    // Nothing changed since the current stamp
+    changes = resources.getChangesSince(resources.getChangeStamp());
+    assertNotNull(changes);
+    assertTrue(changes.isEmpty());
+  }
+
   public void testNestedEditValueText() throws Exception {
     resetScanCounter();
 
@@ -2090,6 +2138,113 @@ public class ResourceFolderRepositoryTest extends AndroidTestCase {
                  resources.getResourceItem(ResourceType.STRING, "app_name").get(0).getResourceValue(false).getValue());
   }
 
+  public void testRestoreFromSnapshot() throws Exception {
+    myFixture.copyFileToProject(VALUES1, "res/values/myvalues.xml");
+    myFixture.copyFileToProject(LAYOUT1, "res/layout/layout1.xml");
+    VirtualFile dir = getResourceDirectory();
+    File snapshotFile = ResourceFolderSnapshot.getSnapshotFile(dir);
+    FileUtil.delete(snapshotFile);
+    ourSnapshotsEnabled = true;
+    try {
+      // The first scan goes through PSI and writes the snapshot
+      resetSnapshotCounters();
+      ResourceFolderRepository.create(myFacet, dir);
+      assertEquals(0, ourSnapshotHits);
+      assertEquals(2, ourSnapshotMisses);
+      assertTrue(snapshotFile.exists());
+
+      // The second scan restores both files from the snapshot
+      resetSnapshotCounters();
+      ResourceFolderRepository resources = ResourceFolderRepository.create(myFacet, dir);
+      assertEquals(2, ourSnapshotHits);
+      assertEquals(0, ourSnapshotMisses);
+      assertTrue(resources.hasResourceItem(ResourceType.LAYOUT, "layout1"));
+      assertTrue(resources.hasResourceItem(ResourceType.ID, "action_next"));
+
+      // The tag of a restored value is only looked up when the value is requested
+      List<ResourceItem> items = resources.getResourceItem(ResourceType.STRING, "title_template_step");
+      assertNotNull(items);
+      assertEquals(1, items.size());
+      PsiResourceItem item = (PsiResourceItem)items.get(0);
+      ResourceValue resourceValue = item.getResourceValue(false);
+      assertNotNull(resourceValue);
+      assertEquals("Step ${step_number}: Lorem Ipsum", resourceValue.getValue());
+      XmlTag tag = item.getTag();
+      assertNotNull(tag);
+      assertEquals("title_template_step", tag.getAttributeValue(ATTR_NAME));
+    }
+    finally {
+      ourSnapshotsEnabled = false;
+      FileUtil.delete(snapshotFile);
+    }
+  }
+
+  public void testStaleSnapshot() throws Exception {
+    VirtualFile file = myFixture.copyFileToProject(VALUES1, "res/values/myvalues.xml");
+    PsiFile psiFile = PsiManager.getInstance(getProject()).findFile(file);
+    assertNotNull(psiFile);
+    VirtualFile dir = getResourceDirectory();
+    File snapshotFile = ResourceFolderSnapshot.getSnapshotFile(dir);
+    FileUtil.delete(snapshotFile);
+    ourSnapshotsEnabled = true;
+    try {
+      ResourceFolderRepository.create(myFacet, dir);
+
+      // Point one of the strings at the wrong tag, as if the file had been edited without changing its stamps
+      Map<String, ResourceFolderSnapshot.FileEntry> snapshot = ResourceFolderSnapshot.read(snapshotFile, dir.getPath());
+      assertNotNull(snapshot);
+      List<ResourceFolderSnapshot.FileEntry> entries = Lists.newArrayList();
+      for (ResourceFolderSnapshot.FileEntry entry : snapshot.values()) {
+        List<ResourceFolderSnapshot.ItemEntry> itemEntries = Lists.newArrayList();
+        for (ResourceFolderSnapshot.ItemEntry itemEntry : entry.items) {
+          if (itemEntry.name.equals("title_zoom")) {
+            itemEntry = new ResourceFolderSnapshot.ItemEntry(itemEntry.type, itemEntry.name, new int[]{0});
+          }
+          itemEntries.add(itemEntry);
+        }
+        entries.add(new ResourceFolderSnapshot.FileEntry(entry.folderName, entry.fileName, entry.timeStamp, entry.length, itemEntries));
+      }
+      ResourceFolderSnapshot.write(snapshotFile, dir.getPath(), entries);
+
+      resetSnapshotCounters();
+      ResourceFolderRepository resources = ResourceFolderRepository.create(myFacet, dir);
+      assertEquals(1, ourSnapshotHits);
+
+      // The stale item has no value rather than a wrong one, and the file is rescanned through PSI
+      List<ResourceItem> items = resources.getResourceItem(ResourceType.STRING, "title_zoom");
+      assertNotNull(items);
+      assertEquals(1, items.size());
+      assertNull(items.get(0).getResourceValue(false));
+      assertTrue(resources.isScanPending(psiFile));
+      assertFalse(snapshotFile.exists());
+
+      UIUtil.dispatchAllInvocationEvents();
+      assertFalse(resources.isScanPending(psiFile));
+      items = resources.getResourceItem(ResourceType.STRING, "title_zoom");
+      assertNotNull(items);
+      assertEquals(1, items.size());
+      ResourceValue resourceValue = items.get(0).getResourceValue(false);
+      assertNotNull(resourceValue);
+      assertEquals("Zoom", resourceValue.getValue());
+    }
+    finally {
+      ourSnapshotsEnabled = false;
+      FileUtil.delete(snapshotFile);
+    }
+  }
+
+  private VirtualFile getResourceDirectory() {
+    List<VirtualFile> resourceDirectories = myFacet.getAllResourceDirectories();
+    assertNotNull(resourceDirectories);
+    assertSize(1, resourceDirectories);
+    return resourceDirectories.get(0);
+  }
+
+  private static void resetSnapshotCounters() {
+    ourSnapshotHits = 0;
+    ourSnapshotMisses = 0;
+  }
+
   @Nullable
   private static XmlTag findTagById(@NotNull PsiFile file, @NotNull String id) {
     assertFalse(id.startsWith(PREFIX_RESOURCE_REF)); // just the id
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.resources.ResourceType;
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+public class ResourceFolderSnapshotTest extends TestCase {
+  public void testRoundTrip() throws Exception {
+    File dir = FileUtil.createTempDirectory("snapshot", null);
+    try {
+      File file = new File(dir, "res.bin");
+      ResourceFolderSnapshot.FileEntry values = new ResourceFolderSnapshot.FileEntry(
+        "values-en", "strings.xml", 1234L, 56L,
+        Arrays.asList(new ResourceFolderSnapshot.ItemEntry(ResourceType.STRING, "app_name", new int[]{0}),
+                      new ResourceFolderSnapshot.ItemEntry(ResourceType.DECLARE_STYLEABLE, "MyView", new int[]{1}),
+                      new ResourceFolderSnapshot.ItemEntry(ResourceType.ATTR, "myAttr", new int[]{1, 0})));
+      ResourceFolderSnapshot.FileEntry layout = new ResourceFolderSnapshot.FileEntry(
+        "layout", "main.xml", 42L, 7L,
+        Arrays.asList(new ResourceFolderSnapshot.ItemEntry(ResourceType.LAYOUT, "main", null),
+                      new ResourceFolderSnapshot.ItemEntry(ResourceType.ID, "button", null)));
+      ResourceFolderSnapshot.write(file, "/project/res", Arrays.asList(values, layout));
+
+      Map<String, ResourceFolderSnapshot.FileEntry> map = ResourceFolderSnapshot.read(file, "/project/res");
+      assertNotNull(map);
+      assertEquals(2, map.size());
+
+      ResourceFolderSnapshot.FileEntry entry = map.get("values-en/strings.xml");
+      assertNotNull(entry);
+      assertEquals(1234L, entry.timeStamp);
+      assertEquals(56L, entry.length);
+      assertEquals(3, entry.items.size());
+      assertEquals(ResourceType.ATTR, entry.items.get(2).type);
+      assertEquals("myAttr", entry.items.get(2).name);
+      assertTrue(Arrays.equals(new int[]{1, 0}, entry.items.get(2).tagPath));
+
+      entry = map.get("layout/main.xml");
+      assertNotNull(entry);
+      assertEquals(ResourceType.ID, entry.items.get(1).type);
+      assertNull(entry.items.get(1).tagPath);
+
+      // Snapshots for other directories are ignored
+      assertNull(ResourceFolderSnapshot.read(file, "/other/res"));
+    }
+    finally {
+      FileUtil.delete(dir);
+    }
+  }
+
+  public void testCorrupt() throws Exception {
+    File dir = FileUtil.createTempDirectory("snapshot", null);
+    try {
+      File file = new File(dir, "res.bin");
+      assertNull(ResourceFolderSnapshot.read(file, "/project/res"));
+      FileUtil.writeToFile(file, "not a snapshot");
+      assertNull(ResourceFolderSnapshot.read(file, "/project/res"));
+
+      ResourceFolderSnapshot.write(file, "/project/res", Collections.<ResourceFolderSnapshot.FileEntry>emptyList());
+      Map<String, ResourceFolderSnapshot.FileEntry> map = ResourceFolderSnapshot.read(file, "/project/res");
+      assertNotNull(map);
+      assertTrue(map.isEmpty());
+    }
+    finally {
+      FileUtil.delete(dir);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android;
+
+import com.intellij.ide.highlighter.XmlFileType;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiFileFactory;
+import org.jetbrains.android.util.ResourceEntry;
+
+import java.util.Map;
+import java.util.Set;
+
+public class AndroidValueResourcesIndexTest extends AndroidTestCase {
+  private static final Logger LOG = Logger.getInstance(AndroidValueResourcesIndexTest.class);
+
+  private static final String VALUES =
+    "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+    "<!-- <string name=\"commented\">Not a resource</string> -->\n" +
+    "<resources xmlns:xliff=\"urn:oasis:names:tc:xliff:document:1.2\">\n" +
+    "    <string name=\"app_name\">App</string>\n" +
+    "    <string name = 'quoted' >Single quotes</string>\n" +
+    "    <string name=\"xliff\">Hello <xliff:g id=\"name\" example=\"Bob\">%s</xliff:g>, 1 &lt; 2</string>\n" +
+    "    <string name=\"cdata\"><![CDATA[<b name=\"fake\">bold</b>]]></string>\n" +
+    "    <item name=\"my_id\" type=\"id\"/>\n" +
+    "    <item type=\"dimen\" name=\"my_dimen\">5dp</item>\n" +
+    "    <dimen name=\"margin\">16dp</dimen>\n" +
+    "    <string-array name=\"planets\">\n" +
+    "        <item>Mercury</item>\n" +
+    "    </string-array>\n" +
+    "    <declare-styleable name=\"MyView\">\n" +
+    "        <attr name=\"myAttr\" format=\"boolean\" />\n" +
+    "        <attr name=\"myEnum\">\n" +
+    "            <enum name=\"one\" value=\"1\"/>\n" +
+    "        </attr>\n" +
+    "    </declare-styleable>\n" +
+    "    <attr name=\"topLevel\" format=\"string\"/>\n" +
+    "    <style name=\"AppTheme\" parent=\"android:Theme.Holo\">\n" +
+    "        <item name=\"android:windowNoTitle\">true</item>\n" +
+    "    </style>\n" +
+    "    <unknown name=\"ignored\"/>\n" +
+    "</resources>\n";
+
+  public void testSameAsPsi() {
+    assertSameAsPsi(VALUES);
+  }
+
+  public void testNotResources() {
+    assertTrue(AndroidValueResourcesIndex.mapText("<LinearLayout/>").isEmpty());
+    assertTrue(AndroidValueResourcesIndex.mapText("<foo><resources><string name=\"a\">a</string></resources></foo>").isEmpty());
+    assertSameAsPsi("<foo><resources><string name=\"a\">a</string></resources></foo>");
+  }
+
+  /**
+   * Compares the streaming indexer with the PSI based one on a synthetic project of 500 values files,
+   * and logs the time each takes
+   */
+  public void testBenchmark() {
+    String[] files = new String[500];
+    for (int i = 0; i < files.length; i++) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<resources>\n");
+      for (int j = 0; j < 200; j++) {
+        sb.append("    <string name=\"string_").append(j).append("\">Translation ").append(i).append(" of string ").append(j);
+        sb.append("</string>\n");
+      }
+      sb.append("    <declare-styleable name=\"View").append(i).append("\">\n");
+      sb.append("        <attr name=\"attr").append(i).append("\" format=\"dimension\"/>\n");
+      sb.append("    </declare-styleable>\n");
+      sb.append("</resources>\n");
+      files[i] = sb.toString();
+    }
+
+    PsiFileFactory factory = PsiFileFactory.getInstance(getProject());
+    long psiTime = 0;
+    long textTime = 0;
+    for (int i = 0; i < files.length; i++) {
+      long start = System.nanoTime();
+      PsiFile file = factory.createFileFromText("strings" + i + ".xml", XmlFileType.INSTANCE, files[i]);
+      Map<ResourceEntry, Set<AndroidValueResourcesIndex.MyResourceInfo>> expected = AndroidValueResourcesIndex.mapPsi(file);
+      psiTime += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      Map<ResourceEntry, Set<AndroidValueResourcesIndex.MyResourceInfo>> actual = AndroidValueResourcesIndex.mapText(files[i]);
+      textTime += System.nanoTime() - start;
+
+      assertEquals(expected, actual);
+    }
+    LOG.info(String.format("Indexed %1$d values files: PSI %2$dms, streaming %3$dms", files.length, psiTime / 1000000,
+                           textTime / 1000000));
+  }
+
+  private void assertSameAsPsi(String text) {
+    PsiFile file = PsiFileFactory.getInstance(getProject()).createFileFromText("values.xml", XmlFileType.INSTANCE, text);
+    Map<ResourceEntry, Set<AndroidValueResourcesIndex.MyResourceInfo>> expected = AndroidValueResourcesIndex.mapPsi(file);
+    Map<ResourceEntry, Set<AndroidValueResourcesIndex.MyResourceInfo>> actual = AndroidValueResourcesIndex.mapText(text);
+    assertEquals(expected, actual);
+  }
+}
@@ -15,15 +15,20 @@
  */
 package org.jetbrains.android.facet;
 
+import com.android.SdkConstants;
 import com.android.builder.model.AndroidArtifact;
 import com.android.tools.idea.gradle.GradleSyncState;
 import com.android.tools.idea.gradle.IdeaAndroidProject;
 import com.android.tools.idea.gradle.project.GradleSyncListener;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.psi.PsiClass;
 import org.jetbrains.android.AndroidTestCase;
 import org.jetbrains.jps.android.model.impl.JpsAndroidModuleProperties;
 
+import java.util.Map;
+
 import static org.easymock.classextension.EasyMock.*;
 
 /**
@@ -110,4 +115,28 @@ public class AndroidFacetTest extends AndroidTestCase {
 
     verify(mainArtifact);
   }
+
+  public void testClassMapTracksAddedAndRemovedSubclasses() throws Exception {
+    SimpleClassMapConstructor constructor = SimpleClassMapConstructor.getInstance();
+    Map<String, PsiClass> classMap = myFacet.getClassMap(SdkConstants.CLASS_VIEW, constructor);
+    assertTrue(classMap.containsKey("View"));
+    assertFalse(classMap.containsKey("p1.p2.MyView"));
+
+    final PsiClass myView = myFixture.addClass("package p1.p2; public class MyView extends android.view.View {}");
+    myFixture.addClass("package p1.p2; public class NotAView {}");
+    classMap = myFacet.getClassMap(SdkConstants.CLASS_VIEW, constructor);
+    assertTrue(classMap.containsKey("p1.p2.MyView"));
+    assertFalse(classMap.containsKey("p1.p2.NotAView"));
+    assertTrue(classMap.containsKey("View"));
+
+    new WriteCommandAction.Simple(getProject()) {
+      @Override
+      protected void run() throws Throwable {
+        myView.getContainingFile().delete();
+      }
+    }.execute();
+    classMap = myFacet.getClassMap(SdkConstants.CLASS_VIEW, constructor);
+    assertFalse(classMap.containsKey("p1.p2.MyView"));
+    assertTrue(classMap.containsKey("View"));
+  }
 }
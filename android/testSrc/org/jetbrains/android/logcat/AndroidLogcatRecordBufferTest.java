@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.logcat;
+
+import com.android.ddmlib.Log;
+import com.intellij.openapi.util.Pair;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+import junit.framework.TestCase;
+import org.jetbrains.android.logcat.AndroidLogcatReceiver.LogMessageHeader;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AndroidLogcatRecordBufferTest extends TestCase {
+  public void testSameAsParsed() {
+    StringWriter writer = new StringWriter();
+    AndroidLogcatRecordBuffer records = new AndroidLogcatRecordBuffer();
+    AndroidLogcatReceiver receiver = new AndroidLogcatReceiver(null, writer, records);
+    String[] lines = new String[] {
+      "[ 08-11 19:11:07.132   495:0x1ef D/dtag     ]",
+      "debug message",
+      "[ 02-11 18:03:35.037 19796:19796 E/AndroidRuntime ]",
+      "FATAL EXCEPTION: main",
+      "java.lang.RuntimeException: Unable to <snip>: j.l.Exception",
+      "at android..performLaunchActivity(ActivityThread.java:2180)",
+      "[ 08-11 21:15:35.7524  540:0x21c D/debug tag    ]",
+      "debug message",
+    };
+    for (String line : lines) {
+      receiver.processNewLine(line);
+    }
+    assertEquals(3, records.size());
+
+    int found = 0;
+    for (String line : writer.toString().split("\n")) {
+      Pair<LogMessageHeader, String> expected = AndroidLogcatFormatter.parseMessage(line);
+      AndroidLogcatRecordBuffer.Record actual = records.find(line);
+      if (expected.getFirst() == null) {
+        assertNull(actual);
+        continue;
+      }
+      assertNotNull(actual);
+      found++;
+      assertEquals(expected.getSecond(), actual.message);
+      LogMessageHeader expectedHeader = expected.getFirst();
+      LogMessageHeader actualHeader = actual.header;
+      assertEquals(expectedHeader.myTime, actualHeader.myTime);
+      assertEquals(expectedHeader.myLogLevel, actualHeader.myLogLevel);
+      assertEquals(expectedHeader.myPid, actualHeader.myPid);
+      assertEquals(expectedHeader.myTid, actualHeader.myTid);
+      assertEquals(expectedHeader.myAppPackage, actualHeader.myAppPackage);
+      assertEquals(expectedHeader.myTag, actualHeader.myTag);
+    }
+    assertEquals(3, found);
+  }
+
+  public void testEviction() {
+    StringWriter writer = new StringWriter();
+    AndroidLogcatRecordBuffer records = new AndroidLogcatRecordBuffer(2);
+    AndroidLogcatReceiver receiver = new AndroidLogcatReceiver(null, writer, records);
+    for (int i = 0; i < 3; i++) {
+      receiver.processNewLine("[ 08-11 19:11:07.132   495:0x1ef D/tag     ]");
+      receiver.processNewLine("message " + i);
+    }
+    assertEquals(2, records.size());
+    String[] output = writer.toString().split("\n");
+    assertNull(records.find(output[0]));
+    assertNotNull(records.find(output[1]));
+    assertNotNull(records.find(output[2]));
+    assertEquals("message 2", records.find(output[2]).message);
+
+    // Same text, different line
+    assertNull(records.find(output[2] + " "));
+
+    records.clear();
+    assertEquals(0, records.size());
+    assertNull(records.find(output[2]));
+  }
+
+  public void testMatch() {
+    AndroidLogcatRecordBuffer records = new AndroidLogcatRecordBuffer(3);
+    String[] lines = new String[] {
+      add(records, Log.LogLevel.DEBUG, 100, "com.example.a", "tagA", "first message"),
+      add(records, Log.LogLevel.ERROR, 200, "com.example.b", "tagB", "second message"),
+      add(records, Log.LogLevel.WARN, 100, "com.example.a", "tagB", "third message"),
+      add(records, Log.LogLevel.INFO, 300, "", "tagC", "fourth message"),
+    };
+    assertNull(records.find(lines[0]));
+
+    AndroidLogcatRecordBuffer.Matches matches = records.match(Log.LogLevel.WARN, null);
+    assertFalse(matches.isLevelMatch(records.find(lines[3])));
+    assertTrue(matches.isLevelMatch(records.find(lines[1])));
+    assertTrue(matches.isLevelMatch(records.find(lines[2])));
+    assertTrue(matches.isFilterMatch(records.find(lines[3])));
+
+    matches = records.match(null, createFilter(null, "tagB", "example", "100"));
+    assertTrue(matches.isLevelMatch(records.find(lines[1])));
+    assertFalse(matches.isFilterMatch(records.find(lines[1])));
+    assertTrue(matches.isFilterMatch(records.find(lines[2])));
+    assertFalse(matches.isFilterMatch(records.find(lines[3])));
+
+    matches = records.match(null, createFilter("^(second|fourth)", null, null, null));
+    assertTrue(matches.isFilterMatch(records.find(lines[1])));
+    assertFalse(matches.isFilterMatch(records.find(lines[2])));
+    assertTrue(matches.isFilterMatch(records.find(lines[3])));
+
+    // Empty packages are stored as "?", like parseMessage returns them
+    matches = records.match(null, createFilter(null, null, "\\?", null));
+    assertTrue(matches.isFilterMatch(records.find(lines[3])));
+    assertFalse(matches.isFilterMatch(records.find(lines[2])));
+
+    // Records added later are not covered
+    String line = add(records, Log.LogLevel.ERROR, 200, "com.example.b", "tagB", "fifth message");
+    assertFalse(matches.covers(records.find(line)));
+    assertTrue(matches.covers(records.find(lines[3])));
+    records.clear();
+    line = add(records, Log.LogLevel.ERROR, 200, "com.example.b", "tagB", "sixth message");
+    assertFalse(matches.covers(records.find(line)));
+  }
+
+  public void testTextFilter() {
+    AndroidLogcatRecordBuffer records = new AndroidLogcatRecordBuffer(10);
+    String line = add(records, Log.LogLevel.DEBUG, 100, "com.example.a", "tagA", "message");
+    AndroidLogcatRecordBuffer.Record record = records.find(line);
+    assertNotNull(record);
+
+    records.setTextFilter("foo");
+    assertFalse(records.isTextRejected(record));
+    records.setTextRejected(record);
+    assertTrue(records.isTextRejected(record));
+
+    // Narrowed: still rejected
+    records.setTextFilter("foobar");
+    assertTrue(records.isTextRejected(record));
+
+    // Widened, or a regular expression: has to be checked again
+    records.setTextFilter("oba");
+    assertFalse(records.isTextRejected(record));
+    records.setTextRejected(record);
+    records.setTextFilter("obar.*");
+    assertFalse(records.isTextRejected(record));
+  }
+
+  public void testRefilterWrappedBuffer() {
+    AndroidLogcatRecordBuffer records = new AndroidLogcatRecordBuffer(200);
+    List<String> lines = new ArrayList<String>();
+    Log.LogLevel[] levels = Log.LogLevel.values();
+    for (int i = 0; i < 300; i++) {
+      lines.add(add(records, levels[i % levels.length], 1000 + i % 50, "com.example.app" + i % 20, "Tag" + i % 200,
+                    "message number " + i));
+    }
+    assertEquals(200, records.size());
+    assertNull(records.find(lines.get(99)));
+
+    ConfiguredFilter filter = createFilter("number 1", "Tag1", "app1", null);
+    AndroidLogcatRecordBuffer.Matches matches = records.match(Log.LogLevel.WARN, filter);
+    List<String> matched = new ArrayList<String>();
+    for (String line : lines.subList(100, lines.size())) {
+      AndroidLogcatRecordBuffer.Record record = records.find(line);
+      assertNotNull(record);
+      assertEquals(isParsedMatch(line, filter), matches.isLevelMatch(record) && matches.isFilterMatch(record));
+      if (matches.isLevelMatch(record) && matches.isFilterMatch(record)) {
+        matched.add(record.message);
+      }
+    }
+    assertEquals(29, matched.size());
+    assertEquals("message number 101", matched.get(0));
+    assertEquals("message number 197", matched.get(matched.size() - 1));
+  }
+
+  public void testInternedLimit() {
+    AndroidLogcatRecordBuffer records = new AndroidLogcatRecordBuffer(10);
+    String line = null;
+    for (int i = 0; i < 3 * AndroidLogcatRecordBuffer.MAX_INTERNED; i++) {
+      line = add(records, Log.LogLevel.DEBUG, 100, "com.example.app" + i, "Tag" + i, "message " + i);
+    }
+    assertTrue(records.getTagCount() <= AndroidLogcatRecordBuffer.MAX_INTERNED);
+
+    // The records still in the buffer keep their tags and packages
+    AndroidLogcatRecordBuffer.Record record = records.find(line);
+    assertNotNull(record);
+    int last = 3 * AndroidLogcatRecordBuffer.MAX_INTERNED - 1;
+    AndroidLogcatRecordBuffer.Matches matches = records.match(null, createFilter(null, "^Tag" + last + "$", "app" + last + "$", null));
+    assertTrue(matches.isFilterMatch(record));
+  }
+
+  /** Re-filters a buffer of a million records, the size of a long logcat session, which must not take longer than parsing them */
+  public void testRefilterPerformance() {
+    int count = 1000000;
+    final AndroidLogcatRecordBuffer records = new AndroidLogcatRecordBuffer(count);
+    final List<String> lines = new ArrayList<String>(count);
+    Log.LogLevel[] levels = Log.LogLevel.values();
+    for (int i = 0; i < count; i++) {
+      lines.add(add(records, levels[i % levels.length], 1000 + i % 50, "com.example.app" + i % 20, "Tag" + i % 200,
+                    "message number " + i));
+    }
+
+    final ConfiguredFilter filter = createFilter("number 9", "Tag1", "app1", null);
+    int expected = 0;
+    for (String line : lines) {
+      if (isParsedMatch(line, filter)) {
+        expected++;
+      }
+    }
+
+    final int[] matched = new int[1];
+    PlatformTestUtil.startPerformanceTest("re-filtering logcat records is slow", 2000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Throwable {
+        AndroidLogcatRecordBuffer.Matches matches = records.match(Log.LogLevel.WARN, filter);
+        matched[0] = 0;
+        for (String line : lines) {
+          AndroidLogcatRecordBuffer.Record record = records.find(line);
+          // Lines whose hash codes collide with later lines are not found, and are parsed instead
+          if (record != null ? matches.isLevelMatch(record) && matches.isFilterMatch(record) : isParsedMatch(line, filter)) {
+            matched[0]++;
+          }
+        }
+      }
+    }).attempts(2).cpuBound().assertTiming();
+    assertEquals(expected, matched[0]);
+  }
+
+  private static boolean isParsedMatch(String line, ConfiguredFilter filter) {
+    Pair<LogMessageHeader, String> parsed = AndroidLogcatFormatter.parseMessage(line);
+    LogMessageHeader header = parsed.getFirst();
+    return header.myLogLevel.getPriority() >= Log.LogLevel.WARN.getPriority() &&
+           filter.isApplicable(parsed.getSecond(), header.myTag, header.myAppPackage, Integer.toString(header.myPid), header.myLogLevel);
+  }
+
+  private static String add(AndroidLogcatRecordBuffer records, Log.LogLevel level, int pid, String pkg, String tag, String message) {
+    LogMessageHeader header = new LogMessageHeader();
+    header.myTime = "08-11 19:11:07.132";
+    header.myLogLevel = level;
+    header.myPid = pid;
+    header.myTid = "1234";
+    header.myAppPackage = pkg;
+    header.myTag = tag;
+    String line = AndroidLogcatFormatter.formatMessage(message, header);
+    records.add(header, message, line);
+    return line;
+  }
+
+  private static ConfiguredFilter createFilter(String message, String tag, String pkg, String pid) {
+    AndroidConfiguredLogFilters.MyFilterEntry entry = new AndroidConfiguredLogFilters.MyFilterEntry();
+    entry.setLogMessagePattern(message);
+    entry.setLogTagPattern(tag);
+    entry.setPackageNamePattern(pkg);
+    entry.setPid(pid);
+    ConfiguredFilter filter = ConfiguredFilter.compile(entry, "test");
+    assertNotNull(filter);
+    return filter;
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.resourceManagers;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiDocumentManager;
+import org.jetbrains.android.AndroidIdIndex;
+import org.jetbrains.android.AndroidTestCase;
+import org.jetbrains.android.util.ResourceEntry;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class ResourceIndexCacheTest extends AndroidTestCase {
+  private static final String LAYOUT =
+    "<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\">\n" +
+    "    <Button android:id=\"@+id/%1$s\"/>\n" +
+    "</LinearLayout>\n";
+  private static final String VALUES =
+    "<resources>\n" +
+    "    <string name=\"%1$s\">Text</string>\n" +
+    "</resources>\n";
+
+  public void testGetValues() {
+    VirtualFile layout = myFixture.addFileToProject("res/layout/layout.xml", String.format(LAYOUT, "first")).getVirtualFile();
+    LocalResourceManager manager = myFacet.getLocalResourceManager();
+    List<VirtualFile> dirs = manager.getResourceSubdirs("layout");
+
+    ResourceIndexCache<String, Set<String>> cache =
+      new ResourceIndexCache<String, Set<String>>(getProject(), AndroidIdIndex.INDEX_ID, AndroidIdIndex.MARKER, "ids");
+    Map<VirtualFile, Set<String>> values = cache.getValues(dirs);
+    assertTrue(values.get(layout).contains("+first"));
+    assertSame(values, cache.getValues(dirs));
+
+    // Files outside of resource folders don't invalidate the cache
+    myFixture.addFileToProject("src/p/Other.java", "package p; class Other {}");
+    assertSame(values, cache.getValues(dirs));
+    assertEquals(3, cache.getRequestCount());
+    assertEquals(1, cache.getUpdateCount());
+
+    setText(layout, String.format(LAYOUT, "second"));
+    values = cache.getValues(dirs);
+    assertEquals(2, cache.getUpdateCount());
+    assertTrue(values.get(layout).contains("+second"));
+    assertFalse(values.get(layout).contains("+first"));
+  }
+
+  public void testResourceManager() {
+    VirtualFile layout = myFixture.addFileToProject("res/layout/layout.xml", String.format(LAYOUT, "first")).getVirtualFile();
+    VirtualFile strings = myFixture.addFileToProject("res/values/strings.xml", String.format(VALUES, "first")).getVirtualFile();
+    LocalResourceManager manager = myFacet.getLocalResourceManager();
+
+    assertTrue(manager.getIds(true).contains("first"));
+    assertTrue(getNames(manager.getValueResourceEntries("string")).contains("first"));
+    int idUpdates = manager.getIdCache().getUpdateCount();
+    int stringUpdates = manager.getValueResourceCache("string").getUpdateCount();
+
+    myFixture.addFileToProject("src/p/Other.java", "package p; class Other {}");
+    assertTrue(manager.getIds(true).contains("first"));
+    assertTrue(getNames(manager.getValueResourceEntries("string")).contains("first"));
+    assertEquals(idUpdates, manager.getIdCache().getUpdateCount());
+    assertEquals(stringUpdates, manager.getValueResourceCache("string").getUpdateCount());
+
+    setText(layout, String.format(LAYOUT, "second"));
+    setText(strings, String.format(VALUES, "second"));
+    assertTrue(manager.getIds(true).contains("second"));
+    assertFalse(manager.getIds(true).contains("first"));
+    Set<String> names = getNames(manager.getValueResourceEntries("string"));
+    assertTrue(names.contains("second"));
+    assertFalse(names.contains("first"));
+  }
+
+  private void setText(VirtualFile file, final String text) {
+    final Document document = FileDocumentManager.getInstance().getDocument(file);
+    assertNotNull(document);
+    WriteCommandAction.runWriteCommandAction(null, new Runnable() {
+      @Override
+      public void run() {
+        document.setText(text);
+        PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+      }
+    });
+  }
+
+  private static Set<String> getNames(Iterable<ResourceEntry> entries) {
+    Set<String> names = new HashSet<String>();
+    for (ResourceEntry entry : entries) {
+      names.add(entry.getName());
+    }
+    return names;
+  }
+}
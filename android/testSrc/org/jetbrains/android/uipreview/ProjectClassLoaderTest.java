@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.uipreview;
+
+import org.jetbrains.android.AndroidTestCase;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+public class ProjectClassLoaderTest extends AndroidTestCase {
+  public void testReuse() {
+    ClassLoader parent = new URLClassLoader(new URL[0]);
+    ProjectClassLoader loader = ProjectClassLoader.get(parent, myModule);
+    assertSame(loader, ProjectClassLoader.get(parent, myModule));
+    assertSame(parent, loader.getParent());
+  }
+
+  public void testParentChanged() {
+    ClassLoader parent = new URLClassLoader(new URL[0]);
+    ClassLoader otherParent = new URLClassLoader(new URL[0]);
+    ProjectClassLoader loader = ProjectClassLoader.get(parent, myModule);
+
+    ProjectClassLoader otherLoader = ProjectClassLoader.get(otherParent, myModule);
+    assertNotSame(loader, otherLoader);
+    assertSame(otherParent, otherLoader.getParent());
+
+    // Only the class loader for the last parent is kept, so the previous parent can be collected
+    ProjectClassLoader newLoader = ProjectClassLoader.get(parent, myModule);
+    assertNotSame(loader, newLoader);
+    assertSame(parent, newLoader.getParent());
+  }
+}